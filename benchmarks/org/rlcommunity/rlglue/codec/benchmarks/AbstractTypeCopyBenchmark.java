@@ -0,0 +1,50 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.RL_abstract_type;
+
+/**
+ * RL_abstract_type.RLStructCopy into an observation that already has the
+ * right sized arrays.
+ *
+ * @author Brian Tanner
+ */
+public class AbstractTypeCopyBenchmark extends Benchmark {
+
+    private Observation source;
+    private Observation destination;
+
+    public String getName() {
+        return "RL_abstract_type.RLStructCopy";
+    }
+
+    public void setUp(String parameter) {
+        int size = Integer.parseInt(parameter);
+        source = BenchmarkData.makeObservation(size);
+        destination = new Observation(size, size, 0);
+    }
+
+    public long run() {
+        RL_abstract_type.RLStructCopy(source, destination);
+        return destination.intArray[destination.intArray.length - 1];
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import org.rlcommunity.rlglue.codec.AsyncNetGlue;
+import org.rlcommunity.rlglue.codec.GlueFuture;
+import org.rlcommunity.rlglue.codec.NetGlue;
+import org.rlcommunity.rlglue.codec.network.ClientAgent;
+import org.rlcommunity.rlglue.codec.network.ClientEnvironment;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.server.GlueServer;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_action_terminal;
+
+/**
+ * One thread driving many experiments through a multi-session GlueServer.
+ * With NetGlue it has to step them one at a time, waiting out each round
+ * trip.  With AsyncNetGlue it sends every RL_step and then collects the
+ * answers, so the sessions' round trips overlap.  The parameter is the number
+ * of sessions; one operation is one RL_step.
+ *
+ * @author Brian Tanner
+ */
+public class AsyncNetGlueBenchmark extends Benchmark {
+
+    private final boolean async;
+    private GlueServer server = null;
+    private Thread serverThread = null;
+    private NetGlue[] glues = null;
+    private AsyncNetGlue[] asyncGlues = null;
+    private GlueFuture<Reward_observation_action_terminal>[] steps = null;
+
+    public AsyncNetGlueBenchmark(boolean async) {
+        this.async = async;
+    }
+
+    public String getName() {
+        return async ? "One thread, many sessions (AsyncNetGlue)" : "One thread, many sessions (NetGlue)";
+    }
+
+    public String[] getParameters() {
+        return new String[]{"1", "16", "64"};
+    }
+
+    @SuppressWarnings("unchecked")
+    public void setUp(String parameter) throws Exception {
+        int numSessions = Integer.parseInt(parameter);
+        server = new GlueServer(0);
+        server.setMultiSession(true);
+        server.setNumEventLoops(Runtime.getRuntime().availableProcessors());
+        final int port = server.bind();
+        serverThread = new Thread(server, "GlueServer");
+        serverThread.start();
+
+        for (int i = 0; i < numSessions; i++) {
+            startClients(port, i + 1);
+        }
+
+        //NetGlue says hello on System.out when it connects
+        PrintStream realOut = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+
+            public void write(int b) {
+            }
+        }));
+        try {
+            if (async) {
+                asyncGlues = new AsyncNetGlue[numSessions];
+                steps = (GlueFuture<Reward_observation_action_terminal>[]) new GlueFuture<?>[numSessions];
+                for (int i = 0; i < numSessions; i++) {
+                    asyncGlues[i] = new AsyncNetGlue(Network.kDefaultHost, port);
+                    asyncGlues[i].setSessionId(i + 1);
+                    asyncGlues[i].RL_init();
+                    asyncGlues[i].RL_start();
+                }
+                for (AsyncNetGlue glue : asyncGlues) {
+                    glue.RL_num_steps().get();
+                }
+            } else {
+                glues = new NetGlue[numSessions];
+                for (int i = 0; i < numSessions; i++) {
+                    glues[i] = new NetGlue(Network.kDefaultHost, port);
+                    glues[i].setSessionId(i + 1);
+                    glues[i].RL_init();
+                    glues[i].RL_start();
+                }
+            }
+        } finally {
+            System.setOut(realOut);
+        }
+    }
+
+    private static void startClients(final int port, final int sessionId) {
+        startDaemon(new Runnable() {
+
+            public void run() {
+                ClientAgent theClient = new ClientAgent(new GlueServerStepBenchmark.FixedAgent());
+                theClient.setSessionId(sessionId);
+                try {
+                    theClient.connect(Network.kDefaultHost, port, Network.kRetryTimeout);
+                    theClient.runAgentEventLoop();
+                    theClient.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        startDaemon(new Runnable() {
+
+            public void run() {
+                ClientEnvironment theClient = new ClientEnvironment(new GlueServerStepBenchmark.FixedEnvironment(5));
+                theClient.setSessionId(sessionId);
+                try {
+                    theClient.connect(Network.kDefaultHost, port, Network.kRetryTimeout);
+                    theClient.runEnvironmentEventLoop();
+                    theClient.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private static void startDaemon(Runnable theRunnable) {
+        Thread theThread = new Thread(theRunnable);
+        theThread.setDaemon(true);
+        theThread.start();
+    }
+
+    public long run() throws Exception {
+        long total = 0;
+        if (async) {
+            for (int i = 0; i < asyncGlues.length; i++) {
+                steps[i] = asyncGlues[i].RL_step();
+            }
+            for (GlueFuture<Reward_observation_action_terminal> step : steps) {
+                total += step.get().getObservation().intArray.length;
+            }
+        } else {
+            for (NetGlue glue : glues) {
+                total += glue.RL_step().getObservation().intArray.length;
+            }
+        }
+        return total;
+    }
+
+    public int getOperationsPerRun() {
+        return async ? asyncGlues.length : glues.length;
+    }
+
+    public void tearDown() throws Exception {
+        if (async) {
+            for (AsyncNetGlue glue : asyncGlues) {
+                glue.RL_cleanup().get();
+                glue.close();
+            }
+        } else {
+            for (NetGlue glue : glues) {
+                glue.RL_cleanup();
+                glue.close();
+            }
+        }
+        server.stop();
+        serverThread.join();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+/**
+ * A single micro-benchmark.  The runner calls setUp once per parameter, then
+ * calls run() over and over while timing it.
+ * <p>run() returns a value that depends on the work it did so that the JIT
+ * can't throw the work away.  The runner adds them all up and prints the sum.
+ *
+ * @author Brian Tanner
+ */
+public abstract class Benchmark {
+
+    /**
+     * Observation sizes (number of ints and number of doubles) used by the
+     * benchmarks that are parameterized by size.
+     */
+    public static final String[] kObservationSizes = {"5", "100", "1000", "10000", "50000", "100000"};
+
+    public abstract String getName();
+
+    /**
+     * @return The parameters to run this benchmark with.  Defaults to kObservationSizes.
+     */
+    public String[] getParameters() {
+        return kObservationSizes;
+    }
+
+    public abstract void setUp(String parameter) throws Exception;
+
+    public abstract long run() throws Exception;
+
+    /**
+     * Called after the runner is done timing a parameter.
+     */
+    public void tearDown() throws Exception {
+    }
+
+    /**
+     * How many operations one call of run() does, so the runner can report
+     * time per operation.  Most benchmarks do one.
+     */
+    public int getOperationsPerRun() {
+        return 1;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.RL_abstract_type;
+
+/**
+ * Observations shaped like the ones in Test_Speed_Environment: size ints and
+ * size doubles, no chars.
+ *
+ * @author Brian Tanner
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    static Observation makeObservation(int size) {
+        Observation o = new Observation(size, size, 0);
+        fill(o, 0);
+        return o;
+    }
+
+    static void fill(RL_abstract_type theObject, int seed) {
+        for (int i = 0; i < theObject.intArray.length; i++) {
+            theObject.intArray[i] = i + seed;
+        }
+        for (int i = 0; i < theObject.doubleArray.length; i++) {
+            theObject.doubleArray[i] = (double) (i + seed) / (double) theObject.doubleArray.length;
+        }
+    }
+}
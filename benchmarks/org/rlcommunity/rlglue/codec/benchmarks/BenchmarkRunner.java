@@ -0,0 +1,207 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the codec micro-benchmarks and prints a table of time per operation.
+ * These don't need rl_glue or any sockets, so they're good for catching
+ * serialization regressions.  Run them with:
+ * <br>ant benchmark
+ * <br>or pick some by name with:
+ * <br>ant benchmark -Dbenchmark.args="putAbstractType TaskSpec"
+ * <p>Every (benchmark, parameter) pair gets a few warm up iterations and then
+ * a few measured iterations, each of which calls run() for about
+ * benchmark.iteration.ms milliseconds.  The mean and standard deviation across
+ * the measured iterations is reported.  These system properties change the
+ * defaults:
+ * <ul>
+ * <li>benchmark.warmup.iterations (default 3)
+ * <li>benchmark.iterations (default 5)
+ * <li>benchmark.iteration.ms (default 200)
+ * </ul>
+ *
+ * @author Brian Tanner
+ */
+public class BenchmarkRunner {
+
+    private final int warmupIterations;
+    private final int measuredIterations;
+    private final long iterationNanos;
+    private long sink = 0;
+
+    public BenchmarkRunner(int warmupIterations, int measuredIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measuredIterations = measuredIterations;
+        this.iterationNanos = iterationMillis * 1000000L;
+    }
+
+    /**
+     * @return Every benchmark we know about.
+     */
+    public static List<Benchmark> getAllBenchmarks() {
+        List<Benchmark> all = new ArrayList<Benchmark>();
+        all.add(new PutAbstractTypeBenchmark());
+        all.add(new GetObservationBenchmark(false));
+        all.add(new GetObservationBenchmark(true));
+        all.add(new ObservationViewBenchmark());
+        all.add(new GrowingMessageBenchmark());
+        all.add(new PutRewardObservationBenchmark());
+        all.add(new EnvStepReplyBenchmark(false));
+        all.add(new EnvStepReplyBenchmark(true));
+        all.add(new RecvMessageBenchmark(false));
+        all.add(new RecvMessageBenchmark(true));
+        all.add(new StringRoundTripBenchmark());
+        all.add(new CharEncodingBenchmark(false));
+        all.add(new CharEncodingBenchmark(true));
+        all.add(new AbstractTypeCopyBenchmark());
+        all.add(new CompareToBenchmark());
+        all.add(new TaskSpecParseBenchmark());
+        all.add(new TaskSpecVRLGLUE3ParseBenchmark());
+        all.add(new TaskSpecParseCachedBenchmark());
+        all.add(new GlueServerStepBenchmark());
+        all.add(new GlueServerForwardBenchmark(false));
+        all.add(new GlueServerForwardBenchmark(true));
+        all.add(new GlueServerFloatBenchmark(false));
+        all.add(new GlueServerFloatBenchmark(true));
+        all.add(new GlueServerDeltaBenchmark(false));
+        all.add(new GlueServerDeltaBenchmark(true));
+        all.add(new GlueServerCompressionBenchmark(false));
+        all.add(new GlueServerCompressionBenchmark(true));
+        all.add(new GlueServerTransportBenchmark(false));
+        all.add(new GlueServerTransportBenchmark(true));
+        all.add(new GlueServerSharedMemoryBenchmark(false));
+        all.add(new GlueServerSharedMemoryBenchmark(true));
+        all.add(new GlueServerStreamBenchmark(false));
+        all.add(new GlueServerStreamBenchmark(true));
+        all.add(new AsyncNetGlueBenchmark(false));
+        all.add(new AsyncNetGlueBenchmark(true));
+        all.add(new VectorLocalGlueBenchmark(false));
+        all.add(new VectorLocalGlueBenchmark(true));
+        all.add(new LocalGlueBenchmark(false));
+        all.add(new LocalGlueBenchmark(true));
+        return all;
+    }
+
+    public static void printHeader() {
+        System.out.println(String.format("%-40s %12s %14s %12s", "Benchmark", "Param", "ns/op", "+/-"));
+    }
+
+    /**
+     * Run every parameter of theBenchmark and print a line for each.
+     */
+    public void run(Benchmark theBenchmark) throws Exception {
+        String[] parameters = theBenchmark.getParameters();
+        for (int p = 0; p < parameters.length; p++) {
+            double[] result = run(theBenchmark, parameters[p]);
+            System.out.println(String.format("%-40s %12s %14.1f %12.1f", theBenchmark.getName(), parameters[p], result[0], result[1]));
+        }
+    }
+
+    /**
+     * @return {mean ns/op, standard deviation ns/op}
+     */
+    public double[] run(Benchmark theBenchmark, String parameter) throws Exception {
+        theBenchmark.setUp(parameter);
+        double[] samples = new double[measuredIterations];
+        double total = 0.0d;
+        try {
+            for (int i = 0; i < warmupIterations; i++) {
+                timeOneIteration(theBenchmark);
+            }
+            for (int i = 0; i < measuredIterations; i++) {
+                samples[i] = timeOneIteration(theBenchmark);
+                total += samples[i];
+            }
+        } finally {
+            theBenchmark.tearDown();
+        }
+        double mean = total / measuredIterations;
+        double squares = 0.0d;
+        for (int i = 0; i < measuredIterations; i++) {
+            squares += (samples[i] - mean) * (samples[i] - mean);
+        }
+        double deviation = 0.0d;
+        if (measuredIterations > 1) {
+            deviation = Math.sqrt(squares / (measuredIterations - 1));
+        }
+        return new double[]{mean, deviation};
+    }
+
+    /**
+     * @return nanoseconds per operation for one timed iteration.
+     */
+    private double timeOneIteration(Benchmark theBenchmark) throws Exception {
+        long calls = 0;
+        long start = System.nanoTime();
+        long elapsed = 0;
+        while (elapsed < iterationNanos) {
+            sink += theBenchmark.run();
+            calls++;
+            elapsed = System.nanoTime() - start;
+        }
+        return (double) elapsed / (double) (calls * theBenchmark.getOperationsPerRun());
+    }
+
+    public long getSink() {
+        return sink;
+    }
+
+    /**
+     * @param names Substrings of class or benchmark names to run.  Runs
+     * everything if empty.
+     */
+    public static List<Benchmark> select(List<Benchmark> all, String[] names) {
+        if (names.length == 0) {
+            return all;
+        }
+        List<Benchmark> selected = new ArrayList<Benchmark>();
+        for (Benchmark theBenchmark : all) {
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i].toLowerCase();
+                if (theBenchmark.getName().toLowerCase().indexOf(name) >= 0 || theBenchmark.getClass().getName().toLowerCase().indexOf(name) >= 0) {
+                    selected.add(theBenchmark);
+                    break;
+                }
+            }
+        }
+        return selected;
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner(
+                Integer.getInteger("benchmark.warmup.iterations", 3).intValue(),
+                Integer.getInteger("benchmark.iterations", 5).intValue(),
+                Long.getLong("benchmark.iteration.ms", 200L).longValue());
+
+        List<Benchmark> selected = select(getAllBenchmarks(), args);
+        if (selected.isEmpty()) {
+            System.err.println("No benchmarks matched.");
+            System.exit(1);
+        }
+        printHeader();
+        for (Benchmark theBenchmark : selected) {
+            runner.run(theBenchmark);
+        }
+        System.out.println("(ignore: " + runner.getSink() + ")");
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+/**
+ * Encoding a charArray and decoding it again, either one char at a time
+ * (putChar/getChar in a loop, the way it used to be done) or with the bulk
+ * putChars/getChars.  The parameter is the number of chars.
+ *
+ * @author Brian Tanner
+ */
+public class CharEncodingBenchmark extends Benchmark {
+
+    private static final String[] kLengths = {"16", "1024", "65536", "1048576"};
+    private final LoopbackNetwork network = new LoopbackNetwork();
+    private final boolean bulk;
+    private char[] chars;
+
+    public CharEncodingBenchmark(boolean bulk) {
+        this.bulk = bulk;
+    }
+
+    public String getName() {
+        if (bulk) {
+            return "Network.putChars/getChars";
+        }
+        return "Network.putChar/getChar per char";
+    }
+
+    public String[] getParameters() {
+        return kLengths;
+    }
+
+    public void setUp(String parameter) {
+        chars = new char[Integer.parseInt(parameter)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + (i % 26));
+        }
+    }
+
+    public long run() {
+        network.clearSendBuffer();
+        if (bulk) {
+            network.putChars(chars);
+            network.loopback();
+            return network.getChars(chars.length, chars)[chars.length - 1];
+        }
+        for (int i = 0; i < chars.length; i++) {
+            network.putChar(chars[i]);
+        }
+        network.loopback();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = network.getChar();
+        }
+        return chars[chars.length - 1];
+    }
+}
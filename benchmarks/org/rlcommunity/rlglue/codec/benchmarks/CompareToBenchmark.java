@@ -0,0 +1,48 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.types.Observation;
+
+/**
+ * RL_abstract_type.compareTo on two equal observations, which is the worst
+ * case because every element has to be looked at.
+ *
+ * @author Brian Tanner
+ */
+public class CompareToBenchmark extends Benchmark {
+
+    private Observation first;
+    private Observation second;
+
+    public String getName() {
+        return "RL_abstract_type.compareTo";
+    }
+
+    public void setUp(String parameter) {
+        int size = Integer.parseInt(parameter);
+        first = BenchmarkData.makeObservation(size);
+        second = BenchmarkData.makeObservation(size);
+    }
+
+    public long run() {
+        return first.compareTo(second);
+    }
+}
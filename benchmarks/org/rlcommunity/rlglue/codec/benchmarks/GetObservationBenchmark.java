@@ -0,0 +1,64 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.types.Observation;
+
+/**
+ * Network.getObservation (fillAbstractType): decoding an observation out of
+ * the receive buffer, either into a new Observation every time or into the
+ * same one over and over.
+ *
+ * @author Brian Tanner
+ */
+public class GetObservationBenchmark extends Benchmark {
+
+    private final LoopbackNetwork network = new LoopbackNetwork();
+    private final boolean reuse;
+    private final Observation reusable = new Observation();
+
+    public GetObservationBenchmark(boolean reuse) {
+        this.reuse = reuse;
+    }
+
+    public String getName() {
+        if (reuse) {
+            return "Network.getObservation(reuse)";
+        }
+        return "Network.getObservation";
+    }
+
+    public void setUp(String parameter) {
+        network.clearSendBuffer();
+        network.putObservation(BenchmarkData.makeObservation(Integer.parseInt(parameter)));
+        network.loopback();
+    }
+
+    public long run() {
+        network.rewindRecv();
+        Observation o;
+        if (reuse) {
+            o = network.getObservation(reusable);
+        } else {
+            o = network.getObservation();
+        }
+        return o.intArray[o.intArray.length - 1];
+    }
+}
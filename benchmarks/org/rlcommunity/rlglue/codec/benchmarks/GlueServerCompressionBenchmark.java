@@ -0,0 +1,123 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+
+/**
+ * GlueServer RL_step with size ints and size doubles per observation, with
+ * every connection sending messages of kThreshold bytes or more deflated
+ * (Network.kCapabilityCompression), or all of them sent as they are.
+ * <p>tearDown also prints how well the environment's step reply deflates and
+ * how much CPU deflating and inflating it takes, by timing the same message
+ * with a Network of its own.
+ *
+ * @author Brian Tanner
+ */
+public class GlueServerCompressionBenchmark extends GlueServerStepBenchmark {
+
+    static final int kThreshold = Network.kDefaultCompressionThreshold;
+    private static final int kTimedFrames = 50;
+    private final boolean compression;
+    private String parameter = null;
+
+    public GlueServerCompressionBenchmark(boolean compression) {
+        this.compression = compression;
+        this.compressionThreshold = compression ? kThreshold : -1;
+    }
+
+    public String getName() {
+        return compression ? "GlueServer RL_step (deflated)" : "GlueServer RL_step (raw)";
+    }
+
+    public String[] getParameters() {
+        return new String[]{"1000", "10000", "50000"};
+    }
+
+    public void setUp(String parameter) throws Exception {
+        this.parameter = parameter;
+        super.setUp(parameter);
+    }
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+        if (!compression) {
+            return;
+        }
+        Reward_observation_terminal reply = new Reward_observation_terminal(1.0d, BenchmarkData.makeObservation(Integer.parseInt(parameter)), false);
+        TimingNetwork network = new TimingNetwork();
+        network.putRewardObservationMessage(Network.kEnvStep, reply);
+        int frameSize = network.frameEnd();
+        byte[] frame = network.takeFrame();
+
+        long deflateNanos = 0;
+        long inflateNanos = 0;
+        int compressedSize = frameSize;
+        for (int i = 0; i < kTimedFrames; i++) {
+            network.restoreFrame(frame);
+            long start = System.nanoTime();
+            compressedSize = network.deflate(frameSize);
+            deflateNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            network.inflate(compressedSize);
+            inflateNanos += System.nanoTime() - start;
+        }
+        network.close();
+        System.out.println(String.format("  %s %s: %d -> %d bytes per env_step reply (%.1fx), %.0f us to deflate, %.0f us to inflate",
+                getName(), parameter, frameSize, compressedSize, (double) frameSize / compressedSize,
+                deflateNanos / 1000.0d / kTimedFrames, inflateNanos / 1000.0d / kTimedFrames));
+    }
+
+    /**
+     * Gets at Network's frame compression without a connection.
+     */
+    static class TimingNetwork extends Network {
+
+        int frameEnd() {
+            return sendBuffer.position();
+        }
+
+        byte[] takeFrame() {
+            byte[] frame = new byte[sendBuffer.position()];
+            sendBuffer.flip();
+            sendBuffer.get(frame);
+            sendBuffer.clear();
+            return frame;
+        }
+
+        void restoreFrame(byte[] frame) {
+            sendBuffer.clear();
+            sendBuffer.put(frame);
+        }
+
+        int deflate(int frameSize) {
+            return compressFrame(sendBuffer, 0, frameSize);
+        }
+
+        void inflate(int compressedSize) throws IOException {
+            ByteBuffer frame = sendBuffer.duplicate();
+            frame.limit(compressedSize);
+            frame.position(kHeaderSize);
+            inflateFrame(frame, Network.kEnvStep);
+        }
+    }
+}
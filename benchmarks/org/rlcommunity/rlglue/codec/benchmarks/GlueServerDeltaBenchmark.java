@@ -0,0 +1,121 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+
+/**
+ * GlueServer RL_step with an environment whose observations (size ints and
+ * size doubles, like Test_Speed_Environment's big episode) only change in
+ * kChangesPerStep entries each step.  The environment sends them whole, or as
+ * deltas (Network.kCapabilityObservationDeltas).
+ * <p>tearDown also prints how big the environment's step replies are, by
+ * encoding the same observations with a Network of its own.
+ *
+ * @author Brian Tanner
+ */
+public class GlueServerDeltaBenchmark extends GlueServerStepBenchmark {
+
+    static final int kChangesPerStep = 16;
+    private String parameter = null;
+
+    public GlueServerDeltaBenchmark(boolean observationDeltas) {
+        this.observationDeltas = observationDeltas;
+    }
+
+    public String getName() {
+        return observationDeltas ? "GlueServer RL_step (sparse, deltas)" : "GlueServer RL_step (sparse, whole)";
+    }
+
+    public String[] getParameters() {
+        return new String[]{"1000", "10000", "50000"};
+    }
+
+    public void setUp(String parameter) throws Exception {
+        this.parameter = parameter;
+        super.setUp(parameter);
+    }
+
+    protected EnvironmentInterface newEnvironment(int size) {
+        return new SparseEnvironment(size);
+    }
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+        SparseEnvironment env = new SparseEnvironment(Integer.parseInt(parameter));
+        Network network = new Network();
+        network.setObservationDeltas(observationDeltas);
+        //The first one is always whole
+        network.putObservation(env.env_start());
+        long bytes = 0;
+        int steps = 100;
+        for (int i = 0; i < steps; i++) {
+            Reward_observation_terminal reply = env.env_step(null);
+            bytes += 8 + Network.sizeOf(1) + Network.sizeOf(1.0d) + network.encodedSizeOf(reply.getObservation());
+            network.clearSendBuffer();
+            network.putRewardObservation(reply);
+        }
+        network.close();
+        System.out.println(String.format("  %s %s: %d bytes per env_step reply", getName(), parameter, bytes / steps));
+    }
+
+    /**
+     * Changes kChangesPerStep ints and doubles each step, at different places
+     * every time.
+     */
+    static class SparseEnvironment implements EnvironmentInterface {
+
+        private final Reward_observation_terminal theStep;
+        private int step = 0;
+
+        SparseEnvironment(int size) {
+            theStep = new Reward_observation_terminal(1.0d, BenchmarkData.makeObservation(size), false);
+        }
+
+        public String env_init() {
+            return "";
+        }
+
+        public Observation env_start() {
+            return theStep.getObservation();
+        }
+
+        public Reward_observation_terminal env_step(Action action) {
+            Observation o = theStep.getObservation();
+            for (int i = 0; i < kChangesPerStep; i++) {
+                int which = (step * 7919 + i * 104729) % o.intArray.length;
+                o.intArray[which]++;
+                o.doubleArray[which] += 0.5d;
+            }
+            step++;
+            return theStep;
+        }
+
+        public void env_cleanup() {
+        }
+
+        public String env_message(String message) {
+            return "";
+        }
+    }
+}
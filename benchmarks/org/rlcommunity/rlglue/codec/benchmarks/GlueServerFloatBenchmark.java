@@ -0,0 +1,42 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+/**
+ * GlueServer RL_step with the doubles of every observation and action sent
+ * as 8 byte doubles, or as 4 byte floats (Network.kCapabilityFloatDoubles,
+ * asked for by the experiment, agent and environment).  The 50000 size is
+ * the big episode of Test_Speed_Environment: 50000 ints and 50000 doubles.
+ *
+ * @author Brian Tanner
+ */
+public class GlueServerFloatBenchmark extends GlueServerStepBenchmark {
+
+    public GlueServerFloatBenchmark(boolean floatDoubles) {
+        this.floatDoubles = floatDoubles;
+    }
+
+    public String getName() {
+        return floatDoubles ? "GlueServer RL_step (float doubles)" : "GlueServer RL_step (doubles)";
+    }
+
+    public String[] getParameters() {
+        return new String[]{"1000", "10000", "50000"};
+    }
+}
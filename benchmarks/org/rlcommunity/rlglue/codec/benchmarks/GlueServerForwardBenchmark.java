@@ -0,0 +1,61 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.server.GlueServer;
+
+/**
+ * RL_episode through the Java GlueServer with big observations, either
+ * forwarded from the environment to the agent with gathering writes, or
+ * decoded and copied into the agent's send buffer like they used to be.
+ * One operation is one step of the episode.
+ *
+ * @author Brian Tanner
+ */
+public class GlueServerForwardBenchmark extends GlueServerStepBenchmark {
+
+    private static final int kStepsPerRun = 20;
+    private final boolean forward;
+
+    public GlueServerForwardBenchmark(boolean forward) {
+        this.forward = forward;
+    }
+
+    public String getName() {
+        return forward ? "GlueServer RL_episode (forwarded)" : "GlueServer RL_episode (copied)";
+    }
+
+    public String[] getParameters() {
+        return new String[]{"1000", "50000", "1000000"};
+    }
+
+    protected GlueServer newServer() {
+        GlueServer server = new GlueServer(0);
+        server.setForwardObservations(forward);
+        return server;
+    }
+
+    public long run() {
+        return glue.RL_episode(kStepsPerRun);
+    }
+
+    public int getOperationsPerRun() {
+        return kStepsPerRun;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.rlcommunity.rlglue.codec.NetGlue;
+import org.rlcommunity.rlglue.codec.network.ClientAgent;
+import org.rlcommunity.rlglue.codec.network.ClientEnvironment;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.server.GlueServer;
+
+/**
+ * How a multi-session GlueServer scales with the number of experiments it is
+ * hosting.  For each session count, that many experiments (each with its own
+ * agent and environment, all threads in this JVM) call RL_step as fast as
+ * they can, and we count the steps that go through the server.
+ * <p>
+ * Arguments are the session counts to try (default 1 4 16 64 256).  These
+ * system properties change the rest:
+ * <ul>
+ * <li>scaling.loops : event loops in the server (default: number of cores)
+ * <li>scaling.warmup.ms : run this long before counting (default 1000)
+ * <li>scaling.ms : count steps for this long (default 3000)
+ * </ul>
+ * The client threads share the cores with the server, so sessions per core
+ * here is a lower bound on what a server on its own machine can do.
+ *
+ * @author Brian Tanner
+ */
+public class GlueServerScaling {
+
+    private static final int[] kDefaultSessionCounts = {1, 4, 16, 64, 256};
+    private final int numLoops;
+    private final long warmupMillis;
+    private final long measureMillis;
+    private final PrintStream out;
+    private volatile boolean running = false;
+
+    /**
+     * @param out Where to print results.  Every NetGlue says hello on
+     * System.out when it connects, so main points System.out somewhere else.
+     */
+    public GlueServerScaling(int numLoops, long warmupMillis, long measureMillis, PrintStream out) {
+        this.numLoops = numLoops;
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+        this.out = out;
+    }
+
+    public void printHeader() {
+        out.println(String.format("%9s %6s %6s %14s %14s %14s %12s", "sessions", "loops", "cores", "steps/s", "steps/s/core", "sessions/core", "us/step"));
+    }
+
+    /**
+     * Start a server with numSessions experiments stepping through it,
+     * measure, and print a line.
+     */
+    public void run(int numSessions) throws Exception {
+        GlueServer server = new GlueServer(0);
+        server.setMultiSession(true);
+        server.setNumEventLoops(numLoops);
+        final int port = server.bind();
+        Thread serverThread = new Thread(server, "GlueServer");
+        serverThread.start();
+
+        running = true;
+        List<Thread> experiments = new ArrayList<Thread>();
+        for (int i = 0; i < numSessions; i++) {
+            final int sessionId = i + 1;
+            startDaemon(new Runnable() {
+
+                public void run() {
+                    ClientAgent theClient = new ClientAgent(new GlueServerStepBenchmark.FixedAgent());
+                    theClient.setSessionId(sessionId);
+                    try {
+                        theClient.connect(Network.kDefaultHost, port, Network.kRetryTimeout);
+                        theClient.runAgentEventLoop();
+                        theClient.close();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            startDaemon(new Runnable() {
+
+                public void run() {
+                    ClientEnvironment theClient = new ClientEnvironment(new GlueServerStepBenchmark.FixedEnvironment(5));
+                    theClient.setSessionId(sessionId);
+                    try {
+                        theClient.connect(Network.kDefaultHost, port, Network.kRetryTimeout);
+                        theClient.runEnvironmentEventLoop();
+                        theClient.close();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            experiments.add(startDaemon(new Runnable() {
+
+                public void run() {
+                    NetGlue glue = new NetGlue(Network.kDefaultHost, port);
+                    glue.setSessionId(sessionId);
+                    glue.RL_init();
+                    glue.RL_start();
+                    while (running) {
+                        glue.RL_step();
+                    }
+                    glue.RL_cleanup();
+                    glue.close();
+                }
+            }));
+        }
+
+        Thread.sleep(warmupMillis);
+        long startSteps = server.getStepCount();
+        long startTime = System.nanoTime();
+        Thread.sleep(measureMillis);
+        long steps = server.getStepCount() - startSteps;
+        long elapsed = System.nanoTime() - startTime;
+
+        running = false;
+        for (Thread experiment : experiments) {
+            experiment.join();
+        }
+        server.stop();
+        serverThread.join();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        double stepsPerSecond = steps * 1.0e9d / elapsed;
+        double microsPerStep = steps == 0 ? 0.0d : numSessions * (elapsed / 1000.0d) / steps;
+        out.println(String.format("%9d %6d %6d %14.1f %14.1f %14.1f %12.1f",
+                numSessions, numLoops, cores, stepsPerSecond, stepsPerSecond / cores, (double) numSessions / cores, microsPerStep));
+    }
+
+    private static Thread startDaemon(Runnable theRunnable) {
+        Thread theThread = new Thread(theRunnable);
+        theThread.setDaemon(true);
+        theThread.start();
+        return theThread;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sessionCounts = kDefaultSessionCounts;
+        if (args.length > 0) {
+            sessionCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sessionCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        PrintStream realOut = System.out;
+        GlueServerScaling scaling = new GlueServerScaling(
+                Integer.getInteger("scaling.loops", Runtime.getRuntime().availableProcessors()).intValue(),
+                Long.getLong("scaling.warmup.ms", 1000L).longValue(),
+                Long.getLong("scaling.ms", 3000L).longValue(),
+                realOut);
+
+        System.setOut(new PrintStream(new OutputStream() {
+
+            public void write(int b) {
+            }
+        }));
+        try {
+            scaling.printHeader();
+            for (int numSessions : sessionCounts) {
+                scaling.run(numSessions);
+            }
+        } finally {
+            System.setOut(realOut);
+        }
+    }
+}
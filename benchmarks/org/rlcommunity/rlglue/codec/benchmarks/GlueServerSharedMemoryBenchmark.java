@@ -0,0 +1,68 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+/**
+ * GlueServer RL_step with the experiment, agent and environment talking to
+ * the server over loopback TCP, or through shared memory rings
+ * (Network.kCapabilitySharedMemory) with the socket only as a doorbell.  One
+ * step is two round trips: glue to environment and back, glue to agent and
+ * back.
+ * <p>tearDown prints the round trips per second over everything run() did.
+ * The rings spin before they park, so this says more on a machine with a
+ * core for each of the four threads than on a busy one.
+ *
+ * @author Brian Tanner
+ */
+public class GlueServerSharedMemoryBenchmark extends GlueServerStepBenchmark {
+
+    private String parameter = null;
+    private long steps = 0;
+    private long started = 0;
+
+    public GlueServerSharedMemoryBenchmark(boolean sharedMemory) {
+        this.sharedMemory = sharedMemory;
+    }
+
+    public String getName() {
+        return sharedMemory ? "GlueServer RL_step (shared memory)" : "GlueServer RL_step (tcp loopback)";
+    }
+
+    public String[] getParameters() {
+        return new String[]{"5", "100", "1000", "10000"};
+    }
+
+    public void setUp(String parameter) throws Exception {
+        this.parameter = parameter;
+        super.setUp(parameter);
+        steps = 0;
+        started = System.nanoTime();
+    }
+
+    public long run() {
+        steps++;
+        return super.run();
+    }
+
+    public void tearDown() throws Exception {
+        long elapsed = System.nanoTime() - started;
+        super.tearDown();
+        System.out.println(String.format("  %s %s: %.0f round trips per second", getName(), parameter, 2.0d * steps * 1e9d / elapsed));
+    }
+}
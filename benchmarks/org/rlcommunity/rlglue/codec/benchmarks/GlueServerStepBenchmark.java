@@ -0,0 +1,222 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.NetGlue;
+import org.rlcommunity.rlglue.codec.network.ClientAgent;
+import org.rlcommunity.rlglue.codec.network.ClientEnvironment;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.network.NetworkOptions;
+import org.rlcommunity.rlglue.codec.server.GlueServer;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+
+/**
+ * RL_step through the Java GlueServer, with the experiment, agent and
+ * environment all connected over loopback sockets from threads in this JVM.
+ * One step is four messages: glue to environment, back, glue to agent, back.
+ *
+ * @author Brian Tanner
+ */
+public class GlueServerStepBenchmark extends Benchmark {
+
+    private static final String[] kSizes = {"5", "100", "1000", "10000", "50000"};
+    private GlueServer server = null;
+    private Thread serverThread = null;
+    protected NetGlue glue = null;
+    /** Whether every connection asks for Network.kCapabilityFloatDoubles */
+    protected boolean floatDoubles = false;
+    /** Whether the environment asks for Network.kCapabilityObservationDeltas */
+    protected boolean observationDeltas = false;
+    /**
+     * The compressionThreshold every connection and the server use, or -1 to
+     * not ask for Network.kCapabilityCompression
+     */
+    protected int compressionThreshold = -1;
+    /** Whether every connection asks for Network.kCapabilitySharedMemory */
+    protected boolean sharedMemory = false;
+    /** What the clients connect to: an address, or unix: and a path to match newServer() */
+    protected String host = Network.kDefaultHost;
+
+    public String getName() {
+        return "GlueServer RL_step";
+    }
+
+    public String[] getParameters() {
+        return kSizes;
+    }
+
+    public void setUp(String parameter) throws Exception {
+        server = newServer();
+        if (compressionThreshold >= 0) {
+            server.setCompressionThreshold(compressionThreshold);
+        }
+        final int port = server.bind();
+        serverThread = new Thread(server, "GlueServer");
+        serverThread.start();
+
+        final int size = Integer.parseInt(parameter);
+        startClient(new Runnable() {
+
+            public void run() {
+                ClientAgent theClient = new ClientAgent(new FixedAgent());
+                NetworkOptions options = theClient.getOptions();
+                options.setFloatDoubles(floatDoubles);
+                options.setCompressionThreshold(compressionThreshold);
+                options.setSharedMemory(sharedMemory);
+                theClient.setOptions(options);
+                try {
+                    theClient.connect(host, port, Network.kRetryTimeout);
+                    theClient.runAgentEventLoop();
+                    theClient.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        startClient(new Runnable() {
+
+            public void run() {
+                ClientEnvironment theClient = new ClientEnvironment(newEnvironment(size));
+                NetworkOptions options = theClient.getOptions();
+                options.setFloatDoubles(floatDoubles);
+                options.setObservationDeltas(observationDeltas);
+                options.setCompressionThreshold(compressionThreshold);
+                options.setSharedMemory(sharedMemory);
+                theClient.setOptions(options);
+                try {
+                    theClient.connect(host, port, Network.kRetryTimeout);
+                    theClient.runEnvironmentEventLoop();
+                    theClient.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+
+        //NetGlue says hello on System.out when it connects
+        PrintStream realOut = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+
+            public void write(int b) {
+            }
+        }));
+        try {
+            glue = new NetGlue(host, port);
+            NetworkOptions options = glue.getOptions();
+            options.setFloatDoubles(floatDoubles);
+            options.setCompressionThreshold(compressionThreshold);
+            options.setSharedMemory(sharedMemory);
+            glue.setOptions(options);
+            glue.RL_init();
+        } finally {
+            System.setOut(realOut);
+        }
+        glue.RL_start();
+    }
+
+    protected GlueServer newServer() {
+        return new GlueServer(0);
+    }
+
+    /**
+     * @param size The benchmark parameter
+     * @return The environment to run, by default one that always returns the
+     * same observation.
+     */
+    protected EnvironmentInterface newEnvironment(int size) {
+        return new FixedEnvironment(size);
+    }
+
+    private static void startClient(Runnable client) {
+        Thread clientThread = new Thread(client);
+        clientThread.setDaemon(true);
+        clientThread.start();
+    }
+
+    public long run() {
+        return glue.RL_step().getObservation().intArray.length;
+    }
+
+    public void tearDown() throws Exception {
+        glue.RL_cleanup();
+        glue.close();
+        serverThread.join();
+    }
+
+    static class FixedAgent implements AgentInterface {
+
+        private final Action theAction = new Action(1, 0, 0);
+
+        public void agent_init(String taskSpecification) {
+        }
+
+        public Action agent_start(Observation observation) {
+            return theAction;
+        }
+
+        public Action agent_step(double reward, Observation observation) {
+            return theAction;
+        }
+
+        public void agent_end(double reward) {
+        }
+
+        public void agent_cleanup() {
+        }
+
+        public String agent_message(String message) {
+            return "";
+        }
+    }
+
+    static class FixedEnvironment implements EnvironmentInterface {
+
+        private final Reward_observation_terminal theStep;
+
+        FixedEnvironment(int size) {
+            theStep = new Reward_observation_terminal(1.0d, BenchmarkData.makeObservation(size), false);
+        }
+
+        public String env_init() {
+            return "";
+        }
+
+        public Observation env_start() {
+            return theStep.getObservation();
+        }
+
+        public Reward_observation_terminal env_step(Action action) {
+            return theStep;
+        }
+
+        public void env_cleanup() {
+        }
+
+        public String env_message(String message) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.EpisodeStreamConsumer;
+import org.rlcommunity.rlglue.codec.types.Observation_action;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_action_terminal;
+
+/**
+ * An experiment that looks at every step of an episode through the Java
+ * GlueServer: either RL_start and then RL_step over and over, one round trip
+ * each, or one NetGlue.RL_episode_stream with the steps pushed back.
+ * One operation is one step.
+ *
+ * @author Brian Tanner
+ */
+public class GlueServerStreamBenchmark extends GlueServerStepBenchmark {
+
+    private static final int kStepsPerRun = 20;
+    private final boolean stream;
+    private long seen = 0;
+    private final EpisodeStreamConsumer consumer = new EpisodeStreamConsumer() {
+
+        public void onStart(Observation_action start) {
+            seen += start.getObservation().intArray.length;
+        }
+
+        public void onStep(Reward_observation_action_terminal step) {
+            seen += step.getObservation().intArray.length;
+        }
+    };
+
+    public GlueServerStreamBenchmark(boolean stream) {
+        this.stream = stream;
+    }
+
+    public String getName() {
+        return stream ? "GlueServer episode (RL_episode_stream)" : "GlueServer episode (RL_step loop)";
+    }
+
+    public String[] getParameters() {
+        return new String[]{"5", "100", "1000"};
+    }
+
+    public long run() {
+        if (stream) {
+            glue.RL_episode_stream(kStepsPerRun, consumer);
+        } else {
+            seen += glue.RL_start().getObservation().intArray.length;
+            for (int i = 1; i < kStepsPerRun; i++) {
+                seen += glue.RL_step().getObservation().intArray.length;
+            }
+        }
+        return seen;
+    }
+
+    public int getOperationsPerRun() {
+        return kStepsPerRun;
+    }
+}
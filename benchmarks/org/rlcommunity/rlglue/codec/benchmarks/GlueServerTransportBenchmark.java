@@ -0,0 +1,61 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import java.io.File;
+import org.rlcommunity.rlglue.codec.network.Transports;
+import org.rlcommunity.rlglue.codec.network.UnixTransport;
+import org.rlcommunity.rlglue.codec.server.GlueServer;
+
+/**
+ * GlueServer RL_step with the experiment, agent and environment connected
+ * over loopback TCP (TCP_NODELAY on every socket), or over a Unix domain
+ * socket.  The small sizes are where the per-message cost of the transport
+ * shows.  The Unix domain socket needs Java 16 or newer; on older ones it has
+ * no parameters, so it doesn't run.
+ *
+ * @author Brian Tanner
+ */
+public class GlueServerTransportBenchmark extends GlueServerStepBenchmark {
+
+    private final boolean unix;
+
+    public GlueServerTransportBenchmark(boolean unix) {
+        this.unix = unix;
+        if (unix) {
+            File socketFile = new File(System.getProperty("java.io.tmpdir"), "rlglue-benchmark-" + System.nanoTime() + ".sock");
+            host = Transports.kUnixPrefix + socketFile.getPath();
+        }
+    }
+
+    public String getName() {
+        return unix ? "GlueServer RL_step (unix socket)" : "GlueServer RL_step (tcp)";
+    }
+
+    public String[] getParameters() {
+        if (unix && !UnixTransport.isSupported()) {
+            return new String[0];
+        }
+        return new String[]{"5", "100", "1000", "10000"};
+    }
+
+    protected GlueServer newServer() {
+        return new GlueServer(Transports.forHost(host, 0));
+    }
+}
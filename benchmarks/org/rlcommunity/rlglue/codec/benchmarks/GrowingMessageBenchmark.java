@@ -0,0 +1,67 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+/**
+ * A fresh Network encoding a stream of messages that get a little bigger
+ * each time, up to the parameter's number of doubles.  This is what the send
+ * buffer's growth policy costs: with exact-fit growth every message
+ * reallocates and copies a direct buffer, with doubling only a few do.
+ * Closing the Network at the end hands its buffers back to the shared pool
+ * for the next run.
+ *
+ * @author Brian Tanner
+ */
+public class GrowingMessageBenchmark extends Benchmark {
+
+    private static final int kMessagesPerRun = 64;
+    private final double[][] messages = new double[kMessagesPerRun][];
+
+    public String getName() {
+        return "Network growing messages";
+    }
+
+    public String[] getParameters() {
+        return new String[]{"1000", "10000", "100000"};
+    }
+
+    public void setUp(String parameter) {
+        int size = Integer.parseInt(parameter);
+        for (int i = 0; i < kMessagesPerRun; i++) {
+            messages[i] = new double[size * (i + 1) / kMessagesPerRun];
+        }
+    }
+
+    public long run() throws Exception {
+        LoopbackNetwork network = new LoopbackNetwork();
+        long total = 0;
+        for (int i = 0; i < kMessagesPerRun; i++) {
+            network.clearSendBuffer();
+            network.putInt(messages[i].length);
+            network.putDoubles(messages[i]);
+            total += network.getSendBufferCapacity();
+        }
+        network.close();
+        return total;
+    }
+
+    public int getOperationsPerRun() {
+        return kMessagesPerRun;
+    }
+}
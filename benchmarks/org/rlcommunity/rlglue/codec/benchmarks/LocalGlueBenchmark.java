@@ -0,0 +1,84 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.ConfinedLocalGlue;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.LocalGlue;
+
+/**
+ * Per step cost of LocalGlue (synchronized) against ConfinedLocalGlue (owner
+ * thread check), either calling RL_step from the benchmark or letting
+ * RL_episode do the stepping.
+ *
+ * @author Brian Tanner
+ */
+public class LocalGlueBenchmark extends Benchmark {
+
+    public static final String kStep = "RL_step";
+    public static final String kEpisode = "RL_episode";
+    private static final int kEpisodeLength = 1000;
+    private final boolean confined;
+    private LocalGlue glue = null;
+    private boolean episodes = false;
+
+    public LocalGlueBenchmark(boolean confined) {
+        this.confined = confined;
+    }
+
+    public String getName() {
+        if (confined) {
+            return "ConfinedLocalGlue";
+        }
+        return "LocalGlue";
+    }
+
+    public String[] getParameters() {
+        return new String[]{kStep, kEpisode};
+    }
+
+    public void setUp(String parameter) {
+        episodes = kEpisode.equals(parameter);
+        EnvironmentInterface env;
+        if (episodes) {
+            env = new ParallelRunnerScaling.CountdownEnvironment(kEpisodeLength);
+        } else {
+            env = new GlueServerStepBenchmark.FixedEnvironment(5);
+        }
+        if (confined) {
+            glue = new ConfinedLocalGlue(env, new GlueServerStepBenchmark.FixedAgent());
+        } else {
+            glue = new LocalGlue(env, new GlueServerStepBenchmark.FixedAgent());
+        }
+        glue.RL_init();
+        glue.RL_start();
+    }
+
+    public long run() {
+        if (episodes) {
+            return glue.RL_episode(0) + glue.RL_num_steps();
+        }
+        return glue.RL_step().isTerminal() ? 1 : 0;
+    }
+
+    public int getOperationsPerRun() {
+        return episodes ? kEpisodeLength : 1;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.network.Network;
+
+/**
+ * Network that hands whatever was put in the send buffer back to its own
+ * receive buffer, so the encode and decode paths can be timed (and tested,
+ * NetworkTest uses it too) without a socket or an rl_glue process.
+ *
+ * @author Brian Tanner
+ */
+public class LoopbackNetwork extends Network {
+
+    /**
+     * Copy everything in the send buffer into the receive buffer and get it
+     * ready to be read, the way recv would.  The send buffer is cleared.
+     */
+    public void loopback() {
+        sendBuffer.flip();
+        clearRecvBuffer();
+        ensureRecvCapacityRemains(sendBuffer.remaining());
+        recvBuffer.put(sendBuffer);
+        flipRecvBuffer();
+        sendBuffer.clear();
+    }
+
+    /**
+     * Go back to the start of the receive buffer to decode the same message again.
+     */
+    public void rewindRecv() {
+        recvBuffer.rewind();
+    }
+
+    /**
+     * Take what has been put in the send buffer, and clear it.
+     * @return The bytes that would have gone over the socket.
+     */
+    public byte[] takeSentBytes() {
+        sendBuffer.flip();
+        byte[] bytes = new byte[sendBuffer.remaining()];
+        sendBuffer.get(bytes);
+        sendBuffer.clear();
+        return bytes;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.types.BufferBackedObservation;
+
+/**
+ * Network.getObservationView: what an agent that reads only a few values of
+ * each observation pays with a BufferBackedObservation.  Compare with
+ * Network.getObservation(reuse), which copies everything.
+ *
+ * @author Brian Tanner
+ */
+public class ObservationViewBenchmark extends Benchmark {
+
+    private final LoopbackNetwork network = new LoopbackNetwork();
+    private final BufferBackedObservation view = new BufferBackedObservation();
+    private int size = 0;
+
+    public String getName() {
+        return "Network.getObservationView";
+    }
+
+    public void setUp(String parameter) {
+        size = Integer.parseInt(parameter);
+        network.clearSendBuffer();
+        network.putObservation(BenchmarkData.makeObservation(size));
+        network.loopback();
+    }
+
+    public long run() {
+        network.rewindRecv();
+        network.getObservationView(view);
+        //Three values, like an agent that only cares about a few dimensions
+        return view.getInt(0) + view.getInt(size - 1) + (long) view.getDouble(size / 2);
+    }
+}
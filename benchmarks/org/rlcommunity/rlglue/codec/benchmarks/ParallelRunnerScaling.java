@@ -0,0 +1,121 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import java.util.concurrent.Callable;
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+import org.rlcommunity.rlglue.codec.util.ParallelExperimentRunner;
+
+/**
+ * Episodes per second from ParallelExperimentRunner for each kind of
+ * executor, as the number of threads goes from 1 up to twice the number of
+ * cores.
+ * <p>
+ * Arguments are the executors to try (default fixed forkjoin virtual, the
+ * ones this JVM doesn't have fall back to fixed).  These system properties
+ * change the rest:
+ * <ul>
+ * <li>parallel.episodes : episodes per measurement (default 2000)
+ * <li>parallel.steps : steps per episode (default 1000)
+ * </ul>
+ *
+ * @author Brian Tanner
+ */
+public class ParallelRunnerScaling {
+
+    private static final String[] kDefaultExecutors = {ParallelExperimentRunner.kFixed, ParallelExperimentRunner.kForkJoin, ParallelExperimentRunner.kVirtual};
+
+    /**
+     * Ends the episode after a fixed number of steps.
+     */
+    static class CountdownEnvironment implements EnvironmentInterface {
+
+        private final int length;
+        private final Reward_observation_terminal theStep;
+        private int step = 0;
+
+        CountdownEnvironment(int length) {
+            this.length = length;
+            this.theStep = new Reward_observation_terminal(1.0d, BenchmarkData.makeObservation(5), false);
+        }
+
+        public String env_init() {
+            return "";
+        }
+
+        public Observation env_start() {
+            step = 0;
+            return theStep.getObservation();
+        }
+
+        public Reward_observation_terminal env_step(Action action) {
+            step++;
+            theStep.getObservation().intArray[0] = step;
+            theStep.setTerminal(step == length);
+            return theStep;
+        }
+
+        public void env_cleanup() {
+        }
+
+        public String env_message(String message) {
+            return "";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] executors = args.length > 0 ? args : kDefaultExecutors;
+        int numEpisodes = Integer.getInteger("parallel.episodes", 2000).intValue();
+        final int episodeLength = Integer.getInteger("parallel.steps", 1000).intValue();
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        Callable<EnvironmentInterface> environmentFactory = new Callable<EnvironmentInterface>() {
+
+            public EnvironmentInterface call() {
+                return new CountdownEnvironment(episodeLength);
+            }
+        };
+        Callable<AgentInterface> agentFactory = new Callable<AgentInterface>() {
+
+            public AgentInterface call() {
+                return new GlueServerStepBenchmark.FixedAgent();
+            }
+        };
+
+        System.out.println(String.format("%-10s %8s %6s %14s %16s %14s", "executor", "threads", "cores", "episodes/s", "episodes/s/core", "steps/s"));
+        for (String executorName : executors) {
+            for (int numThreads = 1; numThreads <= 2 * cores; numThreads *= 2) {
+                ParallelExperimentRunner runner = new ParallelExperimentRunner(environmentFactory, agentFactory, executorName, numThreads);
+                //Warm up
+                runner.run(numEpisodes, 0);
+                ParallelExperimentRunner.Results results = runner.run(numEpisodes, 0);
+                runner.shutdown();
+
+                double episodesPerSecond = results.getEpisodesPerSecond();
+                double stepsPerSecond = results.getTotalSteps() * 1.0e9d / results.getElapsedNanos();
+                System.out.println(String.format("%-10s %8d %6d %14.1f %16.1f %14.1f", executorName, numThreads, cores, episodesPerSecond, episodesPerSecond / cores, stepsPerSecond));
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.types.Observation;
+
+/**
+ * Network.putAbstractType: encoding an observation into the send buffer.
+ *
+ * @author Brian Tanner
+ */
+public class PutAbstractTypeBenchmark extends Benchmark {
+
+    private final LoopbackNetwork network = new LoopbackNetwork();
+    private Observation observation;
+
+    public String getName() {
+        return "Network.putAbstractType";
+    }
+
+    public void setUp(String parameter) {
+        observation = BenchmarkData.makeObservation(Integer.parseInt(parameter));
+    }
+
+    public long run() {
+        network.clearSendBuffer();
+        network.putAbstractType(observation);
+        return observation.intArray.length;
+    }
+}
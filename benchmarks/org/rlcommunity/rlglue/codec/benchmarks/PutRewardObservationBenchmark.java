@@ -0,0 +1,47 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+
+/**
+ * Network.putRewardObservation: what ClientEnvironment does on every env_step.
+ *
+ * @author Brian Tanner
+ */
+public class PutRewardObservationBenchmark extends Benchmark {
+
+    private final LoopbackNetwork network = new LoopbackNetwork();
+    private Reward_observation_terminal rewardObservation;
+
+    public String getName() {
+        return "Network.putRewardObservation";
+    }
+
+    public void setUp(String parameter) {
+        rewardObservation = new Reward_observation_terminal(1.0d, BenchmarkData.makeObservation(Integer.parseInt(parameter)), false);
+    }
+
+    public long run() {
+        network.clearSendBuffer();
+        network.putRewardObservation(rewardObservation);
+        return rewardObservation.getObservation().intArray.length;
+    }
+}
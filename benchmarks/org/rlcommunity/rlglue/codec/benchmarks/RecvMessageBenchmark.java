@@ -0,0 +1,138 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import org.rlcommunity.rlglue.codec.network.Network;
+
+/**
+ * One request and reply over a loopback socket, received either the way the
+ * client loops used to (recv the 8 byte header, then recv the rest of the
+ * body) or with Network.recvMessage, which goes through a FrameReader.  The
+ * other end is a thread that answers every 8 byte request with a reply whose
+ * body is the parameter's size in bytes, like an environment answering a step.
+ * <p>Besides the time, tearDown prints how many reads and writes the client
+ * made per step.
+ *
+ * @author Brian Tanner
+ */
+public class RecvMessageBenchmark extends Benchmark {
+
+    private static final String[] kBodySizes = {"16", "1024", "65536", "1048576"};
+    private final boolean framed;
+    private String parameter = null;
+    private ServerSocketChannel listener = null;
+    private SocketChannel peer = null;
+    private Thread peerThread = null;
+    private Network network = null;
+    private long steps = 0;
+
+    public RecvMessageBenchmark(boolean framed) {
+        this.framed = framed;
+    }
+
+    public String getName() {
+        return framed ? "Network recvMessage (FrameReader)" : "Network recv (header, then body)";
+    }
+
+    public String[] getParameters() {
+        return kBodySizes;
+    }
+
+    public void setUp(String parameter) throws Exception {
+        this.parameter = parameter;
+        listener = ServerSocketChannel.open();
+        listener.socket().bind(new InetSocketAddress(Network.kDefaultHost, 0));
+        network = new Network();
+        network.connect(Network.kDefaultHost, listener.socket().getLocalPort(), Network.kRetryTimeout);
+        peer = listener.accept();
+        peer.socket().setTcpNoDelay(true);
+
+        final int bodySize = Integer.parseInt(parameter);
+        final ByteBuffer reply = ByteBuffer.allocateDirect(8 + bodySize);
+        reply.putInt(Network.kEnvStep);
+        reply.putInt(bodySize);
+        while (reply.hasRemaining()) {
+            reply.put((byte) reply.position());
+        }
+        peerThread = new Thread(new Runnable() {
+
+            public void run() {
+                ByteBuffer request = ByteBuffer.allocate(8);
+                try {
+                    while (true) {
+                        request.clear();
+                        while (request.hasRemaining()) {
+                            if (peer.read(request) < 0) {
+                                return;
+                            }
+                        }
+                        reply.clear();
+                        while (reply.hasRemaining()) {
+                            peer.write(reply);
+                        }
+                    }
+                } catch (Exception e) {
+                    //The client closed the socket
+                }
+            }
+        }, "RecvMessageBenchmark peer");
+        peerThread.setDaemon(true);
+        peerThread.start();
+        steps = 0;
+    }
+
+    public long run() throws Exception {
+        network.clearSendBuffer();
+        network.putInt(Network.kEnvStep);
+        network.putInt(0);
+        network.flipSendBuffer();
+        network.send();
+
+        int code;
+        if (framed) {
+            code = network.recvMessage();
+        } else {
+            network.clearRecvBuffer();
+            int recvSize = network.recv(8) - 8;
+            code = network.getInt(0);
+            int remaining = network.getInt(Network.kIntSize) - recvSize;
+            if (remaining > 0) {
+                network.recv(remaining);
+            }
+            network.flipRecvBuffer();
+            network.getInt();
+            network.getInt();
+        }
+        steps++;
+        return code + network.getInt();
+    }
+
+    public void tearDown() throws Exception {
+        System.out.println(String.format("  %s %s: %.2f reads + %.2f writes per step", getName(), parameter,
+                (double) network.getReadCount() / steps, (double) network.getWriteCount() / steps));
+        network.close();
+        peer.close();
+        listener.close();
+        peerThread.join();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+/**
+ * Network.putString followed by Network.getString, which is how task specs
+ * and agent/env messages travel.  The parameter is the string length.
+ *
+ * @author Brian Tanner
+ */
+public class StringRoundTripBenchmark extends Benchmark {
+
+    private static final String[] kLengths = {"5", "100", "1000", "10000", "100000"};
+    private final LoopbackNetwork network = new LoopbackNetwork();
+    private String message;
+
+    public String getName() {
+        return "Network.putString/getString";
+    }
+
+    public String[] getParameters() {
+        return kLengths;
+    }
+
+    public void setUp(String parameter) {
+        int length = Integer.parseInt(parameter);
+        StringBuffer b = new StringBuffer(length);
+        for (int i = 0; i < length; i++) {
+            b.append((char) ('a' + (i % 26)));
+        }
+        message = b.toString();
+    }
+
+    public long run() throws Exception {
+        network.clearSendBuffer();
+        network.putString(message);
+        network.loopback();
+        return network.getString().length();
+    }
+}
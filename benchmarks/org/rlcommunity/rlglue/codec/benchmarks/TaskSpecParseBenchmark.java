@@ -0,0 +1,97 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
+
+/**
+ * new TaskSpec(String) for each of the task spec versions we understand.
+ * <p>Some of the older versions complain on System.out or System.err every
+ * time they are converted, so both are swallowed while this one is being timed.
+ *
+ * @author Brian Tanner
+ */
+public class TaskSpecParseBenchmark extends Benchmark {
+
+    public static final String kRLGlue3 = "RL-Glue-3.0";
+    public static final String kV3 = "V3";
+    public static final String kV2 = "V2";
+    private static final String[] kVersions = {kRLGlue3, kV3, kV2};
+    private String taskSpecString;
+    private PrintStream realOut = null;
+    private PrintStream realErr = null;
+
+    public String getName() {
+        return "new TaskSpec(String)";
+    }
+
+    public String[] getParameters() {
+        return kVersions;
+    }
+
+    public static String getTaskSpecString(String version) {
+        if (kRLGlue3.equals(version)) {
+            return "VERSION RL-Glue-3.0 PROBLEMTYPE episodic DISCOUNTFACTOR 1 "
+                    + "OBSERVATIONS INTS (3 0 1) DOUBLES (-1.2 0.5) (-.07 .07) ACTIONS INTS (0 2) REWARDS (-1 0) "
+                    + "EXTRA Name=Traditional-Mountain-Car Cutoff=None Random-Starts=True";
+        }
+        if (kV3.equals(version)) {
+            return "3:e:5_[i,i,i,f,f]_[0,1]_[0,1]_[0,1]_[-1.2,0.5]_[-.07,.07]:1_[i]_[0,2]:[-1,0]:Name=Traditional-Mountain-Car";
+        }
+        if (kV2.equals(version)) {
+            return "2:e:5_[i,i,i,f,f]_[0,1]_[0,1]_[0,1]_[-1.2,0.5]_[-.07,.07]:1_[i]_[0,2]:[-1,0]";
+        }
+        throw new IllegalArgumentException("Unknown task spec version: " + version);
+    }
+
+    public void setUp(String parameter) {
+        taskSpecString = getTaskSpecString(parameter);
+        //Blow up now (with the error messages visible) if it doesn't parse at all
+        new TaskSpec(taskSpecString);
+
+        PrintStream nowhere = new PrintStream(new OutputStream() {
+
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        realOut = System.out;
+        realErr = System.err;
+        System.setOut(nowhere);
+        System.setErr(nowhere);
+    }
+
+    public void tearDown() {
+        if (realOut != null) {
+            System.setOut(realOut);
+            System.setErr(realErr);
+            realOut = null;
+            realErr = null;
+        }
+    }
+
+    public long run() {
+        return new TaskSpec(taskSpecString).getNumDiscreteObsDims();
+    }
+}
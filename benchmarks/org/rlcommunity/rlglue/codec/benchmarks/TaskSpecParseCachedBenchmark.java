@@ -0,0 +1,53 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
+
+/**
+ * TaskSpec.parseCached(String) once the task spec is in the cache, like an
+ * agent that gets the same task spec in agent_init run after run.  Compare
+ * with TaskSpecParseBenchmark, which parses it every time.
+ *
+ * @author Brian Tanner
+ */
+public class TaskSpecParseCachedBenchmark extends Benchmark {
+
+    private static final String[] kVersions = {TaskSpecParseBenchmark.kRLGlue3, TaskSpecParseBenchmark.kV3, TaskSpecParseBenchmark.kV2};
+    private String taskSpecString;
+
+    public String getName() {
+        return "TaskSpec.parseCached(String)";
+    }
+
+    public String[] getParameters() {
+        return kVersions;
+    }
+
+    public void setUp(String parameter) {
+        //A new String each time, so the cache has to look it up by its contents
+        taskSpecString = new String(TaskSpecParseBenchmark.getTaskSpecString(parameter));
+        TaskSpec.parseCached(taskSpecString);
+    }
+
+    public long run() {
+        return TaskSpec.parseCached(taskSpecString).getNumDiscreteObsDims();
+    }
+}
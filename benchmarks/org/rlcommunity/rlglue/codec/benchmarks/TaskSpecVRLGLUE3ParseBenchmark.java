@@ -0,0 +1,71 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
+
+/**
+ * new TaskSpecVRLGLUE3(String) on its own, for a typical task spec and for
+ * one with a range per dimension, which is mostly ranges.
+ *
+ * @author Brian Tanner
+ */
+public class TaskSpecVRLGLUE3ParseBenchmark extends Benchmark {
+
+    public static final String kTypical = "typical";
+    public static final String kManyRanges = "100 ranges";
+    private static final String[] kShapes = {kTypical, kManyRanges};
+    private String taskSpecString;
+
+    public String getName() {
+        return "new TaskSpecVRLGLUE3(String)";
+    }
+
+    public String[] getParameters() {
+        return kShapes;
+    }
+
+    public static String getTaskSpecString(String shape) {
+        if (kTypical.equals(shape)) {
+            return TaskSpecParseBenchmark.getTaskSpecString(TaskSpecParseBenchmark.kRLGlue3);
+        }
+        if (kManyRanges.equals(shape)) {
+            StringBuilder b = new StringBuilder("VERSION RL-Glue-3.0 PROBLEMTYPE continuing DISCOUNTFACTOR 0.99 OBSERVATIONS INTS");
+            for (int i = 0; i < 50; i++) {
+                b.append(" (0 ").append(i + 1).append(")");
+            }
+            b.append(" DOUBLES");
+            for (int i = 0; i < 50; i++) {
+                b.append(" (-").append(i).append(".5 ").append(i).append(".25)");
+            }
+            b.append(" ACTIONS INTS (0 4) DOUBLES (2 NEGINF POSINF) REWARDS (UNSPEC 1.0) EXTRA generated for benchmarking");
+            return b.toString();
+        }
+        throw new IllegalArgumentException("Unknown task spec shape: " + shape);
+    }
+
+    public void setUp(String parameter) {
+        taskSpecString = getTaskSpecString(parameter);
+    }
+
+    public long run() {
+        return new TaskSpecVRLGLUE3(taskSpecString).getNumContinuousObsDims();
+    }
+}
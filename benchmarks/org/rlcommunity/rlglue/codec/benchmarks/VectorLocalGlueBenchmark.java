@@ -0,0 +1,128 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.benchmarks;
+
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.BatchAgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.LocalGlue;
+import org.rlcommunity.rlglue.codec.VectorLocalGlue;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+
+/**
+ * One step for a batch of environments, either with VectorLocalGlue and a
+ * batch agent or with one LocalGlue per environment.  Reported per
+ * environment step, so the two can be compared directly.
+ *
+ * @author Brian Tanner
+ */
+public class VectorLocalGlueBenchmark extends Benchmark {
+
+    private static final String[] kBatchSizes = {"1", "8", "64", "512"};
+    private final boolean batched;
+    private VectorLocalGlue vectorGlue = null;
+    private LocalGlue[] localGlues = null;
+    private int batchSize = 0;
+
+    public VectorLocalGlueBenchmark(boolean batched) {
+        this.batched = batched;
+    }
+
+    public String getName() {
+        if (batched) {
+            return "VectorLocalGlue.RL_step";
+        }
+        return "LocalGlue.RL_step (xN)";
+    }
+
+    public String[] getParameters() {
+        return kBatchSizes;
+    }
+
+    public void setUp(String parameter) {
+        batchSize = Integer.parseInt(parameter);
+        EnvironmentInterface[] envs = new EnvironmentInterface[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            envs[i] = new GlueServerStepBenchmark.FixedEnvironment(5);
+        }
+        if (batched) {
+            vectorGlue = new VectorLocalGlue(envs, new FixedBatchAgent(batchSize));
+            vectorGlue.RL_init();
+            vectorGlue.RL_start();
+        } else {
+            localGlues = new LocalGlue[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                AgentInterface agent = new GlueServerStepBenchmark.FixedAgent();
+                localGlues[i] = new LocalGlue(envs[i], agent);
+                localGlues[i].RL_init();
+                localGlues[i].RL_start();
+            }
+        }
+    }
+
+    public long run() {
+        long sum = 0;
+        if (batched) {
+            sum += vectorGlue.RL_step().length;
+        } else {
+            for (int i = 0; i < batchSize; i++) {
+                if (localGlues[i].RL_step().isTerminal()) {
+                    sum++;
+                }
+            }
+        }
+        return sum;
+    }
+
+    public int getOperationsPerRun() {
+        return batchSize;
+    }
+
+    static class FixedBatchAgent implements BatchAgentInterface {
+
+        private final Action[] theActions;
+
+        FixedBatchAgent(int batchSize) {
+            theActions = new Action[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                theActions[i] = new Action(1, 0, 0);
+            }
+        }
+
+        public void agent_init(String[] taskSpecifications) {
+        }
+
+        public Action[] agent_start(Observation[] observations) {
+            return theActions;
+        }
+
+        public Action[] agent_step(double[] rewards, Observation[] observations, boolean[] terminal) {
+            return theActions;
+        }
+
+        public void agent_cleanup() {
+        }
+
+        public String agent_message(String message) {
+            return "";
+        }
+    }
+}
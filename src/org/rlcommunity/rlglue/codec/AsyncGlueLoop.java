@@ -0,0 +1,204 @@
+/*
+Copyright 2007 Brian Tanner
+brian@tannerpages.com
+http://brian.tannerpages.com
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.rlcommunity.rlglue.codec.network.RLGlueDisconnectException;
+
+/**
+ * One Selector, and the daemon thread that runs it, shared by any number of
+ * AsyncNetGlue connections.  This thread reads every answer, decodes it and
+ * completes its GlueFuture, so GlueFuture listeners run here too.
+ * <p>Most programs just use getShared().  A program driving a great many
+ * experiments can make a few loops and spread its AsyncNetGlues over them.
+ *
+ * @author btanner
+ * @since 2.1
+ */
+public final class AsyncGlueLoop implements Runnable {
+
+    private static AsyncGlueLoop sharedLoop = null;
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<AsyncNetGlue.Connection> toRegister = new ConcurrentLinkedQueue<AsyncNetGlue.Connection>();
+    private final ConcurrentLinkedQueue<AsyncNetGlue.Connection> toWrite = new ConcurrentLinkedQueue<AsyncNetGlue.Connection>();
+    private final ConcurrentLinkedQueue<AsyncNetGlue.Connection> toClose = new ConcurrentLinkedQueue<AsyncNetGlue.Connection>();
+    private final List<AsyncNetGlue.Connection> connections = new ArrayList<AsyncNetGlue.Connection>();
+    private volatile boolean stopped = false;
+
+    /**
+     * Open a selector and start its thread.
+     * @throws java.io.IOException
+     */
+    public AsyncGlueLoop() throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, "AsyncGlueLoop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The loop AsyncNetGlue uses unless it's given another one.  It is
+     * started the first time it's asked for and runs until the JVM exits.
+     * @return the shared loop
+     */
+    public static synchronized AsyncGlueLoop getShared() {
+        if (sharedLoop == null || sharedLoop.isStopped()) {
+            try {
+                sharedLoop = new AsyncGlueLoop();
+            } catch (IOException ioException) {
+                throw new IllegalStateException("Could not open a selector for AsyncGlueLoop: " + ioException);
+            }
+        }
+        return sharedLoop;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Stop the thread.  Everything still waiting for an answer fails.
+     */
+    public void close() {
+        stopped = true;
+        selector.wakeup();
+    }
+
+    boolean isLoopThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    void register(AsyncNetGlue.Connection connection) {
+        toRegister.add(connection);
+        selector.wakeup();
+        if (stopped) {
+            drainAfterStop();
+        }
+    }
+
+    /**
+     * The connection has bytes the socket wouldn't take, write them when it can.
+     */
+    void wantWrite(AsyncNetGlue.Connection connection) {
+        toWrite.add(connection);
+        selector.wakeup();
+    }
+
+    void close(AsyncNetGlue.Connection connection) {
+        toClose.add(connection);
+        selector.wakeup();
+        if (stopped) {
+            drainAfterStop();
+        }
+    }
+
+    public void run() {
+        try {
+            while (!stopped) {
+                selector.select();
+                runQueued();
+                Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+                while (keyIterator.hasNext()) {
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+                    AsyncNetGlue.Connection connection = (AsyncNetGlue.Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flushFromLoop();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.readFromLoop();
+                        }
+                    } catch (IOException ioException) {
+                        shutdown(connection, ioException);
+                    } catch (RuntimeException runtimeException) {
+                        //Only this connection is broken, the others on the loop carry on
+                        System.err.println("AsyncGlueLoop connection threw Exception: " + runtimeException);
+                        runtimeException.printStackTrace();
+                        IOException reason = new IOException("Connection failed: " + runtimeException);
+                        reason.initCause(runtimeException);
+                        shutdown(connection, reason);
+                    }
+                }
+            }
+        } catch (IOException ioException) {
+            System.err.println("AsyncGlueLoop threw Exception: " + ioException);
+            ioException.printStackTrace();
+        } catch (ClosedSelectorException closedException) {
+        } finally {
+            stopped = true;
+            drainAfterStop();
+            try {
+                selector.close();
+            } catch (IOException ioException) {
+            }
+        }
+    }
+
+    private void runQueued() {
+        AsyncNetGlue.Connection connection;
+        while ((connection = toRegister.poll()) != null) {
+            try {
+                connection.setKey(connection.getChannel().register(selector, SelectionKey.OP_READ, connection));
+                connections.add(connection);
+            } catch (IOException ioException) {
+                shutdown(connection, ioException);
+            }
+        }
+        while ((connection = toWrite.poll()) != null) {
+            connection.updateInterest();
+        }
+        while ((connection = toClose.poll()) != null) {
+            shutdown(connection, new RLGlueDisconnectException("AsyncNetGlue was closed"));
+        }
+    }
+
+    private void shutdown(AsyncNetGlue.Connection connection, IOException reason) {
+        connections.remove(connection);
+        connection.shutdown(reason);
+    }
+
+    /**
+     * Once the loop has stopped, nothing will ever be answered.
+     */
+    private synchronized void drainAfterStop() {
+        IOException reason = new RLGlueDisconnectException("AsyncGlueLoop has stopped");
+        AsyncNetGlue.Connection connection;
+        while ((connection = toRegister.poll()) != null) {
+            connection.shutdown(reason);
+        }
+        while ((connection = toClose.poll()) != null) {
+            connection.shutdown(reason);
+        }
+        toWrite.clear();
+        if (!thread.isAlive() || isLoopThread()) {
+            for (AsyncNetGlue.Connection registered : connections) {
+                registered.shutdown(reason);
+            }
+            connections.clear();
+        }
+    }
+}
@@ -0,0 +1,477 @@
+/*
+Copyright 2007 Brian Tanner
+brian@tannerpages.com
+http://brian.tannerpages.com
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.network.RLGlueDisconnectException;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Observation_action;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_action_terminal;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+
+/**
+ * The experiment side of RL-Glue, like NetGlue, except that no call waits for
+ * its answer.  Every RL_ call sends its message and returns a GlueFuture
+ * straight away; the answer is read by an AsyncGlueLoop, which completes the
+ * future.  One loop thread can look after thousands of these, so a single
+ * orchestrating thread can drive many experiments at once by chaining calls
+ * from GlueFuture listeners instead of dedicating a thread to each one.
+ * <p>Calls can be made from any thread, and they can be made before the
+ * previous one has been answered: they are sent in the order they are made
+ * and answered in that order.  Every result object is new, nothing is reused.
+ * <p>Connecting happens on the first call (usually RL_init), and that call
+ * blocks until rl_glue is there, like NetGlue.  Errors never call
+ * System.exit the way NetGlue does, they fail the future instead.
+ *
+ * @author btanner
+ * @since 2.1
+ */
+public class AsyncNetGlue {
+
+    private final String host;
+    private final int port;
+    private final AsyncGlueLoop loop;
+    private int sessionId = Network.sessionIdFromEnvironment();
+    private Connection connection = null;
+
+    /**
+     * Connect to host and port, answered by AsyncGlueLoop.getShared().
+     * @param host
+     * @param port
+     */
+    public AsyncNetGlue(String host, int port) {
+        this(host, port, AsyncGlueLoop.getShared());
+    }
+
+    public AsyncNetGlue(String host, int port, AsyncGlueLoop loop) {
+        this.host = host;
+        this.port = port;
+        this.loop = loop;
+    }
+
+    /**
+     * Same as NetGlue.setSessionId.  Set it before the first call.
+     * @param sessionId
+     */
+    public synchronized void setSessionId(int sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public synchronized int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Disconnect, which ends the experiment.  Calls that haven't been
+     * answered yet fail.  The next call connects again.
+     */
+    public synchronized void close() {
+        if (connection != null) {
+            loop.close(connection);
+            connection = null;
+        }
+    }
+
+    public GlueFuture<String> RL_init() {
+        return call(new Call<String>(Network.kRLInit) {
+
+            String decode(Network network) throws IOException {
+                return network.getString();
+            }
+        });
+    }
+
+    public GlueFuture<Observation_action> RL_start() {
+        return call(new Call<Observation_action>(Network.kRLStart) {
+
+            Observation_action decode(Network network) {
+                Observation theObservation = network.getObservation();
+                return new Observation_action(theObservation, network.getAction());
+            }
+        });
+    }
+
+    public GlueFuture<Observation> RL_env_start() {
+        return call(new Call<Observation>(Network.kRLEnvStart) {
+
+            Observation decode(Network network) {
+                return network.getObservation();
+            }
+        });
+    }
+
+    public GlueFuture<Reward_observation_terminal> RL_env_step(final Action theAction) {
+        return call(new Call<Reward_observation_terminal>(Network.kRLEnvStep) {
+
+            void encode(Network network) {
+                network.putAbstractTypeMessage(code, theAction);
+            }
+
+            Reward_observation_terminal decode(Network network) {
+                int terminal = network.getInt();
+                double reward = network.getDouble();
+                return new Reward_observation_terminal(reward, network.getObservation(), terminal);
+            }
+        });
+    }
+
+    public GlueFuture<Action> RL_agent_start(final Observation theObservation) {
+        return call(new Call<Action>(Network.kRLAgentStart) {
+
+            void encode(Network network) {
+                network.putAbstractTypeMessage(code, theObservation);
+            }
+
+            Action decode(Network network) {
+                return network.getAction();
+            }
+        });
+    }
+
+    public GlueFuture<Action> RL_agent_step(final double theReward, final Observation theObservation) {
+        return call(new Call<Action>(Network.kRLAgentStep) {
+
+            void encode(Network network) {
+                network.putInt(code);
+                network.putInt(Network.sizeOf(theReward) + Network.sizeOf(theObservation));
+                network.putDouble(theReward);
+                network.putObservation(theObservation);
+            }
+
+            Action decode(Network network) {
+                return network.getAction();
+            }
+        });
+    }
+
+    public GlueFuture<Void> RL_agent_end(final double theReward) {
+        return call(new Call<Void>(Network.kRLAgentEnd) {
+
+            void encode(Network network) {
+                network.putInt(code);
+                network.putInt(Network.sizeOf(theReward));
+                network.putDouble(theReward);
+            }
+        });
+    }
+
+    public GlueFuture<Reward_observation_action_terminal> RL_step() {
+        return call(new Call<Reward_observation_action_terminal>(Network.kRLStep) {
+
+            Reward_observation_action_terminal decode(Network network) {
+                int terminal = network.getInt();
+                double reward = network.getDouble();
+                Observation theObservation = network.getObservation();
+                return new Reward_observation_action_terminal(reward, theObservation, network.getAction(), terminal);
+            }
+        });
+    }
+
+    public GlueFuture<Void> RL_cleanup() {
+        return call(new Call<Void>(Network.kRLCleanup));
+    }
+
+    public GlueFuture<String> RL_agent_message(String message) {
+        return call(new StringCall(Network.kRLAgentMessage, message));
+    }
+
+    public GlueFuture<String> RL_env_message(String message) {
+        return call(new StringCall(Network.kRLEnvMessage, message));
+    }
+
+    public GlueFuture<Double> RL_return() {
+        return call(new Call<Double>(Network.kRLReturn) {
+
+            Double decode(Network network) {
+                return network.getDouble();
+            }
+        });
+    }
+
+    public GlueFuture<Integer> RL_num_steps() {
+        return call(new IntCall(Network.kRLNumSteps));
+    }
+
+    public GlueFuture<Integer> RL_num_episodes() {
+        return call(new IntCall(Network.kRLNumEpisodes));
+    }
+
+    public GlueFuture<Integer> RL_episode(final int numSteps) {
+        return call(new IntCall(Network.kRLEpisode) {
+
+            void encode(Network network) {
+                network.putInt(code);
+                network.putInt(Network.kIntSize);
+                network.putInt(numSteps);
+            }
+        });
+    }
+
+    private <T> GlueFuture<T> call(Call<T> theCall) {
+        Connection theConnection;
+        try {
+            theConnection = forceConnection();
+        } catch (IOException ioException) {
+            theCall.future.fail(ioException);
+            return theCall.future;
+        }
+        theConnection.send(theCall);
+        return theCall.future;
+    }
+
+    private synchronized Connection forceConnection() throws IOException {
+        if (connection == null) {
+            Connection newConnection = new Connection(loop);
+            newConnection.connect(host, port, Network.kRetryTimeout);
+            newConnection.sendConnectionType(Network.kExperimentConnection, sessionId);
+            newConnection.clearSendBuffer();
+            newConnection.getChannel().configureBlocking(false);
+            connection = newConnection;
+            loop.register(newConnection);
+        }
+        return connection;
+    }
+
+    /**
+     * One RL_ call: how to encode it and how to decode its answer.  By
+     * default the message has no body and neither does the answer.
+     */
+    static class Call<T> {
+
+        final int code;
+        final GlueFuture<T> future = new GlueFuture<T>();
+
+        Call(int code) {
+            this.code = code;
+        }
+
+        void encode(Network network) throws IOException {
+            network.putEmptyMessage(code);
+        }
+
+        T decode(Network network) throws IOException {
+            return null;
+        }
+    }
+
+    static class IntCall extends Call<Integer> {
+
+        IntCall(int code) {
+            super(code);
+        }
+
+        Integer decode(Network network) {
+            return network.getInt();
+        }
+    }
+
+    static class StringCall extends Call<String> {
+
+        private final String message;
+
+        StringCall(int code, String message) {
+            super(code);
+            this.message = message;
+        }
+
+        void encode(Network network) throws IOException {
+            network.putStringMessage(code, message);
+        }
+
+        String decode(Network network) throws IOException {
+            return network.getString();
+        }
+    }
+
+    /**
+     * The socket to rl_glue.  Calls are encoded into the send buffer by
+     * whichever thread makes them (holding this connection's lock) and
+     * written straight away if the socket will take them; the loop writes
+     * whatever is left.  The receive buffer is only touched by the loop.
+     */
+    static final class Connection extends Network {
+
+        private final AsyncGlueLoop loop;
+        private final LinkedList<Call<?>> waiting = new LinkedList<Call<?>>();
+        private SelectionKey key = null;
+        private boolean writePending = false;
+        private IOException failure = null;
+
+        Connection(AsyncGlueLoop loop) {
+            this.loop = loop;
+            //The loop does the waiting, connect with a plain BLOCKING socket
+            setWaitStrategy(null);
+        }
+
+        SocketChannel getChannel() {
+            return socketChannel;
+        }
+
+        void setKey(SelectionKey key) {
+            this.key = key;
+        }
+
+        synchronized void send(Call<?> theCall) {
+            if (failure != null) {
+                theCall.future.fail(failure);
+                return;
+            }
+            if (loop.isStopped()) {
+                theCall.future.fail(new RLGlueDisconnectException("AsyncGlueLoop has stopped"));
+                return;
+            }
+            int start = sendBuffer.position();
+            try {
+                theCall.encode(this);
+            } catch (IOException ioException) {
+                sendBuffer.position(start);
+                theCall.future.fail(ioException);
+                return;
+            }
+            waiting.add(theCall);
+            if (writePending) {
+                return;
+            }
+            try {
+                sendBuffer.flip();
+                socketChannel.write(sendBuffer);
+                sendBuffer.compact();
+            } catch (IOException ioException) {
+                sendBuffer.clear();
+                loop.close(this);
+                return;
+            }
+            if (sendBuffer.position() > 0) {
+                writePending = true;
+                loop.wantWrite(this);
+            }
+        }
+
+        /**
+         * Loop thread only.
+         */
+        synchronized void flushFromLoop() throws IOException {
+            sendBuffer.flip();
+            socketChannel.write(sendBuffer);
+            sendBuffer.compact();
+            writePending = sendBuffer.position() > 0;
+            updateInterest();
+        }
+
+        /**
+         * Loop thread only.
+         */
+        synchronized void updateInterest() {
+            if (key != null && key.isValid()) {
+                key.interestOps(writePending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Loop thread only.  Read what has arrived and answer every call whose
+         * whole answer is here.
+         */
+        void readFromLoop() throws IOException {
+            int amountRead;
+            do {
+                if (!recvBuffer.hasRemaining()) {
+                    ensureRecvCapacityRemains(recvBuffer.capacity());
+                }
+                amountRead = socketChannel.read(recvBuffer);
+            } while (amountRead > 0 && !recvBuffer.hasRemaining());
+
+            int dataEnd = recvBuffer.position();
+            int frameStart = 0;
+            while (dataEnd - frameStart >= kHeaderSize) {
+                int frameEnd = frameStart + kHeaderSize + recvBuffer.getInt(frameStart + kIntSize);
+                if (frameEnd > dataEnd) {
+                    break;
+                }
+                recvBuffer.limit(frameEnd);
+                recvBuffer.position(frameStart + kHeaderSize);
+                answer(recvBuffer.getInt(frameStart));
+                recvBuffer.limit(recvBuffer.capacity());
+                frameStart = frameEnd;
+            }
+            recvBuffer.limit(dataEnd);
+            recvBuffer.position(frameStart);
+            recvBuffer.compact();
+
+            if (amountRead < 0) {
+                throw new RLGlueDisconnectException("rl_glue closed the connection");
+            }
+        }
+
+        private void answer(int code) throws IOException {
+            Call<?> theCall;
+            synchronized (this) {
+                theCall = waiting.poll();
+            }
+            if (theCall == null || theCall.code != code) {
+                IOException notSynched = new IOException("Not synched with server. glueState = " + code + " but should be " + (theCall == null ? "nothing" : "" + theCall.code));
+                if (theCall != null) {
+                    theCall.future.fail(notSynched);
+                }
+                throw notSynched;
+            }
+            complete(theCall);
+        }
+
+        private <T> void complete(Call<T> theCall) {
+            T result;
+            try {
+                result = theCall.decode(this);
+            } catch (Exception exception) {
+                theCall.future.fail(exception);
+                return;
+            }
+            theCall.future.complete(result);
+        }
+
+        /**
+         * Close the socket and fail everything still waiting.  Loop thread
+         * only, or once the loop has stopped.
+         */
+        void shutdown(IOException reason) {
+            LinkedList<Call<?>> toFail;
+            synchronized (this) {
+                if (failure != null) {
+                    return;
+                }
+                failure = reason;
+                toFail = new LinkedList<Call<?>>(waiting);
+                waiting.clear();
+                if (key != null) {
+                    key.cancel();
+                }
+                try {
+                    close();
+                } catch (IOException ioException) {
+                }
+            }
+            for (Call<?> theCall : toFail) {
+                theCall.future.fail(reason);
+            }
+        }
+    }
+}
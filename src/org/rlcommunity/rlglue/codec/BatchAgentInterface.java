@@ -0,0 +1,67 @@
+/*
+Copyright 2007 Brian Tanner
+brian@tannerpages.com
+http://brian.tannerpages.com
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec;
+
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+
+/**
+ * An agent that controls a whole batch of environments at once, for
+ * VectorLocalGlue.  Instead of one call per environment per step, it gets one
+ * call per step with everything in arrays, so a vectorized learner can work on
+ * the whole batch together.
+ * <p>Index i in every array always means the i'th environment.  Every
+ * environment starts its episode together, but they can end on different
+ * steps.  Once an environment's episode is over it isn't stepped again until
+ * the next agent_start, and its observation is null.
+ * <p>The arrays passed in belong to the glue and are reused, so copy anything
+ * you want to keep past the call.
+ *
+ * @author btanner
+ */
+public interface BatchAgentInterface {
+
+    /**
+     * @param taskSpecifications The task spec from each environment.
+     */
+    public void agent_init(final String[] taskSpecifications);
+
+    /**
+     * @param observations The first observation from each environment.
+     * @return An action for each environment.
+     */
+    public Action[] agent_start(Observation[] observations);
+
+    /**
+     * One step for the whole batch.  This takes the place of both agent_step
+     * and agent_end: terminal[i] says the episode in environment i just ended,
+     * and rewards[i] is its last reward.
+     * @param rewards The reward from each environment, 0 for the ones whose
+     * episode was already over.
+     * @param observations The observation from each environment, null for the
+     * ones whose episode was already over.
+     * @param terminal Whether each environment's episode ended on this step.
+     * @return An action for each environment that is still running.  The
+     * others are ignored (and can be null).
+     */
+    public Action[] agent_step(double[] rewards, Observation[] observations, boolean[] terminal);
+
+    public void agent_cleanup();
+
+    public String agent_message(final String message);
+}
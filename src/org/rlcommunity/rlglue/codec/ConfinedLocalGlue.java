@@ -0,0 +1,240 @@
+/*
+Copyright 2007 Brian Tanner
+brian@tannerpages.com
+http://brian.tannerpages.com
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec;
+
+import org.rlcommunity.rlglue.codec.types.*;
+
+/**
+ * LocalGlue for experiments that only ever call it from one thread.  Nothing
+ * is synchronized; instead, the first thread to call an RL_ method owns it,
+ * and any other thread that tries gets an IllegalStateException.  That check
+ * is much cheaper than taking the lock on every call, and RL_episode doesn't
+ * take anything on each step.
+ * <p>Unlike LocalGlue, RL_start, RL_step and RL_episode don't go back through
+ * the other RL_ methods, so a subclass that overrides RL_env_step (say)
+ * won't see the calls RL_step and RL_episode make.
+ * <p>The check is there to catch mistakes, it isn't a lock: two threads that
+ * start calling at exactly the same time might both get through.
+ * <p>If you do need to hand it to another thread, call releaseOwnership()
+ * from the owner first (and make sure the hand-over itself is safe, like
+ * through a BlockingQueue or Thread.start()).
+ *
+ * @author btanner
+ */
+public class ConfinedLocalGlue extends LocalGlue {
+
+    private volatile Thread owner = null;
+
+    public ConfinedLocalGlue(EnvironmentInterface E, AgentInterface A) {
+        super(E, A);
+    }
+
+    /**
+     * Let another thread become the owner, by being the next one to call an
+     * RL_ method.
+     */
+    public void releaseOwnership() {
+        checkOwner();
+        owner = null;
+    }
+
+    private void checkOwner() {
+        Thread current = Thread.currentThread();
+        Thread currentOwner = owner;
+        if (currentOwner != current) {
+            if (currentOwner != null) {
+                throw new IllegalStateException("ConfinedLocalGlue belongs to thread " + currentOwner.getName() + " but was called from " + current.getName());
+            }
+            owner = current;
+        }
+    }
+
+    public String RL_env_message(String theString) {
+        checkOwner();
+        String incomingMessage = theString;
+        if (incomingMessage == null) {
+            incomingMessage = "";
+        }
+        String returnMessage = E.env_message(incomingMessage);
+        if (returnMessage == null) {
+            returnMessage = "";
+        }
+        return returnMessage;
+    }
+
+    public String RL_agent_message(String theString) {
+        checkOwner();
+        String incomingMessage = theString;
+        if (incomingMessage == null) {
+            incomingMessage = "";
+        }
+        String returnMessage = A.agent_message(incomingMessage);
+        if (returnMessage == null) {
+            returnMessage = "";
+        }
+        return returnMessage;
+    }
+
+    public String RL_init() {
+        checkOwner();
+        String taskSpec = E.env_init();
+        A.agent_init(taskSpec);
+        numEpisodes = 0;
+        numSteps = 0;
+        return taskSpec;
+    }
+
+    public Observation_action RL_start() {
+        checkOwner();
+        return start();
+    }
+
+    public Observation RL_env_start() {
+        checkOwner();
+        return envStart();
+    }
+
+    public Action RL_agent_start(Observation theObservation) {
+        checkOwner();
+        return agentStart(theObservation);
+    }
+
+    public Reward_observation_terminal RL_env_step(Action theAction) {
+        checkOwner();
+        return envStep(theAction);
+    }
+
+    public Action RL_agent_step(double theReward, Observation theObservation) {
+        checkOwner();
+        return agentStep(theReward, theObservation);
+    }
+
+    public void RL_agent_end(double theReward) {
+        checkOwner();
+        A.agent_end(theReward);
+    }
+
+    public Reward_observation_action_terminal RL_step() {
+        checkOwner();
+        return step();
+    }
+
+    public void RL_cleanup() {
+        checkOwner();
+        E.env_cleanup();
+        A.agent_cleanup();
+    }
+
+    public int RL_episode(int maxStepsThisEpisode) {
+        checkOwner();
+        Reward_observation_action_terminal rlStepResult = new Reward_observation_action_terminal(0, null, null, 0);
+        int currentStep;
+        start();
+        /* RL_start sets current step to 1, so we should start x at 1 */
+        for (currentStep = 1; !rlStepResult.isTerminal() && (maxStepsThisEpisode == 0 || currentStep < maxStepsThisEpisode); currentStep++) {
+            rlStepResult = step();
+        }
+        return rlStepResult.isTerminal() ? 1 : 0;
+    }
+
+    public int RL_num_episodes() {
+        checkOwner();
+        return numEpisodes;
+    }
+
+    public int RL_num_steps() {
+        checkOwner();
+        return numSteps;
+    }
+
+    public double RL_return() {
+        checkOwner();
+        return totalReward;
+    }
+
+    /*
+     * The methods below are LocalGlue's RL_ methods without the lock or the
+     * owner check, so RL_start, RL_step and RL_episode can call them
+     * directly.
+     */
+    private Observation envStart() {
+        numSteps = 1;
+        isTerminal = false;
+        totalReward = 0.0d;
+
+        Observation o = E.env_start();
+        if (o == null) {
+            System.err.println("o came back as null from RL_start");
+        }
+        return o;
+    }
+
+    private Action agentStart(Observation theObservation) {
+        Action theAction = A.agent_start(theObservation);
+        if (theAction == null) {
+            System.err.println("theAction came back as null from RL_start");
+        }
+        return theAction;
+    }
+
+    private Reward_observation_terminal envStep(Action theAction) {
+        Reward_observation_terminal RO = E.env_step(theAction);
+        if (RO == null) {
+            System.err.println("RO came back as null from RL_step");
+        }
+        if (RO.getObservation() == null) {
+            System.err.println("Ro.o came back as null from RL_step");
+        }
+
+        totalReward += RO.getReward();
+
+        if (RO.isTerminal()) {
+            numEpisodes++;
+        } else {
+            numSteps++;
+        }
+        return RO;
+    }
+
+    private Action agentStep(double theReward, Observation theObservation) {
+        Action theAction = A.agent_step(theReward, theObservation);
+        if (theAction == null) {
+            System.err.println("theAction came back as null from agent_step");
+        }
+        return theAction;
+    }
+
+    private Observation_action start() {
+        Observation o = envStart();
+        lastAction = agentStart(o);
+        return new Observation_action(o, lastAction);
+    }
+
+    private Reward_observation_action_terminal step() {
+        if (lastAction == null) {
+            System.err.println("lastAction came back as null from RL_step");
+        }
+        Reward_observation_terminal RO = envStep(lastAction);
+        if (RO.isTerminal()) {
+            A.agent_end(RO.getReward());
+        } else {
+            lastAction = agentStep(RO.getReward(), RO.getObservation());
+        }
+        return new Reward_observation_action_terminal(RO.getReward(), RO.getObservation(), lastAction, RO.isTerminal());
+    }
+}
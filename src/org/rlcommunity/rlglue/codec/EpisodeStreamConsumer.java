@@ -0,0 +1,44 @@
+/*
+Copyright 2007 Brian Tanner
+brian@tannerpages.com
+http://brian.tannerpages.com
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec;
+
+import org.rlcommunity.rlglue.codec.types.Observation_action;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_action_terminal;
+
+/**
+ * Sees every step of an episode run by NetGlue.RL_episode_stream, as the glue
+ * server pushes them, without the experiment asking for each one.
+ * <p>These are called on the experiment's thread, in the middle of
+ * RL_episode_stream, so they must not make RL_ calls of their own.  With
+ * object reuse on (NetGlue.setReuseObjects), the objects passed in are only
+ * good until the call returns.
+ *
+ * @author btanner
+ */
+public interface EpisodeStreamConsumer {
+
+    /**
+     * @param start What RL_start would have returned.
+     */
+    public void onStart(Observation_action start);
+
+    /**
+     * @param step What RL_step would have returned.
+     */
+    public void onStep(Reward_observation_action_terminal step);
+}
@@ -0,0 +1,194 @@
+/*
+Copyright 2007 Brian Tanner
+brian@tannerpages.com
+http://brian.tannerpages.com
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an AsyncNetGlue call, which will arrive later.  You can block
+ * on it with get(), like any Future, or add a Listener that is called as soon
+ * as the answer is in.  Listeners are how one thread can drive many
+ * experiments at once: each listener makes the next call for its experiment
+ * and returns straight away.
+ * <p>Calls that have been sent can't be taken back, so cancel() never does
+ * anything.
+ *
+ * @author btanner
+ * @since 2.1
+ */
+public final class GlueFuture<T> implements Future<T> {
+
+    /**
+     * Called once the future is done, on the AsyncGlueLoop thread that
+     * received the answer (or right away, on the caller's thread, if it was
+     * already done).  It must not block: a get() on another call that the
+     * same loop has to answer will wait forever.  If it throws, that is
+     * reported on System.err and the other listeners still run.
+     */
+    public interface Listener<T> {
+
+        public void onDone(GlueFuture<T> future);
+    }
+    private boolean done = false;
+    private T value = null;
+    private Throwable failure = null;
+    private List<Listener<T>> listeners = null;
+
+    /**
+     * Finish with a value.  Only the first complete or fail counts.
+     * @param value
+     */
+    void complete(T value) {
+        List<Listener<T>> toCall;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.value = value;
+            done = true;
+            notifyAll();
+            toCall = listeners;
+            listeners = null;
+        }
+        callListeners(toCall);
+    }
+
+    /**
+     * Finish with an error, which get() throws wrapped in an ExecutionException.
+     * @param failure
+     */
+    void fail(Throwable failure) {
+        List<Listener<T>> toCall;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.failure = failure;
+            done = true;
+            notifyAll();
+            toCall = listeners;
+            listeners = null;
+        }
+        callListeners(toCall);
+    }
+
+    private void callListeners(List<Listener<T>> toCall) {
+        if (toCall == null) {
+            return;
+        }
+        for (Listener<T> listener : toCall) {
+            notifyListener(listener);
+        }
+    }
+
+    /**
+     * Listeners usually run on an AsyncGlueLoop thread that other sessions
+     * share, so one that throws is reported and otherwise ignored.
+     */
+    private void notifyListener(Listener<T> listener) {
+        try {
+            listener.onDone(this);
+        } catch (Throwable t) {
+            System.err.println("GlueFuture listener threw Exception: " + t);
+            t.printStackTrace();
+        }
+    }
+
+    /**
+     * @param listener Called when this is done, or now if it already is.
+     */
+    public void addListener(Listener<T> listener) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<Listener<T>>(1);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    public boolean isCancelled() {
+        return false;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return Whether this is done because something went wrong.
+     */
+    public synchronized boolean isFailed() {
+        return done && failure != null;
+    }
+
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return result();
+    }
+
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    /**
+     * The value, for a listener (or anyone else who knows this is done) that
+     * doesn't want to deal with the checked exceptions from get().
+     * @return The value
+     * @throws IllegalStateException if this isn't done yet
+     * @throws RuntimeException wrapping the failure, if it failed
+     */
+    public synchronized T getNow() {
+        if (!done) {
+            throw new IllegalStateException("GlueFuture isn't done yet");
+        }
+        if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+        return value;
+    }
+
+    private T result() throws ExecutionException {
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return value;
+    }
+}
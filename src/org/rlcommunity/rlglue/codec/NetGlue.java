@@ -24,7 +24,9 @@ limitations under the License.
 package org.rlcommunity.rlglue.codec;
 
 import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.network.NetworkOptions;
 import org.rlcommunity.rlglue.codec.network.RLGlueDisconnectException;
+import org.rlcommunity.rlglue.codec.network.Transports;
 import org.rlcommunity.rlglue.codec.types.*;
 
 import java.io.IOException;
@@ -42,6 +44,14 @@ public class NetGlue implements RLGlueInterface {
     private Network network;
     private String host = Network.kDefaultHost;
     private int port = Network.kDefaultPort;
+    private int sessionId = Network.sessionIdFromEnvironment();
+    private NetworkOptions networkOptions = NetworkOptions.fromEnvironment();
+    private boolean reuseObjects = Boolean.valueOf(System.getenv("RLGLUE_REUSE_OBJECTS")).booleanValue();
+    private final Observation reusableObservation = new Observation();
+    private final Action reusableAction = new Action();
+    private final Observation_action reusableObservationAction = new Observation_action(reusableObservation, reusableAction);
+    private final Reward_observation_terminal reusableRewardObservation = new Reward_observation_terminal(0.0d, reusableObservation, false);
+    private final Reward_observation_action_terminal reusableStepResult = new Reward_observation_action_terminal(0.0d, reusableObservation, reusableAction, false);
 
     /**
      * @since 2.0
@@ -81,7 +91,10 @@ public class NetGlue implements RLGlueInterface {
     private void setHostAndPorts(String hostString, String portString) {
 
         //Now override the default or env variable port and string with these specific settings
-        if (hostString != null) {
+        if (Transports.isUnix(hostString)) {
+            //A socket file, nothing to resolve
+            host = hostString;
+        } else if (hostString != null) {
             try {
                 InetAddress theAddress = InetAddress.getByName(hostString);
                 host = hostString;
@@ -106,6 +119,73 @@ public class NetGlue implements RLGlueInterface {
         }
     }
 
+    /**
+     * Object reuse mode: instead of allocating new result objects on every
+     * call, decode into one set of objects owned by this NetGlue.  Every
+     * Observation, Action, Observation_action, Reward_observation_terminal and
+     * Reward_observation_action_terminal you get back is then only good until
+     * the next RL_* call, so duplicate() anything you want to keep.
+     * <p>You can also turn it on by setting RLGLUE_REUSE_OBJECTS=true.
+     * @param reuseObjects
+     */
+    public synchronized void setReuseObjects(boolean reuseObjects) {
+        this.reuseObjects = reuseObjects;
+    }
+
+    public synchronized boolean getReuseObjects() {
+        return reuseObjects;
+    }
+
+    /**
+     * Which experiment this is, when the glue server is hosting more than one
+     * (GlueServer in multi-session mode).  The agent and environment have to
+     * use the same id.  Only used when connecting, so set it before the first
+     * RL_ call.  Defaults to RLGLUE_SESSION, or Network.kNoSession.
+     * @param sessionId
+     */
+    public synchronized void setSessionId(int sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public synchronized int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * How the socket is set up (TCP_NODELAY, SO_SNDBUF/SO_RCVBUF, keepalive),
+     * how big the buffers start out and which capabilities to ask the glue
+     * for (float doubles, compression, shared memory and so on).  Has to be
+     * set before the first RL_ call.  They are read from system properties
+     * and environment variables like RLGLUE_TCP_NODELAY and
+     * RLGLUE_FLOAT_DOUBLES if you don't set them (see NetworkOptions).
+     * @param networkOptions Copied, so changing them afterwards does nothing.
+     * @since 2.1
+     */
+    public synchronized void setOptions(NetworkOptions networkOptions) {
+        this.networkOptions = new NetworkOptions(networkOptions);
+    }
+
+    public synchronized NetworkOptions getOptions() {
+        return new NetworkOptions(networkOptions);
+    }
+
+    /**
+     * Disconnect from rl_glue, which ends the experiment.  Normally this just
+     * happens when the experiment program exits, but an experiment running
+     * inside a bigger JVM can call it when it's done.  The next RL_ call will
+     * connect again.
+     */
+    public synchronized void close() {
+        if (network != null) {
+            try {
+                network.close();
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+            network = null;
+        }
+    }
+
     public synchronized String RL_init() {
         forceConnection();
 
@@ -115,38 +195,35 @@ public class NetGlue implements RLGlueInterface {
 
     public synchronized Observation_action RL_start() {
         sendEmpty(Network.kRLStart, "RL_start");
-        Observation_action obsact = new Observation_action();
+        Observation_action obsact = reuseObjects ? reusableObservationAction : new Observation_action();
 
-        obsact.setObservation(network.getObservation());
-        obsact.setAction(network.getAction());
+        obsact.setObservation(recvObservation());
+        obsact.setAction(recvAction());
         return obsact;
     }
 
     public synchronized Observation RL_env_start() {
         sendEmpty(Network.kRLEnvStart, "RL_env_start");
-        Observation obs = new Observation();
-
-        obs = network.getObservation();
-        return obs;
+        return recvObservation();
     }
 
     public synchronized Reward_observation_terminal RL_env_step(Action theAction) {
         send_abstract_type(theAction, Network.kRLEnvStep, "RL_env_step");
-        Reward_observation_terminal rot = new Reward_observation_terminal();
+        Reward_observation_terminal rot = reuseObjects ? reusableRewardObservation : new Reward_observation_terminal();
         rot.setTerminal(network.getInt());
         rot.setReward(network.getDouble());
-        rot.setObservation(network.getObservation());
+        rot.setObservation(recvObservation());
         return rot;
     }
 
     public synchronized Action RL_agent_start(Observation theObservation) {
         send_abstract_type(theObservation, Network.kRLAgentStart, "RL_agent_start");
-        return network.getAction();
+        return recvAction();
     }
 
     public synchronized Action RL_agent_step(double theReward, Observation theObservation) {
         send_reward_observation(theReward, theObservation, Network.kRLAgentStep, "RL_agent_step");
-        return network.getAction();
+        return recvAction();
     }
 
     public synchronized void RL_agent_end(double theReward) {
@@ -157,11 +234,11 @@ public class NetGlue implements RLGlueInterface {
     public synchronized Reward_observation_action_terminal RL_step() {
         sendEmpty(Network.kRLStep, "RL_step");
 
-        Reward_observation_action_terminal roat = new Reward_observation_action_terminal();
+        Reward_observation_action_terminal roat = reuseObjects ? reusableStepResult : new Reward_observation_action_terminal();
         roat.setTerminal(network.getInt());
         roat.setReward(network.getDouble());
-        roat.setObservation(network.getObservation());
-        roat.setAction(network.getAction());
+        roat.setObservation(recvObservation());
+        roat.setAction(recvAction());
 
         return roat;
     }
@@ -208,30 +285,90 @@ public class NetGlue implements RLGlueInterface {
         return network.getInt();
     }
 
+    /**
+     * RL_episode, but the glue server also sends every step back as it
+     * happens, so the experiment can log the whole trajectory without an
+     * RL_step round trip per step.  The consumer gets what RL_start and then
+     * each RL_step would have returned.
+     * <p>Only the Java GlueServer supports this, the C rl_glue doesn't.
+     * @param numSteps Maximum steps, or 0 for no limit, like RL_episode
+     * @param consumer
+     * @return Same as RL_episode: 1 if the episode ended, 0 if it ran out of steps
+     * @since 2.1
+     */
+    public synchronized int RL_episode_stream(int numSteps, EpisodeStreamConsumer consumer) {
+        try {
+            network.clearSendBuffer();
+            network.putInt(Network.kRLEpisodeStream);
+            network.putInt(Network.kIntSize);
+            network.putInt(numSteps);
+            network.flipSendBuffer();
+            network.send();
+
+            int glueState;
+            while ((glueState = recvFrame()) != Network.kRLEpisodeStream) {
+                if (glueState == Network.kRLEpisodeStreamStart) {
+                    Observation_action obsact = reuseObjects ? reusableObservationAction : new Observation_action();
+                    obsact.setObservation(recvObservation());
+                    obsact.setAction(recvAction());
+                    consumer.onStart(obsact);
+                } else if (glueState == Network.kRLEpisodeStreamStep) {
+                    Reward_observation_action_terminal roat = reuseObjects ? reusableStepResult : new Reward_observation_action_terminal();
+                    roat.setTerminal(network.getInt());
+                    roat.setReward(network.getDouble());
+                    roat.setObservation(recvObservation());
+                    roat.setAction(recvAction());
+                    consumer.onStep(roat);
+                } else {
+                    System.err.println("Not synched with server. glueState = " + glueState + " but should be part of RL_episode_stream");
+                    System.exit(1);
+                }
+            }
+            return network.getInt();
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            System.exit(1);
+        } catch (NullPointerException nullException) {
+            System.err.println("You must call RL_init before calling RL_episode_stream");
+            nullException.printStackTrace();
+            System.exit(1);
+        }
+        return 0;
+    }
+
     /**
      * PRIVATE METHODS BELOW ARE HELPERS
      */
+    private Observation recvObservation() {
+        if (reuseObjects) {
+            return network.getObservation(reusableObservation);
+        }
+        return network.getObservation();
+    }
+
+    private Action recvAction() {
+        if (reuseObjects) {
+            return network.getAction(reusableAction);
+        }
+        return network.getAction();
+    }
+
     private void forceConnection() {
         if (network == null) {
             String ImplementationVersion = RLGlueCore.getImplementationVersion();
             String SpecVersion = RLGlueCore.getSpecVersion();
 
             System.out.println("RL-Glue Java Experiment Codec Version: " + SpecVersion + " (" + ImplementationVersion + ")");
-            System.out.println("\tConnecting to " + host + " on port " + port + "...");
+            System.out.println("\tConnecting to " + Transports.describe(host, port) + "...");
 
-            network = new Network();
+            network = new Network(networkOptions);
 
 
             // Connect
             network.connect(host, port, Network.kRetryTimeout);
             System.out.println("\tExperiment Codec Connected");
-            network.clearSendBuffer();
-            network.putInt(Network.kExperimentConnection);
-            network.putInt(0);
-            network.flipSendBuffer();
-
             try {
-                network.send();
+                network.requestCapabilities(Network.kExperimentConnection, sessionId);
             } catch (IOException ioException) {
                 ioException.printStackTrace();
                 System.exit(1);
@@ -247,34 +384,27 @@ public class NetGlue implements RLGlueInterface {
      * @throws java.io.IOException
      */
     private synchronized void doStandardRecv(int state) throws IOException {
-        network.clearRecvBuffer();
-        try {
-            int actualRecvSize = network.recv(8);
-            int recvSizeWithoutHeader = actualRecvSize - 8;
-
-            int glueState = network.getInt(0);
-            int dataSize = network.getInt(Network.kIntSize);
-            int remaining = dataSize - recvSizeWithoutHeader;
-
-            if (remaining < 0) {
-                remaining = 0;
-            }
-            int remainingReceived = network.recv(remaining);
-
-            network.flipRecvBuffer();
-
-            // Discard the header - we should have a more elegant method for doing this.
-            network.getInt();
-            network.getInt();
+        int glueState = recvFrame();
+        if (glueState != state) {
+            System.err.println("Not synched with server. glueState = " + glueState + " but should be " + state);
+            System.exit(1);
+        }
+    }
 
-            if (glueState != state) {
-                System.err.println("Not synched with server. glueState = " + glueState + " but should be " + state);
-                System.exit(1);
-            }
+    /**
+     * Receive one whole message, keeping anything the glue sent after it, and
+     * skip its header.
+     * @return The message code
+     * @throws java.io.IOException
+     */
+    private int recvFrame() throws IOException {
+        try {
+            return network.recvMessage();
         } catch (RLGlueDisconnectException e) {
             System.err.println(e.getMessage());
             System.exit(1);
         }
+        return 0;
     }
 
     private synchronized void doCallWithNoParams(int state) throws IOException {
@@ -375,9 +505,7 @@ public class NetGlue implements RLGlueInterface {
         assert theObject != null : "Someone tried to send a null object in NetGlue from: " + callerName;
         try {
             network.clearSendBuffer();
-            network.putInt(theCode);
-            network.putInt(Network.sizeOf(theObject));
-            network.putAbstractType(theObject);
+            network.putAbstractTypeMessage(theCode, theObject);
             network.flipSendBuffer();
             network.send();
 
@@ -405,7 +533,7 @@ public class NetGlue implements RLGlueInterface {
         try {
             network.clearSendBuffer();
             network.putInt(theCode);
-            network.putInt(Network.sizeOf(theObservation) + Network.sizeOf(theReward));
+            network.putInt(network.encodedSizeOf(theObservation) + Network.sizeOf(theReward));
             network.putDouble(theReward);
             network.putAbstractType(theObservation);
             network.flipSendBuffer();
@@ -0,0 +1,337 @@
+/*
+Copyright 2007 Brian Tanner
+brian@tannerpages.com
+http://brian.tannerpages.com
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec;
+
+import java.util.Arrays;
+import org.rlcommunity.rlglue.codec.types.*;
+
+/**
+ * LocalGlue for a batch of environments, all stepped together.  Each call
+ * does the same thing LocalGlue would for every environment in the batch,
+ * and returns one result per environment, so there is one synchronized call
+ * per step for the whole batch instead of one per environment.
+ * <p>The agent can be a BatchAgentInterface, which sees the whole batch at
+ * once, or one ordinary AgentInterface per environment.
+ * <p>Every environment starts its episode at the same time (RL_start), but
+ * they can end on different steps.  An environment whose episode is over
+ * isn't stepped again until the next RL_start, and its entry in the results
+ * of RL_step is null.
+ *
+ * @author btanner
+ */
+public class VectorLocalGlue {
+
+    final EnvironmentInterface[] E;
+    final BatchAgentInterface A;
+    final int batchSize;
+    final Action[] lastActions;
+    final boolean[] episodeOver;
+    final int[] numSteps;
+    final double[] totalReward;
+    final int[] numEpisodes;
+    //Handed to the agent every step, see BatchAgentInterface
+    private final double[] stepRewards;
+    private final Observation[] stepObservations;
+    private final boolean[] stepTerminal;
+
+    /**
+     * @param E The environments.
+     * @param A An agent for the whole batch.
+     */
+    public VectorLocalGlue(EnvironmentInterface[] E, BatchAgentInterface A) {
+        this.E = E.clone();
+        this.A = A;
+        this.batchSize = E.length;
+        this.lastActions = new Action[batchSize];
+        this.episodeOver = new boolean[batchSize];
+        this.numSteps = new int[batchSize];
+        this.totalReward = new double[batchSize];
+        this.numEpisodes = new int[batchSize];
+        this.stepRewards = new double[batchSize];
+        this.stepObservations = new Observation[batchSize];
+        this.stepTerminal = new boolean[batchSize];
+        Arrays.fill(episodeOver, true);
+    }
+
+    /**
+     * @param E The environments.
+     * @param A One agent for each environment, E[i] is paired with A[i].
+     * @throws IllegalArgumentException If A is null or not the same length as E.
+     */
+    public VectorLocalGlue(EnvironmentInterface[] E, AgentInterface[] A) {
+        this(E, new AgentArray(checkPaired(E, A)));
+    }
+
+    //Runs before this(...) builds anything from A
+    private static AgentInterface[] checkPaired(EnvironmentInterface[] E, AgentInterface[] A) {
+        if (A == null) {
+            throw new IllegalArgumentException("Need one agent per environment, got no agents");
+        }
+        if (E == null || A.length != E.length) {
+            throw new IllegalArgumentException("Need one agent per environment, got " + A.length + " agents and " + (E == null ? 0 : E.length) + " environments");
+        }
+        return A;
+    }
+
+    /**
+     * @return How many environments are in the batch.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return Whether environment i's episode is over (or hasn't started).
+     */
+    public synchronized boolean isEpisodeOver(int i) {
+        return episodeOver[i];
+    }
+
+    /**
+     * Sends the message to every environment.
+     * @return The reply from each environment.
+     */
+    public synchronized String[] RL_env_message(String theString) {
+        String incomingMessage = theString;
+        if (incomingMessage == null) {
+            incomingMessage = "";
+        }
+        String[] returnMessages = new String[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            returnMessages[i] = E[i].env_message(incomingMessage);
+            if (returnMessages[i] == null) {
+                returnMessages[i] = "";
+            }
+        }
+        return returnMessages;
+    }
+
+    public synchronized String RL_agent_message(String theString) {
+        String incomingMessage = theString;
+        if (incomingMessage == null) {
+            incomingMessage = "";
+        }
+        String returnMessage = A.agent_message(incomingMessage);
+        if (returnMessage == null) {
+            returnMessage = "";
+        }
+        return returnMessage;
+    }
+
+    /**
+     * @return The task spec from each environment.
+     */
+    public synchronized String[] RL_init() {
+        String[] taskSpecs = new String[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            taskSpecs[i] = E[i].env_init();
+            numEpisodes[i] = 0;
+            numSteps[i] = 0;
+        }
+        A.agent_init(taskSpecs.clone());
+        return taskSpecs;
+    }
+
+    public synchronized Observation_action[] RL_start() {
+        Observation[] observations = new Observation[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            numSteps[i] = 1;
+            totalReward[i] = 0.0d;
+            episodeOver[i] = false;
+            observations[i] = E[i].env_start();
+            if (observations[i] == null) {
+                System.err.println("o came back as null from RL_start in environment " + i);
+            }
+        }
+        System.arraycopy(observations, 0, stepObservations, 0, batchSize);
+        Action[] actions = A.agent_start(stepObservations);
+        if (actions == null) {
+            System.err.println("theActions came back as null from RL_start");
+        }
+
+        Observation_action[] results = new Observation_action[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            lastActions[i] = actions[i];
+            results[i] = new Observation_action(observations[i], actions[i]);
+        }
+        return results;
+    }
+
+    /**
+     * Step every environment whose episode isn't over yet.
+     * @return One result per environment, null for the ones that weren't stepped.
+     */
+    public synchronized Reward_observation_action_terminal[] RL_step() {
+        Reward_observation_terminal[] ROs = new Reward_observation_terminal[batchSize];
+        Reward_observation_action_terminal[] results = new Reward_observation_action_terminal[batchSize];
+        int stepped = 0;
+        for (int i = 0; i < batchSize; i++) {
+            if (episodeOver[i]) {
+                stepRewards[i] = 0.0d;
+                stepObservations[i] = null;
+                stepTerminal[i] = false;
+                continue;
+            }
+            stepped++;
+            ROs[i] = E[i].env_step(lastActions[i]);
+            if (ROs[i] == null) {
+                System.err.println("RO came back as null from RL_step in environment " + i);
+            }
+
+            totalReward[i] += ROs[i].getReward();
+            if (ROs[i].isTerminal()) {
+                numEpisodes[i]++;
+            } else {
+                numSteps[i]++;
+            }
+            stepRewards[i] = ROs[i].getReward();
+            stepObservations[i] = ROs[i].getObservation();
+            stepTerminal[i] = ROs[i].isTerminal();
+        }
+
+        if (stepped == 0) {
+            return results;
+        }
+        Action[] actions = A.agent_step(stepRewards, stepObservations, stepTerminal);
+
+        for (int i = 0; i < batchSize; i++) {
+            if (ROs[i] == null) {
+                continue;
+            }
+            if (ROs[i].isTerminal()) {
+                episodeOver[i] = true;
+            } else {
+                lastActions[i] = actions[i];
+                if (lastActions[i] == null) {
+                    System.err.println("theAction came back as null from agent_step in environment " + i);
+                }
+            }
+            results[i] = new Reward_observation_action_terminal(ROs[i].getReward(), ROs[i].getObservation(), lastActions[i], ROs[i].isTerminal());
+        }
+        return results;
+    }
+
+    public synchronized void RL_cleanup() {
+        for (int i = 0; i < batchSize; i++) {
+            E[i].env_cleanup();
+        }
+        A.agent_cleanup();
+    }
+
+    /**
+     * Run one episode in every environment, like LocalGlue.RL_episode.  Stops
+     * when every episode is over or the step limit is reached.
+     * @param maxStepsThisEpisode
+     * @return For each environment, 1 if its episode ended on its own and 0
+     * if it was cut off.
+     */
+    public synchronized int[] RL_episode(int maxStepsThisEpisode) {
+        int currentStep;
+        RL_start();
+        /* RL_start sets current step to 1, so we should start x at 1 */
+        for (currentStep = 1; !allEpisodesOver() && (maxStepsThisEpisode == 0 || currentStep < maxStepsThisEpisode); currentStep++) {
+            RL_step();
+        }
+
+        int[] terminal = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            terminal[i] = episodeOver[i] ? 1 : 0;
+        }
+        return terminal;
+    }
+
+    public synchronized int[] RL_num_episodes() {
+        return numEpisodes.clone();
+    }
+
+    public synchronized int[] RL_num_steps() {
+        return numSteps.clone();
+    }
+
+    public synchronized double[] RL_return() {
+        return totalReward.clone();
+    }
+
+    private boolean allEpisodesOver() {
+        for (int i = 0; i < batchSize; i++) {
+            if (!episodeOver[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lets a plain AgentInterface per environment be used as a batch agent.
+     */
+    static class AgentArray implements BatchAgentInterface {
+
+        private final AgentInterface[] agents;
+        private final Action[] actions;
+
+        AgentArray(AgentInterface[] agents) {
+            this.agents = agents.clone();
+            this.actions = new Action[agents.length];
+        }
+
+        public void agent_init(String[] taskSpecifications) {
+            for (int i = 0; i < agents.length; i++) {
+                agents[i].agent_init(taskSpecifications[i]);
+            }
+        }
+
+        public Action[] agent_start(Observation[] observations) {
+            for (int i = 0; i < agents.length; i++) {
+                actions[i] = agents[i].agent_start(observations[i]);
+            }
+            return actions;
+        }
+
+        public Action[] agent_step(double[] rewards, Observation[] observations, boolean[] terminal) {
+            for (int i = 0; i < agents.length; i++) {
+                if (terminal[i]) {
+                    agents[i].agent_end(rewards[i]);
+                    actions[i] = null;
+                } else if (observations[i] != null) {
+                    actions[i] = agents[i].agent_step(rewards[i], observations[i]);
+                }
+            }
+            return actions;
+        }
+
+        public void agent_cleanup() {
+            for (int i = 0; i < agents.length; i++) {
+                agents[i].agent_cleanup();
+            }
+        }
+
+        /**
+         * Every agent gets the message, the first one's reply is returned.
+         */
+        public String agent_message(String message) {
+            String reply = null;
+            for (int i = 0; i < agents.length; i++) {
+                String agentReply = agents[i].agent_message(message);
+                if (i == 0) {
+                    reply = agentReply;
+                }
+            }
+            return reply;
+        }
+    }
+}
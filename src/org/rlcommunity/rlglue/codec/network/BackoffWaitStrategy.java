@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spin for a little while, then yield for a little while, then park the thread
+ * for exponentially longer periods (up to a maximum) until data shows up.
+ * <p>Fast replies are still picked up with spin latency, but a peer that is
+ * thinking for a long time costs us almost no CPU.
+ *
+ * @author btanner
+ */
+public class BackoffWaitStrategy implements WaitStrategy {
+
+    public static final int kDefaultSpinTries = 100;
+    public static final int kDefaultYieldTries = 100;
+    public static final long kDefaultMinParkNanos = 1000L;
+    public static final long kDefaultMaxParkNanos = 1000000L;
+    private final int spinTries;
+    private final int yieldTries;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+
+    public BackoffWaitStrategy() {
+        this(kDefaultSpinTries, kDefaultYieldTries, kDefaultMinParkNanos, kDefaultMaxParkNanos);
+    }
+
+    /**
+     * @param spinTries Number of empty reads to busy-spin through before yielding.
+     * @param yieldTries Number of empty reads to yield through before parking.
+     * @param minParkNanos How long to park the first time.
+     * @param maxParkNanos The longest we'll ever park for in one go.
+     */
+    public BackoffWaitStrategy(int spinTries, int yieldTries, long minParkNanos, long maxParkNanos) {
+        if (spinTries < 0 || yieldTries < 0 || minParkNanos <= 0 || maxParkNanos < minParkNanos) {
+            throw new IllegalArgumentException("Bad backoff settings: spinTries=" + spinTries + " yieldTries=" + yieldTries + " minParkNanos=" + minParkNanos + " maxParkNanos=" + maxParkNanos);
+        }
+        this.spinTries = spinTries;
+        this.yieldTries = yieldTries;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    public void idle(SocketChannel channel, int idleCount) {
+        if (idleCount <= spinTries) {
+            return;
+        }
+        if (idleCount <= spinTries + yieldTries) {
+            Thread.yield();
+            return;
+        }
+        LockSupport.parkNanos(parkNanos(idleCount - spinTries - yieldTries - 1));
+    }
+
+    /**
+     * minParkNanos doubled that many times, but never more than maxParkNanos.
+     */
+    long parkNanos(int doublings) {
+        //Compare before shifting, so minParkNanos is never shifted past the top bit
+        if (doublings < 63 && minParkNanos < (maxParkNanos >> doublings)) {
+            return minParkNanos << doublings;
+        }
+        return maxParkNanos;
+    }
+
+    public void idleWrite(SocketChannel channel, int idleCount) {
+        idle(channel, idleCount);
+    }
+
+    public void close() {
+    }
+}
@@ -28,6 +28,7 @@ import java.io.UnsupportedEncodingException;
 import org.rlcommunity.rlglue.codec.AgentInterface;
 
 import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.BufferBackedObservation;
 import org.rlcommunity.rlglue.codec.types.Observation;
 
 public class ClientAgent {
@@ -37,6 +38,11 @@ public class ClientAgent {
     protected AgentInterface agent;
     protected boolean killedFromLocalProcess = false;
     private boolean debug = false;
+    private boolean reuseObjects = Boolean.valueOf(System.getenv("RLGLUE_REUSE_OBJECTS")).booleanValue();
+    private final Observation reusableObservation = new Observation();
+    private boolean observationViews = Boolean.valueOf(System.getenv("RLGLUE_OBSERVATION_VIEWS")).booleanValue();
+    private final BufferBackedObservation observationView = new BufferBackedObservation();
+    private int sessionId = Network.sessionIdFromEnvironment();
 
     /**
      *If you are using ClientAgent in a local context (like from Matlab)
@@ -52,23 +58,66 @@ public class ClientAgent {
         this.network = new Network();
     }
 
+    /**
+     * Object reuse mode: decode every observation into the same Observation
+     * (and the same arrays, as long as their sizes don't change) instead of
+     * allocating new ones each step.
+     * <p>Only turn this on if your agent does not hang on to the observations
+     * it is given, because they will be overwritten on the next step.  You
+     * can also turn it on by setting RLGLUE_REUSE_OBJECTS=true.
+     * @param reuseObjects
+     */
+    public void setReuseObjects(boolean reuseObjects) {
+        this.reuseObjects = reuseObjects;
+    }
+
+    public boolean getReuseObjects() {
+        return reuseObjects;
+    }
+
+    /**
+     * Observation view mode: instead of decoding each observation, hand the
+     * agent a BufferBackedObservation that reads straight out of the receive
+     * buffer.  Agents that only read a few values of big observations with
+     * getInt/getDouble/getChar skip copying the rest.
+     * <p>Only turn this on if your agent uses those methods or calls
+     * materialize() before touching intArray, doubleArray or charArray (they
+     * are null until then), and doesn't keep observations past the step.  You
+     * can also turn it on by setting RLGLUE_OBSERVATION_VIEWS=true.
+     * @param observationViews
+     */
+    public void setObservationViews(boolean observationViews) {
+        this.observationViews = observationViews;
+    }
+
+    public boolean getObservationViews() {
+        return observationViews;
+    }
+
+    private Observation receiveObservation() {
+        if (observationViews) {
+            return network.getObservationView(observationView);
+        }
+        if (reuseObjects) {
+            return network.getObservation(reusableObservation);
+        }
+        return network.getObservation();
+    }
+
     protected void onAgentInit() throws UnsupportedEncodingException {
         String taskSpec = network.getString();
 
         agent.agent_init(taskSpec);
 
         network.clearSendBuffer();
-        network.putInt(Network.kAgentInit);
-        //BTANNER: Sept 16 2008.. why are we putting this here?
-        //OH, it's the size!  Ok.  I think.
-        network.putInt(0); // No data following this header
+        network.putEmptyMessage(Network.kAgentInit);
     }
 
     protected void onAgentStart() {
         if (debug) {
             System.out.println("\tonAgentStart()");
         }
-        Observation observation = network.getObservation();
+        Observation observation = receiveObservation();
         if (debug) {
             System.out.println("\t\tgot observation");
         }
@@ -77,24 +126,17 @@ public class ClientAgent {
             System.out.println("\t\tgot action");
         }
 
-        int size = Network.sizeOf(action);
-
         network.clearSendBuffer();
-        network.putInt(Network.kAgentStart);
-        network.putInt(size);
-        network.putAction(action);
+        network.putAbstractTypeMessage(Network.kAgentStart, action);
     }
 
     protected void onAgentStep() {
         double reward = network.getDouble();
-        Observation observation = network.getObservation();
+        Observation observation = receiveObservation();
         Action action = agent.agent_step(reward, observation);
 
-        int size = Network.sizeOf(action);
         network.clearSendBuffer();
-        network.putInt(Network.kAgentStep);
-        network.putInt(size);
-        network.putAction(action);
+        network.putAbstractTypeMessage(Network.kAgentStep, action);
     }
 
     protected void onAgentEnd() {
@@ -104,16 +146,14 @@ public class ClientAgent {
         agent.agent_end(reward);
 
         network.clearSendBuffer();
-        network.putInt(Network.kAgentEnd);
-        network.putInt(0); // No data in this packet
+        network.putEmptyMessage(Network.kAgentEnd);
     }
 
     protected void onAgentCleanup() {
         agent.agent_cleanup();
 
         network.clearSendBuffer();
-        network.putInt(Network.kAgentCleanup);
-        network.putInt(0); // No data in this packet
+        network.putEmptyMessage(Network.kAgentCleanup);
     }
 
     protected void onAgentMessage() throws UnsupportedEncodingException {
@@ -121,9 +161,39 @@ public class ClientAgent {
         String reply = agent.agent_message(message);
 
         network.clearSendBuffer();
-        network.putInt(Network.kAgentMessage);
-        network.putInt(Network.sizeOf(reply));
-        network.putString(reply);
+        network.putStringMessage(Network.kAgentMessage, reply);
+    }
+
+    /**
+     * Which experiment this agent belongs to, when the glue server is hosting
+     * more than one.  Has to be set before connect.  Defaults to RLGLUE_SESSION,
+     * or Network.kNoSession if that isn't set.
+     * @param sessionId
+     */
+    public void setSessionId(int sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * How the socket is set up (TCP_NODELAY, SO_SNDBUF/SO_RCVBUF, keepalive),
+     * how big the buffers start out and which capabilities to ask the glue
+     * for (float doubles, compression, shared memory and so on).  Has to be
+     * set before connect.  They are read from system properties and
+     * environment variables like RLGLUE_TCP_NODELAY and RLGLUE_FLOAT_DOUBLES
+     * if you don't set them (see NetworkOptions).
+     * @param networkOptions
+     * @since 2.1
+     */
+    public void setOptions(NetworkOptions networkOptions) {
+        network.setOptions(networkOptions);
+    }
+
+    public NetworkOptions getOptions() {
+        return network.getOptions();
     }
 
     /**
@@ -135,11 +205,7 @@ public class ClientAgent {
      */
     public void connect(String host, int port, int timeout) throws Exception {
         network.connect(host, port, timeout);
-        network.clearSendBuffer();
-        network.putInt(Network.kAgentConnection);
-        network.putInt(0); // No body to this packet
-        network.flipSendBuffer();
-        network.send();
+        network.requestCapabilities(Network.kAgentConnection, sessionId);
     }
 
     public void close() throws IOException {
@@ -148,42 +214,15 @@ public class ClientAgent {
 
     public void runAgentEventLoop() throws Exception {
         int agentState = 0;
-        int dataSize = 0;
-        int recvSize = 0;
-        int remaining = 0;
 
         do {
-
-            network.clearRecvBuffer();
-
-
             try {
-                recvSize = network.recv(8) - 8; // We may have received the header and part of the payload
-                // We need to keep track of how much of the payload was recv'd
-
-
-                agentState = network.getInt(0);
-                dataSize = network.getInt(Network.kIntSize);
-
-                remaining = dataSize - recvSize;
-                if (remaining < 0) {
-                    System.out.println("Remaining was less than 0!");
-                    remaining = 0;
-                }
+                agentState = network.recvMessage();
             } catch (RLGlueDisconnectException e) {
                 System.err.println(e.getMessage());
                System.exit(1);
             }
 
-
-            int amountReceived = network.recv(remaining);
-
-            network.flipRecvBuffer();
-
-            // We have already received the header, now we need to discard it.
-            network.getInt();
-            network.getInt();
-
             switch (agentState) {
                 case Network.kAgentInit:
                     onAgentInit();
@@ -37,6 +37,9 @@ public class ClientEnvironment {
     protected Network network;
     protected EnvironmentInterface env;
     protected volatile boolean killedFromAbove = false;
+    private boolean reuseObjects = Boolean.valueOf(System.getenv("RLGLUE_REUSE_OBJECTS")).booleanValue();
+    private final Action reusableAction = new Action();
+    private int sessionId = Network.sessionIdFromEnvironment();
 
     public ClientEnvironment(EnvironmentInterface env) {
         this.env = env;
@@ -46,40 +49,54 @@ public class ClientEnvironment {
         this.network = new Network();
     }
 
+    /**
+     * Object reuse mode: decode every action into the same Action (and the
+     * same arrays, as long as their sizes don't change) instead of allocating
+     * new ones each step.
+     * <p>Only turn this on if your environment does not hang on to the actions
+     * it is given, because they will be overwritten on the next step.  You
+     * can also turn it on by setting RLGLUE_REUSE_OBJECTS=true.
+     * @param reuseObjects
+     */
+    public void setReuseObjects(boolean reuseObjects) {
+        this.reuseObjects = reuseObjects;
+    }
+
+    public boolean getReuseObjects() {
+        return reuseObjects;
+    }
+
     protected void onEnvInit() throws UnsupportedEncodingException {
         String taskSpec = env.env_init();
 
         network.clearSendBuffer();
-        network.putInt(Network.kEnvInit);
-        network.putInt(Network.sizeOf(taskSpec)); // This is different than taskSpec.length(). It also includes
-        network.putString(taskSpec);
+        network.putStringMessage(Network.kEnvInit, taskSpec);
     }
 
     protected void onEnvStart() {
         Observation obs = env.env_start();
 
         network.clearSendBuffer();
-        network.putInt(Network.kEnvStart);
-        network.putInt(Network.sizeOf(obs));
-        network.putObservation(obs);
+        network.putAbstractTypeMessage(Network.kEnvStart, obs);
     }
 
     protected void onEnvStep() {
-        Action action = network.getAction();
+        Action action;
+        if (reuseObjects) {
+            action = network.getAction(reusableAction);
+        } else {
+            action = network.getAction();
+        }
         Reward_observation_terminal rewardObservation = env.env_step(action);
 
         network.clearSendBuffer();
-        network.putInt(Network.kEnvStep);
-        network.putInt(Network.sizeOf(rewardObservation));
-
-        network.putRewardObservation(rewardObservation);
+        network.putRewardObservationMessage(Network.kEnvStep, rewardObservation);
     }
 
     protected void onEnvCleanup() {
         env.env_cleanup();
         network.clearSendBuffer();
-        network.putInt(Network.kEnvCleanup);
-        network.putInt(0);
+        network.putEmptyMessage(Network.kEnvCleanup);
     }
 
     protected void onEnvMessage() throws UnsupportedEncodingException {
@@ -87,19 +104,45 @@ public class ClientEnvironment {
         String reply = env.env_message(message);
 
         network.clearSendBuffer();
-        network.putInt(Network.kEnvMessage);
-        network.putInt(Network.sizeOf(reply));
-        network.putString(reply);
+        network.putStringMessage(Network.kEnvMessage, reply);
+    }
+
+    /**
+     * Which experiment this environment belongs to, when the glue server is hosting
+     * more than one.  Has to be set before connect.  Defaults to RLGLUE_SESSION,
+     * or Network.kNoSession if that isn't set.
+     * @param sessionId
+     */
+    public void setSessionId(int sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * How the socket is set up (TCP_NODELAY, SO_SNDBUF/SO_RCVBUF, keepalive),
+     * how big the buffers start out and which capabilities to ask the glue
+     * for (float doubles, compression, shared memory and so on).  Has to be
+     * set before connect.  They are read from system properties and
+     * environment variables like RLGLUE_TCP_NODELAY and RLGLUE_FLOAT_DOUBLES
+     * if you don't set them (see NetworkOptions).
+     * @param networkOptions
+     * @since 2.1
+     */
+    public void setOptions(NetworkOptions networkOptions) {
+        network.setOptions(networkOptions);
+    }
+
+    public NetworkOptions getOptions() {
+        return network.getOptions();
     }
 
     public void connect(String host, int port, int timeout) throws Exception {
         network.connect(host, port, timeout);
 
-        network.clearSendBuffer();
-        network.putInt(Network.kEnvironmentConnection);
-        network.putInt(0); // No body to this packet
-        network.flipSendBuffer();
-        network.send();
+        network.requestCapabilities(Network.kEnvironmentConnection, sessionId);
     }
 
     public void close() throws IOException {
@@ -108,36 +151,15 @@ public class ClientEnvironment {
 
     public void runEnvironmentEventLoop() throws Exception {
         int envState = 0;
-        int dataSize = 0;
-        int recvSize = 0;
-        int remaining = 0;
 
         do {
             try {
-                network.clearRecvBuffer();
-                recvSize = network.recv(8) - 8; // We may have received the header and part of the payload
-                // We need to keep track of how much of the payload was recv'd
-
-                envState = network.getInt(0);
-                dataSize = network.getInt(Network.kIntSize);
-
-                remaining = dataSize - recvSize;
-                if (remaining < 0) {
-                    remaining = 0;
-                }
-
-                network.recv(remaining);
+                envState = network.recvMessage();
             } catch (RLGlueDisconnectException e) {
                 System.err.println(e.getMessage());
                System.exit(1);
             }
 
-            network.flipRecvBuffer();
-
-            // We have already received the header, now we need to discard it.
-            network.getInt();
-            network.getInt();
-
             switch (envState) {
                 case Network.kEnvInit:
                     onEnvInit();
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * A pool of direct ByteBuffers shared by the Network objects in this JVM.
+ *
+ * Direct buffers are expensive to allocate and are only given back to the
+ * operating system when the garbage collector gets around to them.  When a
+ * Network outgrows a buffer, or is closed, the old buffer comes back here and
+ * is handed out again to the next Network that needs one that size.
+ *
+ * Buffers come in power of two sizes from 4 KB up, so a buffer that comes
+ * back can always be reused for any request in its size class.  The pool
+ * keeps at most getMaxPooledBytes() bytes of idle buffers; anything past that
+ * is dropped for the garbage collector.  The limit for the shared pool can
+ * be set with the RLGLUE_BUFFER_POOL_BYTES environment variable (default 16 MB,
+ * 0 turns pooling off).
+ *
+ * The pool also keeps the numbers you need to size -XX:MaxDirectMemorySize:
+ * how many direct bytes it has allocated, how many are still out there (in
+ * use or idle in the pool) and the most there have ever been at once.
+ * @author btanner
+ * @since 2.1
+ */
+public final class DirectBufferPool {
+
+    /** Smallest size class, 4 KB, which is also Network's starting buffer size. */
+    static final int kMinSizeClassShift = 12;
+    /** Largest size class, 1 GB.  Anything bigger is allocated exactly and never pooled. */
+    static final int kMaxSizeClassShift = 30;
+    /** Idle bytes the shared pool will keep unless RLGLUE_BUFFER_POOL_BYTES says otherwise. */
+    public static final long kDefaultMaxPooledBytes = 16L * 1024 * 1024;
+    private static final DirectBufferPool sharedPool = new DirectBufferPool(maxPooledBytesFromEnvironment());
+    private final ArrayList<ArrayList<ByteBuffer>> freeLists;
+    private long maxPooledBytes;
+    private long pooledBytes = 0;
+    private long outstandingBytes = 0;
+    private long peakOutstandingBytes = 0;
+    private long allocationCount = 0;
+    private long allocatedBytes = 0;
+    private long reuseCount = 0;
+    private long droppedCount = 0;
+
+    public DirectBufferPool(long maxPooledBytes) {
+        freeLists = new ArrayList<ArrayList<ByteBuffer>>(kMaxSizeClassShift + 1);
+        for (int i = 0; i <= kMaxSizeClassShift; i++) {
+            freeLists.add(new ArrayList<ByteBuffer>());
+        }
+        setMaxPooledBytes(maxPooledBytes);
+    }
+
+    /**
+     * The pool every Network uses unless it is given another one.
+     * @return the shared pool
+     */
+    public static DirectBufferPool getShared() {
+        return sharedPool;
+    }
+
+    /**
+     * Read RLGLUE_BUFFER_POOL_BYTES.  If it isn't a number, complain and use
+     * the default.
+     * @return the cap for the shared pool
+     */
+    static long maxPooledBytesFromEnvironment() {
+        String poolString = System.getenv("RLGLUE_BUFFER_POOL_BYTES");
+        if (poolString == null) {
+            return kDefaultMaxPooledBytes;
+        }
+        try {
+            return Long.parseLong(poolString.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Could not parse RLGLUE_BUFFER_POOL_BYTES: " + poolString + " so using " + kDefaultMaxPooledBytes + ".");
+            return kDefaultMaxPooledBytes;
+        }
+    }
+
+    /**
+     * Round up to the size class a request for minCapacity bytes will get.
+     * @param minCapacity
+     * @return a power of two no smaller than 4096, or minCapacity itself if
+     * it is bigger than the largest size class
+     */
+    public static int sizeClassFor(int minCapacity) {
+        if (minCapacity > (1 << kMaxSizeClassShift)) {
+            return minCapacity;
+        }
+        int capacity = 1 << kMinSizeClassShift;
+        while (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Get a cleared direct buffer with at least minCapacity bytes, reusing an
+     * idle one if the pool has one.
+     * @param minCapacity
+     * @return a buffer with capacity sizeClassFor(minCapacity)
+     */
+    public synchronized ByteBuffer acquire(int minCapacity) {
+        int capacity = sizeClassFor(minCapacity);
+        int shift = shiftOf(capacity);
+        if (shift >= 0) {
+            ArrayList<ByteBuffer> freeList = freeLists.get(shift);
+            if (!freeList.isEmpty()) {
+                ByteBuffer buffer = freeList.remove(freeList.size() - 1);
+                pooledBytes -= capacity;
+                reuseCount++;
+                buffer.clear();
+                return buffer;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        allocationCount++;
+        allocatedBytes += capacity;
+        outstandingBytes += capacity;
+        if (outstandingBytes > peakOutstandingBytes) {
+            peakOutstandingBytes = outstandingBytes;
+        }
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back.  The caller must not touch it again.  Buffers that
+     * didn't come from a pool (heap buffers, odd sizes) are ignored, and
+     * buffers bigger than the largest size class or that would push the pool
+     * past its cap are dropped.
+     * @param buffer
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int shift = shiftOf(capacity);
+        if (shift < 0) {
+            if (capacity > (1 << kMaxSizeClassShift)) {
+                //One of ours, too big for a size class, so never pooled
+                outstandingBytes -= capacity;
+                droppedCount++;
+            }
+            return;
+        }
+        if (pooledBytes + capacity > maxPooledBytes) {
+            outstandingBytes -= capacity;
+            droppedCount++;
+            return;
+        }
+        freeLists.get(shift).add(buffer);
+        pooledBytes += capacity;
+    }
+
+    /**
+     * Drop every idle buffer for the garbage collector.
+     */
+    public synchronized void trim() {
+        for (ArrayList<ByteBuffer> freeList : freeLists) {
+            droppedCount += freeList.size();
+            freeList.clear();
+        }
+        outstandingBytes -= pooledBytes;
+        pooledBytes = 0;
+    }
+
+    private static int shiftOf(int capacity) {
+        if (capacity < (1 << kMinSizeClassShift) || Integer.bitCount(capacity) != 1) {
+            return -1;
+        }
+        int shift = Integer.numberOfTrailingZeros(capacity);
+        return shift <= kMaxSizeClassShift ? shift : -1;
+    }
+
+    public synchronized long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    /**
+     * Change how many idle bytes the pool will keep.  Lowering it doesn't
+     * drop anything that is already pooled; call trim() for that.
+     * @param maxPooledBytes 0 turns pooling off
+     */
+    public synchronized void setMaxPooledBytes(long maxPooledBytes) {
+        if (maxPooledBytes < 0) {
+            throw new IllegalArgumentException("maxPooledBytes must not be negative: " + maxPooledBytes);
+        }
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /** @return bytes sitting idle in the pool */
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /** @return direct bytes allocated through this pool and not dropped yet, in use or idle */
+    public synchronized long getOutstandingBytes() {
+        return outstandingBytes;
+    }
+
+    /** @return the most getOutstandingBytes() has ever been */
+    public synchronized long getPeakOutstandingBytes() {
+        return peakOutstandingBytes;
+    }
+
+    /** @return how many times acquire had to allocate a new direct buffer */
+    public synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+
+    /** @return total direct bytes ever allocated through this pool */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /** @return how many times acquire handed out an idle buffer instead of allocating */
+    public synchronized long getReuseCount() {
+        return reuseCount;
+    }
+
+    /** @return how many buffers were let go because the pool was full, or by trim */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DirectBufferPool[allocations=" + allocationCount
+                + ", allocatedBytes=" + allocatedBytes
+                + ", reuses=" + reuseCount
+                + ", dropped=" + droppedCount
+                + ", pooledBytes=" + pooledBytes + "/" + maxPooledBytes
+                + ", outstandingBytes=" + outstandingBytes
+                + ", peakOutstandingBytes=" + peakOutstandingBytes + "]";
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Cuts the bytes coming in on a channel into messages (frames): an int code,
+ * an int body size, then the body.
+ *
+ * Reading the header and then the body with separate reads costs at least two
+ * system calls per message.  FrameReader instead reads as much as the buffer
+ * will take every time, and then hands out as many whole frames as it got.
+ * A small message costs one read, and when the other end sends several
+ * messages without waiting (like the steps of a kRLEpisodeStream) some
+ * frames cost no read at all.  Bytes past the end of a frame are kept for
+ * the next one.
+ *
+ * It never blocks or waits itself: fill() does exactly one read on the
+ * channel, so whoever owns the channel decides how to wait.  Network's
+ * recvMessage() is the usual way to use it.
+ *
+ * The frame handed out by poll() is the part of getBuffer() between its
+ * position (just after the header) and its limit.  It stays valid until the
+ * next call to poll() or fill().
+ * @author btanner
+ * @since 2.1
+ */
+public final class FrameReader {
+
+    /** What poll() returns when there isn't a whole frame yet. */
+    public static final int kNoFrame = -1;
+    private final DirectBufferPool bufferPool;
+    private ByteBuffer buffer;
+    /** How many bytes at the start of buffer have been received */
+    private int dataEnd = 0;
+    /** Where the frame from poll() ends, or 0 if there isn't one */
+    private int frameEnd = 0;
+    private long readCount = 0;
+    private long frameCount = 0;
+    private long resizeCount = 0;
+
+    /**
+     * @param buffer Buffer to read into.  Whatever is in it is ignored.
+     * @param bufferPool Where bigger buffers come from when a frame doesn't fit,
+     * and where the old ones go.
+     */
+    public FrameReader(ByteBuffer buffer, DirectBufferPool bufferPool) {
+        this.buffer = buffer;
+        this.bufferPool = bufferPool;
+        buffer.clear();
+    }
+
+    /**
+     * Hand out the next whole frame, if one has been received.  The frame
+     * from the last call is finished first.
+     * @return The frame's code, or kNoFrame.
+     */
+    public int poll() {
+        finishFrame();
+        if (dataEnd < Network.kHeaderSize) {
+            return kNoFrame;
+        }
+        int frameSize = Network.kHeaderSize + buffer.getInt(Network.kIntSize);
+        if (dataEnd < frameSize) {
+            //Make room now so the next fill can read the rest in one go
+            ensureCapacity(frameSize);
+            return kNoFrame;
+        }
+        frameEnd = frameSize;
+        frameCount++;
+        buffer.limit(frameEnd);
+        buffer.position(Network.kHeaderSize);
+        return buffer.getInt(0);
+    }
+
+    /**
+     * Read once from channel, as much as there is room for.  The frame from
+     * the last poll() is finished first.
+     * @param channel
+     * @return What the read returned: the number of bytes, 0 if a
+     * non-blocking channel had nothing, or -1 at the end of the stream.
+     * @throws java.io.IOException
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        finishFrame();
+        if (dataEnd == buffer.capacity()) {
+            ensureCapacity(dataEnd + 1);
+        }
+        buffer.limit(buffer.capacity());
+        buffer.position(dataEnd);
+        int received = channel.read(buffer);
+        readCount++;
+        if (received > 0) {
+            dataEnd += received;
+        }
+        return received;
+    }
+
+    /**
+     * Throw away everything that has been received.
+     */
+    public void clear() {
+        dataEnd = 0;
+        frameEnd = 0;
+        buffer.clear();
+    }
+
+    /**
+     * @return The buffer frames are read into.  It changes when a frame
+     * doesn't fit.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return How many bytes have been received but not handed out by poll().
+     */
+    public int getBufferedBytes() {
+        return dataEnd - frameEnd;
+    }
+
+    /**
+     * @return How many times fill() has read from a channel.
+     */
+    public long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * @return How many frames poll() has handed out.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return How many times the buffer has been swapped for a bigger one.
+     */
+    public long getResizeCount() {
+        return resizeCount;
+    }
+
+    /**
+     * Move any bytes past the current frame to the front of the buffer.
+     */
+    private void finishFrame() {
+        if (frameEnd == 0) {
+            return;
+        }
+        int leftover = dataEnd - frameEnd;
+        if (leftover > 0) {
+            buffer.limit(dataEnd);
+            buffer.position(frameEnd);
+            buffer.compact();
+        }
+        dataEnd = leftover;
+        frameEnd = 0;
+    }
+
+    /**
+     * Make sure buffer can hold required bytes, keeping what has been
+     * received.  Like Network, grows by at least doubling.
+     */
+    private void ensureCapacity(int required) {
+        if (buffer.capacity() >= required) {
+            return;
+        }
+        int doubled = buffer.capacity() <= Integer.MAX_VALUE / 2 ? buffer.capacity() * 2 : Integer.MAX_VALUE;
+        ByteBuffer bigger = bufferPool.acquire(Math.max(required, doubled));
+        buffer.limit(dataEnd);
+        buffer.position(0);
+        bigger.put(buffer);
+        bufferPool.release(buffer);
+        buffer = bigger;
+        resizeCount++;
+    }
+}
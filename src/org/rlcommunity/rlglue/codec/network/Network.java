@@ -25,11 +25,18 @@ package org.rlcommunity.rlglue.codec.network;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.BufferBackedObservation;
 import org.rlcommunity.rlglue.codec.types.Observation;
 import org.rlcommunity.rlglue.codec.types.RL_abstract_type;
 import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
@@ -45,6 +52,12 @@ import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
  * experiment all from the same Thread in Java.  But why would you do that?
  * You would have them in different Threads or preferably different processes, so
  * none of this matters.
+ *
+ * What recv does while it waits on a NON-BLOCKING socket is up to the
+ * WaitStrategy.  If RLGLUE_WAIT_STRATEGY is set to something other than
+ * "block" (see WaitStrategies), the plain connect(host,port,timeout) will
+ * connect and then switch the socket to NON-BLOCKING, so that the strategy
+ * decides whether we spin, yield, park or select.
  * @author btanner
  */
 public class Network {
@@ -79,31 +92,211 @@ public class Network {
     public static final int kRLAgentStart = 38;
     public static final int kRLAgentStep = 39;
     public static final int kRLAgentEnd = 40;
+    /**
+     * RL_episode that also pushes every step to the experiment as it happens
+     * (see NetGlue.RL_episode_stream).  Only the Java GlueServer knows this
+     * one and the two below; the C rl_glue doesn't.
+     */
+    public static final int kRLEpisodeStream = 41;
+    /** Pushed during kRLEpisodeStream: the observation and action from RL_start. */
+    public static final int kRLEpisodeStreamStart = 42;
+    /** Pushed during kRLEpisodeStream: the same body as the reply to kRLStep. */
+    public static final int kRLEpisodeStreamStep = 43;
+    /**
+     * The Java GlueServer's reply to a connection message that asked for
+     * capabilities (see sendConnectionType): an int with the ones it agreed to.
+     */
+    public static final int kCapabilities = 44;
+    /**
+     * Capability: the doubleArray of every observation and action on this
+     * connection is sent as 4 byte floats instead of 8 byte doubles.
+     */
+    public static final int kCapabilityFloatDoubles = 1;
+    /**
+     * Capability: an observation on this connection can be sent as just the
+     * entries that changed since the last one.  The GlueServer only agrees
+     * to this for environments.
+     */
+    public static final int kCapabilityObservationDeltas = 2;
+    /**
+     * Capability: either end of this connection may deflate a message whose
+     * body is at least its compression threshold.  Such a message has
+     * kCompressedFrame or'ed into its code, and its body is the size of the
+     * original body followed by the deflated bytes.
+     */
+    public static final int kCapabilityCompression = 4;
+    /**
+     * Capability: messages on this connection go through a pair of rings in a
+     * memory mapped file instead of through the socket, which is only used to
+     * wake up a reader that has stopped spinning (see SharedMemoryChannel).
+     * The connection message has the path of the file after the
+     * capabilities.  The server only agrees if it can map the file, so only
+     * on the same machine.
+     */
+    public static final int kCapabilitySharedMemory = 8;
+    /** Or'ed into the code of a message whose body has been deflated. */
+    public static final int kCompressedFrame = 0x40000000;
+    /** Smallest body that is worth deflating, unless setCompressionThreshold says otherwise. */
+    public static final int kDefaultCompressionThreshold = 8192;
+    /** No capabilities: the connection speaks the protocol rl_glue does. */
+    public static final int kNoCapabilities = 0;
     public static final String kDefaultHost = "127.0.0.1";
     public static final int kDefaultPort = 4096;
     public static final int kRetryTimeout = 2;
+    /** Milliseconds to wait for the kCapabilities reply before giving up on the glue. */
+    public static final int kCapabilitiesTimeout = 10000;
+    /** No session id: the connection handshake has an empty body, as it always has. */
+    public static final int kNoSession = 0;
     protected static final int kByteBufferDefaultSize = 4096;
     public static final int kIntSize = 4;
+    /** Every message starts with its code and the size of its body, both ints. */
+    public static final int kHeaderSize = 2 * kIntSize;
     protected static final int kDoubleSize = 8;
+    protected static final int kFloatSize = 4;
     protected static final int kCharSize = 1;
     protected SocketChannel socketChannel = null;
-    private InetSocketAddress theConnectAddress = null;
+    /** How long sendConnectionType waits for kCapabilities; tests shorten it */
+    int capabilitiesTimeout = kCapabilitiesTimeout;
+    private Transport transport = null;
+    private NetworkOptions options;
     private boolean blocking = true;
-    private ByteBuffer recvBuffer;
-    private ByteBuffer sendBuffer;
+    protected ByteBuffer recvBuffer;
+    protected ByteBuffer sendBuffer;
+    private WaitStrategy waitStrategy = null;
+    private boolean nonBlockingAfterConnect = false;
+    private DirectBufferPool bufferPool = DirectBufferPool.getShared();
+    private long resizeCount = 0;
+    private int peakCapacity;
+    private int shrinkAfterMessages = 0;
+    private int sendMessagesSinceShrinkCheck = 0;
+    private int sendHighWater = 0;
+    private int recvMessagesSinceShrinkCheck = 0;
+    private int recvHighWater = 0;
+    /** Frames recvMessage(), null until it is first called or after clearRecvBuffer() */
+    private FrameReader frameReader = null;
+    private long readCount = 0;
+    private long writeCount = 0;
+    private boolean floatDoubles = false;
+    /** Observation deltas we send and receive, null unless setObservationDeltas is on */
+    private ObservationDelta sentDelta = null;
+    private ObservationDelta receivedDelta = null;
+    /** Whether the last bodySizeOf planned a delta for writeAbstractType to write */
+    private boolean deltaPlanned = false;
+    /** Whether the last bodySizeOf found doubles a float can't hold, so they go as doubles */
+    private boolean widePlanned = false;
+    private boolean compression = false;
+    private int compressionThreshold = kDefaultCompressionThreshold;
+    private Deflater deflater = null;
+    private Inflater inflater = null;
+    private byte[] compressionInput = new byte[0];
+    private byte[] compressionOutput = new byte[0];
+    /** Where the last compressed message received was inflated to */
+    private ByteBuffer inflatedBuffer = null;
+    private long compressedFrameCount = 0;
+    private long compressionInputBytes = 0;
+    private long compressionOutputBytes = 0;
+    /** Where messages go instead of the socket once kCapabilitySharedMemory is agreed, or null */
+    protected SharedMemoryChannel sharedMemory = null;
 
     public Network() {
-        recvBuffer = ByteBuffer.allocateDirect(kByteBufferDefaultSize);
-        sendBuffer = ByteBuffer.allocateDirect(kByteBufferDefaultSize);
+        this(NetworkOptions.fromEnvironment());
     }
 
+    /**
+     * @param options How to set up the socket and buffers.
+     * @since 2.1
+     */
+    public Network(NetworkOptions options) {
+        this.options = new NetworkOptions(options);
+        recvBuffer = bufferPool.acquire(options.getInitialBufferSize());
+        sendBuffer = bufferPool.acquire(options.getInitialBufferSize());
+        peakCapacity = recvBuffer.capacity();
+        setWaitStrategy(WaitStrategies.fromEnvironment());
+    }
+
+    /**
+     * Choose how the socket and buffers are set up.  The socket options are
+     * used by the next connect, so set this first; the buffers are swapped
+     * for ones of the new initial size if nothing is in them.
+     * @param newOptions Copied, so changing them afterwards does nothing.
+     * @since 2.1
+     */
+    public void setOptions(NetworkOptions newOptions) {
+        this.options = new NetworkOptions(newOptions);
+        int size = DirectBufferPool.sizeClassFor(options.getInitialBufferSize());
+        if (frameReader == null && recvBuffer.position() == 0 && recvBuffer.capacity() != size) {
+            bufferPool.release(recvBuffer);
+            recvBuffer = bufferPool.acquire(size);
+        }
+        if (sendBuffer.position() == 0 && sendBuffer.capacity() != size) {
+            bufferPool.release(sendBuffer);
+            sendBuffer = bufferPool.acquire(size);
+        }
+    }
+
+    /**
+     * @return A copy of the options in use.
+     * @since 2.1
+     */
+    public NetworkOptions getOptions() {
+        return new NetworkOptions(options);
+    }
+
+    /**
+     * Connects with a BLOCKING socket, unless a WaitStrategy has been chosen
+     * (through setWaitStrategy or RLGLUE_WAIT_STRATEGY), in which case the
+     * socket is switched to NON-BLOCKING once it is connected.
+     * @param host
+     * @param port
+     * @param retryTimeout
+     */
     public void connect(String host, int port, int retryTimeout) {
         connect(host, port, retryTimeout, true);
+        if (nonBlockingAfterConnect) {
+            try {
+                socketChannel.configureBlocking(false);
+                this.blocking = false;
+            } catch (IOException ioException) {
+                System.err.println("Could not switch socket to non-blocking, staying blocking: " + ioException);
+            }
+        }
+    }
+
+    /**
+     * Choose what recv does while it is waiting on a NON-BLOCKING socket.
+     * Passing null goes back to the default: a BLOCKING socket from
+     * connect(host,port,timeout), and Thread.yield() if the socket was
+     * opened NON-BLOCKING anyway.
+     * <p>Whether connect(host,port,timeout) makes a NON-BLOCKING socket is
+     * decided when it is called, so set this first.
+     * @param newWaitStrategy The strategy to use, or null for the default.
+     */
+    public void setWaitStrategy(WaitStrategy newWaitStrategy) {
+        if (waitStrategy != null) {
+            try {
+                waitStrategy.close();
+            } catch (IOException ioException) {
+                System.err.println("Problem closing old wait strategy: " + ioException);
+            }
+        }
+        if (newWaitStrategy == null) {
+            waitStrategy = new YieldWaitStrategy();
+            nonBlockingAfterConnect = false;
+        } else {
+            waitStrategy = newWaitStrategy;
+            nonBlockingAfterConnect = true;
+        }
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
     }
 
     /**
      * Support for NON-BLOCKING added. If you are using NON-BLOCKING, then be
      * sure to call ensureConnected() afterward until it returns true.
+     * <p>host can also be unix: and a path, to connect over a Unix domain
+     * socket instead of TCP (see {@link Transports#forHost(String, int)}).
      * @param host
      * @param port
      * @param retryTimeout
@@ -114,10 +307,10 @@ public class Network {
         boolean didComplete = false;
         boolean actuallyDidConnect = false;
 
+        transport = Transports.forHost(host, port, options);
         while (!didComplete) {
             try {
-                theConnectAddress = new InetSocketAddress(host, port);
-                actuallyDidConnect = connect(theConnectAddress, blocking);
+                actuallyDidConnect = connect(transport, blocking);
                 didComplete = true;
             } catch (IOException ioException) {
                 try {
@@ -135,14 +328,28 @@ public class Network {
      * @return
      * @throws java.io.IOException
      */
-    private boolean connect(InetSocketAddress theAddress, boolean shouldBlock) throws IOException {
+    private boolean connect(Transport theTransport, boolean shouldBlock) throws IOException {
         boolean actuallyDidConnect = false;
-        socketChannel = SocketChannel.open();
-        socketChannel.configureBlocking(shouldBlock);
-        actuallyDidConnect = socketChannel.connect(theAddress);
+        socketChannel = theTransport.open();
+        try {
+            socketChannel.configureBlocking(shouldBlock);
+            actuallyDidConnect = socketChannel.connect(theTransport.getAddress());
+        } catch (IOException ioException) {
+            //Nothing listening yet: don't leak a channel per retry
+            socketChannel.close();
+            throw ioException;
+        }
         return actuallyDidConnect;
     }
 
+    /**
+     * @return What the last connect used to reach the glue, or null before connect.
+     * @since 2.1
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
     /**
      * This can be used in NON-BLOCKING mode to be sure that the connection was made.
      * Probably call this in a loop.  In BLOCKING mode, you don't need to call this.
@@ -161,7 +368,7 @@ public class Network {
             try {
                 //This can happen if RL-Glue isn't running yet.  We should try to connect
                 //again, return false, and hope that this works later.
-                canFinishConnectionOrConnected = connect(theConnectAddress, this.blocking);
+                canFinishConnectionOrConnected = connect(transport, this.blocking);
             } catch (IOException ex1) {
             }
 
@@ -169,12 +376,77 @@ public class Network {
         return canFinishConnectionOrConnected;
     }
 
+    /**
+     * Close the socket and give both buffers back to the pool.  They are
+     * replaced by empty ones, so a Network that is used after it is closed
+     * just acquires new buffers as it needs them.
+     * @throws java.io.IOException
+     */
     public void close() throws IOException {
-        socketChannel.close();
+        try {
+            waitStrategy.close();
+            if (sharedMemory != null) {
+                sharedMemory.close();
+                sharedMemory = null;
+            }
+            if (socketChannel != null) {
+                socketChannel.close();
+            }
+        } finally {
+            restoreRecvBuffer();
+            ByteBuffer oldRecv = recvBuffer;
+            ByteBuffer oldSend = sendBuffer;
+            frameReader = null;
+            if (inflatedBuffer != null && inflatedBuffer != oldRecv) {
+                bufferPool.release(inflatedBuffer);
+            }
+            inflatedBuffer = null;
+            if (deflater != null) {
+                deflater.end();
+                inflater.end();
+                deflater = null;
+                inflater = null;
+            }
+            if (sentDelta != null) {
+                sentDelta.reset();
+                receivedDelta.reset();
+            }
+            recvBuffer = ByteBuffer.allocate(0);
+            sendBuffer = ByteBuffer.allocate(0);
+            bufferPool.release(oldRecv);
+            bufferPool.release(oldSend);
+        }
     }
 
+    /**
+     * Write the send buffer to the socket.  If compression has been agreed
+     * (kCapabilityCompression) and the buffer holds one message with a body
+     * of at least the compression threshold, it is deflated first.
+     * <p>On a NON-BLOCKING socket this keeps writing, asking the WaitStrategy
+     * to wait whenever the socket is full, until the whole buffer is out.
+     * @return How many bytes were written: everything that was in the buffer
+     * @throws java.io.IOException
+     */
     public int send() throws IOException {
-        return socketChannel.write(sendBuffer);
+        if (compression && sendBuffer.remaining() - kHeaderSize >= compressionThreshold) {
+            sendBuffer.limit(compressFrame(sendBuffer, sendBuffer.position(), sendBuffer.limit()));
+        }
+        noteSendSize(sendBuffer.remaining());
+        int written = 0;
+        int idleCount = 0;
+        //A NON-BLOCKING socket takes as much as fits, so keep going until the whole message is out
+        while (sendBuffer.hasRemaining()) {
+            int amount = dataChannel().write(sendBuffer);
+            writeCount++;
+            if (amount == 0) {
+                idleCount++;
+                waitStrategy.idleWrite(socketChannel, idleCount);
+            } else {
+                idleCount = 0;
+                written += amount;
+            }
+        }
+        return written;
     }
 
     /**
@@ -190,10 +462,11 @@ public class Network {
     public int recv(int size) throws IOException {
         if(size==0)return 0;
         int amountReceived = 0;
+        int idleCount = 0;
 
         amountReceived = recvNonBlock(size);
         while (amountReceived == 0) {
-            Thread.yield();
+            waitStrategy.idle(socketChannel, ++idleCount);
             amountReceived = recvNonBlock(size);
         }
         return amountReceived;
@@ -222,9 +495,11 @@ public class Network {
         this.ensureRecvCapacityRemains(size);
 
         int recvTotal = 0;
+        int idleCount = 0;
         while (recvTotal < size) {
             int recvSize = 0;
-            recvSize = socketChannel.read(recvBuffer);
+            recvSize = dataChannel().read(recvBuffer);
+            readCount++;
             if (recvSize == -1) {
                 close();
                 throw new RLGlueDisconnectException("ERROR: Java Codec was expecting read: " + size + " bytes but only received: " + recvTotal + ".\n\tRL-Glue probably closed the connection.");
@@ -237,19 +512,496 @@ public class Network {
                 //if we receive 0 bytes on the first read.
                 return 0;
             }
+            if (recvSize == 0) {
+                //Part of a message is here, the rest is still on its way
+                waitStrategy.idle(socketChannel, ++idleCount);
+            } else {
+                idleCount = 0;
+            }
         }
         return recvTotal;
     }
 
+    /**
+     * Receive one whole message.  Unlike clearRecvBuffer() then recv(), this
+     * reads through a FrameReader: every read takes as much as the receive
+     * buffer will hold, so a small message (header and body) usually costs a
+     * single read, and any bytes that arrived after the message are kept for
+     * the next call.  That also makes it work when the other end sends several
+     * messages without waiting for us (like the steps pushed during a
+     * kRLEpisodeStream).  Every message has to be received this way for that
+     * to work: clearRecvBuffer() and recv() throw the extra bytes away.
+     * <p>The receive buffer is left positioned just after the header and
+     * limited to the end of the message, so the get methods read the body.
+     * @return The message code
+     * @throws java.io.IOException
+     * @since 2.1
+     */
+    public int recvMessage() throws IOException {
+        restoreRecvBuffer();
+        if (frameReader == null || frameReader.getBuffer() != recvBuffer) {
+            //First call, or recv() has been used since: start from empty
+            frameReader = new FrameReader(recvBuffer, bufferPool);
+        } else if (frameReader.getBufferedBytes() == 0 && shrinkAfterMessages > 0 && recvMessagesSinceShrinkCheck >= shrinkAfterMessages) {
+            recvBuffer = shrinkIfIdle(recvBuffer, recvHighWater);
+            recvMessagesSinceShrinkCheck = 0;
+            recvHighWater = 0;
+            if (frameReader.getBuffer() != recvBuffer) {
+                frameReader = new FrameReader(recvBuffer, bufferPool);
+            }
+        }
+        int code = frameReader.poll();
+        int idleCount = 0;
+        while (code == FrameReader.kNoFrame) {
+            int received = frameReader.fill(dataChannel());
+            readCount++;
+            if (received == -1) {
+                int buffered = frameReader.getBufferedBytes();
+                close();
+                throw new RLGlueDisconnectException("ERROR: Java Codec was expecting a message but only received: " + buffered + " bytes of one.\n\tRL-Glue probably closed the connection.");
+            }
+            if (received == 0) {
+                waitStrategy.idle(socketChannel, ++idleCount);
+            } else {
+                idleCount = 0;
+            }
+            code = frameReader.poll();
+        }
+        if (frameReader.getBuffer() != recvBuffer) {
+            //The reader outgrew the buffer and already gave the old one back
+            recvBuffer = frameReader.getBuffer();
+            resizeCount++;
+            if (recvBuffer.capacity() > peakCapacity) {
+                peakCapacity = recvBuffer.capacity();
+            }
+        }
+        recvMessagesSinceShrinkCheck++;
+        if (recvBuffer.limit() > recvHighWater) {
+            recvHighWater = recvBuffer.limit();
+        }
+        if ((code & kCompressedFrame) != 0) {
+            code &= ~kCompressedFrame;
+            recvBuffer = inflateFrame(recvBuffer, code);
+        }
+        return code;
+    }
+
+    /**
+     * If the receive buffer is pointing at an inflated message, point it back
+     * at the buffer the messages arrive in.
+     */
+    private void restoreRecvBuffer() {
+        if (recvBuffer == inflatedBuffer && frameReader != null) {
+            recvBuffer = frameReader.getBuffer();
+        }
+    }
+
+    /**
+     * Send the first message on a new connection, saying whether we are the
+     * experiment, agent or environment.  A glue server hosting more than one
+     * experiment (like GlueServer in multi-session mode) needs to know which
+     * one we belong to, so if sessionId isn't kNoSession it is sent as the
+     * body.  Otherwise the message is exactly what it has always been.
+     * @param connectionType kExperimentConnection, kAgentConnection or kEnvironmentConnection
+     * @param sessionId
+     * @throws java.io.IOException
+     */
+    public void sendConnectionType(int connectionType, int sessionId) throws IOException {
+        sendConnectionType(connectionType, sessionId, kNoCapabilities);
+    }
+
+    /**
+     * sendConnectionType, asking for the capabilities turned on in the
+     * options (see NetworkOptions.requestedCapabilities).  This is how
+     * ClientAgent, ClientEnvironment and NetGlue connect.
+     * @param connectionType kExperimentConnection, kAgentConnection or kEnvironmentConnection
+     * @param sessionId
+     * @return The capabilities the server agreed to.
+     * @throws java.io.IOException
+     * @since 2.1
+     */
+    public int requestCapabilities(int connectionType, int sessionId) throws IOException {
+        if (options.getCompressionThreshold() != NetworkOptions.kNoCompression) {
+            setCompressionThreshold(options.getCompressionThreshold());
+        }
+        return sendConnectionType(connectionType, sessionId, options.requestedCapabilities(connectionType));
+    }
+
+    /**
+     * Like sendConnectionType(connectionType, sessionId), but also asks for
+     * capabilities that only the Java GlueServer has, like
+     * kCapabilityFloatDoubles.  The session id and the capabilities are sent
+     * as the body, and then we wait for the server's kCapabilities reply and
+     * turn on whatever it agreed to.
+     * <p>The C rl_glue doesn't answer, so only ask for capabilities when you
+     * know you are connecting to a GlueServer.  If no answer comes within
+     * kCapabilitiesTimeout milliseconds this throws an IOException rather
+     * than waiting forever.  With kNoCapabilities this is exactly
+     * sendConnectionType(connectionType, sessionId).
+     * @param connectionType kExperimentConnection, kAgentConnection or kEnvironmentConnection
+     * @param sessionId
+     * @param capabilities kCapability flags or'ed together
+     * @return The capabilities the server agreed to.
+     * @throws java.io.IOException
+     * @since 2.1
+     */
+    public int sendConnectionType(int connectionType, int sessionId, int capabilities) throws IOException {
+        SharedMemoryChannel offered = null;
+        if ((capabilities & kCapabilitySharedMemory) != 0) {
+            try {
+                offered = SharedMemoryChannel.create(SharedMemoryChannel.defaultDirectory(), SharedMemoryChannel.kDefaultCapacity);
+            } catch (IOException ioException) {
+                System.err.println("Could not make a shared memory file, using the socket: " + ioException);
+                capabilities &= ~kCapabilitySharedMemory;
+            }
+        }
+        try {
+            return sendConnectionType(connectionType, sessionId, capabilities, offered);
+        } finally {
+            if (offered != null) {
+                //The server has mapped it or isn't going to
+                offered.unlink();
+            }
+        }
+    }
+
+    private int sendConnectionType(int connectionType, int sessionId, int capabilities, SharedMemoryChannel offered) throws IOException {
+        clearSendBuffer();
+        putInt(connectionType);
+        if (offered != null) {
+            putInt(2 * kIntSize + sizeOf(offered.getPath()));
+            putInt(sessionId);
+            putInt(capabilities);
+            putString(offered.getPath());
+        } else if (capabilities != kNoCapabilities) {
+            putInt(2 * kIntSize);
+            putInt(sessionId);
+            putInt(capabilities);
+        } else if (sessionId == kNoSession) {
+            putInt(0); // No body to this packet
+        } else {
+            putInt(kIntSize);
+            putInt(sessionId);
+        }
+        flipSendBuffer();
+        send();
+        if (capabilities == kNoCapabilities) {
+            return kNoCapabilities;
+        }
+
+        awaitReply(capabilitiesTimeout, capabilities);
+        int code = recvMessage();
+        if (code != kCapabilities) {
+            throw new IOException("Asked the glue for capabilities " + capabilities + " but it answered with message " + code + " instead of " + kCapabilities + ".  Capabilities only work with the Java GlueServer.");
+        }
+        int agreed = getInt() & capabilities;
+        setFloatDoubles((agreed & kCapabilityFloatDoubles) != 0);
+        setObservationDeltas((agreed & kCapabilityObservationDeltas) != 0);
+        setCompression((agreed & kCapabilityCompression) != 0);
+        if ((agreed & kCapabilitySharedMemory) != 0) {
+            //The rings do their own spinning, and park on a blocking socket
+            socketChannel.configureBlocking(true);
+            blocking = true;
+            offered.attach(socketChannel);
+            sharedMemory = offered;
+        }
+        return agreed;
+    }
+
+    /**
+     * Wait until the glue has sent something back, for at most timeoutMillis.
+     * The C rl_glue never answers a request for capabilities, so without
+     * this recvMessage would wait on it forever.
+     */
+    private void awaitReply(int timeoutMillis, int capabilities) throws IOException {
+        boolean wasBlocking = socketChannel.isBlocking();
+        int ready;
+        Selector selector = Selector.open();
+        try {
+            socketChannel.configureBlocking(false);
+            SelectionKey key = socketChannel.register(selector, SelectionKey.OP_READ);
+            ready = selector.select(timeoutMillis);
+            key.cancel();
+        } finally {
+            //Closing the selector deregisters the channel, so it can block again
+            selector.close();
+            socketChannel.configureBlocking(wasBlocking);
+        }
+        if (ready == 0) {
+            throw new IOException("Asked the glue for capabilities " + capabilities + " but it didn't answer within " + timeoutMillis + " ms.  Capabilities only work with the Java GlueServer; the C rl_glue never answers, so don't ask for any when connecting to it.");
+        }
+    }
+
+    /**
+     * Send the doubleArray of observations and actions as 4 byte floats
+     * instead of 8 byte doubles, and expect them that way too.  Halves the
+     * bytes for continuous observations, at the cost of float precision.
+     * A float can't hold every double: a finite value beyond Float.MAX_VALUE
+     * would arrive as an infinity, and a non-zero one so small it rounds to 0
+     * would arrive as 0.  When an object has any of those its doubleArray is
+     * sent as 8 byte doubles after all, flagged by writing its number of
+     * doubles as ~numDoubles (always negative), so every value arrives.
+     * Both ends of the connection have to agree, so clients don't call this
+     * directly: they ask for kCapabilityFloatDoubles when they connect, and
+     * the GlueServer turns it on for its side of the connection.
+     * @param floatDoubles
+     * @since 2.1
+     */
+    public void setFloatDoubles(boolean floatDoubles) {
+        this.floatDoubles = floatDoubles;
+    }
+
+    public boolean getFloatDoubles() {
+        return floatDoubles;
+    }
+
+    /**
+     * Send each observation as the entries that changed since the last one
+     * sent on this connection, whenever that is smaller than the whole
+     * observation, and patch a copy of the last one received when a delta
+     * arrives.  Every observation sent or received on the connection has to
+     * go through putObservation/getObservation (or the message methods) for
+     * the copies to stay in step.  Like setFloatDoubles, both ends have to
+     * agree: environments ask for kCapabilityObservationDeltas when they
+     * connect.
+     * @param observationDeltas
+     * @since 2.1
+     */
+    public void setObservationDeltas(boolean observationDeltas) {
+        if (!observationDeltas) {
+            sentDelta = null;
+            receivedDelta = null;
+        } else if (sentDelta == null) {
+            sentDelta = new ObservationDelta();
+            receivedDelta = new ObservationDelta();
+        }
+    }
+
+    public boolean getObservationDeltas() {
+        return sentDelta != null;
+    }
+
+    /**
+     * Deflate big messages (see kCapabilityCompression) before sending them,
+     * and inflate the ones that arrive deflated.  Both ends have to agree:
+     * clients ask for kCapabilityCompression when they connect.
+     * @param compression
+     * @since 2.1
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public boolean getCompression() {
+        return compression;
+    }
+
+    /**
+     * @param compressionThreshold Smallest message body, in bytes, that is
+     * deflated when compression is on.  Small step messages aren't worth it.
+     * @since 2.1
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException("compressionThreshold must not be negative: " + compressionThreshold);
+        }
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+
+    /**
+     * Deflate the message in buffer from start to end in place, if it is one
+     * whole message and deflating makes it smaller.
+     * @return Where the message ends now.
+     * @since 2.1
+     */
+    protected int compressFrame(ByteBuffer buffer, int start, int end) {
+        int bodySize = end - start - kHeaderSize;
+        int code = buffer.getInt(start);
+        if (buffer.getInt(start + kIntSize) != bodySize || (code & kCompressedFrame) != 0) {
+            return end;
+        }
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            inflater = new Inflater();
+        }
+        if (compressionInput.length < bodySize) {
+            compressionInput = new byte[bodySize];
+            compressionOutput = new byte[bodySize];
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.limit(end);
+        view.position(start + kHeaderSize);
+        view.get(compressionInput, 0, bodySize);
+
+        //Only worth it if the deflated bytes and the size before fit in the body
+        int room = bodySize - kIntSize;
+        deflater.reset();
+        deflater.setInput(compressionInput, 0, bodySize);
+        deflater.finish();
+        int deflatedSize = 0;
+        while (!deflater.finished() && deflatedSize < room) {
+            deflatedSize += deflater.deflate(compressionOutput, deflatedSize, room - deflatedSize);
+        }
+        if (!deflater.finished()) {
+            return end;
+        }
+
+        buffer.putInt(start, code | kCompressedFrame);
+        buffer.putInt(start + kIntSize, kIntSize + deflatedSize);
+        buffer.putInt(start + kHeaderSize, bodySize);
+        view.limit(view.capacity());
+        view.position(start + kHeaderSize + kIntSize);
+        view.put(compressionOutput, 0, deflatedSize);
+        compressedFrameCount++;
+        compressionInputBytes += bodySize;
+        compressionOutputBytes += kIntSize + deflatedSize;
+        return start + kHeaderSize + kIntSize + deflatedSize;
+    }
+
+    /**
+     * Inflate a message that arrived deflated.  frame is positioned at the
+     * start of its body and limited to the end of it.
+     * @param code The message code, without kCompressedFrame.
+     * @return A buffer holding the message as it was before it was deflated,
+     * positioned just after the header and limited to the end of the body,
+     * good until the next message is inflated.
+     * @throws java.io.IOException If the body isn't valid deflated data.
+     * @since 2.1
+     */
+    protected ByteBuffer inflateFrame(ByteBuffer frame, int code) throws IOException {
+        int bodySize = frame.getInt();
+        int deflatedSize = frame.remaining();
+        if (inflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            inflater = new Inflater();
+        }
+        if (compressionInput.length < Math.max(bodySize, deflatedSize)) {
+            compressionInput = new byte[Math.max(bodySize, deflatedSize)];
+            compressionOutput = new byte[Math.max(bodySize, deflatedSize)];
+        }
+        frame.get(compressionInput, 0, deflatedSize);
+        inflater.reset();
+        inflater.setInput(compressionInput, 0, deflatedSize);
+        int inflatedSize = 0;
+        try {
+            while (inflatedSize < bodySize && !inflater.finished()) {
+                int amount = inflater.inflate(compressionOutput, inflatedSize, bodySize - inflatedSize);
+                if (amount == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflatedSize += amount;
+            }
+        } catch (DataFormatException dataFormatException) {
+            throw new IOException("Could not inflate a compressed message with code " + code + ": " + dataFormatException.getMessage());
+        }
+        if (inflatedSize != bodySize) {
+            throw new IOException("Compressed message with code " + code + " inflated to " + inflatedSize + " bytes instead of " + bodySize);
+        }
+
+        if (inflatedBuffer == null || inflatedBuffer.capacity() < kHeaderSize + bodySize) {
+            if (inflatedBuffer != null) {
+                bufferPool.release(inflatedBuffer);
+            }
+            inflatedBuffer = bufferPool.acquire(kHeaderSize + bodySize);
+        }
+        inflatedBuffer.clear();
+        inflatedBuffer.putInt(code);
+        inflatedBuffer.putInt(bodySize);
+        inflatedBuffer.put(compressionOutput, 0, bodySize);
+        inflatedBuffer.flip();
+        inflatedBuffer.position(kHeaderSize);
+        return inflatedBuffer;
+    }
+
+    /**
+     * @return How many messages this Network has deflated.
+     * @since 2.1
+     */
+    public long getCompressedFrameCount() {
+        return compressedFrameCount;
+    }
+
+    /**
+     * @return How many body bytes went into the messages that were deflated.
+     * @since 2.1
+     */
+    public long getCompressionInputBytes() {
+        return compressionInputBytes;
+    }
+
+    /**
+     * @return How many body bytes those messages took once deflated.
+     * @since 2.1
+     */
+    public long getCompressionOutputBytes() {
+        return compressionOutputBytes;
+    }
+
+    /**
+     * Read the RLGLUE_SESSION environment variable.  If it isn't a number,
+     * complain and don't use a session id.
+     * @return The session id from the environment, or kNoSession.
+     */
+    public static int sessionIdFromEnvironment() {
+        String sessionString = System.getenv("RLGLUE_SESSION");
+        if (sessionString == null) {
+            return kNoSession;
+        }
+        try {
+            return Integer.parseInt(sessionString.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Could not use session you requested: " + sessionString + " could not be parsed as an int.");
+            return kNoSession;
+        }
+    }
+
+    /**
+     * Where messages are read from and written to: the socket, or the
+     * shared memory rings once kCapabilitySharedMemory has been agreed.
+     * @return The channel to read and write messages with.
+     * @since 2.1
+     */
+    protected ByteChannel dataChannel() {
+        if (sharedMemory != null) {
+            return sharedMemory;
+        }
+        return socketChannel;
+    }
+
+    /**
+     * @return Whether messages go through shared memory (kCapabilitySharedMemory).
+     * @since 2.1
+     */
+    public boolean usesSharedMemory() {
+        return sharedMemory != null;
+    }
+
     public boolean isConnected() {
         return socketChannel.isConnected();
     }
 
     public void clearSendBuffer() {
+        if (shrinkAfterMessages > 0 && sendMessagesSinceShrinkCheck >= shrinkAfterMessages) {
+            sendBuffer = shrinkIfIdle(sendBuffer, sendHighWater);
+            sendMessagesSinceShrinkCheck = 0;
+            sendHighWater = 0;
+        }
         sendBuffer.clear();
     }
 
     public void clearRecvBuffer() {
+        restoreRecvBuffer();
+        frameReader = null;
+        if (shrinkAfterMessages > 0 && recvMessagesSinceShrinkCheck >= shrinkAfterMessages) {
+            recvBuffer = shrinkIfIdle(recvBuffer, recvHighWater);
+            recvMessagesSinceShrinkCheck = 0;
+            recvHighWater = 0;
+        }
         recvBuffer.clear();
     }
 
@@ -259,24 +1011,85 @@ public class Network {
 
     public void flipRecvBuffer() {
         recvBuffer.flip();
+        recvMessagesSinceShrinkCheck++;
+        if (recvBuffer.limit() > recvHighWater) {
+            recvHighWater = recvBuffer.limit();
+        }
+    }
+
+    private void noteSendSize(int size) {
+        sendMessagesSinceShrinkCheck++;
+        if (size > sendHighWater) {
+            sendHighWater = size;
+        }
     }
 
     public int[] getInts(int howMany) {
+        return getInts(howMany, null);
+    }
+
+    /**
+     * Read howMany ints into reuse if it is exactly the right length,
+     * otherwise into a new array.
+     * @param howMany
+     * @param reuse Array to fill, may be null.
+     * @return The array that was filled (reuse, or a new one)
+     */
+    public int[] getInts(int howMany, int[] reuse) {
         int currentPosition = recvBuffer.position();
-        int[] returnArray = new int[howMany];
+        int[] returnArray = reuse;
+        if (returnArray == null || returnArray.length != howMany) {
+            returnArray = new int[howMany];
+        }
         recvBuffer.asIntBuffer().get(returnArray);
         recvBuffer.position(currentPosition + howMany * 4);
         return returnArray;
     }
 
     public double[] getDoubles(int howMany) {
+        return getDoubles(howMany, null);
+    }
+
+    /**
+     * Read howMany doubles into reuse if it is exactly the right length,
+     * otherwise into a new array.
+     * @param howMany
+     * @param reuse Array to fill, may be null.
+     * @return The array that was filled (reuse, or a new one)
+     */
+    public double[] getDoubles(int howMany, double[] reuse) {
         int currentPosition = recvBuffer.position();
-        double[] returnArray = new double[howMany];
+        double[] returnArray = reuse;
+        if (returnArray == null || returnArray.length != howMany) {
+            returnArray = new double[howMany];
+        }
         recvBuffer.asDoubleBuffer().get(returnArray);
         recvBuffer.position(currentPosition + howMany * 8);
         return returnArray;
     }
 
+    /**
+     * Read howMany 4 byte floats into reuse (if it is exactly the right
+     * length, otherwise a new array), widening them to doubles.
+     * @param howMany
+     * @param reuse Array to fill, may be null.
+     * @return The array that was filled (reuse, or a new one)
+     * @since 2.1
+     */
+    public double[] getFloatsAsDoubles(int howMany, double[] reuse) {
+        int currentPosition = recvBuffer.position();
+        double[] returnArray = reuse;
+        if (returnArray == null || returnArray.length != howMany) {
+            returnArray = new double[howMany];
+        }
+        FloatBuffer floats = recvBuffer.asFloatBuffer();
+        for (int i = 0; i < howMany; i++) {
+            returnArray[i] = floats.get(i);
+        }
+        recvBuffer.position(currentPosition + howMany * kFloatSize);
+        return returnArray;
+    }
+
     public int getInt() {
         return recvBuffer.getInt();
     }
@@ -301,6 +1114,30 @@ public class Network {
         return (char) (b & 0xFF);
     }
 
+    public char[] getChars(int howMany) {
+        return getChars(howMany, null);
+    }
+
+    /**
+     * Bulk version of getChar.  Widens every byte straight out of the buffer
+     * with absolute gets, instead of going through getChar once per char.
+     * @param howMany
+     * @param reuse Array to fill if it is exactly the right length, may be null.
+     * @return The array that was filled (reuse, or a new one)
+     */
+    public char[] getChars(int howMany, char[] reuse) {
+        char[] returnArray = reuse;
+        if (returnArray == null || returnArray.length != howMany) {
+            returnArray = new char[howMany];
+        }
+        int currentPosition = recvBuffer.position();
+        for (int i = 0; i < howMany; ++i) {
+            returnArray[i] = (char) (recvBuffer.get(currentPosition + i) & 0xFF);
+        }
+        recvBuffer.position(currentPosition + howMany);
+        return returnArray;
+    }
+
     /**
      * Used for getting task spec and env/agent messages. UNLIKE the
      * charArrays in observations/actions/etc, these strings are null
@@ -324,28 +1161,86 @@ public class Network {
     }
 
     public Observation getObservation() {
-        Observation returnVal = new Observation();
+        return getObservation(null);
+    }
+
+    /**
+     * Decode the next observation into reuse instead of making a new one.
+     * The arrays in reuse are only reallocated if their lengths change, so
+     * steady-state observations produce no garbage at all.
+     * @param reuse Observation to overwrite, or null to make a new one.
+     * @return reuse (or the new Observation if reuse was null)
+     */
+    public Observation getObservation(Observation reuse) {
+        Observation returnVal = reuse;
+        if (returnVal == null) {
+            returnVal = new Observation();
+        }
         fillAbstractType(returnVal);
         return returnVal;
     }
 
+    /**
+     * Point a view at the next observation instead of decoding it.  Nothing is
+     * copied, the view reads out of the receive buffer, so it's only good
+     * until the next recv.
+     * @see BufferBackedObservation
+     * @param reuse View to re-point, or null to make a new one.
+     * @return reuse (or the new view if reuse was null)
+     */
+    public BufferBackedObservation getObservationView(BufferBackedObservation reuse) {
+        if (receivedDelta != null) {
+            throw new IllegalStateException("Observation views can't be used with observation deltas, use getObservation.");
+        }
+        BufferBackedObservation returnVal = reuse;
+        if (returnVal == null) {
+            returnVal = new BufferBackedObservation();
+        }
+        recvBuffer.position(returnVal.wrap(recvBuffer, recvBuffer.position(), floatDoubles));
+        return returnVal;
+    }
+
     public Action getAction() {
-        Action returnVal = new Action();
+        return getAction(null);
+    }
+
+    /**
+     * Decode the next action into reuse instead of making a new one.
+     * @see #getObservation(Observation)
+     * @param reuse Action to overwrite, or null to make a new one.
+     * @return reuse (or the new Action if reuse was null)
+     */
+    public Action getAction(Action reuse) {
+        Action returnVal = reuse;
+        if (returnVal == null) {
+            returnVal = new Action();
+        }
         fillAbstractType(returnVal);
         return returnVal;
     }
 
     private final void fillAbstractType(RL_abstract_type toFill) {
         final int numInts = getInt();
+        if (numInts == ObservationDelta.kMarker && receivedDelta != null && toFill instanceof Observation) {
+            RL_abstract_type.RLStructCopy(receivedDelta.patch(recvBuffer, floatDoubles), toFill);
+            return;
+        }
         final int numDoubles = getInt();
         final int numChars = getInt();
 
-        toFill.intArray = getInts(numInts);
-        toFill.doubleArray = getDoubles(numDoubles);
+        toFill.intArray = getInts(numInts, toFill.intArray);
+        if (floatDoubles && numDoubles < 0) {
+            //Sent as doubles after all, see setFloatDoubles
+            toFill.doubleArray = getDoubles(~numDoubles, toFill.doubleArray);
+        } else if (floatDoubles) {
+            toFill.doubleArray = getFloatsAsDoubles(numDoubles, toFill.doubleArray);
+        } else {
+            toFill.doubleArray = getDoubles(numDoubles, toFill.doubleArray);
+        }
 
-        toFill.charArray = new char[numChars];
-        for (int i = 0; i < numChars; ++i) {
-            toFill.charArray[i] = this.getChar();
+        toFill.charArray = getChars(numChars, toFill.charArray);
+        if (receivedDelta != null && toFill instanceof Observation) {
+            receivedDelta.remember((Observation) toFill);
         }
     }
 
@@ -403,6 +1298,23 @@ public class Network {
         this.sendBuffer.put((byte) (c & 0xFF));
     }
 
+    /**
+     * Bulk version of putChar.  One capacity check for the whole array, then
+     * each char is narrowed straight into the buffer with absolute puts.
+     * @param values
+     */
+    public void putChars(char[] values) {
+        if (values == null) {
+            return;
+        }
+        this.ensureSendCapacityRemains(Network.kCharSize * values.length);
+        int currentPosition = sendBuffer.position();
+        for (int i = 0; i < values.length; ++i) {
+            sendBuffer.put(currentPosition + i, (byte) (values[i] & 0xFF));
+        }
+        sendBuffer.position(currentPosition + values.length);
+    }
+
     public void putString(String message) throws UnsupportedEncodingException {
         // We don't want to have to deal null...
         if (message == null) {
@@ -417,66 +1329,358 @@ public class Network {
     }
 
     public final void putAbstractType(RL_abstract_type theObject) {
-        this.ensureSendCapacityRemains(Network.sizeOf(theObject));
+        if (theObject != null) {
+            theObject.materialize();
+        }
+        this.ensureSendCapacityRemains(bodySizeOf(theObject));
+        sendBuffer.position(writeAbstractType(sendBuffer.position(), theObject));
+    }
+
+    public void putObservation(Observation obs) {
+        putAbstractType(obs);
+    }
+
+    public void putAction(Action action) {
+        putAbstractType(action);
+    }
+
+    public void putRewardObservation(Reward_observation_terminal rewardObservation) {
+        Observation theObservation = rewardObservation.getObservation();
+        if (theObservation != null) {
+            theObservation.materialize();
+        }
+        this.ensureSendCapacityRemains(Network.kIntSize + Network.kDoubleSize + bodySizeOf(theObservation));
+        sendBuffer.position(writeRewardObservation(sendBuffer.position(), rewardObservation));
+    }
+
+    /**
+     * Put a whole message, header and all, whose body is one observation or
+     * action.  The body size is worked out once, capacity is checked once,
+     * and everything is written with absolute puts.  Same bytes as
+     * putInt(code), putInt(Network.sizeOf(theObject)), putAbstractType(theObject).
+     * @param code The message code, like kAgentStep
+     * @param theObject
+     * @since 2.1
+     */
+    public void putAbstractTypeMessage(int code, RL_abstract_type theObject) {
+        if (theObject != null) {
+            theObject.materialize();
+        }
+        int bodySize = bodySizeOf(theObject);
+        this.ensureSendCapacityRemains(kHeaderSize + bodySize);
+        int start = sendBuffer.position();
+        sendBuffer.putInt(start, code);
+        sendBuffer.putInt(start + kIntSize, bodySize);
+        sendBuffer.position(writeAbstractType(start + kHeaderSize, theObject));
+    }
 
-        int numInts = 0;
-        int numDoubles = 0;
-        int numChars = 0;
+    /**
+     * Like putAbstractTypeMessage, for a message whose body is a
+     * Reward_observation_terminal (kEnvStep's reply).
+     * @param code The message code
+     * @param rewardObservation
+     * @since 2.1
+     */
+    public void putRewardObservationMessage(int code, Reward_observation_terminal rewardObservation) {
+        Observation theObservation = rewardObservation.getObservation();
+        if (theObservation != null) {
+            theObservation.materialize();
+        }
+        int bodySize = Network.kIntSize + Network.kDoubleSize + bodySizeOf(theObservation);
+        this.ensureSendCapacityRemains(kHeaderSize + bodySize);
+        int start = sendBuffer.position();
+        sendBuffer.putInt(start, code);
+        sendBuffer.putInt(start + kIntSize, bodySize);
+        sendBuffer.position(writeRewardObservation(start + kHeaderSize, rewardObservation));
+    }
+
+    /**
+     * Put a message with no body, just the code and a size of 0.
+     * @param code
+     * @since 2.1
+     */
+    public void putEmptyMessage(int code) {
+        this.ensureSendCapacityRemains(kHeaderSize);
+        sendBuffer.putInt(code);
+        sendBuffer.putInt(0);
+    }
+
+    /**
+     * Put a message whose body is one string.
+     * @param code
+     * @param message
+     * @throws java.io.UnsupportedEncodingException
+     * @since 2.1
+     */
+    public void putStringMessage(int code, String message) throws UnsupportedEncodingException {
+        int bodySize = Network.sizeOf(message);
+        this.ensureSendCapacityRemains(kHeaderSize + bodySize);
+        sendBuffer.putInt(code);
+        sendBuffer.putInt(bodySize);
+        putString(message);
+    }
 
+    /**
+     * How many bytes theObject takes on this connection.  The same as
+     * sizeOf(theObject), unless setFloatDoubles is on.
+     * @param theObject
+     * @return
+     * @since 2.1
+     */
+    public int encodedSizeOf(RL_abstract_type theObject) {
+        if (theObject != null) {
+            theObject.materialize();
+        }
+        return bodySizeOf(theObject);
+    }
+
+    /**
+     * encodedSizeOf for an object that has already been materialized.  With
+     * setObservationDeltas on, this also decides whether an observation is
+     * sent as a delta, so it has to be called right before writeAbstractType.
+     */
+    private int bodySizeOf(RL_abstract_type theObject) {
+        deltaPlanned = false;
+        widePlanned = false;
+        int size = Network.kIntSize * 3;
         if (theObject != null) {
             if (theObject.intArray != null) {
-                numInts = theObject.intArray.length;
+                size += Network.kIntSize * theObject.intArray.length;
             }
             if (theObject.doubleArray != null) {
-                numDoubles = theObject.doubleArray.length;
+                widePlanned = floatDoubles && !fitInFloats(theObject.doubleArray);
+                size += (floatDoubles && !widePlanned ? kFloatSize : kDoubleSize) * theObject.doubleArray.length;
             }
             if (theObject.charArray != null) {
-                numChars = theObject.charArray.length;
+                size += Network.kCharSize * theObject.charArray.length;
             }
         }
-
-
-        this.putInt(numInts);
-        this.putInt(numDoubles);
-        this.putInt(numChars);
-        putInts(theObject.intArray);
-        putDoubles(theObject.doubleArray);
-
-        //Not implementing a putChars because each char is currently
-        //converted manually from a byte
-        for (int i = 0; i < numChars; ++i) {
-            this.putChar(theObject.charArray[i]);
+        if (sentDelta != null && theObject instanceof Observation && !widePlanned) {
+            int deltaSize = sentDelta.plan((Observation) theObject, floatDoubles);
+            if (deltaSize >= 0 && deltaSize < size) {
+                deltaPlanned = true;
+                return deltaSize;
+            }
         }
+        return size;
     }
 
-    public void putObservation(Observation obs) {
-        putAbstractType(obs);
+    /**
+     * Write a materialized object into the send buffer starting at position,
+     * which must already have room for it.  A null object is written as an
+     * empty one.
+     * @return the position just past what was written
+     */
+    private int writeAbstractType(int position, RL_abstract_type theObject) {
+        if (sentDelta != null && theObject instanceof Observation) {
+            Observation theObservation = (Observation) theObject;
+            if (deltaPlanned) {
+                deltaPlanned = false;
+                position = sentDelta.write(sendBuffer, position, theObservation, floatDoubles);
+            } else {
+                position = writeWholeAbstractType(position, theObject);
+            }
+            sentDelta.remember(theObservation);
+            return position;
+        }
+        return writeWholeAbstractType(position, theObject);
     }
 
-    public void putAction(Action action) {
-        putAbstractType(action);
+    private int writeWholeAbstractType(int position, RL_abstract_type theObject) {
+        int[] ints = theObject == null ? null : theObject.intArray;
+        double[] doubles = theObject == null ? null : theObject.doubleArray;
+        char[] chars = theObject == null ? null : theObject.charArray;
+        int numInts = ints == null ? 0 : ints.length;
+        int numDoubles = doubles == null ? 0 : doubles.length;
+        int numChars = chars == null ? 0 : chars.length;
+
+        sendBuffer.putInt(position, numInts);
+        sendBuffer.putInt(position + kIntSize, widePlanned ? ~numDoubles : numDoubles);
+        sendBuffer.putInt(position + 2 * kIntSize, numChars);
+        position += 3 * kIntSize;
+        if (numInts > 0) {
+            //The views start at the buffer's position, so move it there first
+            sendBuffer.position(position);
+            sendBuffer.asIntBuffer().put(ints);
+            position += numInts * kIntSize;
+        }
+        if (numDoubles > 0 && floatDoubles && !widePlanned) {
+            sendBuffer.position(position);
+            FloatBuffer floats = sendBuffer.asFloatBuffer();
+            for (int i = 0; i < numDoubles; i++) {
+                floats.put(i, (float) doubles[i]);
+            }
+            position += numDoubles * kFloatSize;
+        } else if (numDoubles > 0) {
+            sendBuffer.position(position);
+            sendBuffer.asDoubleBuffer().put(doubles);
+            position += numDoubles * kDoubleSize;
+        }
+        for (int i = 0; i < numChars; ++i) {
+            sendBuffer.put(position + i, (byte) (chars[i] & 0xFF));
+        }
+        return position + numChars;
     }
 
-    public void putRewardObservation(Reward_observation_terminal rewardObservation) {
-        this.ensureSendCapacityRemains(Network.sizeOf(rewardObservation));
+    /**
+     * Whether every value survives the trip through a float, give or take
+     * float precision: none of them overflows to an infinity or underflows
+     * to 0.  Infinities, NaN and 0 themselves are fine.
+     */
+    static boolean fitInFloats(double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            float rounded = (float) values[i];
+            if ((Float.isInfinite(rounded) && !Double.isInfinite(values[i])) || (rounded == 0.0f && values[i] != 0.0d)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        this.putInt(rewardObservation.getTerminal());
-        this.putDouble(rewardObservation.getReward());
-        this.putObservation(rewardObservation.getObservation());
+    private int writeRewardObservation(int position, Reward_observation_terminal rewardObservation) {
+        sendBuffer.putInt(position, rewardObservation.isTerminal() ? 1 : 0);
+        sendBuffer.putDouble(position + kIntSize, rewardObservation.getReward());
+        return writeAbstractType(position + kIntSize + kDoubleSize, rewardObservation.getObservation());
     }
 
     protected void ensureSendCapacityRemains(int capacity) {
         if (sendBuffer.capacity() - sendBuffer.position() < capacity) {
-            sendBuffer = Network.cloneWithCapacity(sendBuffer, sendBuffer.capacity() + capacity);
+            sendBuffer = grow(sendBuffer, sendBuffer.position() + capacity);
         }
     }
 
     protected void ensureRecvCapacityRemains(int capacity) {
         if (recvBuffer.capacity() - recvBuffer.position() < capacity) {
-            recvBuffer = Network.cloneWithCapacity(recvBuffer, recvBuffer.capacity() + capacity);
+            recvBuffer = grow(recvBuffer, recvBuffer.position() + capacity);
         }
     }
 
+    /**
+     * Swap a buffer that is being written for one that can hold required
+     * bytes, keeping what has been written so far.  The new buffer is at
+     * least twice as big as the old one, so a stream of slowly growing
+     * messages only reallocates a logarithmic number of times.  The old
+     * buffer goes back to the pool.
+     */
+    private ByteBuffer grow(ByteBuffer original, int required) {
+        int doubled = original.capacity() <= Integer.MAX_VALUE / 2 ? original.capacity() * 2 : Integer.MAX_VALUE;
+        ByteBuffer bigger = bufferPool.acquire(Math.max(required, doubled));
+        original.flip();
+        bigger.put(original);
+        bufferPool.release(original);
+        resizeCount++;
+        if (bigger.capacity() > peakCapacity) {
+            peakCapacity = bigger.capacity();
+        }
+        return bigger;
+    }
+
+    /**
+     * If none of the last shrinkAfterMessages messages needed more than a
+     * quarter of this buffer, trade it for one twice the size of the biggest
+     * of them (but never less than the initial size).  Only called when the
+     * buffer's contents are about to be cleared.
+     */
+    private ByteBuffer shrinkIfIdle(ByteBuffer buffer, int highWater) {
+        int wanted = Math.max(DirectBufferPool.sizeClassFor(options.getInitialBufferSize()), DirectBufferPool.sizeClassFor(highWater * 2));
+        if (highWater > buffer.capacity() / 4 || wanted >= buffer.capacity()) {
+            return buffer;
+        }
+        ByteBuffer smaller = bufferPool.acquire(wanted);
+        bufferPool.release(buffer);
+        resizeCount++;
+        return smaller;
+    }
+
+    /**
+     * Give back buffers that have been much bigger than they needed to be.
+     * Every shrinkAfterMessages messages sent (or received), if none of them
+     * used more than a quarter of the buffer it is swapped for a smaller one
+     * from the pool.  Off (0) by default, since most experiments send the
+     * same size messages forever.
+     * @param shrinkAfterMessages how many messages to watch between checks, or 0 to never shrink
+     * @since 2.1
+     */
+    public void setShrinkAfterMessages(int shrinkAfterMessages) {
+        if (shrinkAfterMessages < 0) {
+            throw new IllegalArgumentException("shrinkAfterMessages must not be negative: " + shrinkAfterMessages);
+        }
+        this.shrinkAfterMessages = shrinkAfterMessages;
+    }
+
+    public int getShrinkAfterMessages() {
+        return shrinkAfterMessages;
+    }
+
+    /**
+     * Use a different pool than DirectBufferPool.getShared() for the buffers
+     * this Network allocates from now on.
+     * @param bufferPool
+     * @since 2.1
+     */
+    public void setBufferPool(DirectBufferPool bufferPool) {
+        if (bufferPool == null) {
+            throw new IllegalArgumentException("bufferPool must not be null");
+        }
+        this.bufferPool = bufferPool;
+        frameReader = null;
+    }
+
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @return how many times the send or receive buffer has been swapped for
+     * a bigger (or, with setShrinkAfterMessages, smaller) one
+     * @since 2.1
+     */
+    public long getResizeCount() {
+        return resizeCount;
+    }
+
+    /**
+     * @return how many reads this Network has done on its socket.  With
+     * recvMessage() that is usually one per message, or fewer when messages
+     * arrive back to back.
+     * @since 2.1
+     */
+    public long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * @return how many writes send() has done on the socket
+     * @since 2.1
+     */
+    public long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * @return the biggest either buffer has ever been, in bytes
+     * @since 2.1
+     */
+    public int getPeakBufferCapacity() {
+        return peakCapacity;
+    }
+
+    /**
+     * @return the current send buffer capacity, in bytes
+     * @since 2.1
+     */
+    public int getSendBufferCapacity() {
+        return sendBuffer.capacity();
+    }
+
+    /**
+     * @return the current receive buffer capacity, in bytes
+     * @since 2.1
+     */
+    public int getRecvBufferCapacity() {
+        return recvBuffer.capacity();
+    }
+
     protected static ByteBuffer cloneWithCapacity(ByteBuffer original, int capacity) {
         ByteBuffer clone = ByteBuffer.allocateDirect(capacity);
         original.flip();
@@ -508,6 +1712,7 @@ public class Network {
         int charSize = 0;
 
         if (theObject != null) {
+            theObject.materialize();
             if (theObject.intArray != null) {
                 intSize = Network.kIntSize * theObject.intArray.length;
             }
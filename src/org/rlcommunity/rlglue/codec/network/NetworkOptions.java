@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * How sockets are set up: TCP_NODELAY, SO_SNDBUF/SO_RCVBUF, SO_KEEPALIVE
+ * and how big the send and receive buffers start out, and which capabilities
+ * a client asks the glue for when it connects (see requestedCapabilities).
+ * <p>The defaults are what the codec has always done: TCP_NODELAY on
+ * (Nagle holds back the small request/response messages rl_glue is made of),
+ * the OS's socket buffer sizes, no keepalive, 4096 byte buffers and no
+ * capabilities.
+ * <p>{@link #fromEnvironment()} starts from the defaults and reads each
+ * option from a system property or, if that isn't set, an environment
+ * variable, the same way RLGLUE_HOST and RLGLUE_PORT are read:
+ * <pre>
+ *   rlglue.tcpNoDelay         RLGLUE_TCP_NODELAY           true/false
+ *   rlglue.sendBufferSize     RLGLUE_SO_SNDBUF             bytes, 0 for the OS default
+ *   rlglue.receiveBufferSize  RLGLUE_SO_RCVBUF             bytes, 0 for the OS default
+ *   rlglue.keepAlive          RLGLUE_KEEPALIVE             true/false
+ *   rlglue.initialBufferSize  RLGLUE_INITIAL_BUFFER_BYTES  bytes
+ *   rlglue.floatDoubles       RLGLUE_FLOAT_DOUBLES         true/false
+ *   rlglue.observationDeltas  RLGLUE_OBSERVATION_DELTAS    true/false
+ *   rlglue.compressionThreshold RLGLUE_COMPRESSION_THRESHOLD bytes, -1 to not compress
+ *   rlglue.sharedMemory       RLGLUE_SHARED_MEMORY         true/false
+ * </pre>
+ * Only TCP sockets look at the socket options; Unix domain sockets just
+ * use the buffer size.
+ * @author Brian Tanner
+ * @since 2.1
+ */
+public class NetworkOptions {
+
+    public static final String kTcpNoDelayProperty = "rlglue.tcpNoDelay";
+    public static final String kTcpNoDelayVariable = "RLGLUE_TCP_NODELAY";
+    public static final String kSendBufferSizeProperty = "rlglue.sendBufferSize";
+    public static final String kSendBufferSizeVariable = "RLGLUE_SO_SNDBUF";
+    public static final String kReceiveBufferSizeProperty = "rlglue.receiveBufferSize";
+    public static final String kReceiveBufferSizeVariable = "RLGLUE_SO_RCVBUF";
+    public static final String kKeepAliveProperty = "rlglue.keepAlive";
+    public static final String kKeepAliveVariable = "RLGLUE_KEEPALIVE";
+    public static final String kInitialBufferSizeProperty = "rlglue.initialBufferSize";
+    public static final String kInitialBufferSizeVariable = "RLGLUE_INITIAL_BUFFER_BYTES";
+    public static final String kFloatDoublesProperty = "rlglue.floatDoubles";
+    public static final String kFloatDoublesVariable = "RLGLUE_FLOAT_DOUBLES";
+    public static final String kObservationDeltasProperty = "rlglue.observationDeltas";
+    public static final String kObservationDeltasVariable = "RLGLUE_OBSERVATION_DELTAS";
+    public static final String kCompressionThresholdProperty = "rlglue.compressionThreshold";
+    public static final String kCompressionThresholdVariable = "RLGLUE_COMPRESSION_THRESHOLD";
+    public static final String kSharedMemoryProperty = "rlglue.sharedMemory";
+    public static final String kSharedMemoryVariable = "RLGLUE_SHARED_MEMORY";
+    /** sendBufferSize or receiveBufferSize: leave it to the OS */
+    public static final int kSystemDefault = 0;
+    /** compressionThreshold: don't ask for compression */
+    public static final int kNoCompression = -1;
+
+    private boolean tcpNoDelay = true;
+    private int sendBufferSize = kSystemDefault;
+    private int receiveBufferSize = kSystemDefault;
+    private boolean keepAlive = false;
+    private int initialBufferSize = Network.kByteBufferDefaultSize;
+    private boolean floatDoubles = false;
+    private boolean observationDeltas = false;
+    private int compressionThreshold = kNoCompression;
+    private boolean sharedMemory = false;
+
+    public NetworkOptions() {
+    }
+
+    public NetworkOptions(NetworkOptions other) {
+        this.tcpNoDelay = other.tcpNoDelay;
+        this.sendBufferSize = other.sendBufferSize;
+        this.receiveBufferSize = other.receiveBufferSize;
+        this.keepAlive = other.keepAlive;
+        this.initialBufferSize = other.initialBufferSize;
+        this.floatDoubles = other.floatDoubles;
+        this.observationDeltas = other.observationDeltas;
+        this.compressionThreshold = other.compressionThreshold;
+        this.sharedMemory = other.sharedMemory;
+    }
+
+    /**
+     * The defaults, overridden by whatever is set in the system properties
+     * and environment variables listed above.  A value that can't be parsed
+     * is reported on System.err and ignored.
+     */
+    public static NetworkOptions fromEnvironment() {
+        NetworkOptions options = new NetworkOptions();
+        String value = lookup(kTcpNoDelayProperty, kTcpNoDelayVariable);
+        if (value != null) {
+            options.setTcpNoDelay(Boolean.valueOf(value.trim()).booleanValue());
+        }
+        value = lookup(kKeepAliveProperty, kKeepAliveVariable);
+        if (value != null) {
+            options.setKeepAlive(Boolean.valueOf(value.trim()).booleanValue());
+        }
+        try {
+            options.setSendBufferSize(intOption(kSendBufferSizeProperty, kSendBufferSizeVariable, options.getSendBufferSize()));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Could not use send buffer size you requested: " + e.getMessage());
+        }
+        try {
+            options.setReceiveBufferSize(intOption(kReceiveBufferSizeProperty, kReceiveBufferSizeVariable, options.getReceiveBufferSize()));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Could not use receive buffer size you requested: " + e.getMessage());
+        }
+        try {
+            options.setInitialBufferSize(intOption(kInitialBufferSizeProperty, kInitialBufferSizeVariable, options.getInitialBufferSize()));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Could not use initial buffer size you requested: " + e.getMessage());
+        }
+        value = lookup(kFloatDoublesProperty, kFloatDoublesVariable);
+        if (value != null) {
+            options.setFloatDoubles(Boolean.valueOf(value.trim()).booleanValue());
+        }
+        value = lookup(kObservationDeltasProperty, kObservationDeltasVariable);
+        if (value != null) {
+            options.setObservationDeltas(Boolean.valueOf(value.trim()).booleanValue());
+        }
+        options.setCompressionThreshold(intOption(kCompressionThresholdProperty, kCompressionThresholdVariable, options.getCompressionThreshold()));
+        value = lookup(kSharedMemoryProperty, kSharedMemoryVariable);
+        if (value != null) {
+            options.setSharedMemory(Boolean.valueOf(value.trim()).booleanValue());
+        }
+        return options;
+    }
+
+    private static String lookup(String propertyName, String variableName) {
+        String value = System.getProperty(propertyName);
+        if (value == null) {
+            value = System.getenv(variableName);
+        }
+        return value;
+    }
+
+    private static int intOption(String propertyName, String variableName, int defaultValue) {
+        String value = lookup(propertyName, variableName);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Could not use network option you requested: " + value + " could not be parsed as an int.");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Set the options on a socket that hasn't connected yet (the buffer
+     * sizes decide the TCP window, which is agreed when connecting).
+     */
+    public void applyTo(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(keepAlive);
+        if (sendBufferSize != kSystemDefault) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize != kSystemDefault) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+    }
+
+    /**
+     * Set SO_RCVBUF on a server socket before it binds, so that the sockets
+     * it accepts start out with it.  The rest is set on each of them by
+     * {@link #applyTo(Socket)}.
+     */
+    public void applyTo(ServerSocket serverSocket) throws SocketException {
+        if (receiveBufferSize != kSystemDefault) {
+            serverSocket.setReceiveBufferSize(receiveBufferSize);
+        }
+    }
+
+    public boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * @param tcpNoDelay false to let Nagle's algorithm batch small writes.
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * @param sendBufferSize SO_SNDBUF in bytes, or kSystemDefault.
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("sendBufferSize must not be negative: " + sendBufferSize);
+        }
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * @param receiveBufferSize SO_RCVBUF in bytes, or kSystemDefault.
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("receiveBufferSize must not be negative: " + receiveBufferSize);
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public boolean getKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public int getInitialBufferSize() {
+        return initialBufferSize;
+    }
+
+    /**
+     * How big the send and receive buffers start out, and the smallest they
+     * shrink back to.  They still grow for bigger messages; starting them
+     * at the usual message size saves the copies while they do.
+     * @param initialBufferSize bytes, at least Network.kHeaderSize.
+     */
+    public void setInitialBufferSize(int initialBufferSize) {
+        if (initialBufferSize < Network.kHeaderSize) {
+            throw new IllegalArgumentException("initialBufferSize must be at least " + Network.kHeaderSize + ": " + initialBufferSize);
+        }
+        this.initialBufferSize = initialBufferSize;
+    }
+
+    public boolean getFloatDoubles() {
+        return floatDoubles;
+    }
+
+    /**
+     * Ask the glue to send the doubleArray of every observation and action
+     * as 4 byte floats instead of 8 byte doubles, which halves the traffic of
+     * big continuous observations.  Values lose everything past float
+     * precision; an observation or action with a value out of float range
+     * is sent as doubles (see Network.setFloatDoubles).  Only the Java GlueServer
+     * understands the request (the C rl_glue would never answer it), so only
+     * turn this on when that is what you connect to.
+     * @param floatDoubles
+     */
+    public void setFloatDoubles(boolean floatDoubles) {
+        this.floatDoubles = floatDoubles;
+    }
+
+    public boolean getObservationDeltas() {
+        return observationDeltas;
+    }
+
+    /**
+     * Ask the glue to accept observations as just the entries that changed
+     * since the last one, for environments with big observations that only
+     * change a little each step.  Whenever the whole observation would be
+     * smaller (the first one, a change of size, or most of it changing) it is
+     * sent whole.  Only environments send observations, so the other
+     * connections don't ask for it.  Only the Java GlueServer understands it.
+     * @param observationDeltas
+     */
+    public void setObservationDeltas(boolean observationDeltas) {
+        this.observationDeltas = observationDeltas;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Ask the glue to deflate big messages, and deflate the big ones we send,
+     * for when the network between us is the bottleneck.  Messages with a
+     * body smaller than compressionThreshold bytes (most step messages) are
+     * sent as they are.  Only the Java GlueServer understands the request.
+     * @param compressionThreshold In bytes, or kNoCompression (any negative
+     * number) to not ask for compression.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold < 0 ? kNoCompression : compressionThreshold;
+    }
+
+    public boolean getSharedMemory() {
+        return sharedMemory;
+    }
+
+    /**
+     * Ask the glue to pass messages through shared memory rings instead of
+     * the socket (see SharedMemoryChannel), which skips the kernel while both
+     * ends are busy.  Only the Java GlueServer understands the request, and
+     * it only agrees when it runs on the same machine; otherwise the socket
+     * is used as usual.  Waiting for a message spins for a while before
+     * parking, which costs CPU.
+     * @param sharedMemory
+     */
+    public void setSharedMemory(boolean sharedMemory) {
+        this.sharedMemory = sharedMemory;
+    }
+
+    /**
+     * The kCapability flags a client of the given type asks for with these
+     * options (see Network.requestCapabilities).
+     * @param connectionType Network.kExperimentConnection, kAgentConnection
+     * or kEnvironmentConnection
+     * @return Network.kNoCapabilities unless something is turned on.
+     */
+    public int requestedCapabilities(int connectionType) {
+        int capabilities = Network.kNoCapabilities;
+        if (floatDoubles) {
+            capabilities |= Network.kCapabilityFloatDoubles;
+        }
+        if (observationDeltas && connectionType == Network.kEnvironmentConnection) {
+            capabilities |= Network.kCapabilityObservationDeltas;
+        }
+        if (sharedMemory) {
+            capabilities |= Network.kCapabilitySharedMemory;
+        }
+        if (compressionThreshold != kNoCompression) {
+            capabilities |= Network.kCapabilityCompression;
+        }
+        return capabilities;
+    }
+
+    public String toString() {
+        return "tcpNoDelay=" + tcpNoDelay
+                + " sendBufferSize=" + (sendBufferSize == kSystemDefault ? "default" : Integer.toString(sendBufferSize))
+                + " receiveBufferSize=" + (receiveBufferSize == kSystemDefault ? "default" : Integer.toString(receiveBufferSize))
+                + " keepAlive=" + keepAlive
+                + " initialBufferSize=" + initialBufferSize
+                + " floatDoubles=" + floatDoubles
+                + " observationDeltas=" + observationDeltas
+                + " compressionThreshold=" + (compressionThreshold == kNoCompression ? "off" : Integer.toString(compressionThreshold))
+                + " sharedMemory=" + sharedMemory;
+    }
+}
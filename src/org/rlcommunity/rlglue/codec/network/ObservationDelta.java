@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import java.nio.ByteBuffer;
+import org.rlcommunity.rlglue.codec.types.Observation;
+
+/**
+ * One direction of kCapabilityObservationDeltas on a connection: the last
+ * observation that went that way, and how to describe the next one as the
+ * entries that changed since.
+ * <p>A delta is written where an observation would be.  It starts with
+ * kMarker where the number of ints would be (which can't be negative), then
+ * the changed ints, doubles and chars, each as a count followed by (index,
+ * value) pairs.  Doubles are floats if the connection uses
+ * kCapabilityFloatDoubles.  It only ever describes an observation with the
+ * same sizes as the last one, and is only used when it is smaller than the
+ * whole observation, so the sender falls back to a full observation whenever
+ * that is better.
+ *
+ * @author btanner
+ * @since 2.1
+ */
+final class ObservationDelta {
+
+    /** Written instead of the number of ints to say that a delta follows. */
+    static final int kMarker = -1;
+    private final Observation last = new Observation(0, 0, 0);
+    private boolean haveLast = false;
+    private int[] changedInts = new int[16];
+    private int[] changedDoubles = new int[16];
+    private int[] changedChars = new int[16];
+    private int numChangedInts = 0;
+    private int numChangedDoubles = 0;
+    private int numChangedChars = 0;
+
+    /**
+     * Work out which entries of next differ from the last observation.
+     * @param next A materialized observation.
+     * @param floatDoubles Whether doubles are sent as floats, so only changes
+     * a float can see count.
+     * @return The size of the delta in bytes, or -1 if there can't be one.
+     */
+    int plan(Observation next, boolean floatDoubles) {
+        if (!haveLast || length(next.intArray) != last.intArray.length || length(next.doubleArray) != last.doubleArray.length || length(next.charArray) != last.charArray.length) {
+            return -1;
+        }
+        numChangedInts = 0;
+        for (int i = 0; i < last.intArray.length; i++) {
+            if (next.intArray[i] != last.intArray[i]) {
+                changedInts = add(changedInts, numChangedInts++, i);
+            }
+        }
+        numChangedDoubles = 0;
+        for (int i = 0; i < last.doubleArray.length; i++) {
+            if (floatDoubles ? Float.floatToIntBits((float) next.doubleArray[i]) != Float.floatToIntBits((float) last.doubleArray[i])
+                    : Double.doubleToLongBits(next.doubleArray[i]) != Double.doubleToLongBits(last.doubleArray[i])) {
+                changedDoubles = add(changedDoubles, numChangedDoubles++, i);
+            }
+        }
+        numChangedChars = 0;
+        for (int i = 0; i < last.charArray.length; i++) {
+            if (next.charArray[i] != last.charArray[i]) {
+                changedChars = add(changedChars, numChangedChars++, i);
+            }
+        }
+        int doubleSize = floatDoubles ? Network.kFloatSize : Network.kDoubleSize;
+        return 4 * Network.kIntSize
+                + numChangedInts * 2 * Network.kIntSize
+                + numChangedDoubles * (Network.kIntSize + doubleSize)
+                + numChangedChars * (Network.kIntSize + Network.kCharSize);
+    }
+
+    /**
+     * Write the delta from the last call to plan() into buffer at position,
+     * which must have room for it.
+     * @return the position just past what was written
+     */
+    int write(ByteBuffer buffer, int position, Observation next, boolean floatDoubles) {
+        buffer.putInt(position, kMarker);
+        position += Network.kIntSize;
+        buffer.putInt(position, numChangedInts);
+        position += Network.kIntSize;
+        for (int i = 0; i < numChangedInts; i++) {
+            int index = changedInts[i];
+            buffer.putInt(position, index);
+            buffer.putInt(position + Network.kIntSize, next.intArray[index]);
+            position += 2 * Network.kIntSize;
+        }
+        buffer.putInt(position, numChangedDoubles);
+        position += Network.kIntSize;
+        for (int i = 0; i < numChangedDoubles; i++) {
+            int index = changedDoubles[i];
+            buffer.putInt(position, index);
+            position += Network.kIntSize;
+            if (floatDoubles) {
+                buffer.putFloat(position, (float) next.doubleArray[index]);
+                position += Network.kFloatSize;
+            } else {
+                buffer.putDouble(position, next.doubleArray[index]);
+                position += Network.kDoubleSize;
+            }
+        }
+        buffer.putInt(position, numChangedChars);
+        position += Network.kIntSize;
+        for (int i = 0; i < numChangedChars; i++) {
+            int index = changedChars[i];
+            buffer.putInt(position, index);
+            buffer.put(position + Network.kIntSize, (byte) (next.charArray[index] & 0xFF));
+            position += Network.kIntSize + Network.kCharSize;
+        }
+        return position;
+    }
+
+    /**
+     * Apply a delta (just after its marker) to the last observation.  The
+     * buffer's position is moved past it.
+     * @return The patched observation, which belongs to this object.
+     */
+    Observation patch(ByteBuffer buffer, boolean floatDoubles) {
+        if (!haveLast) {
+            throw new IllegalStateException("Received an observation delta before any observation to apply it to.");
+        }
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            int index = buffer.getInt();
+            last.intArray[index] = buffer.getInt();
+        }
+        count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            int index = buffer.getInt();
+            last.doubleArray[index] = floatDoubles ? buffer.getFloat() : buffer.getDouble();
+        }
+        count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            int index = buffer.getInt();
+            last.charArray[index] = (char) (buffer.get() & 0xFF);
+        }
+        return last;
+    }
+
+    /**
+     * Keep a copy of observation to describe (or patch) the next one against.
+     * The arrays are reused while the sizes stay the same.
+     */
+    void remember(Observation observation) {
+        last.intArray = copy(observation.intArray, last.intArray);
+        last.doubleArray = copy(observation.doubleArray, last.doubleArray);
+        last.charArray = copy(observation.charArray, last.charArray);
+        haveLast = true;
+    }
+
+    /**
+     * Forget the last observation, so the next one is sent whole.
+     */
+    void reset() {
+        haveLast = false;
+    }
+
+    private static int length(int[] array) {
+        return array == null ? 0 : array.length;
+    }
+
+    private static int length(double[] array) {
+        return array == null ? 0 : array.length;
+    }
+
+    private static int length(char[] array) {
+        return array == null ? 0 : array.length;
+    }
+
+    private static int[] add(int[] indices, int count, int index) {
+        if (count == indices.length) {
+            int[] bigger = new int[indices.length * 2];
+            System.arraycopy(indices, 0, bigger, 0, count);
+            indices = bigger;
+        }
+        indices[count] = index;
+        return indices;
+    }
+
+    private static int[] copy(int[] from, int[] to) {
+        int length = from == null ? 0 : from.length;
+        if (to == null || to.length != length) {
+            to = new int[length];
+        }
+        if (length > 0) {
+            System.arraycopy(from, 0, to, 0, length);
+        }
+        return to;
+    }
+
+    private static double[] copy(double[] from, double[] to) {
+        int length = from == null ? 0 : from.length;
+        if (to == null || to.length != length) {
+            to = new double[length];
+        }
+        if (length > 0) {
+            System.arraycopy(from, 0, to, 0, length);
+        }
+        return to;
+    }
+
+    private static char[] copy(char[] from, char[] to) {
+        int length = from == null ? 0 : from.length;
+        if (to == null || to.length != length) {
+            to = new char[length];
+        }
+        if (length > 0) {
+            System.arraycopy(from, 0, to, 0, length);
+        }
+        return to;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Block in a java.nio Selector until the channel is readable, or writable when
+ * Network.send is waiting for room (or a timeout passes).  This costs no CPU at all while waiting, and unlike a BLOCKING
+ * socket it still lets the Network be used in NON-BLOCKING mode.
+ * <p>Each instance holds its own Selector, so don't share one instance between
+ * several Network objects.
+ *
+ * @author btanner
+ */
+public class SelectorWaitStrategy implements WaitStrategy {
+
+    public static final long kDefaultTimeoutMillis = 100L;
+    private final long timeoutMillis;
+    private Selector selector = null;
+    private SocketChannel registeredChannel = null;
+
+    public SelectorWaitStrategy() {
+        this(kDefaultTimeoutMillis);
+    }
+
+    /**
+     * @param timeoutMillis The longest to block in one call to select before
+     * letting Network try another read.  Must be positive.
+     */
+    public SelectorWaitStrategy(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Selector timeout must be positive, got: " + timeoutMillis);
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public void idle(SocketChannel channel, int idleCount) throws IOException {
+        waitFor(channel, SelectionKey.OP_READ);
+    }
+
+    public void idleWrite(SocketChannel channel, int idleCount) throws IOException {
+        waitFor(channel, SelectionKey.OP_WRITE);
+    }
+
+    private void waitFor(SocketChannel channel, int interest) throws IOException {
+        //A blocking channel can't be registered, and it would never have come back empty anyway
+        if (channel.isBlocking()) {
+            return;
+        }
+        if (selector == null) {
+            selector = Selector.open();
+        }
+        if (channel != registeredChannel) {
+            //Network opens a new channel when it re-connects
+            selector.selectNow();
+            channel.register(selector, interest);
+            registeredChannel = channel;
+        } else {
+            channel.keyFor(selector).interestOps(interest);
+        }
+        selector.select(timeoutMillis);
+        selector.selectedKeys().clear();
+    }
+
+    public void close() throws IOException {
+        if (selector != null) {
+            selector.close();
+            selector = null;
+        }
+        registeredChannel = null;
+    }
+}
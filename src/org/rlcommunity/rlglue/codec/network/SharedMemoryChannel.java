@@ -0,0 +1,480 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Messages between two processes on one machine, through a pair of ring
+ * buffers in a memory mapped file (in /dev/shm where there is one) instead
+ * of through the socket.  The bytes are exactly what would have gone over the
+ * socket, so everything that frames and decodes messages is unchanged.
+ * <p>The socket stays open and is used as a doorbell.  A reader that finds
+ * its ring empty spins for a while, then yields, then marks itself parked and
+ * blocks reading the socket.  A writer that finds the reader parked after
+ * publishing writes a byte to the socket to wake it.  While the reader is
+ * spinning nothing goes through the kernel at all.  A GlueServer event loop
+ * reads non-blocking and stays parked, so its Selector wakes up for the
+ * doorbell as it would for a message, unless it is spinning (see
+ * setReaderParked).  When the other end closes the socket the channel
+ * reads -1 once the ring is empty.
+ * <p>The client makes the file with create(), sends its path in its
+ * connection message (kCapabilitySharedMemory), and deletes it once the
+ * server has answered: by then the server has it mapped (open()) or has
+ * said no.
+ * <p>File layout: a header with a magic number and the capacity of each ring,
+ * then the control block of each ring (where the writer is, where the reader
+ * is, whether the reader is parked, each on its own cache line), then the
+ * client to server ring and the server to client ring.  There is exactly
+ * one reader and one writer per ring, so the positions only ever grow and
+ * each is only written by one side.
+ * <p>Java 5 has no way to order loads and stores to memory that isn't a
+ * Java field, and the memory model says nothing about another process.  So
+ * the rings rely on two things it doesn't promise: HotSpot compiles a
+ * volatile store as a full fence that plain loads and stores aren't moved
+ * across (see fence()), and x86 keeps stores in order with stores and loads
+ * in order with loads, so the fence is only needed between a store and a
+ * later load.  isSupported() checks for both, and create() and open() refuse
+ * to make rings anywhere else, so the connection stays on the socket.
+ *
+ * @author btanner
+ */
+public final class SharedMemoryChannel implements ByteChannel, GatheringByteChannel {
+
+    /** Size of each ring, unless create() is asked for another */
+    public static final int kDefaultCapacity = 1 << 20;
+    private static final int kMagic = 0x524c4752;
+    private static final int kCacheLine = 64;
+    private static final int kClientToServer = 1 * kCacheLine;
+    private static final int kServerToClient = 4 * kCacheLine;
+    private static final int kDataStart = 8 * kCacheLine;
+    /**
+     * Empty reads before a blocking reader starts to yield.  With one
+     * processor the writer can't run while we spin, so don't.
+     */
+    public static final int kSpins = Runtime.getRuntime().availableProcessors() < 2 ? 0 : 2000;
+    /** Yields before a blocking reader parks on the doorbell */
+    public static final int kYields = 50;
+    private static volatile int fenceField = 0;
+    private static final boolean kSupported = isSupported(System.getProperty("java.vm.name"), System.getProperty("os.arch"));
+    private final File file;
+    private final MappedByteBuffer map;
+    private final Ring in;
+    private final Ring out;
+    private final ByteBuffer doorbellBytes = ByteBuffer.allocate(64);
+    private final ByteBuffer bell = ByteBuffer.allocate(1);
+    private SocketChannel doorbell = null;
+    private boolean blocking = true;
+    private boolean open = true;
+
+    private SharedMemoryChannel(File file, MappedByteBuffer map, boolean client) {
+        this.file = file;
+        this.map = map;
+        int capacity = map.getInt(4);
+        Ring clientToServer = new Ring(map, kClientToServer, kDataStart, capacity);
+        Ring serverToClient = new Ring(map, kServerToClient, kDataStart + capacity, capacity);
+        in = client ? serverToClient : clientToServer;
+        out = client ? clientToServer : serverToClient;
+    }
+
+    /**
+     * Make a new file for a client to offer the server.
+     * @param directory Where to put it, usually defaultDirectory().
+     * @param capacity The size of each ring, a power of two.
+     * @return The client's end, not attached to a socket yet.
+     * @throws java.io.IOException If the file can't be made, or this isn't
+     * HotSpot on x86 (see isSupported()).
+     */
+    public static SharedMemoryChannel create(File directory, int capacity) throws IOException {
+        checkSupported();
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Ring capacity has to be a power of two, not " + capacity);
+        }
+        File file = File.createTempFile("rlglue-", ".ring", directory);
+        try {
+            MappedByteBuffer map = map(file, kDataStart + 2L * capacity);
+            map.putInt(4, capacity);
+            map.putInt(0, kMagic);
+            return new SharedMemoryChannel(file, map, true);
+        } catch (IOException ioException) {
+            file.delete();
+            throw ioException;
+        }
+    }
+
+    /**
+     * Map the file a client made, as the server's end.
+     * @param path
+     * @return The server's end, not attached to a socket yet.
+     * @throws java.io.IOException If it doesn't exist (the client is on
+     * another machine), isn't a ring file, or this isn't HotSpot on x86 (see
+     * isSupported()).
+     */
+    public static SharedMemoryChannel open(String path) throws IOException {
+        checkSupported();
+        File file = new File(path);
+        if (!file.isFile() || file.length() < kDataStart) {
+            throw new IOException("No shared memory file at " + path);
+        }
+        MappedByteBuffer map = map(file, file.length());
+        int capacity = map.getInt(4);
+        if (map.getInt(0) != kMagic || kDataStart + 2L * capacity != file.length()) {
+            throw new IOException(path + " isn't a shared memory ring file");
+        }
+        return new SharedMemoryChannel(file, map, false);
+    }
+
+    /**
+     * @return Whether this JVM orders the rings the way they need, see the
+     * class comment: HotSpot (including OpenJDK builds of it) on x86 or
+     * x86-64.
+     */
+    public static boolean isSupported() {
+        return kSupported;
+    }
+
+    static boolean isSupported(String vmName, String arch) {
+        if (vmName == null || arch == null) {
+            return false;
+        }
+        boolean hotSpot = vmName.indexOf("HotSpot") >= 0 || vmName.indexOf("OpenJDK") >= 0;
+        boolean x86 = arch.equals("x86") || arch.equals("amd64") || arch.equals("x86_64") || arch.matches("i[3-6]86");
+        return hotSpot && x86;
+    }
+
+    private static void checkSupported() throws IOException {
+        if (!kSupported) {
+            throw new IOException("Shared memory rings need HotSpot on x86, not " + System.getProperty("java.vm.name") + " on " + System.getProperty("os.arch"));
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            //The mapping stays valid after the file is closed
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return /dev/shm if this machine has it, so the file never touches a
+     * disk, otherwise java.io.tmpdir.
+     */
+    public static File defaultDirectory() {
+        File shm = new File("/dev/shm");
+        if (shm.isDirectory() && shm.canWrite()) {
+            return shm;
+        }
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * Start using the rings, with socket as the doorbell.
+     * @param socket The connection this channel replaces.  A blocking socket
+     * means blocking reads and writes here too.
+     */
+    public void attach(SocketChannel socket) {
+        this.doorbell = socket;
+        this.blocking = socket.isBlocking();
+        //A reader that never spins is always parked
+        in.setParked(!blocking);
+    }
+
+    public String getPath() {
+        return file.getPath();
+    }
+
+    /**
+     * Delete the file.  Both ends keep their mapping, so call this as soon as
+     * the other end has mapped it (or said no).
+     */
+    public void unlink() {
+        file.delete();
+    }
+
+    /**
+     * Read whatever is in the incoming ring, up to dst.remaining() bytes.  A
+     * blocking channel spins, yields and then parks until something arrives.
+     * @return How many bytes were read, 0 only if non-blocking, or -1 if
+     * the other end has closed the socket and the ring is empty.
+     * @throws java.io.IOException
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        int amount = in.read(dst);
+        if (amount > 0 || !dst.hasRemaining()) {
+            return amount;
+        }
+        if (!blocking) {
+            //Empty, so take the doorbell bytes too or the Selector keeps waking up
+            int rung = drainDoorbell();
+            amount = in.read(dst);
+            return (amount == 0 && rung == -1) ? -1 : amount;
+        }
+        int idleCount = 0;
+        while (true) {
+            amount = in.read(dst);
+            if (amount > 0) {
+                return amount;
+            }
+            idleCount++;
+            if (idleCount <= kSpins) {
+                continue;
+            }
+            if (idleCount <= kSpins + kYields) {
+                Thread.yield();
+                continue;
+            }
+            in.setParked(true);
+            fence();
+            amount = in.read(dst);
+            if (amount > 0) {
+                in.setParked(false);
+                return amount;
+            }
+            int rung = drainDoorbell();
+            in.setParked(false);
+            if (rung == -1) {
+                amount = in.read(dst);
+                return amount > 0 ? amount : -1;
+            }
+            idleCount = 0;
+        }
+    }
+
+    private int drainDoorbell() throws IOException {
+        doorbellBytes.clear();
+        return doorbell.read(doorbellBytes);
+    }
+
+    /**
+     * Copy src into the outgoing ring.  A blocking channel waits for room
+     * until it has all gone; a non-blocking one takes what fits.
+     * @return How many bytes were written.
+     * @throws java.io.IOException
+     */
+    public int write(ByteBuffer src) throws IOException {
+        int total = 0;
+        int idleCount = 0;
+        while (true) {
+            int amount = out.write(src);
+            if (amount > 0) {
+                total += amount;
+                idleCount = 0;
+                wakeReader();
+            }
+            if (!src.hasRemaining() || !blocking) {
+                return total;
+            }
+            awaitRoom(++idleCount);
+        }
+    }
+
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int wanted = srcs[i].remaining();
+            int amount = write(srcs[i]);
+            total += amount;
+            if (amount < wanted) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    private void wakeReader() throws IOException {
+        fence();
+        if (out.isParked()) {
+            bell.clear();
+            doorbell.write(bell);
+        }
+    }
+
+    private void awaitRoom(int idleCount) throws IOException {
+        if (!doorbell.isOpen() || !doorbell.isConnected()) {
+            throw new IOException("Shared memory ring is full and the other end has gone");
+        }
+        if (idleCount <= kSpins) {
+            return;
+        }
+        if (idleCount <= kSpins + kYields) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50000L);
+        }
+    }
+
+    /**
+     * @return Whether there is something to read in the incoming ring.
+     */
+    public boolean hasInput() {
+        return in.available() > 0;
+    }
+
+    /**
+     * For a non-blocking reader that wants to spin for a while instead of
+     * waiting in a Selector: unpark, spin on hasInput(), then park again,
+     * fence() and check hasInput() once more before selecting.  A parked
+     * reader gets a doorbell byte for every write.
+     * @param parked
+     */
+    public void setReaderParked(boolean parked) {
+        in.setParked(parked);
+    }
+
+    /**
+     * Make the stores before this visible to the other process before the
+     * loads after it.  HotSpot puts a full fence after every volatile store;
+     * that, and x86 ordering the rest, is only promised where isSupported().
+     */
+    public static void fence() {
+        fenceField = 0;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Stop using the rings and delete the file, if unlink() hasn't already.
+     * The socket is not closed: it belongs to whoever attached it.
+     * <p>Java 5 can't unmap a MappedByteBuffer, so the mapping (and the
+     * memory behind it, even once the file is deleted) stays until the
+     * garbage collector gets to this channel.
+     */
+    public void close() {
+        open = false;
+        file.delete();
+    }
+
+    /**
+     * One direction: a single reader and a single writer.
+     */
+    private static final class Ring {
+
+        private final ByteBuffer map;
+        private final ByteBuffer data;
+        private final int writePosition;
+        private final int readPosition;
+        private final int parked;
+        private final int capacity;
+        private final int mask;
+
+        Ring(ByteBuffer map, int control, int dataStart, int capacity) {
+            this.map = map;
+            this.writePosition = control;
+            this.readPosition = control + kCacheLine;
+            this.parked = control + 2 * kCacheLine;
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            ByteBuffer view = map.duplicate();
+            view.position(dataStart);
+            view.limit(dataStart + capacity);
+            this.data = view.slice();
+        }
+
+        long available() {
+            return map.getLong(writePosition) - map.getLong(readPosition);
+        }
+
+        int read(ByteBuffer dst) {
+            long written = map.getLong(writePosition);
+            fence();
+            long read = map.getLong(readPosition);
+            int amount = (int) Math.min(written - read, dst.remaining());
+            if (amount <= 0) {
+                return 0;
+            }
+            int start = (int) (read & mask);
+            int first = Math.min(amount, capacity - start);
+            copyOut(start, first, dst);
+            copyOut(0, amount - first, dst);
+            fence();
+            map.putLong(readPosition, read + amount);
+            return amount;
+        }
+
+        int write(ByteBuffer src) {
+            long written = map.getLong(writePosition);
+            long read = map.getLong(readPosition);
+            fence();
+            int amount = (int) Math.min(capacity - (written - read), src.remaining());
+            if (amount <= 0) {
+                return 0;
+            }
+            int start = (int) (written & mask);
+            int first = Math.min(amount, capacity - start);
+            copyIn(src, start, first);
+            copyIn(src, 0, amount - first);
+            fence();
+            map.putLong(writePosition, written + amount);
+            return amount;
+        }
+
+        private void copyOut(int start, int length, ByteBuffer dst) {
+            if (length == 0) {
+                return;
+            }
+            data.limit(start + length);
+            data.position(start);
+            dst.put(data);
+        }
+
+        private void copyIn(ByteBuffer src, int start, int length) {
+            if (length == 0) {
+                return;
+            }
+            data.limit(start + length);
+            data.position(start);
+            int srcLimit = src.limit();
+            src.limit(src.position() + length);
+            data.put(src);
+            src.limit(srcLimit);
+        }
+
+        boolean isParked() {
+            return map.getInt(parked) != 0;
+        }
+
+        void setParked(boolean isParked) {
+            map.putInt(parked, isParked ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TCP, what rl_glue speaks.  Sockets are set up with a {@link NetworkOptions}:
+ * by default TCP_NODELAY is set, so a message that takes more than one write
+ * isn't held back waiting for an ACK.
+ *
+ * @author btanner
+ */
+public class TcpTransport implements Transport {
+
+    private final String host;
+    private final int port;
+    private final NetworkOptions options;
+
+    /**
+     * @param host Where to connect to.  Servers listen on every interface.
+     * @param port
+     */
+    public TcpTransport(String host, int port) {
+        this(host, port, new NetworkOptions());
+    }
+
+    /**
+     * @param host Where to connect to.  Servers listen on every interface.
+     * @param port
+     * @param options How to set up each socket.
+     * @since 2.1
+     */
+    public TcpTransport(String host, int port, NetworkOptions options) {
+        this.host = host;
+        this.port = port;
+        this.options = options;
+    }
+
+    public SocketChannel open() throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        configure(channel);
+        return channel;
+    }
+
+    public SocketAddress getAddress() {
+        return new InetSocketAddress(host, port);
+    }
+
+    public void configure(SocketChannel channel) throws IOException {
+        options.applyTo(channel.socket());
+    }
+
+    public ServerSocketChannel listen(int backlog) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        options.applyTo(serverChannel.socket());
+        serverChannel.socket().bind(new InetSocketAddress(port), backlog);
+        return serverChannel;
+    }
+
+    public void close(ServerSocketChannel serverChannel) throws IOException {
+        serverChannel.close();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public NetworkOptions getOptions() {
+        return options;
+    }
+
+    public String toString() {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * How Network and GlueServer reach each other: which kind of channel to open
+ * and what address to connect it to or listen on.  Everything above the
+ * channel (framing, the wait strategies, the event loops) is the same for
+ * every transport.
+ * <p>See {@link Transports#forHost(String, int)} for how a host string picks one.
+ *
+ * @author btanner
+ */
+public interface Transport {
+
+    /**
+     * Open a new channel, not connected yet, with whatever socket options
+     * this transport wants already set.
+     * @return The channel, in BLOCKING mode.
+     * @throws java.io.IOException
+     */
+    SocketChannel open() throws IOException;
+
+    /**
+     * @return Where open() channels should connect to.
+     */
+    SocketAddress getAddress();
+
+    /**
+     * Set this transport's socket options on a channel a server accepted.
+     * @param channel
+     * @throws java.io.IOException
+     */
+    void configure(SocketChannel channel) throws IOException;
+
+    /**
+     * Open a server channel bound to this transport's address.
+     * @param backlog How many connections can wait to be accepted.
+     * @return The channel, in BLOCKING mode.
+     * @throws java.io.IOException
+     */
+    ServerSocketChannel listen(int backlog) throws IOException;
+
+    /**
+     * Close a channel from listen(), and clean up anything listening left behind.
+     * @param serverChannel
+     * @throws java.io.IOException
+     */
+    void close(ServerSocketChannel serverChannel) throws IOException;
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+/**
+ * Picks the Transport for the host strings that go in RLGLUE_HOST and the
+ * host arguments of NetGlue, the loaders and Network.connect.
+ * <ul>
+ * <li>unix:/some/path : a Unix domain socket at /some/path ({@link UnixTransport}, Java 16 or newer).  The port is ignored.
+ * <li>anything else : a host name or address to connect to over TCP ({@link TcpTransport}).
+ * </ul>
+ *
+ * @author btanner
+ */
+public final class Transports {
+
+    public static final String kUnixPrefix = "unix:";
+
+    private Transports() {
+    }
+
+    /**
+     * @param host A host name or address, or unix: and a path.
+     * @return Whether host names a Unix domain socket.
+     */
+    public static boolean isUnix(String host) {
+        return host != null && host.startsWith(kUnixPrefix);
+    }
+
+    /**
+     * @param host A host name or address, or unix: and a path.
+     * @param port
+     * @return host and port the way the loaders print them when they connect.
+     */
+    public static String describe(String host, int port) {
+        if (isUnix(host)) {
+            return host;
+        }
+        return host + " on port " + port;
+    }
+
+    /**
+     * Make the Transport for a host and port.
+     * @param host A host name or address, or unix: and a path.
+     * @param port The TCP port.  Not used for Unix domain sockets.
+     * @return A new transport.
+     * @throws IllegalArgumentException If host is unix: without a path.
+     * @throws UnsupportedOperationException If host is a Unix domain socket
+     * and this Java doesn't have them.
+     */
+    public static Transport forHost(String host, int port) {
+        return forHost(host, port, new NetworkOptions());
+    }
+
+    /**
+     * Like {@link #forHost(String, int)}, with TCP sockets set up by options.
+     * @since 2.1
+     */
+    public static Transport forHost(String host, int port, NetworkOptions options) {
+        if (isUnix(host)) {
+            String path = host.substring(kUnixPrefix.length());
+            if (path.length() == 0) {
+                throw new IllegalArgumentException("No path after " + kUnixPrefix + " in host: " + host);
+            }
+            return new UnixTransport(path);
+        }
+        return new TcpTransport(host, port, options);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+/**
+ * Maps the names that can go in the RLGLUE_WAIT_STRATEGY environment variable
+ * onto WaitStrategy implementations.
+ * <ul>
+ * <li>block : the default.  Use a BLOCKING socket and let the kernel do the waiting.
+ * <li>spin : NON-BLOCKING socket, busy-spin ({@link BusySpinWaitStrategy})
+ * <li>yield : NON-BLOCKING socket, Thread.yield() ({@link YieldWaitStrategy})
+ * <li>backoff : NON-BLOCKING socket, spin then park ({@link BackoffWaitStrategy})
+ * <li>select : NON-BLOCKING socket, wait in a Selector ({@link SelectorWaitStrategy})
+ * </ul>
+ *
+ * @author btanner
+ */
+public final class WaitStrategies {
+
+    public static final String kBlock = "block";
+    public static final String kSpin = "spin";
+    public static final String kYield = "yield";
+    public static final String kBackoff = "backoff";
+    public static final String kSelect = "select";
+
+    private WaitStrategies() {
+    }
+
+    /**
+     * Make a new WaitStrategy from its name.
+     * @param name One of block, spin, yield, backoff, select (case insensitive).
+     * @return A new strategy, or null for "block" (meaning: use a BLOCKING socket)
+     * @throws IllegalArgumentException if the name isn't one we know about.
+     */
+    public static WaitStrategy forName(String name) {
+        if (name == null || name.trim().length() == 0 || name.trim().equalsIgnoreCase(kBlock)) {
+            return null;
+        }
+        String trimmed = name.trim();
+        if (trimmed.equalsIgnoreCase(kSpin)) {
+            return new BusySpinWaitStrategy();
+        }
+        if (trimmed.equalsIgnoreCase(kYield)) {
+            return new YieldWaitStrategy();
+        }
+        if (trimmed.equalsIgnoreCase(kBackoff)) {
+            return new BackoffWaitStrategy();
+        }
+        if (trimmed.equalsIgnoreCase(kSelect)) {
+            return new SelectorWaitStrategy();
+        }
+        throw new IllegalArgumentException("Unknown wait strategy: " + name + " (expected one of " + kBlock + ", " + kSpin + ", " + kYield + ", " + kBackoff + ", " + kSelect + ")");
+    }
+
+    /**
+     * Read the RLGLUE_WAIT_STRATEGY environment variable.  If it is set to
+     * something we don't understand, complain and fall back to blocking.
+     * @return The strategy named in the environment, or null for blocking.
+     */
+    public static WaitStrategy fromEnvironment() {
+        String envVariableWaitString = System.getenv("RLGLUE_WAIT_STRATEGY");
+        try {
+            return forName(envVariableWaitString);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + " so using " + kBlock + ".");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Decides what Network.recv does while it is waiting for the other end of the
+ * socket to send something, and what Network.send does while it waits for
+ * room to write.
+ * <p>This only matters for NON-BLOCKING sockets.  A BLOCKING socket already
+ * waits inside the kernel, so read() never comes back empty and the strategy
+ * is never consulted.
+ * <p>Pick a strategy per deployment: busy-spinning gives the lowest latency but
+ * pegs a core per process, while parking or selecting costs a little latency
+ * and almost no CPU.  See {@link WaitStrategies#forName(String)}.
+ *
+ * @author btanner
+ */
+public interface WaitStrategy {
+
+    /**
+     * Called every time a read on a non-blocking channel comes back with
+     * nothing in it.
+     * @param channel The channel that we are waiting on.
+     * @param idleCount How many empty reads there have been in a row, starting at 1.
+     * @throws java.io.IOException
+     */
+    void idle(SocketChannel channel, int idleCount) throws IOException;
+
+    /**
+     * Called every time a write on a non-blocking channel can't take any
+     * more bytes because the socket's send buffer is full.
+     * @param channel The channel that we are waiting on.
+     * @param idleCount How many writes in a row have written nothing, starting at 1.
+     * @throws java.io.IOException
+     * @since 2.1
+     */
+    void idleWrite(SocketChannel channel, int idleCount) throws IOException;
+
+    /**
+     * Release anything the strategy is holding on to (like a Selector).
+     * Called from Network.close().
+     * @throws java.io.IOException
+     */
+    void close() throws IOException;
+}
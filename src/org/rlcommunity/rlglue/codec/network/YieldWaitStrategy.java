@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * Thread.yield() between reads.  This is what Network.recv has always done in
+ * NON-BLOCKING mode, so it is still the default.
+ *
+ * @author btanner
+ */
+public class YieldWaitStrategy implements WaitStrategy {
+
+    public void idle(SocketChannel channel, int idleCount) {
+        Thread.yield();
+    }
+
+    public void idleWrite(SocketChannel channel, int idleCount) {
+        Thread.yield();
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.network.NetworkOptions;
+import org.rlcommunity.rlglue.codec.network.SharedMemoryChannel;
+
+/**
+ * One NON-BLOCKING connection to the glue server (from an experiment, agent
+ * or environment).  It is a Network so that all of the usual put and get
+ * methods work, but the buffers are used differently:
+ * <ul>
+ * <li>The receive buffer collects whatever bytes have arrived.  nextFrame()
+ * hands out one complete message at a time, and finishFrame() throws it away
+ * and keeps anything that came in after it.
+ * <li>The send buffer can hold several messages.  Whatever the socket
+ * doesn't take straight away is written later, when the selector says the
+ * socket is writable.
+ * <li>A message can end with bytes straight out of another connection's
+ * receive buffer (see endFrame(ByteBuffer)), so an observation going from the
+ * environment to the agent doesn't have to be decoded and encoded again.
+ * </ul>
+ *
+ * @author btanner
+ */
+final class GlueConnection extends Network {
+
+    private SelectionKey key = null;
+    private GlueSession session = null;
+    private int role = 0;
+    private int dataEnd = 0;
+    private int frameEnd = -1;
+    private int frameStart = 0;
+    private boolean terminating = false;
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    /** The receive buffer, while recvBuffer points at an inflated message */
+    private ByteBuffer arrivals = null;
+
+    GlueConnection(SocketChannel channel, NetworkOptions options) {
+        super(options);
+        this.socketChannel = channel;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    SocketChannel getChannel() {
+        return socketChannel;
+    }
+
+    SelectionKey getKey() {
+        return key;
+    }
+
+    /**
+     * From now on read and write messages through channel, with the socket
+     * (which has to be non-blocking) as its doorbell.
+     * @param channel The server's end of the rings the client offered.
+     */
+    void useSharedMemory(SharedMemoryChannel channel) {
+        channel.attach(socketChannel);
+        sharedMemory = channel;
+    }
+
+    /**
+     * @return The rings messages go through, or null if they use the socket.
+     */
+    SharedMemoryChannel getSharedMemory() {
+        return sharedMemory;
+    }
+
+    GlueSession getSession() {
+        return session;
+    }
+
+    /**
+     * @param session The session this connection now belongs to.
+     * @param role kExperimentConnection, kAgentConnection or kEnvironmentConnection
+     */
+    void setSession(GlueSession session, int role) {
+        this.session = session;
+        this.role = role;
+    }
+
+    int getRole() {
+        return role;
+    }
+
+    String describe() {
+        switch (role) {
+            case Network.kExperimentConnection:
+                return "experiment";
+            case Network.kAgentConnection:
+                return "agent";
+            case Network.kEnvironmentConnection:
+                return "environment";
+            default:
+                return "unidentified connection";
+        }
+    }
+
+    /**
+     * We have sent kRLTerm.  Anything else this connection sends is ignored,
+     * and it will be closed when the other end closes it.
+     */
+    void setTerminating() {
+        terminating = true;
+    }
+
+    boolean isTerminating() {
+        return terminating;
+    }
+
+    /**
+     * Read whatever is waiting on the socket into the receive buffer.
+     * @return false if the other end has closed the connection.
+     * @throws java.io.IOException
+     */
+    boolean readAvailable() throws IOException {
+        int amountRead;
+        do {
+            if (!recvBuffer.hasRemaining()) {
+                ensureRecvCapacityRemains(recvBuffer.capacity());
+            }
+            amountRead = dataChannel().read(recvBuffer);
+        } while (amountRead > 0 && !recvBuffer.hasRemaining());
+
+        if (terminating) {
+            recvBuffer.clear();
+        }
+        return amountRead >= 0;
+    }
+
+    /**
+     * If a whole message has arrived, get ready to decode it.  The receive
+     * buffer is positioned at the start of the message body and limited to the
+     * end of it, so the normal get methods can be used.  Call finishFrame() or
+     * unreadFrame() before calling this again.
+     * @return The message code, or -1 if there isn't a whole message yet.
+     */
+    int nextFrame() throws IOException {
+        int available = recvBuffer.position();
+        if (available < kHeaderSize) {
+            return -1;
+        }
+        int code = recvBuffer.getInt(0);
+        int end = kHeaderSize + recvBuffer.getInt(Network.kIntSize);
+        if (available < end) {
+            ensureRecvCapacityRemains(end - available);
+            return -1;
+        }
+        dataEnd = available;
+        frameEnd = end;
+        recvBuffer.limit(frameEnd);
+        recvBuffer.position(kHeaderSize);
+        if ((code & kCompressedFrame) != 0) {
+            code &= ~kCompressedFrame;
+            arrivals = recvBuffer;
+            recvBuffer = inflateFrame(recvBuffer, code);
+        }
+        return code;
+    }
+
+    /**
+     * Point the receive buffer back at what has arrived, if it was pointing
+     * at an inflated message.
+     */
+    private void restoreArrivals() {
+        if (arrivals != null) {
+            recvBuffer = arrivals;
+            arrivals = null;
+        }
+    }
+
+    /**
+     * @return The size of the body of the message from nextFrame().
+     */
+    int getFrameBodySize() {
+        return frameEnd - kHeaderSize;
+    }
+
+    /**
+     * The part of the message from nextFrame() that hasn't been read yet.
+     * This is the receive buffer itself, positioned and limited to that part,
+     * so it is only good until finishFrame() or unreadFrame().
+     */
+    ByteBuffer getFrameRemainder() {
+        return recvBuffer;
+    }
+
+    /**
+     * Throw away the message from nextFrame(), keeping anything after it.
+     */
+    void finishFrame() {
+        restoreArrivals();
+        recvBuffer.limit(dataEnd);
+        recvBuffer.position(frameEnd);
+        recvBuffer.compact();
+        frameEnd = -1;
+    }
+
+    /**
+     * Leave the message from nextFrame() where it is, to be handled later.
+     */
+    void unreadFrame() {
+        restoreArrivals();
+        recvBuffer.limit(recvBuffer.capacity());
+        recvBuffer.position(dataEnd);
+        frameEnd = -1;
+    }
+
+    /**
+     * Start a new message at the end of the send buffer.  Put the body with the
+     * usual put methods and then call endFrame().
+     * @param code
+     */
+    void beginFrame(int code) {
+        frameStart = sendBuffer.position();
+        putInt(code);
+        putInt(0);
+    }
+
+    /**
+     * Fill in the size of the message started by beginFrame() and send it.
+     * @throws java.io.IOException
+     */
+    void endFrame() throws IOException {
+        int bodySize = sendBuffer.position() - frameStart - kHeaderSize;
+        sendBuffer.putInt(frameStart + Network.kIntSize, bodySize);
+        if (getCompression() && bodySize >= getCompressionThreshold()) {
+            sendBuffer.position(compressFrame(sendBuffer, frameStart, sendBuffer.position()));
+        }
+        flush();
+    }
+
+    /**
+     * Like endFrame(), but the message ends with the remaining bytes of tail,
+     * which are written straight from tail with a gathering write (unless
+     * the message is going to be deflated).  Whatever
+     * the socket doesn't take is copied into the send buffer to be written
+     * later, so tail can be reused as soon as this returns.
+     * @param tail Usually another connection's getFrameRemainder()
+     * @throws java.io.IOException
+     */
+    void endFrame(ByteBuffer tail) throws IOException {
+        if (getCompression() && sendBuffer.position() - frameStart - kHeaderSize + tail.remaining() >= getCompressionThreshold()) {
+            //It has to be in one place to be deflated
+            ensureSendCapacityRemains(tail.remaining());
+            sendBuffer.put(tail);
+            endFrame();
+            return;
+        }
+        sendBuffer.putInt(frameStart + Network.kIntSize, sendBuffer.position() - frameStart - kHeaderSize + tail.remaining());
+        sendBuffer.flip();
+        gather[0] = sendBuffer;
+        gather[1] = tail;
+        if (sharedMemory != null) {
+            sharedMemory.write(gather);
+        } else {
+            socketChannel.write(gather);
+        }
+        gather[1] = null;
+        sendBuffer.compact();
+        if (tail.hasRemaining()) {
+            ensureSendCapacityRemains(tail.remaining());
+            sendBuffer.put(tail);
+        }
+        updateInterest();
+    }
+
+    void sendEmptyFrame(int code) throws IOException {
+        beginFrame(code);
+        endFrame();
+    }
+
+    /**
+     * Write as much of the send buffer as the socket will take.  If there is
+     * some left over, ask the selector to tell us when we can write again.
+     * @return Whether everything has been written.
+     * @throws java.io.IOException
+     */
+    boolean flush() throws IOException {
+        sendBuffer.flip();
+        dataChannel().write(sendBuffer);
+        sendBuffer.compact();
+        return updateInterest();
+    }
+
+    /**
+     * Only ask the selector about writing when there is something left in the
+     * send buffer.
+     * @return Whether everything has been written.
+     */
+    private boolean updateInterest() {
+        boolean allWritten = sendBuffer.position() == 0;
+        if (key != null && key.isValid()) {
+            if (allWritten) {
+                key.interestOps(SelectionKey.OP_READ);
+            } else {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+        return allWritten;
+    }
+
+    /**
+     * Close without throwing, we're usually cleaning up after something else
+     * went wrong anyway.
+     */
+    void closeQuietly() {
+        try {
+            close();
+        } catch (IOException ioException) {
+        }
+    }
+}
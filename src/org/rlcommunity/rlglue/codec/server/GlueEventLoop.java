@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.network.NetworkOptions;
+import org.rlcommunity.rlglue.codec.network.SharedMemoryChannel;
+import org.rlcommunity.rlglue.codec.network.Transport;
+
+/**
+ * One Selector and the thread that runs it.  Every loop accepts new
+ * connections, but once a connection says which session it belongs to it is
+ * handed to that session's loop, so a session only ever runs on one thread
+ * and needs no locking.
+ *
+ * @author btanner
+ */
+final class GlueEventLoop implements Runnable {
+
+    /** What the glue server can do for a connection that asks (see Network.sendConnectionType) */
+    static final int kSupportedCapabilities = Network.kCapabilityFloatDoubles | Network.kCapabilityObservationDeltas | Network.kCapabilityCompression | Network.kCapabilitySharedMemory;
+    /**
+     * How many times to look at the shared memory rings for a message before
+     * parking in the Selector.  Only when some connection uses them.
+     */
+    static final int kSharedMemorySpins = SharedMemoryChannel.kSpins + SharedMemoryChannel.kYields;
+    /** How many of those spins are busy before the rest yield */
+    static final int kSharedMemoryBusySpins = SharedMemoryChannel.kSpins;
+    private final GlueServer server;
+    private final ServerSocketChannel serverChannel;
+    private final Transport transport;
+    private final NetworkOptions options;
+    private final Selector selector;
+    /** Connections (and the bytes they've already sent) handed over from other loops */
+    private final ConcurrentLinkedQueue<GlueConnection> handedOver = new ConcurrentLinkedQueue<GlueConnection>();
+    private final List<GlueConnection> connections = new ArrayList<GlueConnection>();
+    private final List<GlueSession> sessions = new ArrayList<GlueSession>();
+    private volatile long stepCount = 0;
+
+    GlueEventLoop(GlueServer server, ServerSocketChannel serverChannel, Transport transport) throws IOException {
+        this.server = server;
+        this.serverChannel = serverChannel;
+        this.transport = transport;
+        this.options = server.getNetworkOptions();
+        this.selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Only called from this loop's thread (by its sessions).
+     */
+    void countStep() {
+        stepCount++;
+    }
+
+    long getStepCount() {
+        return stepCount;
+    }
+
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    /**
+     * Give this loop a connection whose session lives here.  Can be called
+     * from any thread.
+     * @param connection
+     */
+    void handOver(GlueConnection connection) {
+        handedOver.add(connection);
+        selector.wakeup();
+    }
+
+    public void run() {
+        try {
+            while (!server.isStopped()) {
+                if (spinOnSharedMemory()) {
+                    selector.selectNow();
+                } else {
+                    selector.select();
+                }
+                adoptHandedOver();
+                Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+                while (keyIterator.hasNext()) {
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        service(key);
+                    }
+                }
+                serviceSharedMemory();
+            }
+        } catch (IOException ioException) {
+            System.err.println("GlueServer event loop threw Exception: " + ioException);
+            ioException.printStackTrace();
+            server.stop();
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            //Another loop got it first
+            return;
+        }
+        channel.configureBlocking(false);
+        transport.configure(channel);
+        GlueConnection connection = new GlueConnection(channel, options);
+        connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+        connections.add(connection);
+    }
+
+    private void adoptHandedOver() throws IOException {
+        GlueConnection connection;
+        while ((connection = handedOver.poll()) != null) {
+            try {
+                connection.setKey(connection.getChannel().register(selector, SelectionKey.OP_READ, connection));
+                connections.add(connection);
+                adopt(connection);
+            } catch (IOException ioException) {
+                disconnected(connection);
+            }
+        }
+    }
+
+    /**
+     * Look at the rings of the connections that use shared memory for a
+     * while, unparked, so their messages don't have to ring the doorbell.
+     * @return Whether one of them has something to read.
+     */
+    private boolean spinOnSharedMemory() {
+        if (!setSharedMemoryParked(false)) {
+            return false;
+        }
+        boolean found = false;
+        for (int spin = 0; spin < kSharedMemorySpins && !found; spin++) {
+            found = hasSharedMemoryInput();
+            if (!found && spin >= kSharedMemoryBusySpins) {
+                Thread.yield();
+            }
+        }
+        setSharedMemoryParked(true);
+        SharedMemoryChannel.fence();
+        //Anything written before the parked flag was seen has no doorbell
+        return found || hasSharedMemoryInput();
+    }
+
+    /**
+     * @return Whether any connection uses shared memory.
+     */
+    private boolean setSharedMemoryParked(boolean parked) {
+        boolean any = false;
+        for (int i = 0; i < connections.size(); i++) {
+            SharedMemoryChannel channel = connections.get(i).getSharedMemory();
+            if (channel != null) {
+                channel.setReaderParked(parked);
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    private boolean hasSharedMemoryInput() {
+        for (int i = 0; i < connections.size(); i++) {
+            SharedMemoryChannel channel = connections.get(i).getSharedMemory();
+            if (channel != null && channel.hasInput()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the rings that have something in them, whether or not their
+     * doorbell rang.
+     */
+    private void serviceSharedMemory() {
+        if (!hasSharedMemoryInput()) {
+            return;
+        }
+        GlueConnection[] snapshot = connections.toArray(new GlueConnection[connections.size()]);
+        for (GlueConnection connection : snapshot) {
+            SharedMemoryChannel channel = connection.getSharedMemory();
+            if (channel != null && channel.hasInput() && connections.contains(connection)) {
+                service(connection, false, true);
+            }
+        }
+    }
+
+    private void service(SelectionKey key) {
+        service((GlueConnection) key.attachment(), key.isWritable(), key.isReadable());
+    }
+
+    private void service(GlueConnection connection, boolean writable, boolean readable) {
+        SelectionKey key = connection.getKey();
+        try {
+            if (writable) {
+                connection.flush();
+            }
+            if (key != null && key.isValid() && readable) {
+                boolean stillOpen = connection.readAvailable();
+                if (connection.getSession() == null) {
+                    if (!handshake(connection)) {
+                        //Handed over, the other loop will notice if it closed
+                        return;
+                    }
+                } else {
+                    connection.getSession().onReadable(connection);
+                }
+                if (!stillOpen) {
+                    disconnected(connection);
+                }
+            }
+        } catch (IOException ioException) {
+            disconnected(connection);
+        } catch (RuntimeException runtimeException) {
+            //Only this connection's session is broken, the others on the loop carry on
+            System.err.println("GlueServer connection threw Exception: " + runtimeException);
+            runtimeException.printStackTrace();
+            disconnected(connection);
+        }
+        checkClosed(connection.getSession());
+    }
+
+    /**
+     * The first message on every connection says whether it's an experiment,
+     * agent or environment, and maybe which session it's part of and which
+     * capabilities it would like.  If it asked for any, it is told which of
+     * them it gets before anything else.
+     * @return false if the connection was handed to another loop.
+     */
+    private boolean handshake(GlueConnection connection) throws IOException {
+        int role = connection.nextFrame();
+        if (role == -1) {
+            return true;
+        }
+        int sessionId = Network.kNoSession;
+        if (connection.getFrameBodySize() >= Network.kIntSize) {
+            sessionId = connection.getInt();
+        }
+        boolean askedForCapabilities = connection.getFrameBodySize() >= 2 * Network.kIntSize;
+        int capabilities = Network.kNoCapabilities;
+        SharedMemoryChannel sharedMemory = null;
+        if (askedForCapabilities) {
+            capabilities = connection.getInt() & kSupportedCapabilities;
+            if (role != Network.kEnvironmentConnection) {
+                //We never send observations as deltas, only receive them
+                capabilities &= ~Network.kCapabilityObservationDeltas;
+            }
+            if ((capabilities & Network.kCapabilitySharedMemory) != 0) {
+                sharedMemory = openSharedMemory(connection);
+                if (sharedMemory == null) {
+                    capabilities &= ~Network.kCapabilitySharedMemory;
+                }
+            }
+        }
+        connection.finishFrame();
+        if (askedForCapabilities) {
+            connection.setFloatDoubles((capabilities & Network.kCapabilityFloatDoubles) != 0);
+            connection.setObservationDeltas((capabilities & Network.kCapabilityObservationDeltas) != 0);
+            connection.setCompression((capabilities & Network.kCapabilityCompression) != 0);
+            connection.setCompressionThreshold(server.getCompressionThreshold());
+            connection.beginFrame(Network.kCapabilities);
+            connection.putInt(capabilities);
+            connection.endFrame();
+            if (sharedMemory != null) {
+                if (!connection.flush()) {
+                    //The rest of the reply would go into the rings
+                    throw new IOException("Could not send the capabilities reply to a shared memory connection in one write");
+                }
+                connection.useSharedMemory(sharedMemory);
+            }
+        }
+
+        GlueSession session = server.join(role, sessionId, this);
+        if (session == null) {
+            System.err.println("GlueServer: rejecting connection of type " + role + " for session " + sessionId + ", already have one or don't know what it is.");
+            disconnected(connection);
+            return true;
+        }
+        connection.setSession(session, role);
+        if (session.getLoop() != this) {
+            connection.getKey().cancel();
+            connection.setKey(null);
+            connections.remove(connection);
+            session.getLoop().handOver(connection);
+            return false;
+        }
+        adopt(connection);
+        return true;
+    }
+
+    /**
+     * Map the file whose path follows the capabilities in the connection
+     * message.
+     * @return The server's end of the rings, or null if the client is on
+     * another machine (or didn't send a path).
+     */
+    private SharedMemoryChannel openSharedMemory(GlueConnection connection) {
+        if (connection.getFrameBodySize() < 3 * Network.kIntSize) {
+            return null;
+        }
+        String path = connection.getString();
+        try {
+            return SharedMemoryChannel.open(path);
+        } catch (IOException ioException) {
+            System.err.println("GlueServer: using the socket instead of shared memory: " + ioException.getMessage());
+            return null;
+        }
+    }
+
+    private void adopt(GlueConnection connection) throws IOException {
+        GlueSession session = connection.getSession();
+        if (!sessions.contains(session)) {
+            sessions.add(session);
+        }
+        session.attach(connection, connection.getRole());
+        session.onReadable(connection);
+        checkClosed(session);
+    }
+
+    private void disconnected(GlueConnection connection) {
+        connections.remove(connection);
+        if (connection.getSession() != null) {
+            connection.getSession().onDisconnect(connection);
+        } else {
+            connection.closeQuietly();
+        }
+    }
+
+    private void checkClosed(GlueSession session) {
+        if (session != null && session.takeClosed()) {
+            sessions.remove(session);
+            server.sessionClosed(session);
+        }
+    }
+
+    private void shutdown() {
+        for (GlueSession session : sessions) {
+            if (!session.isFinished()) {
+                session.terminate();
+            }
+        }
+        sessions.clear();
+        for (GlueConnection connection : connections) {
+            connection.closeQuietly();
+        }
+        connections.clear();
+        GlueConnection connection;
+        while ((connection = handedOver.poll()) != null) {
+            connection.closeQuietly();
+        }
+        try {
+            selector.close();
+        } catch (IOException ioException) {
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.server;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import org.rlcommunity.rlglue.codec.RLGlueCore;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.network.NetworkOptions;
+import org.rlcommunity.rlglue.codec.network.TcpTransport;
+import org.rlcommunity.rlglue.codec.network.Transport;
+import org.rlcommunity.rlglue.codec.network.Transports;
+
+/**
+ * An RL-Glue server written in Java, so the experiment, agent and environment
+ * codecs can talk to each other without the C/C++ rl_glue executable.  It
+ * speaks the same protocol, so any codec (not just the Java one) can connect.
+ * <p>
+ * By default it behaves like rl_glue: it runs one experiment and then quits.
+ * When the experiment disconnects, the agent and environment are sent kRLTerm
+ * and run() returns once they have closed their connections.
+ * <p>
+ * In multi-session mode it hosts any number of experiments at once, on one
+ * port, until stop() is called.  Each experiment, agent and environment says
+ * which session it belongs to in the body of its connection message (see
+ * Network.sendConnectionType and RLGLUE_SESSION).  Connections that don't
+ * give a session id are grouped in the order they arrive: the first
+ * experiment, agent and environment without one make a session, the next
+ * three make another, and so on.
+ * <p>
+ * The sessions are spread over a few event loops, each with its own Selector
+ * and thread (the thread that calls run() is one of them).  A session always
+ * stays on one loop, so there is no locking while it runs.
+ * <pre>
+ * GlueServer theServer = new GlueServer(0);
+ * int port = theServer.bind();
+ * new Thread(theServer).start();
+ * </pre>
+ * @author btanner
+ */
+public class GlueServer implements Runnable {
+
+    private int port = Network.kDefaultPort;
+    /** Where we listen, null for TCP on port until bind() */
+    private Transport transport = null;
+    private boolean multiSession = false;
+    private int numEventLoops = 1;
+    private boolean forwardObservations = true;
+    private int compressionThreshold = Network.kDefaultCompressionThreshold;
+    private NetworkOptions networkOptions = NetworkOptions.fromEnvironment();
+    private ServerSocketChannel serverChannel = null;
+    private GlueEventLoop[] loops = null;
+    private volatile boolean stopped = false;
+    private GlueSession onlySession = null;
+    private final Map<Integer, GlueSession> keyedSessions = new HashMap<Integer, GlueSession>();
+    private final LinkedList<GlueSession> waitingSessions = new LinkedList<GlueSession>();
+    private int nextLoop = 0;
+    private int activeSessions = 0;
+    private long totalSessions = 0;
+
+    /**
+     * Listen on the port in RLGLUE_PORT, or the default port.  If RLGLUE_HOST
+     * is unix: and a path, listen on a Unix domain socket there instead.
+     */
+    public GlueServer() {
+        String envVariableHostString = System.getenv("RLGLUE_HOST");
+        if (Transports.isUnix(envVariableHostString)) {
+            transport = Transports.forHost(envVariableHostString, port);
+        }
+        String envVariablePortString = System.getenv("RLGLUE_PORT");
+        if (envVariablePortString != null) {
+            try {
+                port = Integer.parseInt(envVariablePortString);
+            } catch (NumberFormatException e) {
+                System.err.println("Could not use port you requested: " + envVariablePortString + " could not be parsed as an int.");
+            }
+        }
+    }
+
+    /**
+     * @param port The port to listen on, or 0 to let the operating system pick one.
+     */
+    public GlueServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Listen with any transport, like a {@link org.rlcommunity.rlglue.codec.network.UnixTransport}.
+     * @param transport
+     * @since 2.1
+     */
+    public GlueServer(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Host many experiments at once instead of quitting after the first one.
+     * Has to be set before bind().
+     * @param multiSession
+     */
+    public synchronized void setMultiSession(boolean multiSession) {
+        this.multiSession = multiSession;
+    }
+
+    public synchronized boolean getMultiSession() {
+        return multiSession;
+    }
+
+    /**
+     * How many Selector threads to spread the sessions over.  Has to be set
+     * before bind().  Only worth changing in multi-session mode, where about
+     * one per core is a good start.
+     * @param numEventLoops
+     */
+    public synchronized void setNumEventLoops(int numEventLoops) {
+        if (numEventLoops < 1) {
+            throw new IllegalArgumentException("Need at least one event loop, not " + numEventLoops);
+        }
+        this.numEventLoops = numEventLoops;
+    }
+
+    public synchronized int getNumEventLoops() {
+        return numEventLoops;
+    }
+
+    /**
+     * Whether observations from the environment are passed on to the agent
+     * byte for byte, with a gathering write straight out of the environment's
+     * receive buffer, instead of being decoded and encoded again.  On by
+     * default; turning it off is mostly useful for comparing the two.
+     * Only affects sessions that start after it is set.
+     * @param forwardObservations
+     */
+    public synchronized void setForwardObservations(boolean forwardObservations) {
+        this.forwardObservations = forwardObservations;
+    }
+
+    public synchronized boolean getForwardObservations() {
+        return forwardObservations;
+    }
+
+    /**
+     * The smallest message body the server deflates before sending it to a
+     * connection that asked for Network.kCapabilityCompression.  Only
+     * affects connections made after it is set.
+     * @param compressionThreshold In bytes.
+     */
+    public synchronized void setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException("compressionThreshold must not be negative: " + compressionThreshold);
+        }
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public synchronized int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * How the sockets the server listens on and accepts are set up, and how
+     * big each connection's buffers start out.  Has to be set before bind().
+     * Read from the system properties and environment variables (see
+     * NetworkOptions.fromEnvironment()) if it isn't set.
+     * @param networkOptions Copied, so changing them afterwards does nothing.
+     */
+    public synchronized void setNetworkOptions(NetworkOptions networkOptions) {
+        this.networkOptions = new NetworkOptions(networkOptions);
+    }
+
+    public synchronized NetworkOptions getNetworkOptions() {
+        return new NetworkOptions(networkOptions);
+    }
+
+    /**
+     * Start listening.  run() does this if it hasn't been done already.
+     * @return The port we're listening on (meaningless for a Unix domain socket).
+     * @throws java.io.IOException
+     */
+    public synchronized int bind() throws IOException {
+        if (serverChannel == null) {
+            if (transport == null) {
+                transport = new TcpTransport(Network.kDefaultHost, port, networkOptions);
+            }
+            serverChannel = transport.listen(1024);
+            serverChannel.configureBlocking(false);
+            if (transport instanceof TcpTransport) {
+                port = serverChannel.socket().getLocalPort();
+                transport = new TcpTransport(Network.kDefaultHost, port, networkOptions);
+            }
+            loops = new GlueEventLoop[numEventLoops];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new GlueEventLoop(this, serverChannel, transport);
+            }
+        }
+        return port;
+    }
+
+    /**
+     * @return The port we're listening on (or will listen on, before bind()).
+     */
+    public int getLocalPort() {
+        return port;
+    }
+
+    /**
+     * @return How to connect to this server once bind() has been called (null
+     * before, unless one was passed in).
+     * @since 2.1
+     */
+    public synchronized Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Ask run() to return.  Whoever is still connected is sent kRLTerm first.
+     */
+    public void stop() {
+        stopped = true;
+        GlueEventLoop[] theLoops;
+        synchronized (this) {
+            theLoops = loops;
+        }
+        if (theLoops != null) {
+            for (GlueEventLoop loop : theLoops) {
+                loop.wakeup();
+            }
+        }
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * @return How many sessions have at least one connection right now.
+     */
+    public synchronized int getActiveSessions() {
+        return activeSessions;
+    }
+
+    /**
+     * @return How many sessions have been started since the server started.
+     */
+    public synchronized long getTotalSessions() {
+        return totalSessions;
+    }
+
+    /**
+     * @return How many env_step calls have gone through the server, over all
+     * sessions.  Handy for measuring throughput.
+     */
+    public long getStepCount() {
+        GlueEventLoop[] theLoops;
+        synchronized (this) {
+            theLoops = loops;
+        }
+        long steps = 0;
+        if (theLoops != null) {
+            for (GlueEventLoop loop : theLoops) {
+                steps += loop.getStepCount();
+            }
+        }
+        return steps;
+    }
+
+    public void run() {
+        Thread[] loopThreads = null;
+        try {
+            bind();
+            loopThreads = new Thread[loops.length];
+            for (int i = 1; i < loops.length; i++) {
+                loopThreads[i] = new Thread(loops[i], "GlueServer event loop " + i);
+                loopThreads[i].start();
+            }
+            loops[0].run();
+        } catch (IOException ioException) {
+            System.err.println("GlueServer on port " + port + " threw Exception: " + ioException);
+            ioException.printStackTrace();
+        } finally {
+            stop();
+            if (loopThreads != null) {
+                for (int i = 1; i < loopThreads.length; i++) {
+                    try {
+                        loopThreads[i].join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            try {
+                if (serverChannel != null) {
+                    transport.close(serverChannel);
+                }
+            } catch (IOException ioException) {
+            }
+        }
+    }
+
+    /**
+     * Find (or start) the session a new connection belongs to, and promise it
+     * the role it asked for.  Called by the event loop that read the
+     * connection message.
+     * @param role kExperimentConnection, kAgentConnection or kEnvironmentConnection
+     * @param sessionId What the connection asked for, or Network.kNoSession
+     * @param acceptingLoop
+     * @return The session, or null if the connection should be turned away.
+     */
+    synchronized GlueSession join(int role, int sessionId, GlueEventLoop acceptingLoop) {
+        if (stopped || role < Network.kExperimentConnection || role > Network.kEnvironmentConnection) {
+            return null;
+        }
+        if (!multiSession) {
+            if (onlySession == null) {
+                onlySession = newSession(sessionId, acceptingLoop);
+            }
+            return onlySession.reserve(role) ? onlySession : null;
+        }
+
+        if (sessionId == Network.kNoSession) {
+            for (GlueSession session : waitingSessions) {
+                if (session.reserve(role)) {
+                    if (session.isFullyReserved()) {
+                        waitingSessions.remove(session);
+                    }
+                    return session;
+                }
+            }
+            GlueSession session = newSession(sessionId, nextLoop());
+            session.reserve(role);
+            waitingSessions.add(session);
+            return session;
+        }
+
+        GlueSession session = keyedSessions.get(sessionId);
+        if (session == null) {
+            session = newSession(sessionId, nextLoop());
+            keyedSessions.put(sessionId, session);
+        }
+        return session.reserve(role) ? session : null;
+    }
+
+    /**
+     * Called by the session's event loop once all of its connections are closed.
+     * @param session
+     */
+    synchronized void sessionClosed(GlueSession session) {
+        activeSessions--;
+        waitingSessions.remove(session);
+        if (keyedSessions.get(session.getSessionId()) == session) {
+            keyedSessions.remove(session.getSessionId());
+        }
+        if (!multiSession) {
+            stop();
+        }
+    }
+
+    private GlueSession newSession(int sessionId, GlueEventLoop loop) {
+        activeSessions++;
+        totalSessions++;
+        GlueSession session = new GlueSession(sessionId, loop);
+        session.setForwardObservations(forwardObservations);
+        return session;
+    }
+
+    private GlueEventLoop nextLoop() {
+        GlueEventLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+        return loop;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String usage = "java GlueServer [-multi] [-loops <number of event loops>]";
+        String envVars = "The following environment variables are used by the server to control its function:\n" +
+                "RLGLUE_PORT  : If set the server will listen on this port rather than " + Network.kDefaultPort + "\n" +
+                "RLGLUE_HOST  : If set to " + Transports.kUnixPrefix + "<path> the server will listen on a Unix domain socket at <path> instead (Java 16 or newer)\n";
+
+        GlueServer theServer = new GlueServer();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-multi")) {
+                    theServer.setMultiSession(true);
+                } else if (args[i].equals("-loops") && i + 1 < args.length) {
+                    theServer.setNumEventLoops(Integer.parseInt(args[++i]));
+                } else {
+                    throw new IllegalArgumentException("Unknown argument: " + args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage());
+            System.out.println(usage);
+            System.out.println(envVars);
+            System.exit(1);
+        }
+
+        String ImplementationVersion = RLGlueCore.getImplementationVersion();
+        String SpecVersion = RLGlueCore.getSpecVersion();
+
+        int port = theServer.bind();
+        System.out.println("RL-Glue Java Server Version: " + SpecVersion + " (" + ImplementationVersion + ")");
+        if (theServer.getTransport() instanceof TcpTransport) {
+            System.out.println("\tListening for connections on port " + port + "...");
+        } else {
+            System.out.println("\tListening for connections on " + theServer.getTransport() + "...");
+        }
+        if (theServer.getMultiSession()) {
+            System.out.println("\tHosting many experiments on " + theServer.getNumEventLoops() + " event loop(s)");
+        }
+        theServer.run();
+    }
+}
@@ -0,0 +1,583 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+
+/**
+ * One experiment, agent and environment talking through the glue server.
+ * This does the same thing as LocalGlue, except that every call to the agent
+ * or environment is a message over its connection, and we can't wait for the
+ * reply.  So each RL_ call from the experiment is a small state machine: we
+ * remember which command we're in the middle of, and pick up where we left
+ * off when the agent or environment answers.
+ * <p>
+ * Observations and actions are decoded into the same objects every time, they
+ * only live until they have been sent on to the next program.  Observations
+ * from the environment are usually not decoded at all: their bytes are
+ * forwarded to the agent (or experiment) as they arrived, and only decoded
+ * when RL_start or RL_step need them again for the reply to the experiment.
+ * Every connection decodes and encodes with its own settings, so an
+ * environment that sends floats (see Network.kCapabilityFloatDoubles) can
+ * talk to an agent that doesn't.
+ *
+ * @author btanner
+ */
+final class GlueSession {
+
+    private static final int kIdle = 0;
+    private static final int kAllRoles = (1 << Network.kExperimentConnection) | (1 << Network.kAgentConnection) | (1 << Network.kEnvironmentConnection);
+    private final int sessionId;
+    private final GlueEventLoop loop;
+    /** Roles promised to connections by GlueServer.join, only used while holding the GlueServer lock */
+    private int reservedRoles = 0;
+    private boolean closedReported = false;
+    private GlueConnection experiment = null;
+    private GlueConnection agent = null;
+    private GlueConnection environment = null;
+    private boolean finished = false;
+    /** The experiment command we're in the middle of, or kIdle */
+    private int command = kIdle;
+    private int maxStepsThisEpisode = 0;
+    private int currentStep = 0;
+    private int stepTerminal = 0;
+    private double stepReward = 0.0d;
+    private String taskSpec = "";
+    private final Observation observation = new Observation();
+    private final Action lastAction = new Action();
+    private final Action action = new Action();
+    private int numSteps = 0;
+    private double totalReward = 0.0d;
+    private int numEpisodes = 0;
+    private boolean forwardObservations = true;
+
+    /**
+     * @param sessionId The id the connections asked for, or Network.kNoSession
+     * @param loop The event loop that all of this session's connections live on.
+     */
+    GlueSession(int sessionId, GlueEventLoop loop) {
+        this.sessionId = sessionId;
+        this.loop = loop;
+    }
+
+    int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Turn off to decode and re-encode every observation, like LocalGlue does.
+     * @param forwardObservations
+     */
+    void setForwardObservations(boolean forwardObservations) {
+        this.forwardObservations = forwardObservations;
+    }
+
+    GlueEventLoop getLoop() {
+        return loop;
+    }
+
+    /**
+     * Promise a role to a connection that hasn't been handed to our event loop
+     * yet.  Only call while holding the GlueServer lock.
+     * @return false if the role has already been promised to someone.
+     */
+    boolean reserve(int role) {
+        int roleBit = 1 << role;
+        if ((reservedRoles & roleBit) != 0) {
+            return false;
+        }
+        reservedRoles |= roleBit;
+        return true;
+    }
+
+    /**
+     * Only call while holding the GlueServer lock.
+     */
+    boolean isFullyReserved() {
+        return reservedRoles == kAllRoles;
+    }
+
+    /**
+     * @return true the first time it's called after the session has closed,
+     * so the event loop tells the server exactly once.
+     */
+    boolean takeClosed() {
+        if (closedReported || !isClosed()) {
+            return false;
+        }
+        closedReported = true;
+        return true;
+    }
+
+    /**
+     * @param connection
+     * @param role kExperimentConnection, kAgentConnection or kEnvironmentConnection
+     * @return false if the session already has a connection for that role.
+     */
+    boolean attach(GlueConnection connection, int role) {
+        switch (role) {
+            case Network.kExperimentConnection:
+                if (experiment != null) {
+                    return false;
+                }
+                experiment = connection;
+                break;
+            case Network.kAgentConnection:
+                if (agent != null) {
+                    return false;
+                }
+                agent = connection;
+                break;
+            case Network.kEnvironmentConnection:
+                if (environment != null) {
+                    return false;
+                }
+                environment = connection;
+                break;
+            default:
+                return false;
+        }
+        connection.setSession(this, role);
+        return true;
+    }
+
+    boolean isReady() {
+        return experiment != null && agent != null && environment != null && !finished;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Handle every complete message that has arrived on this connection.  The
+     * experiment is only listened to when it's all connected and we're not
+     * busy with its last command.
+     * @param connection
+     * @throws java.io.IOException
+     */
+    void onReadable(GlueConnection connection) throws IOException {
+        if (connection.isTerminating()) {
+            return;
+        }
+        if (connection == experiment) {
+            processExperiment();
+            return;
+        }
+
+        int code;
+        while (!finished && (code = connection.nextFrame()) != -1) {
+            if (connection == agent) {
+                onAgentReply(code);
+            } else {
+                onEnvironmentReply(code);
+            }
+            connection.finishFrame();
+        }
+        processExperiment();
+    }
+
+    /**
+     * One of our connections has gone away.  If it was the experiment then the
+     * experiment is over, otherwise something went wrong.  Either way, we tell
+     * everyone else to stop.
+     * @param connection
+     */
+    void onDisconnect(GlueConnection connection) {
+        connection.closeQuietly();
+        if (connection == experiment) {
+            experiment = null;
+        } else if (connection == agent) {
+            agent = null;
+        } else if (connection == environment) {
+            environment = null;
+        }
+        if (!connection.isTerminating() && !finished) {
+            if (connection.getRole() != Network.kExperimentConnection) {
+                System.err.println("The " + connection.describe() + " disconnected from the glue server, ending the experiment.");
+            }
+            terminate();
+        }
+    }
+
+    /**
+     * Send kRLTerm to whoever is still connected.  The agent and environment
+     * codecs shut down on their own when they get it.
+     */
+    void terminate() {
+        finished = true;
+        if (!terminate(agent)) {
+            agent = null;
+        }
+        if (!terminate(environment)) {
+            environment = null;
+        }
+        if (experiment != null) {
+            experiment.closeQuietly();
+            experiment = null;
+        }
+    }
+
+    /**
+     * @return whether the session is finished and all of its connections
+     * have closed.
+     */
+    boolean isClosed() {
+        return finished && experiment == null && agent == null && environment == null;
+    }
+
+    /**
+     * @return whether the connection is still open and waiting to be closed
+     * from the other end.
+     */
+    private boolean terminate(GlueConnection connection) {
+        if (connection == null) {
+            return false;
+        }
+        if (connection.isTerminating()) {
+            return true;
+        }
+        connection.setTerminating();
+        try {
+            connection.sendEmptyFrame(Network.kRLTerm);
+            return true;
+        } catch (IOException ioException) {
+            connection.closeQuietly();
+            return false;
+        }
+    }
+
+    private void processExperiment() throws IOException {
+        if (!isReady()) {
+            return;
+        }
+        GlueConnection connection = experiment;
+        int code;
+        while (command == kIdle && (code = connection.nextFrame()) != -1) {
+            onExperimentCommand(code);
+            connection.finishFrame();
+            if (finished) {
+                return;
+            }
+        }
+    }
+
+    private void onExperimentCommand(int code) throws IOException {
+        command = code;
+        switch (code) {
+            case Network.kRLInit:
+                environment.sendEmptyFrame(Network.kEnvInit);
+                break;
+            case Network.kRLStart:
+                startEnvironment();
+                break;
+            case Network.kRLEpisode:
+            case Network.kRLEpisodeStream:
+                maxStepsThisEpisode = experiment.getInt();
+                startEnvironment();
+                break;
+            case Network.kRLStep:
+                stepEnvironment(lastAction);
+                break;
+            case Network.kRLCleanup:
+                environment.sendEmptyFrame(Network.kEnvCleanup);
+                break;
+            case Network.kRLAgentMessage:
+                agent.beginFrame(Network.kAgentMessage);
+                agent.putString(experiment.getString());
+                agent.endFrame();
+                break;
+            case Network.kRLEnvMessage:
+                environment.beginFrame(Network.kEnvMessage);
+                environment.putString(experiment.getString());
+                environment.endFrame();
+                break;
+            case Network.kRLEnvStart:
+                startEnvironment();
+                break;
+            case Network.kRLEnvStep:
+                stepEnvironment(experiment.getAction(action));
+                break;
+            case Network.kRLAgentStart:
+                agent.beginFrame(Network.kAgentStart);
+                agent.putObservation(experiment.getObservation(observation));
+                agent.endFrame();
+                break;
+            case Network.kRLAgentStep:
+                agent.beginFrame(Network.kAgentStep);
+                agent.putDouble(experiment.getDouble());
+                agent.putObservation(experiment.getObservation(observation));
+                agent.endFrame();
+                break;
+            case Network.kRLAgentEnd:
+                agent.beginFrame(Network.kAgentEnd);
+                agent.putDouble(experiment.getDouble());
+                agent.endFrame();
+                break;
+            case Network.kRLReturn:
+                experiment.beginFrame(code);
+                experiment.putDouble(totalReward);
+                replyToExperiment();
+                break;
+            case Network.kRLNumSteps:
+                experiment.beginFrame(code);
+                experiment.putInt(numSteps);
+                replyToExperiment();
+                break;
+            case Network.kRLNumEpisodes:
+                experiment.beginFrame(code);
+                experiment.putInt(numEpisodes);
+                replyToExperiment();
+                break;
+            default:
+                System.err.println("Unknown command from the experiment: " + code + ", ending the experiment.");
+                terminate();
+        }
+    }
+
+    private void onEnvironmentReply(int code) throws IOException {
+        switch (code) {
+            case Network.kEnvInit:
+                taskSpec = environment.getString();
+                agent.beginFrame(Network.kAgentInit);
+                agent.putString(taskSpec);
+                agent.endFrame();
+                break;
+            case Network.kEnvStart:
+                if (command == Network.kRLEnvStart) {
+                    experiment.beginFrame(command);
+                    command = kIdle;
+                    sendObservation(experiment, false);
+                } else {
+                    agent.beginFrame(Network.kAgentStart);
+                    //RL_start replies with this observation once the agent has answered
+                    sendObservation(agent, command == Network.kRLStart || command == Network.kRLEpisodeStream);
+                }
+                break;
+            case Network.kEnvStep:
+                stepTerminal = environment.getInt();
+                stepReward = environment.getDouble();
+                totalReward += stepReward;
+                loop.countStep();
+                if (stepTerminal == 1) {
+                    numEpisodes++;
+                } else {
+                    numSteps++;
+                }
+                //RL_step replies with this observation once the agent has answered
+                boolean keepObservation = command == Network.kRLStep || command == Network.kRLEpisodeStream;
+                if (command == Network.kRLEnvStep) {
+                    experiment.beginFrame(command);
+                    experiment.putInt(stepTerminal);
+                    experiment.putDouble(stepReward);
+                    command = kIdle;
+                    sendObservation(experiment, false);
+                } else if (stepTerminal == 1) {
+                    //A delta environment's observations all have to be decoded to keep its copy in step
+                    if (keepObservation || environment.getObservationDeltas()) {
+                        environment.getObservation(observation);
+                    }
+                    agent.beginFrame(Network.kAgentEnd);
+                    agent.putDouble(stepReward);
+                    agent.endFrame();
+                } else {
+                    agent.beginFrame(Network.kAgentStep);
+                    agent.putDouble(stepReward);
+                    sendObservation(agent, keepObservation);
+                }
+                break;
+            case Network.kEnvCleanup:
+                agent.sendEmptyFrame(Network.kAgentCleanup);
+                break;
+            case Network.kEnvMessage:
+                experiment.beginFrame(command);
+                experiment.putString(environment.getString());
+                replyToExperiment();
+                break;
+            default:
+                System.err.println("Unknown message from the environment: " + code + ", ending the experiment.");
+                terminate();
+        }
+    }
+
+    private void onAgentReply(int code) throws IOException {
+        switch (code) {
+            case Network.kAgentInit:
+                numEpisodes = 0;
+                numSteps = 0;
+                experiment.beginFrame(command);
+                experiment.putString(taskSpec);
+                replyToExperiment();
+                break;
+            case Network.kAgentStart:
+                if (command == Network.kRLAgentStart) {
+                    experiment.beginFrame(command);
+                    experiment.putAction(agent.getAction(action));
+                    replyToExperiment();
+                    break;
+                }
+                agent.getAction(lastAction);
+                if (command == Network.kRLEpisode || command == Network.kRLEpisodeStream) {
+                    if (command == Network.kRLEpisodeStream) {
+                        experiment.beginFrame(Network.kRLEpisodeStreamStart);
+                        experiment.putObservation(observation);
+                        experiment.putAction(lastAction);
+                        experiment.endFrame();
+                    }
+                    currentStep = 1;
+                    stepTerminal = 0;
+                    continueEpisode();
+                } else {
+                    experiment.beginFrame(command);
+                    experiment.putObservation(observation);
+                    experiment.putAction(lastAction);
+                    replyToExperiment();
+                }
+                break;
+            case Network.kAgentStep:
+                if (command == Network.kRLAgentStep) {
+                    experiment.beginFrame(command);
+                    experiment.putAction(agent.getAction(action));
+                    replyToExperiment();
+                    break;
+                }
+                agent.getAction(lastAction);
+                finishStep();
+                break;
+            case Network.kAgentEnd:
+                if (command == Network.kRLAgentEnd) {
+                    experiment.sendEmptyFrame(command);
+                    command = kIdle;
+                    break;
+                }
+                finishStep();
+                break;
+            case Network.kAgentCleanup:
+                experiment.sendEmptyFrame(command);
+                command = kIdle;
+                break;
+            case Network.kAgentMessage:
+                experiment.beginFrame(command);
+                experiment.putString(agent.getString());
+                replyToExperiment();
+                break;
+            default:
+                System.err.println("Unknown message from the agent: " + code + ", ending the experiment.");
+                terminate();
+        }
+    }
+
+    /**
+     * Same as RL_env_start in LocalGlue
+     */
+    private void startEnvironment() throws IOException {
+        numSteps = 1;
+        totalReward = 0.0d;
+        environment.sendEmptyFrame(Network.kEnvStart);
+    }
+
+    private void stepEnvironment(Action theAction) throws IOException {
+        environment.beginFrame(Network.kEnvStep);
+        environment.putAction(theAction);
+        environment.endFrame();
+    }
+
+    /**
+     * The agent has answered the last env_step, either RL_step is done or
+     * RL_episode keeps going.  A streamed RL_episode tells the experiment
+     * about the step first.
+     */
+    private void finishStep() throws IOException {
+        if (command == Network.kRLEpisode || command == Network.kRLEpisodeStream) {
+            if (command == Network.kRLEpisodeStream) {
+                experiment.beginFrame(Network.kRLEpisodeStreamStep);
+                putStepResult();
+                experiment.endFrame();
+            }
+            currentStep++;
+            continueEpisode();
+            return;
+        }
+        experiment.beginFrame(command);
+        putStepResult();
+        replyToExperiment();
+    }
+
+    /**
+     * What RL_step returns: terminal, reward, observation and action.
+     */
+    private void putStepResult() {
+        experiment.putInt(stepTerminal);
+        experiment.putDouble(stepReward);
+        experiment.putObservation(observation);
+        experiment.putAction(lastAction);
+    }
+
+    /**
+     * The loop from LocalGlue.RL_episode, one step at a time.
+     */
+    private void continueEpisode() throws IOException {
+        if (stepTerminal == 0 && (maxStepsThisEpisode == 0 || currentStep < maxStepsThisEpisode)) {
+            stepEnvironment(lastAction);
+        } else {
+            experiment.beginFrame(command);
+            experiment.putInt(stepTerminal);
+            replyToExperiment();
+        }
+    }
+
+    /**
+     * Finish the message that was started on to with beginFrame, using the
+     * observation in the rest of the environment's message.  It is only
+     * decoded and encoded again if forwarding is off, the two connections
+     * send doubles differently (see Network.setFloatDoubles) or the
+     * environment sends deltas (see Network.setObservationDeltas).
+     * @param keep Whether to decode the observation into observation as well,
+     * because a later reply needs it.
+     */
+    private void sendObservation(GlueConnection to, boolean keep) throws IOException {
+        if (!forwardObservations || to.getFloatDoubles() != environment.getFloatDoubles() || environment.getObservationDeltas()) {
+            environment.getObservation(observation);
+            to.putObservation(observation);
+            to.endFrame();
+            return;
+        }
+        ByteBuffer body = environment.getFrameRemainder();
+        if (keep) {
+            int start = body.position();
+            environment.getObservation(observation);
+            body.position(start);
+        }
+        to.endFrame(body);
+    }
+
+    private void replyToExperiment() throws IOException {
+        command = kIdle;
+        experiment.endFrame();
+    }
+}
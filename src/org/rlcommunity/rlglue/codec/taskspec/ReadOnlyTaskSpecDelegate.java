@@ -0,0 +1,244 @@
+/*
+Copyright 2008 Matt Radkie
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+ * 
+ *  $Revision$
+tmpToken=T.nextToken();
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ * 
+ */
+package org.rlcommunity.rlglue.codec.taskspec;
+
+import org.rlcommunity.rlglue.codec.taskspec.ranges.DoubleRange;
+import org.rlcommunity.rlglue.codec.taskspec.ranges.IntRange;
+
+/**
+ * A TaskSpecDelegate that can be shared between threads and agents (see
+ * TaskSpec.parseCached): nothing changes the delegate it wraps once it has
+ * been made, and every range and array it hands out is a copy, so changing
+ * one doesn't change the task spec for anybody else.
+ *
+ * @author Brian Tanner
+ */
+final class ReadOnlyTaskSpecDelegate extends TaskSpecDelegate {
+
+    private final TaskSpecDelegate delegate;
+    private final String stringRepresentation;
+
+    /**
+     * @param delegate Not to be changed or handed out by the caller afterwards.
+     */
+    ReadOnlyTaskSpecDelegate(TaskSpecDelegate delegate) {
+        this.delegate = delegate;
+        this.stringRepresentation = delegate.getStringRepresentation();
+    }
+
+    @Override
+    protected String dump() {
+        return delegate.dump();
+    }
+
+    @Override
+    protected String getStringRepresentation() {
+        return stringRepresentation;
+    }
+
+    @Override
+    double getDiscountFactor() {
+        return delegate.getDiscountFactor();
+    }
+
+    @Override
+    String getProblemType() {
+        return delegate.getProblemType();
+    }
+
+    @Override
+    public boolean isObsMinNegInfinity(int index) {
+        return delegate.isObsMinNegInfinity(index);
+    }
+
+    @Override
+    public boolean isActionMinNegInfinity(int index) {
+        return delegate.isActionMinNegInfinity(index);
+    }
+
+    @Override
+    public boolean isObsMaxPosInfinity(int index) {
+        return delegate.isObsMaxPosInfinity(index);
+    }
+
+    @Override
+    public boolean isActionMaxPosInfinity(int index) {
+        return delegate.isActionMaxPosInfinity(index);
+    }
+
+    @Override
+    public boolean isObsMinUnknown(int index) {
+        return delegate.isObsMinUnknown(index);
+    }
+
+    @Override
+    public boolean isObsMaxUnknown(int index) {
+        return delegate.isObsMaxUnknown(index);
+    }
+
+    @Override
+    public boolean isActionMinUnknown(int index) {
+        return delegate.isActionMinUnknown(index);
+    }
+
+    @Override
+    public boolean isActionMaxUnknown(int index) {
+        return delegate.isActionMaxUnknown(index);
+    }
+
+    @Override
+    public boolean isMinRewardNegInf() {
+        return delegate.isMinRewardNegInf();
+    }
+
+    @Override
+    public boolean isMaxRewardInf() {
+        return delegate.isMaxRewardInf();
+    }
+
+    @Override
+    public boolean isMinRewardUnknown() {
+        return delegate.isMinRewardUnknown();
+    }
+
+    @Override
+    public boolean isMaxRewardUnknown() {
+        return delegate.isMaxRewardUnknown();
+    }
+
+    @Override
+    public double getVersion() {
+        return delegate.getVersion();
+    }
+
+    @Override
+    public char getEpisodic() {
+        return delegate.getEpisodic();
+    }
+
+    @Override
+    public int getObsDim() {
+        return delegate.getObsDim();
+    }
+
+    @Override
+    public int getNumDiscreteObsDims() {
+        return delegate.getNumDiscreteObsDims();
+    }
+
+    @Override
+    public int getNumContinuousObsDims() {
+        return delegate.getNumContinuousObsDims();
+    }
+
+    @Override
+    public char[] getObsTypes() {
+        return delegate.getObsTypes().clone();
+    }
+
+    @Override
+    public double[] getObsMins() {
+        return delegate.getObsMins().clone();
+    }
+
+    @Override
+    public double[] getObsMaxs() {
+        return delegate.getObsMaxs().clone();
+    }
+
+    @Override
+    public int getActionDim() {
+        return delegate.getActionDim();
+    }
+
+    @Override
+    public int getNumDiscreteActionDims() {
+        return delegate.getNumDiscreteActionDims();
+    }
+
+    @Override
+    public int getNumContinuousActionDims() {
+        return delegate.getNumContinuousActionDims();
+    }
+
+    @Override
+    public char[] getActionTypes() {
+        return delegate.getActionTypes().clone();
+    }
+
+    @Override
+    public double[] getActionMins() {
+        return delegate.getActionMins().clone();
+    }
+
+    @Override
+    public double[] getActionMaxs() {
+        return delegate.getActionMaxs().clone();
+    }
+
+    @Override
+    public double getRewardMax() {
+        return delegate.getRewardMax();
+    }
+
+    @Override
+    public double getRewardMin() {
+        return delegate.getRewardMin();
+    }
+
+    @Override
+    public String getExtraString() {
+        return delegate.getExtraString();
+    }
+
+    @Override
+    public int getParserVersion() {
+        return delegate.getParserVersion();
+    }
+
+    @Override
+    public String getVersionString() {
+        return delegate.getVersionString();
+    }
+
+    @Override
+    public IntRange getDiscreteObservationRange(int i) {
+        return new IntRange(delegate.getDiscreteObservationRange(i));
+    }
+
+    @Override
+    public DoubleRange getContinuousObservationRange(int i) {
+        return new DoubleRange(delegate.getContinuousObservationRange(i));
+    }
+
+    @Override
+    public IntRange getDiscreteActionRange(int i) {
+        return new IntRange(delegate.getDiscreteActionRange(i));
+    }
+
+    @Override
+    public DoubleRange getContinuousActionRange(int i) {
+        return new DoubleRange(delegate.getContinuousActionRange(i));
+    }
+
+    @Override
+    public DoubleRange getRewardRange() {
+        return new DoubleRange(delegate.getRewardRange());
+    }
+}
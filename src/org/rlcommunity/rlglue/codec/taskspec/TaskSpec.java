@@ -44,6 +44,7 @@ import org.rlcommunity.rlglue.codec.taskspec.ranges.IntRange;
  */
 public class TaskSpec {
 
+    private static final TaskSpecCache sharedCache = new TaskSpecCache();
     /**
      * Generic object extended by all versions of TaskSpec parsers
      */
@@ -53,67 +54,208 @@ public class TaskSpec {
      */
     private String TSVersion = "0";
 
+    /**
+     * sniffFormats: the string might be an RL-Glue-3.0 task spec.
+     */
+    static final int kRLGlue3Format = 1;
+    /**
+     * sniffFormats: the string might be a V3 task spec.
+     */
+    static final int kV3Format = 2;
+    /**
+     * sniffFormats: the string might be a V2 task spec.
+     */
+    static final int kV2Format = 4;
+    /**
+     * sniffFormats: the string might be a task spec we only know the version of.
+     */
+    static final int kVersionOnlyFormat = 8;
+
     /**
      * Constructor that takes a string adhereing to the Task Spec language
      * protocol. This string is parsed out by the appropriate version of the
      * Task Spec.
+     * <p>
+     * Only the parsers that sniffFormats can't rule out are tried, in the
+     * order they always have been, so the result is the same as trying them
+     * all.  What went wrong is only put together if none of them work.
      *
      * @param taskSpec String following the Task Spec language
      */
     public TaskSpec(String taskSpec) {
-        String errorAccumulator = "Task Spec Parse Results:";
+        int formats = sniffFormats(taskSpec);
+        Exception rlGlue3Failure = null;
+        Exception v3Failure = null;
+        Exception v2Failure = null;
+        Exception versionOnlyFailure = null;
 
-        try {
-            theTSO = new TaskSpecVRLGLUE3(taskSpec);
-            TSVersion = theTSO.getVersionString();
-        } catch (Exception e) {
-            errorAccumulator += "\nParsing as TaskSpecVRLGLUE3: " + e.toString();
+        if ((formats & kRLGlue3Format) != 0) {
+            try {
+                theTSO = new TaskSpecVRLGLUE3(taskSpec);
+                TSVersion = theTSO.getVersionString();
+            } catch (Exception e) {
+                rlGlue3Failure = e;
+            }
         }
 
-        if (theTSO == null) {
-
+        if (theTSO == null && (formats & kV3Format) != 0) {
             try {
                 TaskSpecV3 theV3TSO = new TaskSpecV3(taskSpec);
                 //Later in here, make a taskSpecVRLGlue3 constructor that takes a taskspecv3
                 theTSO = new TaskSpecVRLGLUE3(theV3TSO);
                 TSVersion = "3";
             } catch (Exception e) {
-                errorAccumulator += "\nParsing as V3: " + e.toString();
+                v3Failure = e;
             }
         }
 
-        if (theTSO == null) {
+        if (theTSO == null && (formats & kV2Format) != 0) {
             try {
                 TaskSpecV2 oldV2Spec = new TaskSpecV2(taskSpec);
                 TaskSpecV3 newerV3Spec = new TaskSpecV3(oldV2Spec);
                 theTSO = new TaskSpecVRLGLUE3(newerV3Spec);
                 TSVersion = "2";
             } catch (Exception e) {
-                errorAccumulator += "\nParsing as V2: " + e.toString();
+                v2Failure = e;
             }
         }
-        if (theTSO == null) {
+        if (theTSO == null && (formats & kVersionOnlyFormat) != 0) {
             try {
                 TaskSpecVersionOnly versionOnlySpec = new TaskSpecVersionOnly(taskSpec);
                 theTSO = new TaskSpecVRLGLUE3(versionOnlySpec);
                 TSVersion = theTSO.getVersionString();
             } catch (Exception e) {
-                errorAccumulator += "\nParsing as TaskSpecVersionOnly: " + e.toString();
+                versionOnlyFailure = e;
             }
         }
 
         if (theTSO == null) {
+            String errorAccumulator = "Task Spec Parse Results:";
+            errorAccumulator += "\nParsing as TaskSpecVRLGLUE3: " + describeFailure(rlGlue3Failure, "does not start with VERSION RL-Glue-3.0");
+            errorAccumulator += "\nParsing as V3: " + describeFailure(v3Failure, "has fewer than 6 sections");
+            errorAccumulator += "\nParsing as V2: " + describeFailure(v2Failure, "does not have 4 or 5 sections");
+            errorAccumulator += "\nParsing as TaskSpecVersionOnly: " + describeFailure(versionOnlyFailure, "does not start with VERSION and a version");
             System.err.println("Task spec couldn't be parsed");
             throw new IllegalArgumentException(errorAccumulator);
         }
 
     }
 
+    private static String describeFailure(Exception failure, String whyNotTried) {
+        if (failure == null) {
+            return "not tried, the task spec " + whyNotTried;
+        }
+        return failure.toString();
+    }
+
+    /**
+     * Which of the task spec formats a string might be in, from one look at
+     * it.  A format is only ruled out if its parser would certainly reject
+     * the string:
+     * <ul>
+     * <li>RL-Glue-3.0 starts with the tokens VERSION RL-Glue-3.0.
+     * <li>V3 has at least 6 non-empty sections separated by colons.
+     * <li>V2 has 4 or 5 of them, not counting ones that are only spaces.
+     * <li>The version only format starts with VERSION and another token.
+     * </ul>
+     * @param taskSpec
+     * @return Some of kRLGlue3Format, kV3Format, kV2Format and kVersionOnlyFormat.
+     */
+    static int sniffFormats(String taskSpec) {
+        int formats = 0;
+        int length = taskSpec.length();
+
+        int i = 0;
+        while (i < length && TaskSpecScanner.isWhitespace(taskSpec.charAt(i))) {
+            i++;
+        }
+        if (taskSpec.startsWith("VERSION", i) && i + 7 < length && TaskSpecScanner.isWhitespace(taskSpec.charAt(i + 7))) {
+            i += 7;
+            while (i < length && TaskSpecScanner.isWhitespace(taskSpec.charAt(i))) {
+                i++;
+            }
+            if (i < length) {
+                formats |= kVersionOnlyFormat;
+                int end = i + "RL-Glue-3.0".length();
+                if (taskSpec.startsWith("RL-Glue-3.0", i) && (end == length || TaskSpecScanner.isWhitespace(taskSpec.charAt(end)))) {
+                    formats |= kRLGlue3Format;
+                }
+            }
+        }
+
+        int sections = 0;
+        int sectionsWithoutSpaces = 0;
+        boolean inSection = false;
+        boolean sectionHasNonSpace = false;
+        for (i = 0; i <= length; i++) {
+            char c = i < length ? taskSpec.charAt(i) : ':';
+            if (c == ':') {
+                if (inSection) {
+                    sections++;
+                }
+                if (sectionHasNonSpace) {
+                    sectionsWithoutSpaces++;
+                }
+                inSection = false;
+                sectionHasNonSpace = false;
+            } else {
+                inSection = true;
+                sectionHasNonSpace |= c != ' ';
+            }
+        }
+        if (sections >= 6) {
+            formats |= kV3Format;
+        }
+        if (sectionsWithoutSpaces >= 4 && sectionsWithoutSpaces <= 5) {
+            formats |= kV2Format;
+        }
+        return formats;
+    }
+
     public TaskSpec(TaskSpecDelegate theTaskSpecDelegate) {
         this.theTSO = theTaskSpecDelegate;
         this.TSVersion = theTaskSpecDelegate.getVersionString();
     }
 
+    private TaskSpec(TaskSpecDelegate theTaskSpecDelegate, String TSVersion) {
+        this.theTSO = theTaskSpecDelegate;
+        this.TSVersion = TSVersion;
+    }
+
+    /**
+     * A TaskSpec that reads the same as parsed but can't be changed through
+     * the ranges it hands out.  Nothing else may hold on to parsed.
+     */
+    static TaskSpec readOnly(TaskSpec parsed) {
+        return new TaskSpec(new ReadOnlyTaskSpecDelegate(parsed.theTSO), parsed.TSVersion);
+    }
+
+    /**
+     * Like new TaskSpec(taskSpec), but the same task spec string is only
+     * parsed once: the result is kept in a shared TaskSpecCache and handed
+     * to everyone who asks for it.  Because it is shared, the ranges and
+     * arrays it returns are copies, so changing them changes nothing.
+     * <p>
+     * Good for agents that are given the same task spec in agent_init run
+     * after run.
+     *
+     * @param taskSpec String following the Task Spec language
+     * @return A TaskSpec that can't be changed, maybe the same one as last time.
+     * @throws IllegalArgumentException If it can't be parsed.
+     * @since 2.1
+     */
+    public static TaskSpec parseCached(String taskSpec) {
+        return sharedCache.get(taskSpec);
+    }
+
+    /**
+     * @return The cache parseCached uses, to size it or look at its counts.
+     * @since 2.1
+     */
+    public static TaskSpecCache getSharedCache() {
+        return sharedCache;
+    }
+
     /**
      * Gets the Task Spec version.
      *
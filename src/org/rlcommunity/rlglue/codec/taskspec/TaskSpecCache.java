@@ -0,0 +1,141 @@
+/*
+Copyright 2008 Matt Radkie
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+ * 
+ *  $Revision$
+tmpToken=T.nextToken();
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ * 
+ */
+package org.rlcommunity.rlglue.codec.taskspec;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parsed task specs, keyed by their strings, so an agent that is handed the
+ * same task spec on every run only parses it once.  Holds at most capacity of
+ * them and throws out the least recently used one to make room.
+ * <p>
+ * The TaskSpecs it hands out are shared, so they can't be changed: the
+ * ranges and arrays they return are copies.  Safe to use from many threads.
+ *
+ * @author Brian Tanner
+ * @since 2.1
+ */
+public class TaskSpecCache {
+
+    public static final int kDefaultCapacity = 64;
+    private final LinkedHashMap<String, TaskSpec> entries = new LinkedHashMap<String, TaskSpec>(16, 0.75f, true);
+    private int capacity;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    public TaskSpecCache() {
+        this(kDefaultCapacity);
+    }
+
+    /**
+     * @param capacity How many task specs to keep, at least 1.
+     */
+    public TaskSpecCache(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * The shared TaskSpec for taskSpecString, parsed now if it isn't here.
+     * Task specs that can't be parsed aren't remembered.
+     * @param taskSpecString
+     * @return A TaskSpec that can't be changed.
+     * @throws IllegalArgumentException If it can't be parsed, like new TaskSpec(String).
+     */
+    public TaskSpec get(String taskSpecString) {
+        synchronized (this) {
+            TaskSpec cached = entries.get(taskSpecString);
+            if (cached != null) {
+                hitCount++;
+                return cached;
+            }
+            missCount++;
+        }
+        //Parse without holding the lock, so other task specs can be looked up meanwhile
+        TaskSpec parsed = TaskSpec.readOnly(new TaskSpec(taskSpecString));
+        synchronized (this) {
+            TaskSpec cached = entries.get(taskSpecString);
+            if (cached != null) {
+                //Another thread parsed it first, use theirs so there is only one
+                return cached;
+            }
+            entries.put(taskSpecString, parsed);
+            evictDownTo(capacity);
+            return parsed;
+        }
+    }
+
+    private void evictDownTo(int size) {
+        Iterator<Map.Entry<String, TaskSpec>> eldest = entries.entrySet().iterator();
+        while (entries.size() > size) {
+            eldest.next();
+            eldest.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Throws out the least recently used task specs if there are more than
+     * the new capacity.
+     * @param capacity How many task specs to keep, at least 1.
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        evictDownTo(capacity);
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Forget every task spec.  The counts are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return How many task specs were thrown out to make room.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized String toString() {
+        return "TaskSpecCache: " + entries.size() + "/" + capacity + " task specs, " + hitCount + " hits, " + missCount + " misses, " + evictionCount + " evictions";
+    }
+}
@@ -0,0 +1,223 @@
+/*
+Copyright 2008 Matt Radkie
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+ * 
+ *  $Revision$
+tmpToken=T.nextToken();
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ * 
+ */
+package org.rlcommunity.rlglue.codec.taskspec;
+
+/**
+ * Reads a task spec a token at a time, straight out of the string: tokens
+ * are matched against labels where they are, and only copied out when their
+ * value is needed.  Tokens are separated by the same whitespace as a
+ * StringTokenizer's (" \t\n\r\f").
+ *
+ * @author Brian Tanner
+ */
+final class TaskSpecScanner {
+
+    private final String text;
+    private final int length;
+    private int position = 0;
+    private int tokenStart = 0;
+    private int tokenEnd = 0;
+    /** Where the first three tokens of the last range start and end */
+    private final int[] rangeParts = new int[6];
+    private int rangeCount = 0;
+
+    TaskSpecScanner(String text) {
+        this.text = text;
+        this.length = text.length();
+    }
+
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private void skipWhitespace() {
+        while (position < length && isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private int endOfToken(int start) {
+        int end = start;
+        while (end < length && !isWhitespace(text.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    boolean hasMoreTokens() {
+        skipWhitespace();
+        return position < length;
+    }
+
+    /**
+     * Move past the next token.
+     * @throws IllegalArgumentException If there isn't one.
+     */
+    private void advance() {
+        if (!hasMoreTokens()) {
+            throw new IllegalArgumentException("Task spec ended early: " + text);
+        }
+        tokenStart = position;
+        tokenEnd = endOfToken(position);
+        position = tokenEnd;
+    }
+
+    String nextToken() {
+        advance();
+        return text.substring(tokenStart, tokenEnd);
+    }
+
+    int nextInt() {
+        return Integer.parseInt(nextToken());
+    }
+
+    double nextDouble() {
+        return Double.parseDouble(nextToken());
+    }
+
+    /**
+     * Move past the next token, whatever it is.
+     * @return Whether it was word.
+     */
+    boolean nextTokenIs(String word) {
+        advance();
+        return tokenEnd - tokenStart == word.length() && text.startsWith(word, tokenStart);
+    }
+
+    /**
+     * @return The token the last call moved past.
+     */
+    String lastToken() {
+        return text.substring(tokenStart, tokenEnd);
+    }
+
+    /**
+     * Move past the next token only if it is word.
+     * @return Whether it was.
+     */
+    boolean accept(String word) {
+        skipWhitespace();
+        int end = position + word.length();
+        if (text.startsWith(word, position) && (end == length || isWhitespace(text.charAt(end)))) {
+            tokenStart = position;
+            tokenEnd = end;
+            position = end;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether the next token starts a range, like "(0 1)".
+     */
+    boolean atRange() {
+        skipWhitespace();
+        return position < length && text.charAt(position) == '(';
+    }
+
+    /**
+     * Move past a range, and whatever comes straight after its closing
+     * bracket up to the next whitespace.  Like AbstractRange(String), a
+     * range with three tokens is "howMany min max", otherwise it is "min max"
+     * (and anything after that is ignored).  Its parts are available from
+     * rangeHowMany, rangeMin and rangeMax until the next range.
+     * @throws IllegalArgumentException If the range isn't closed or is too short.
+     */
+    void nextRange() {
+        skipWhitespace();
+        int close = text.indexOf(')', position);
+        if (close < 0) {
+            throw new IllegalArgumentException("Range is missing its closing bracket: " + text.substring(position));
+        }
+        rangeCount = 0;
+        int i = position + 1;
+        while (true) {
+            while (i < close && isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (i == close) {
+                break;
+            }
+            int start = i;
+            while (i < close && !isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (rangeCount < 3) {
+                rangeParts[2 * rangeCount] = start;
+                rangeParts[2 * rangeCount + 1] = i;
+            }
+            rangeCount++;
+        }
+        if (rangeCount < 2) {
+            throw new IllegalArgumentException("Range needs a min and a max: " + text.substring(position, close + 1));
+        }
+        position = endOfToken(close);
+    }
+
+    int rangeHowMany() {
+        return rangeCount == 3 ? Integer.parseInt(rangePart(0)) : 1;
+    }
+
+    String rangeMin() {
+        return rangePart(rangeCount == 3 ? 1 : 0);
+    }
+
+    String rangeMax() {
+        return rangePart(rangeCount == 3 ? 2 : 1);
+    }
+
+    private String rangePart(int which) {
+        return text.substring(rangeParts[2 * which], rangeParts[2 * which + 1]);
+    }
+
+    /**
+     * The tokens that are left, with a single space between each.
+     */
+    String rest() {
+        skipWhitespace();
+        int start = position;
+        int end = length;
+        while (end > start && isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        position = length;
+        boolean tidy = true;
+        for (int i = start; i < end && tidy; i++) {
+            char c = text.charAt(i);
+            tidy = !isWhitespace(c) || (c == ' ' && !isWhitespace(text.charAt(i + 1)));
+        }
+        if (tidy) {
+            return text.substring(start, end);
+        }
+        StringBuilder rest = new StringBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            int tokenEnd = endOfToken(i);
+            if (rest.length() > 0) {
+                rest.append(' ');
+            }
+            rest.append(text, i, tokenEnd);
+            i = tokenEnd;
+            while (i < end && isWhitespace(text.charAt(i))) {
+                i++;
+            }
+        }
+        return rest.toString();
+    }
+}
@@ -24,7 +24,6 @@ import org.rlcommunity.rlglue.codec.taskspec.ranges.IntRange;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.StringTokenizer;
 
 /**
  * The newest version of the Task Spec (Nov 1 2008).
@@ -218,120 +217,71 @@ public class TaskSpecVRLGLUE3 extends TaskSpecDelegate {
     }
 
     /**
-     * Parse a task spec string.
+     * Parse a task spec string.  It is read once, front to back, without
+     * splitting it up first (see TaskSpecScanner).
      *
      * @param taskSpecString
      */
     public TaskSpecVRLGLUE3(String taskSpecString) {
-        String tmpToken;
-        //Default token is space, works for me.
-        StringTokenizer T = new StringTokenizer(taskSpecString);
+        TaskSpecScanner scanner = new TaskSpecScanner(taskSpecString);
 
-        tmpToken = T.nextToken();
-        if (!tmpToken.equals("VERSION")) {
+        if (!scanner.nextTokenIs("VERSION")) {
             throw new IllegalArgumentException("Expected VERSION token.  This task spec doesn't look like an RL-Glue 3.0+ task spec.");
         }
 
-        thisVersion = T.nextToken();
-        if (!thisVersion.equals("RL-Glue-3.0")) {
-            throw new IllegalArgumentException("The RL-Glue-3.0 Task spec parser does not know how to parse: " + thisVersion);
+        if (!scanner.nextTokenIs(ourVersion)) {
+            throw new IllegalArgumentException("The RL-Glue-3.0 Task spec parser does not know how to parse: " + scanner.lastToken());
         }
+        thisVersion = ourVersion;
 
-        String nextToken = T.nextToken();
-        checkLabel("PROBLEMTYPE", nextToken);
-        thisProblemType = T.nextToken();
-
-        checkLabel("DISCOUNTFACTOR", T.nextToken());
-        discountFactor = Double.parseDouble(T.nextToken());
-
-        checkLabel("OBSERVATIONS", T.nextToken());
+        checkLabel("PROBLEMTYPE", scanner);
+        thisProblemType = scanner.nextToken();
 
-        nextToken = T.nextToken();
-        if (nextToken.equals("INTS")) {
-            //Do the ints
-            nextToken = T.nextToken();
-            while (nextToken.startsWith("(")) {
-                String thisRange = nextToken.substring(1) + " " + T.nextToken(")");
-                intObservations.add(new IntRange(thisRange));
+        checkLabel("DISCOUNTFACTOR", scanner);
+        discountFactor = scanner.nextDouble();
 
-                //Advance past the space after the range
-                T.nextToken(" ");
-                nextToken = T.nextToken();
+        checkLabel("OBSERVATIONS", scanner);
+        if (scanner.accept("INTS")) {
+            while (scanner.atRange()) {
+                scanner.nextRange();
+                intObservations.add(new IntRange(scanner.rangeMin(), scanner.rangeMax(), scanner.rangeHowMany()));
             }
         }
-        if (nextToken.equals("DOUBLES")) {
-            //Do the doubles
-            nextToken = T.nextToken();
-            while (nextToken.startsWith("(")) {
-                String thisRange = nextToken.substring(1) + " " + T.nextToken(")");
-                doubleObservations.add(new DoubleRange(thisRange));
-
-                //Advance past the space after the range
-                T.nextToken(" ");
-                nextToken = T.nextToken();
+        if (scanner.accept("DOUBLES")) {
+            while (scanner.atRange()) {
+                scanner.nextRange();
+                doubleObservations.add(new DoubleRange(scanner.rangeMin(), scanner.rangeMax(), scanner.rangeHowMany()));
             }
         }
-        if (nextToken.equals("CHARCOUNT")) {
-            String numCharToken = T.nextToken();
-            numObsChars = Integer.parseInt(numCharToken);
-            nextToken = T.nextToken();
-
+        if (scanner.accept("CHARCOUNT")) {
+            numObsChars = scanner.nextInt();
         }
 
-        checkLabel("ACTIONS", nextToken);
-        nextToken = T.nextToken();
-        if (nextToken.equals("INTS")) {
-            //Do the ints
-            nextToken = T.nextToken();
-            while (nextToken.startsWith("(")) {
-                String thisRange = nextToken.substring(1) + " " + T.nextToken(")");
-                intActions.add(new IntRange(thisRange));
-
-                //Advance past the space after the range
-                T.nextToken(" ");
-                nextToken = T.nextToken();
+        checkLabel("ACTIONS", scanner);
+        if (scanner.accept("INTS")) {
+            while (scanner.atRange()) {
+                scanner.nextRange();
+                intActions.add(new IntRange(scanner.rangeMin(), scanner.rangeMax(), scanner.rangeHowMany()));
             }
         }
-        if (nextToken.equals("DOUBLES")) {
-            //Do the doubles
-            nextToken = T.nextToken();
-            while (nextToken.startsWith("(")) {
-                String thisRange = nextToken.substring(1) + " " + T.nextToken(")");
-                doubleActions.add(new DoubleRange(thisRange));
-
-                //Advance past the space after the range
-                T.nextToken(" ");
-                nextToken = T.nextToken();
+        if (scanner.accept("DOUBLES")) {
+            while (scanner.atRange()) {
+                scanner.nextRange();
+                doubleActions.add(new DoubleRange(scanner.rangeMin(), scanner.rangeMax(), scanner.rangeHowMany()));
             }
         }
-        if (nextToken.equals("CHARCOUNT")) {
-            String numCharToken = T.nextToken();
-            numActChars = Integer.parseInt(numCharToken);
-            nextToken = T.nextToken();
-
-        }
-
-
-        checkLabel("REWARDS", nextToken);
-        nextToken = T.nextToken();
-        if (nextToken.startsWith("(")) {
-            String rewardRangeString = nextToken.substring(1) + " " + T.nextToken(")");
-            rewardRange = new DoubleRange(rewardRangeString);
-            T.nextToken(" ");
-            nextToken = T.nextToken();
-
+        if (scanner.accept("CHARCOUNT")) {
+            numActChars = scanner.nextInt();
         }
 
-        checkLabel("EXTRA", nextToken);
-        StringBuilder theRest = new StringBuilder();
-        while (T.hasMoreTokens()) {
-            theRest.append(T.nextToken());
-            if (T.hasMoreTokens()) {
-                theRest.append(" ");
-            }
+        checkLabel("REWARDS", scanner);
+        if (scanner.atRange()) {
+            scanner.nextRange();
+            rewardRange = new DoubleRange(scanner.rangeMin(), scanner.rangeMax(), scanner.rangeHowMany());
         }
-        this.extra = theRest.toString();
 
+        checkLabel("EXTRA", scanner);
+        this.extra = scanner.rest();
     }
 
     public static void main(String[] args) {
@@ -401,8 +351,9 @@ public class TaskSpecVRLGLUE3 extends TaskSpecDelegate {
 
     }
 
-    private static void checkLabel(String expectedLabel, String actualLabel) {
-        assert actualLabel.equals(expectedLabel) : "Expected " + expectedLabel + " token instead got: " + actualLabel;
+    private static void checkLabel(String expectedLabel, TaskSpecScanner scanner) {
+        boolean matched = scanner.nextTokenIs(expectedLabel);
+        assert matched : "Expected " + expectedLabel + " token instead got: " + scanner.lastToken();
     }
 
     /**
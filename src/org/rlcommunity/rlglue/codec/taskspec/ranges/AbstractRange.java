@@ -34,6 +34,16 @@ public abstract class AbstractRange {
         this.howMany = howMany;
     }
 
+    /**
+     * A copy of other, special values and all.
+     * @param other
+     */
+    protected AbstractRange(AbstractRange other) {
+        this.howMany = other.howMany;
+        this.minSpecial = other.minSpecial;
+        this.maxSpecial = other.maxSpecial;
+    }
+
     public AbstractRange(String rangeString) {
         //Now get a string that has either 2 or 3 tokens ... either num low high or low high
         StringTokenizer rangeTokenizer = new StringTokenizer(rangeString);
@@ -42,6 +52,21 @@ public abstract class AbstractRange {
         }
         String firstHalf = rangeTokenizer.nextToken();
         String secondHalf = rangeTokenizer.nextToken();
+        parseMinAndMax(firstHalf, secondHalf);
+    }
+
+    /**
+     * Like AbstractRange(String), for a range that has already been split up.
+     * @param minString A number or one of the specialValues.
+     * @param maxString A number or one of the specialValues.
+     * @param howMany
+     */
+    public AbstractRange(String minString, String maxString, int howMany) {
+        this.howMany = howMany;
+        parseMinAndMax(minString, maxString);
+    }
+
+    private void parseMinAndMax(String firstHalf, String secondHalf) {
         parseSpecialMin(firstHalf);
         if (!hasSpecialMinStatus()) {
             parseMin(firstHalf);
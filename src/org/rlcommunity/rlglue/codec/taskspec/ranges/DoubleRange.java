@@ -50,6 +50,15 @@ public class DoubleRange extends AbstractRange {
         this.max=max;
     }
 
+    /**
+     * A copy of other, which can be changed without changing other.
+     */
+    public DoubleRange(DoubleRange other) {
+        super(other);
+        this.min=other.min;
+        this.max=other.max;
+    }
+
     /**
      * Get the range size.  If the range is [0,10] then the range is 10.0. If the
      * range is [.5,1.5], the range is 1.0, etc.  Useful for normalizing.  Behavior
@@ -76,6 +85,14 @@ public class DoubleRange extends AbstractRange {
     public DoubleRange(String theRangeString) {
         super(theRangeString);
     }
+
+    /**
+     * The parts of a range string, already split up: min and max are
+     * numbers or special values like "NEGINF".
+     */
+    public DoubleRange(String minString, String maxString, int howMany) {
+        super(minString, maxString, howMany);
+    }
     
     public void setMax(double newMax){
         this.max=newMax;
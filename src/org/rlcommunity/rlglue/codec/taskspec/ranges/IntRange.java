@@ -56,6 +56,18 @@ public class IntRange extends AbstractRange {
         super(thisRange);
     }
 
+    /**
+     * The parts of a range string, already split up: min and max are
+     * numbers or special values like "NEGINF".
+     *
+     * @param minString
+     * @param maxString
+     * @param howMany
+     */
+    public IntRange(String minString, String maxString, int howMany) {
+        super(minString, maxString, howMany);
+    }
+
     /**
      * Return the size of the range.  So, if the range was [0,0], the range size
      * is 1.  If it is [0,9], the range size is 10, etc.  Good for determining
@@ -85,6 +97,15 @@ public class IntRange extends AbstractRange {
         this.max = max;
     }
 
+    /**
+     * Constructs a copy of other, which can be changed without changing other.
+     */
+    public IntRange(IntRange other) {
+        super(other);
+        this.min = other.min;
+        this.max = other.max;
+    }
+
     public int getMin() {
         if (hasSpecialMinStatus()) {
             System.err.println("This variable has a special state.  The return value of it's getMin method is invalid.");
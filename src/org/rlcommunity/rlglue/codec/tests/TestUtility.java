@@ -19,6 +19,8 @@
 
 package org.rlcommunity.rlglue.codec.tests;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import org.rlcommunity.rlglue.codec.types.RL_abstract_type;
 
 /**
@@ -49,4 +51,12 @@ public static void clean_abstract_type(RL_abstract_type the_struct){
     the_struct.doubleArray=new double[0];
     the_struct.charArray=new char[0];
 }
+/**
+ * @return CPU time used by the current thread in nanoseconds, or -1 if the JVM can't tell us.
+ */
+public static long currentThreadCpuNanos(){
+    ThreadMXBean threadBean=ManagementFactory.getThreadMXBean();
+    if(!threadBean.isCurrentThreadCpuTimeSupported())return -1L;
+    return threadBean.getCurrentThreadCpuTime();
+}
 }
@@ -89,5 +89,8 @@ public class Test_Speed_Environment implements EnvironmentInterface {
     }
 
     public void env_cleanup() {
+        long cpuNanos=TestUtility.currentThreadCpuNanos();
+        if(cpuNanos>=0)
+            System.out.println("Environment CPU MS "+(cpuNanos/1000000L));
     }
 }
@@ -20,6 +20,7 @@
 package org.rlcommunity.rlglue.codec.tests;
 
 import org.rlcommunity.rlglue.codec.RLGlue;
+import org.rlcommunity.rlglue.codec.network.NetworkOptions;
 
 /**
  *
@@ -28,36 +29,42 @@ import org.rlcommunity.rlglue.codec.RLGlue;
 public class Test_Speed_Experiment {
 public static int runTest(){
         Glue_Test tester=new Glue_Test("Test_RL_Episode_Experiment");
-
-
+        String waitStrategy=System.getenv("RLGLUE_WAIT_STRATEGY");
+        if(waitStrategy==null)waitStrategy="block";
+        System.out.println("Wait strategy: "+waitStrategy);
+        System.out.println("Network options: "+NetworkOptions.fromEnvironment());
         RLGlue.RL_init();
 //Run an episode to get the JVM warmed up, etc             
         
-        long startTime=System.currentTimeMillis();
-
-        RLGlue.RL_episode(0);
-        long endTime=System.currentTimeMillis();
-
-        int steps=RLGlue.RL_num_steps();
-        System.out.println("MS to run Episode Type 1 "+(endTime-startTime)+" (per step: "+((double)(endTime-startTime)/(double)steps)+")");
-
-        startTime=System.currentTimeMillis();
-
-        RLGlue.RL_episode(0);
-        endTime=System.currentTimeMillis();
-
-        steps=RLGlue.RL_num_steps();
-        System.out.println("MS to run Episode Type 2 "+(endTime-startTime)+" (per step: "+((double)(endTime-startTime)/(double)steps)+")");
-
+        runTimedEpisode("Episode Type 1");
+        runTimedEpisode("Episode Type 2");
+        RLGlue.RL_cleanup();
         
         System.out.println(tester);
-
         return tester.getFailCount();
-
 }    
+
+/**
+ * Runs one episode and prints wall clock and CPU time, in total and per step.
+ * CPU time is for this thread only, which is the one that waits on the socket.
+ */
+private static void runTimedEpisode(String episodeName){
+        long startTime=System.currentTimeMillis();
+        long startNanos=System.nanoTime();
+        long startCPU=TestUtility.currentThreadCpuNanos();
+        RLGlue.RL_episode(0);
+        long endCPU=TestUtility.currentThreadCpuNanos();
+        long endNanos=System.nanoTime();
+        long endTime=System.currentTimeMillis();
+        int steps=RLGlue.RL_num_steps();
+        System.out.println("MS to run "+episodeName+" "+(endTime-startTime)+" (per step: "+((double)(endTime-startTime)/(double)steps)+")");
+        System.out.println("\tLatency per step: "+((double)(endNanos-startNanos)/(double)steps/1000.0d)+" us");
+        if(startCPU>=0 && endCPU>=0){
+            System.out.println("\tExperiment CPU MS "+((endCPU-startCPU)/1000000L)+" (per step: "+((double)(endCPU-startCPU)/(double)steps/1000.0d)+" us)");
+        }
+}
     public static void main(String[] args){
         
        System.exit(runTest());
     }
-
 }
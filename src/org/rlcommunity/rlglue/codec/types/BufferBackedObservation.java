@@ -0,0 +1,258 @@
+/* 
+ * Copyright (C) 2007, Brian Tanner
+ * 
+http://rl-glue-ext.googlecode.com/
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+http://www.apache.org/licenses/LICENSE-2.0
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.types;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * An Observation that reads its values straight out of the buffer it arrived
+ * in, instead of copying them all into arrays first.  If your agent only looks
+ * at a few of the values in a big observation, use getInt, getDouble and
+ * getChar and most of it is never copied at all.
+ * <p>The catch is that Java won't let us notice when someone reads intArray,
+ * doubleArray or charArray directly.  Until materialize() is called they are
+ * <b>null</b>, so code that uses the arrays fails loudly instead of seeing old
+ * values.  materialize() copies everything into the arrays (reusing them from
+ * the last time if the sizes match), after which this is an ordinary
+ * Observation.  duplicate(), toString(), compareTo(), equals() and the copy
+ * methods materialize first on their own.
+ * <p>The view is only good until the next message is received into the same
+ * buffer, which for an agent means until agent_step or agent_end returns.
+ * duplicate() it to keep it longer.
+ *
+ * @author btanner
+ */
+public class BufferBackedObservation extends Observation {
+
+    private ByteBuffer buffer = null;
+    private int numInts = 0;
+    private int numDoubles = 0;
+    private int numChars = 0;
+    private int intOffset = 0;
+    private int doubleOffset = 0;
+    private int charOffset = 0;
+    private boolean floatDoubles = false;
+    private boolean materialized = true;
+    //The arrays from last time, to fill in again on materialize()
+    private int[] spareInts = null;
+    private double[] spareDoubles = null;
+    private char[] spareChars = null;
+
+    public BufferBackedObservation() {
+        super();
+    }
+
+    /**
+     * Point this view at an observation in the buffer.  The buffer's position
+     * and limit aren't used or changed, so it can keep being read.
+     * @param buffer
+     * @param offset Where the observation starts (its number of ints).
+     * @return Where the observation ends.
+     */
+    public int wrap(ByteBuffer buffer, int offset) {
+        return wrap(buffer, offset, false);
+    }
+
+    /**
+     * Point this view at an observation in the buffer.  The buffer's position
+     * and limit aren't used or changed, so it can keep being read.
+     * @param buffer
+     * @param offset Where the observation starts (its number of ints).
+     * @param floatDoubles Whether the doubles were sent as 4 byte floats
+     * (see Network.setFloatDoubles).  A negative number of doubles says this
+     * one was sent as doubles anyway.
+     * @return Where the observation ends.
+     * @since 2.1
+     */
+    public int wrap(ByteBuffer buffer, int offset, boolean floatDoubles) {
+        if (materialized) {
+            spareInts = intArray;
+            spareDoubles = doubleArray;
+            spareChars = charArray;
+            intArray = null;
+            doubleArray = null;
+            charArray = null;
+        }
+        this.buffer = buffer;
+        numInts = buffer.getInt(offset);
+        numDoubles = buffer.getInt(offset + 4);
+        numChars = buffer.getInt(offset + 8);
+        intOffset = offset + 12;
+        doubleOffset = intOffset + 4 * numInts;
+        this.floatDoubles = floatDoubles;
+        if (floatDoubles && numDoubles < 0) {
+            numDoubles = ~numDoubles;
+            this.floatDoubles = false;
+        }
+        charOffset = doubleOffset + (this.floatDoubles ? 4 : 8) * numDoubles;
+        materialized = false;
+        return charOffset + numChars;
+    }
+
+    /**
+     * @return Whether the arrays have been filled in since the last wrap.
+     */
+    public boolean isMaterialized() {
+        return materialized;
+    }
+
+    public void materialize() {
+        if (materialized) {
+            return;
+        }
+        if (spareInts == null || spareInts.length != numInts) {
+            spareInts = new int[numInts];
+        }
+        if (spareDoubles == null || spareDoubles.length != numDoubles) {
+            spareDoubles = new double[numDoubles];
+        }
+        if (spareChars == null || spareChars.length != numChars) {
+            spareChars = new char[numChars];
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position(intOffset);
+        view.asIntBuffer().get(spareInts);
+        view.position(doubleOffset);
+        if (floatDoubles) {
+            FloatBuffer floats = view.asFloatBuffer();
+            for (int i = 0; i < numDoubles; i++) {
+                spareDoubles[i] = floats.get(i);
+            }
+        } else {
+            view.asDoubleBuffer().get(spareDoubles);
+        }
+        for (int i = 0; i < numChars; i++) {
+            spareChars[i] = (char) (buffer.get(charOffset + i) & 0xFF);
+        }
+        intArray = spareInts;
+        doubleArray = spareDoubles;
+        charArray = spareChars;
+        buffer = null;
+        materialized = true;
+    }
+
+    public int getInt(int which) {
+        if (materialized) {
+            return super.getInt(which);
+        }
+        if (which < 0 || which >= numInts) {
+            throw new ArrayIndexOutOfBoundsException(which);
+        }
+        return buffer.getInt(intOffset + 4 * which);
+    }
+
+    public double getDouble(int which) {
+        if (materialized) {
+            return super.getDouble(which);
+        }
+        if (which < 0 || which >= numDoubles) {
+            throw new ArrayIndexOutOfBoundsException(which);
+        }
+        if (floatDoubles) {
+            return buffer.getFloat(doubleOffset + 4 * which);
+        }
+        return buffer.getDouble(doubleOffset + 8 * which);
+    }
+
+    /**
+     * The doubles as floats, for agents that want them that way anyway.  When
+     * they were sent as floats they are copied straight out of the buffer
+     * without going through double at all.
+     * @param reuse Array to fill if it is exactly the right length, may be null.
+     * @return The array that was filled (reuse, or a new one)
+     * @since 2.1
+     */
+    public float[] getFloats(float[] reuse) {
+        int howMany = getNumDoublesLength();
+        float[] returnArray = reuse;
+        if (returnArray == null || returnArray.length != howMany) {
+            returnArray = new float[howMany];
+        }
+        if (materialized) {
+            for (int i = 0; i < howMany; i++) {
+                returnArray[i] = (float) doubleArray[i];
+            }
+        } else if (floatDoubles) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(doubleOffset);
+            view.asFloatBuffer().get(returnArray);
+        } else {
+            for (int i = 0; i < howMany; i++) {
+                returnArray[i] = (float) buffer.getDouble(doubleOffset + 8 * i);
+            }
+        }
+        return returnArray;
+    }
+
+    /**
+     * @return Whether the view is reading doubles that were sent as floats.
+     * @since 2.1
+     */
+    public boolean isFloatEncoded() {
+        return !materialized && floatDoubles;
+    }
+
+    public char getChar(int which) {
+        if (materialized) {
+            return super.getChar(which);
+        }
+        if (which < 0 || which >= numChars) {
+            throw new ArrayIndexOutOfBoundsException(which);
+        }
+        return (char) (buffer.get(charOffset + which) & 0xFF);
+    }
+
+    public void setInt(int which, int value) {
+        materialize();
+        super.setInt(which, value);
+    }
+
+    public void setDouble(int which, double value) {
+        materialize();
+        super.setDouble(which, value);
+    }
+
+    public void setChar(int which, char value) {
+        materialize();
+        super.setChar(which, value);
+    }
+
+    public int getNumIntegersLength() {
+        return materialized ? super.getNumIntegersLength() : numInts;
+    }
+
+    public int getNumDoublesLength() {
+        return materialized ? super.getNumDoublesLength() : numDoubles;
+    }
+
+    public int getNumCharsLength() {
+        return materialized ? super.getNumCharsLength() : numChars;
+    }
+
+    /**
+     * @return An ordinary Observation with a copy of everything.
+     */
+    public Observation duplicate() {
+        materialize();
+        return new Observation(this);
+    }
+}
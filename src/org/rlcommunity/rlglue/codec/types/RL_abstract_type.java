@@ -59,10 +59,25 @@ public class RL_abstract_type implements Comparable<RL_abstract_type> {
      * @param src
      */
     public RL_abstract_type(RL_abstract_type src) {
-        this(src.intArray.length, src.doubleArray.length, src.charArray.length);
+        this(src.materialized().intArray.length, src.doubleArray.length, src.charArray.length);
         RLStructCopy(src, this);
     }
 
+    /**
+     * Make sure intArray, doubleArray and charArray hold this object's values.
+     * They always do, except in views like BufferBackedObservation, which
+     * read straight out of a network buffer until someone needs the arrays.
+     * Anything that reads the arrays of an object it didn't make itself
+     * should call this first.
+     */
+    public void materialize() {
+    }
+
+    private RL_abstract_type materialized() {
+        materialize();
+        return this;
+    }
+
     public int getInt(int which) {
         return this.intArray[which];
     }
@@ -122,6 +137,8 @@ public class RL_abstract_type implements Comparable<RL_abstract_type> {
         if (src == null || dest == null) {
             throw new IllegalArgumentException("Either src or dest RL_Abstract_Type was null in RLStructCopy");
         }
+        src.materialize();
+        dest.materialize();
         if (dest.intArray.length != src.intArray.length) {
             dest.intArray = new int[src.intArray.length];
         }
@@ -143,6 +160,7 @@ public class RL_abstract_type implements Comparable<RL_abstract_type> {
      */
     @Override
     public String toString() {
+        materialize();
         return Arrays.toString(intArray) 
             + ", " + Arrays.toString(doubleArray)
             + ", " + Arrays.toString(charArray);
@@ -156,6 +174,8 @@ public class RL_abstract_type implements Comparable<RL_abstract_type> {
      * @return -1 if this is 'smaller' then other, +1 if this is 'bigger' than other, 0 if they are identical.
      */
     public int compareTo(RL_abstract_type other) {
+        materialize();
+        other.materialize();
 
         if (intArray == null & other.intArray != null) {
             return -1;
@@ -237,6 +257,7 @@ public class RL_abstract_type implements Comparable<RL_abstract_type> {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
+        materialize();
 
         result = prime * result + Arrays.hashCode(this.charArray);
         result = prime * result + Arrays.hashCode(this.intArray);
@@ -257,6 +278,8 @@ public class RL_abstract_type implements Comparable<RL_abstract_type> {
             return false;
 
         RL_abstract_type other = (RL_abstract_type) obj;
+        materialize();
+        other.materialize();
         return Arrays.equals(this.charArray, other.charArray)
                 && Arrays.equals(this.doubleArray, other.doubleArray)
                 && Arrays.equals(this.intArray, other.intArray);
@@ -25,6 +25,7 @@ import org.rlcommunity.rlglue.codec.AgentInterface;
 import org.rlcommunity.rlglue.codec.RLGlueCore;
 import org.rlcommunity.rlglue.codec.network.ClientAgent;
 import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.network.Transports;
 
 /**
  * This class can be called from the command line to load an agent and create
@@ -61,7 +62,10 @@ public class AgentLoader implements Runnable {
     private void setHostAndPorts(String hostString, String portString) {
 
         //Now override the default or env variable port and string with these specific settings
-        if (hostString != null) {
+        if (Transports.isUnix(hostString)) {
+            //A socket file, nothing to resolve
+            host = hostString;
+        } else if (hostString != null) {
             try {
                 InetAddress theAddress = InetAddress.getByName(hostString);
                 host = hostString;
@@ -119,7 +123,7 @@ public class AgentLoader implements Runnable {
         String SpecVersion = RLGlueCore.getSpecVersion();
 
         System.out.println("RL-Glue Java Agent Codec Version: " + SpecVersion + " (" + ImplementationVersion + ")");
-        System.out.println("\tConnecting to " + host + " on port " + port + "...");
+        System.out.println("\tConnecting to " + Transports.describe(host, port) + "...");
         theClient = new ClientAgent(theAgent);
 
         try {
@@ -138,6 +142,7 @@ public class AgentLoader implements Runnable {
 
         String envVars = "The following environment variables are used by the agent to control its function:\n" +
                 "RLGLUE_HOST  : If set the agent will use this ip or hostname to connect to rather than " + Network.kDefaultHost + "\n" +
+                "               or " + Transports.kUnixPrefix + "<path> to use a Unix domain socket (Java 16 or newer, Java GlueServer only)\n" +
                 "RLGLUE_PORT  : If set the agent will use this port to connect on rather than " + Network.kDefaultPort + "\n";
         if (args.length < 1) {
             System.out.println(usage);
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2007, Brian Tanner
+ *
+http://rl-glue-ext.googlecode.com/
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ *
+ *  $Revision$
+ *  $Date$
+ *  $Author$
+ *  $HeadURL$
+ *
+ */
+package org.rlcommunity.rlglue.codec.util;
+
+import java.io.PrintStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.LocalGlue;
+
+/**
+ * Runs lots of independent episodes at the same time, each with its own
+ * LocalGlue, environment and agent, and collects what happened in each.
+ * <p>The environments and agents come from factories, which are called once
+ * per episode (from whichever thread runs it), so nothing is shared between
+ * episodes unless your factory shares it.
+ * <pre>
+ * ParallelExperimentRunner runner = new ParallelExperimentRunner(envFactory, agentFactory, ParallelExperimentRunner.kForkJoin, 8);
+ * ParallelExperimentRunner.Results results = runner.run(1000, 0);
+ * results.print(System.out);
+ * runner.shutdown();
+ * </pre>
+ * @author btanner
+ */
+public class ParallelExperimentRunner {
+
+    /** A fixed size thread pool (the default) */
+    public static final String kFixed = "fixed";
+    /** java.util.concurrent.ForkJoinPool, needs Java 7 */
+    public static final String kForkJoin = "forkjoin";
+    /** A new virtual thread for every episode, needs Java 21.  The number of threads is ignored. */
+    public static final String kVirtual = "virtual";
+    private final Callable<? extends EnvironmentInterface> environmentFactory;
+    private final Callable<? extends AgentInterface> agentFactory;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Run episodes on an executor you own.  shutdown() won't touch it.
+     * @param environmentFactory Makes a new environment for each episode.
+     * @param agentFactory Makes a new agent for each episode.
+     * @param executor
+     */
+    public ParallelExperimentRunner(Callable<? extends EnvironmentInterface> environmentFactory, Callable<? extends AgentInterface> agentFactory, ExecutorService executor) {
+        this(environmentFactory, agentFactory, executor, false);
+    }
+
+    /**
+     * Run episodes on a new executor of the kind named.
+     * @param environmentFactory Makes a new environment for each episode.
+     * @param agentFactory Makes a new agent for each episode.
+     * @param executorName kFixed, kForkJoin or kVirtual
+     * @param numThreads
+     */
+    public ParallelExperimentRunner(Callable<? extends EnvironmentInterface> environmentFactory, Callable<? extends AgentInterface> agentFactory, String executorName, int numThreads) {
+        this(environmentFactory, agentFactory, newExecutor(executorName, numThreads), true);
+    }
+
+    private ParallelExperimentRunner(Callable<? extends EnvironmentInterface> environmentFactory, Callable<? extends AgentInterface> agentFactory, ExecutorService executor, boolean ownsExecutor) {
+        this.environmentFactory = environmentFactory;
+        this.agentFactory = agentFactory;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Make an executor for running episodes.  If the kind asked for isn't
+     * available in this JVM, complain and use a fixed thread pool instead.
+     * @param executorName kFixed, kForkJoin or kVirtual (case insensitive)
+     * @param numThreads
+     * @return A new executor, the caller should shut it down.
+     * @throws IllegalArgumentException if the name isn't one we know about.
+     */
+    public static ExecutorService newExecutor(String executorName, int numThreads) {
+        String trimmed = executorName == null ? kFixed : executorName.trim();
+        try {
+            if (trimmed.equalsIgnoreCase(kForkJoin)) {
+                Constructor<?> forkJoinConstructor = Class.forName("java.util.concurrent.ForkJoinPool").getConstructor(int.class);
+                return (ExecutorService) forkJoinConstructor.newInstance(numThreads);
+            }
+            if (trimmed.equalsIgnoreCase(kVirtual)) {
+                Method virtualMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) virtualMethod.invoke(null);
+            }
+        } catch (Exception e) {
+            System.err.println("Could not make a " + trimmed + " executor in this JVM (" + e + "), using a fixed thread pool.");
+            return Executors.newFixedThreadPool(numThreads);
+        }
+        if (trimmed.length() == 0 || trimmed.equalsIgnoreCase(kFixed)) {
+            return Executors.newFixedThreadPool(numThreads);
+        }
+        throw new IllegalArgumentException("Unknown executor: " + executorName + " (expected one of " + kFixed + ", " + kForkJoin + ", " + kVirtual + ")");
+    }
+
+    /**
+     * Run numEpisodes episodes and wait for all of them to finish.  Each one
+     * is RL_init, RL_episode(maxStepsThisEpisode), RL_cleanup on a new
+     * LocalGlue.
+     * @param numEpisodes
+     * @param maxStepsThisEpisode 0 means no limit, like RL_episode.
+     * @return What happened in each episode.
+     * @throws InterruptedException
+     * @throws ExecutionException If an episode threw something (the first one to, in order).
+     */
+    public Results run(int numEpisodes, final int maxStepsThisEpisode) throws InterruptedException, ExecutionException {
+        final Results results = new Results(numEpisodes);
+        List<Future<?>> futures = new ArrayList<Future<?>>(numEpisodes);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < numEpisodes; i++) {
+            final int episode = i;
+            futures.add(executor.submit(new Callable<Object>() {
+
+                public Object call() throws Exception {
+                    LocalGlue glue = new LocalGlue(environmentFactory.call(), agentFactory.call());
+                    glue.RL_init();
+                    int terminal = glue.RL_episode(maxStepsThisEpisode);
+                    results.record(episode, glue.RL_return(), glue.RL_num_steps(), terminal);
+                    glue.RL_cleanup();
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+        results.elapsedNanos = System.nanoTime() - startTime;
+        return results;
+    }
+
+    /**
+     * Shut down the executor, if we made it.
+     */
+    public void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * One row per episode: RL_return, RL_num_steps and whether it ended on
+     * its own (the return value of RL_episode).
+     */
+    public static class Results {
+
+        private final double[] returns;
+        private final int[] numSteps;
+        private final int[] terminal;
+        private long elapsedNanos = 0;
+
+        Results(int numEpisodes) {
+            returns = new double[numEpisodes];
+            numSteps = new int[numEpisodes];
+            terminal = new int[numEpisodes];
+        }
+
+        /**
+         * Each episode writes its own row.  The rows are read after
+         * Future.get(), which makes the writes visible.
+         */
+        void record(int episode, double theReturn, int theNumSteps, int theTerminal) {
+            returns[episode] = theReturn;
+            numSteps[episode] = theNumSteps;
+            terminal[episode] = theTerminal;
+        }
+
+        public int getNumEpisodes() {
+            return returns.length;
+        }
+
+        public double getReturn(int episode) {
+            return returns[episode];
+        }
+
+        public int getNumSteps(int episode) {
+            return numSteps[episode];
+        }
+
+        public int getTerminal(int episode) {
+            return terminal[episode];
+        }
+
+        public double getMeanReturn() {
+            double sum = 0.0d;
+            for (double theReturn : returns) {
+                sum += theReturn;
+            }
+            return returns.length == 0 ? 0.0d : sum / returns.length;
+        }
+
+        public long getTotalSteps() {
+            long sum = 0;
+            for (int steps : numSteps) {
+                sum += steps;
+            }
+            return sum;
+        }
+
+        /**
+         * @return Wall clock time for the whole run, in nanoseconds.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getEpisodesPerSecond() {
+            return elapsedNanos == 0 ? 0.0d : returns.length * 1.0e9d / elapsedNanos;
+        }
+
+        /**
+         * Print the table, one line per episode, and a summary.
+         */
+        public void print(PrintStream out) {
+            out.println(String.format("%8s %14s %10s %9s", "episode", "return", "steps", "terminal"));
+            for (int i = 0; i < returns.length; i++) {
+                out.println(String.format("%8d %14.4f %10d %9d", i, returns[i], numSteps[i], terminal[i]));
+            }
+            out.println(String.format("%d episodes, mean return %.4f, %d steps, %.1f episodes/s", returns.length, getMeanReturn(), getTotalSteps(), getEpisodesPerSecond()));
+        }
+    }
+}
@@ -1,4 +1,38 @@
-rl_glue &
-java -Xmx128M -classpath products/JavaRLGlueCodec.jar org.rlcommunity.rlglue.codec.tests.Test_Speed_Environment &
-java -Xmx128M -classpath products/JavaRLGlueCodec.jar org.rlcommunity.rlglue.codec.tests.Test_1_Agent &
-java -Xmx128M -classpath products/JavaRLGlueCodec.jar org.rlcommunity.rlglue.codec.tests.Test_Speed_Experiment
+#!/bin/bash
+# Runs the speed test once for each RLGLUE_WAIT_STRATEGY so that latency and
+# CPU time can be compared.  Pass strategy names to only run some of them.
+# Set GLUE=java to use the Java GlueServer instead of the rl_glue executable.
+# Set NETWORK_OPTIONS to a space separated list of settings to also run each
+# strategy once per setting, where a setting is comma separated VAR=value
+# pairs (see NetworkOptions), for example:
+#   NETWORK_OPTIONS="RLGLUE_TCP_NODELAY=true RLGLUE_TCP_NODELAY=false RLGLUE_SO_SNDBUF=4096,RLGLUE_SO_RCVBUF=4096"
+strategies="$@"
+if [ -z "$strategies" ]; then
+	strategies="block spin yield backoff select"
+fi
+settings="$NETWORK_OPTIONS"
+if [ -z "$settings" ]; then
+	settings="default"
+fi
+
+for strategy in $strategies; do
+	for setting in $settings; do
+		(
+		export RLGLUE_WAIT_STRATEGY=$strategy
+		if [ "$setting" != "default" ]; then
+			for option in ${setting//,/ }; do
+				export "$option"
+			done
+		fi
+		if [ "$GLUE" = "java" ]; then
+			java -Xmx128M -classpath products/JavaRLGlueCodec.jar org.rlcommunity.rlglue.codec.server.GlueServer &
+		else
+			rl_glue &
+		fi
+		java -Xmx128M -classpath products/JavaRLGlueCodec.jar org.rlcommunity.rlglue.codec.tests.Test_Speed_Environment &
+		java -Xmx128M -classpath products/JavaRLGlueCodec.jar org.rlcommunity.rlglue.codec.tests.Test_1_Agent &
+		java -Xmx128M -classpath products/JavaRLGlueCodec.jar org.rlcommunity.rlglue.codec.tests.Test_Speed_Experiment
+		wait
+		)
+	done
+done
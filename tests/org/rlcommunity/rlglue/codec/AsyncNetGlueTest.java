@@ -0,0 +1,181 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://bt-recordbook.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.server.GlueServer;
+import org.rlcommunity.rlglue.codec.tests.Test_1_Agent;
+import org.rlcommunity.rlglue.codec.tests.Test_1_Environment;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_action_terminal;
+import org.rlcommunity.rlglue.codec.util.AgentLoader;
+import org.rlcommunity.rlglue.codec.util.EnvironmentLoader;
+import static org.junit.Assert.*;
+
+/**
+ * AsyncNetGlue through a GlueServer should get the same answers as LocalGlue.
+ *
+ * @author btanner
+ */
+public class AsyncNetGlueTest {
+
+    private static GlueServer startServer(int numSessions) throws Exception {
+        GlueServer server = new GlueServer(0);
+        server.setMultiSession(numSessions > 1);
+        String port = "" + server.bind();
+        new Thread(server).start();
+        for (int i = 0; i < numSessions; i++) {
+            AgentLoader agentLoader = new AgentLoader(Network.kDefaultHost, port, new Test_1_Agent());
+            EnvironmentLoader environmentLoader = new EnvironmentLoader(Network.kDefaultHost, port, new Test_1_Environment());
+            new Thread(agentLoader).start();
+            new Thread(environmentLoader).start();
+        }
+        return server;
+    }
+
+    @Test
+    public void testPipelinedCallsMatchLocalGlue() throws Exception {
+        GlueServer server = startServer(1);
+        AsyncNetGlue glue = new AsyncNetGlue(Network.kDefaultHost, server.getLocalPort());
+        LocalGlue localGlue = new LocalGlue(new Test_1_Environment(), new Test_1_Agent());
+
+        assertEquals(localGlue.RL_init(), glue.RL_init().get());
+        //Nothing waits for an answer until everything has been sent
+        GlueFuture<Integer> firstEpisode = glue.RL_episode(0);
+        GlueFuture<Integer> secondEpisode = glue.RL_episode(0);
+        GlueFuture<Integer> numSteps = glue.RL_num_steps();
+        GlueFuture<Double> totalReward = glue.RL_return();
+        GlueFuture<Integer> numEpisodes = glue.RL_num_episodes();
+        GlueFuture<String> envMessage = glue.RL_env_message("hello");
+        assertEquals(localGlue.RL_episode(0), firstEpisode.get().intValue());
+        assertEquals(localGlue.RL_episode(0), secondEpisode.get().intValue());
+        assertEquals(localGlue.RL_num_steps(), numSteps.get().intValue());
+        assertEquals(localGlue.RL_return(), totalReward.get().doubleValue(), 0.0d);
+        assertEquals(localGlue.RL_num_episodes(), numEpisodes.get().intValue());
+        assertEquals(localGlue.RL_env_message("hello"), envMessage.get());
+
+        assertEquals(localGlue.RL_start().getObservation(), glue.RL_start().get().getObservation());
+        Reward_observation_action_terminal expected = localGlue.RL_step();
+        Reward_observation_action_terminal actual = glue.RL_step().get();
+        assertEquals(expected.getObservation(), actual.getObservation());
+        assertEquals(expected.getAction(), actual.getAction());
+        assertEquals(expected.getReward(), actual.getReward(), 0.0d);
+
+        glue.RL_cleanup().get();
+        glue.close();
+        server.stop();
+    }
+
+    /**
+     * One thread starts every session's steps, and listeners keep them going.
+     */
+    @Test
+    public void testListenersDriveManySessions() throws Exception {
+        final int numSessions = 4;
+        final int numSteps = 50;
+        GlueServer server = startServer(numSessions);
+        final CountDownLatch finished = new CountDownLatch(numSessions);
+        AsyncNetGlue[] glues = new AsyncNetGlue[numSessions];
+        for (int i = 0; i < numSessions; i++) {
+            final AsyncNetGlue glue = new AsyncNetGlue(Network.kDefaultHost, server.getLocalPort());
+            glues[i] = glue;
+            glue.RL_init();
+            glue.RL_start();
+            glue.RL_step().addListener(new GlueFuture.Listener<Reward_observation_action_terminal>() {
+
+                private int steps = 1;
+
+                public void onDone(GlueFuture<Reward_observation_action_terminal> future) {
+                    if (future.isFailed()) {
+                        return;
+                    }
+                    if (future.getNow().isTerminal()) {
+                        glue.RL_start();
+                    }
+                    if (++steps < numSteps) {
+                        glue.RL_step().addListener(this);
+                    } else {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+        for (AsyncNetGlue glue : glues) {
+            glue.RL_cleanup().get();
+            glue.close();
+        }
+        server.stop();
+    }
+
+    @Test
+    public void testClosedLoopFailsCalls() throws Exception {
+        AsyncGlueLoop loop = new AsyncGlueLoop();
+        GlueServer server = startServer(1);
+        AsyncNetGlue glue = new AsyncNetGlue(Network.kDefaultHost, server.getLocalPort(), loop);
+        glue.RL_init().get();
+        loop.close();
+        GlueFuture<Integer> numSteps = glue.RL_num_steps();
+        try {
+            numSteps.get(10, TimeUnit.SECONDS);
+            fail("the loop is gone, nothing can answer");
+        } catch (java.util.concurrent.ExecutionException e) {
+        }
+        server.stop();
+    }
+
+    /**
+     * A listener that throws on the shared loop thread mustn't take the
+     * other sessions (or the other listeners) down with it.
+     */
+    @Test
+    public void testThrowingListenerLeavesTheLoopRunning() throws Exception {
+        AsyncGlueLoop loop = new AsyncGlueLoop();
+        GlueServer server = startServer(2);
+        AsyncNetGlue first = new AsyncNetGlue(Network.kDefaultHost, server.getLocalPort(), loop);
+        AsyncNetGlue second = new AsyncNetGlue(Network.kDefaultHost, server.getLocalPort(), loop);
+        final CountDownLatch laterListener = new CountDownLatch(1);
+        GlueFuture<String> init = first.RL_init();
+        init.addListener(new GlueFuture.Listener<String>() {
+
+            public void onDone(GlueFuture<String> future) {
+                throw new IllegalStateException("listener bug");
+            }
+        });
+        init.addListener(new GlueFuture.Listener<String>() {
+
+            public void onDone(GlueFuture<String> future) {
+                laterListener.countDown();
+            }
+        });
+        init.get(10, TimeUnit.SECONDS);
+        assertTrue(laterListener.await(10, TimeUnit.SECONDS));
+
+        second.RL_init().get(10, TimeUnit.SECONDS);
+        assertEquals(0, second.RL_num_steps().get(10, TimeUnit.SECONDS).intValue());
+        assertEquals(0, first.RL_num_steps().get(10, TimeUnit.SECONDS).intValue());
+
+        first.RL_cleanup().get();
+        second.RL_cleanup().get();
+        loop.close();
+        server.stop();
+    }
+}
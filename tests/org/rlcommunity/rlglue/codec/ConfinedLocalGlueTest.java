@@ -0,0 +1,100 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://bt-recordbook.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec;
+
+import org.junit.Test;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation_action;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+import org.rlcommunity.rlglue.codec.tests.Test_1_Agent;
+import org.rlcommunity.rlglue.codec.tests.Test_1_Environment;
+import static org.junit.Assert.*;
+
+/**
+ * @author btanner
+ */
+public class ConfinedLocalGlueTest {
+
+    @Test
+    public void testSameAsLocalGlue() {
+        LocalGlue localGlue = new LocalGlue(new Test_1_Environment(), new Test_1_Agent());
+        ConfinedLocalGlue confinedGlue = new ConfinedLocalGlue(new Test_1_Environment(), new Test_1_Agent());
+        assertEquals(localGlue.RL_init(), confinedGlue.RL_init());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(localGlue.RL_episode(0), confinedGlue.RL_episode(0));
+            assertEquals(localGlue.RL_num_steps(), confinedGlue.RL_num_steps());
+            assertEquals(localGlue.RL_return(), confinedGlue.RL_return(), 0.0d);
+        }
+        assertEquals(localGlue.RL_num_episodes(), confinedGlue.RL_num_episodes());
+        assertEquals(localGlue.RL_env_message("hi"), confinedGlue.RL_env_message("hi"));
+    }
+
+    private static Throwable callFromAnotherThread(final LocalGlue glue) throws InterruptedException {
+        final Throwable[] thrown = {null};
+        Thread other = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    glue.RL_num_steps();
+                } catch (Throwable t) {
+                    thrown[0] = t;
+                }
+            }
+        });
+        other.start();
+        other.join();
+        return thrown[0];
+    }
+
+    @Test
+    public void testOtherThreadRejected() throws InterruptedException {
+        ConfinedLocalGlue confinedGlue = new ConfinedLocalGlue(new Test_1_Environment(), new Test_1_Agent());
+        confinedGlue.RL_init();
+        assertTrue(callFromAnotherThread(confinedGlue) instanceof IllegalStateException);
+
+        confinedGlue.releaseOwnership();
+        assertNull(callFromAnotherThread(confinedGlue));
+        try {
+            confinedGlue.RL_num_steps();
+            fail("the other thread owns it now");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testLocalGlueEpisodeGoesThroughOverrides() {
+        final int[] steps = {0, 0};
+        LocalGlue countingGlue = new LocalGlue(new Test_1_Environment(), new Test_1_Agent()) {
+
+            public synchronized Observation_action RL_start() {
+                steps[0]++;
+                return super.RL_start();
+            }
+
+            public synchronized Reward_observation_terminal RL_env_step(Action theAction) {
+                steps[1]++;
+                return super.RL_env_step(theAction);
+            }
+        };
+        countingGlue.RL_init();
+        countingGlue.RL_episode(0);
+        assertEquals(1, steps[0]);
+        assertEquals(countingGlue.RL_num_steps(), steps[1]);
+    }
+}
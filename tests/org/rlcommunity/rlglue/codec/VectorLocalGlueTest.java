@@ -0,0 +1,213 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://bt-recordbook.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec;
+
+import org.junit.Test;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_action_terminal;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+import static org.junit.Assert.*;
+
+/**
+ * VectorLocalGlue should do the same thing as one LocalGlue per environment.
+ *
+ * @author btanner
+ */
+public class VectorLocalGlueTest {
+
+    /**
+     * Ends the episode after length steps.  The reward is the step number
+     * plus the first int of the action.
+     */
+    static class CountdownEnvironment implements EnvironmentInterface {
+
+        private final int length;
+        private int step = 0;
+
+        CountdownEnvironment(int length) {
+            this.length = length;
+        }
+
+        public String env_init() {
+            return "countdown " + length;
+        }
+
+        public Observation env_start() {
+            step = 0;
+            return observe();
+        }
+
+        public Reward_observation_terminal env_step(Action action) {
+            step++;
+            return new Reward_observation_terminal(step + action.intArray[0], observe(), step == length);
+        }
+
+        private Observation observe() {
+            Observation o = new Observation(1, 0, 0);
+            o.intArray[0] = step;
+            return o;
+        }
+
+        public void env_cleanup() {
+        }
+
+        public String env_message(String message) {
+            return message + length;
+        }
+    }
+
+    /**
+     * Acts with the last observation it saw plus one.
+     */
+    static class EchoAgent implements AgentInterface {
+
+        int ends = 0;
+
+        public void agent_init(String taskSpecification) {
+        }
+
+        public Action agent_start(Observation observation) {
+            return act(observation);
+        }
+
+        public Action agent_step(double reward, Observation observation) {
+            return act(observation);
+        }
+
+        private Action act(Observation observation) {
+            Action a = new Action(1, 0, 0);
+            a.intArray[0] = observation.intArray[0] + 1;
+            return a;
+        }
+
+        public void agent_end(double reward) {
+            ends++;
+        }
+
+        public void agent_cleanup() {
+        }
+
+        public String agent_message(String message) {
+            return message;
+        }
+    }
+
+    private static final int[] kLengths = {2, 5, 3};
+
+    private static EnvironmentInterface[] makeEnvironments() {
+        EnvironmentInterface[] envs = new EnvironmentInterface[kLengths.length];
+        for (int i = 0; i < envs.length; i++) {
+            envs[i] = new CountdownEnvironment(kLengths[i]);
+        }
+        return envs;
+    }
+
+    @Test
+    public void testEpisodeMatchesLocalGlue() {
+        EchoAgent[] agents = new EchoAgent[kLengths.length];
+        for (int i = 0; i < agents.length; i++) {
+            agents[i] = new EchoAgent();
+        }
+        VectorLocalGlue vectorGlue = new VectorLocalGlue(makeEnvironments(), agents);
+        String[] taskSpecs = vectorGlue.RL_init();
+        int[] terminal = vectorGlue.RL_episode(0);
+
+        for (int i = 0; i < kLengths.length; i++) {
+            LocalGlue localGlue = new LocalGlue(new CountdownEnvironment(kLengths[i]), new EchoAgent());
+            assertEquals(localGlue.RL_init(), taskSpecs[i]);
+            assertEquals(localGlue.RL_episode(0), terminal[i]);
+            assertEquals(localGlue.RL_num_steps(), vectorGlue.RL_num_steps()[i]);
+            assertEquals(localGlue.RL_num_episodes(), vectorGlue.RL_num_episodes()[i]);
+            assertEquals(localGlue.RL_return(), vectorGlue.RL_return()[i], 0.0d);
+            assertEquals(1, agents[i].ends);
+        }
+        assertEquals("hi3", vectorGlue.RL_env_message("hi")[2]);
+    }
+
+    @Test
+    public void testCutOff() {
+        VectorLocalGlue vectorGlue = new VectorLocalGlue(makeEnvironments(), new EchoAgent[]{new EchoAgent(), new EchoAgent(), new EchoAgent()});
+        vectorGlue.RL_init();
+        int[] terminal = vectorGlue.RL_episode(3);
+        assertEquals(1, terminal[0]);
+        assertEquals(0, terminal[1]);
+        assertEquals(0, terminal[2]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAgentsMustPairWithEnvironments() {
+        new VectorLocalGlue(makeEnvironments(), new EchoAgent[]{new EchoAgent()});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullAgentsAreRejected() {
+        new VectorLocalGlue(makeEnvironments(), (AgentInterface[]) null);
+    }
+
+    @Test
+    public void testBatchAgentSeesFinishedEnvironments() {
+        final int[] calls = {0};
+        BatchAgentInterface batchAgent = new BatchAgentInterface() {
+
+            public void agent_init(String[] taskSpecifications) {
+                assertEquals(kLengths.length, taskSpecifications.length);
+            }
+
+            public Action[] agent_start(Observation[] observations) {
+                return act(observations);
+            }
+
+            public Action[] agent_step(double[] rewards, Observation[] observations, boolean[] terminal) {
+                calls[0]++;
+                //The first environment ends on step 2, after that it isn't stepped
+                assertEquals(calls[0] == 2, terminal[0]);
+                assertEquals(calls[0] > 2, observations[0] == null);
+                return act(observations);
+            }
+
+            private Action[] act(Observation[] observations) {
+                Action[] actions = new Action[observations.length];
+                for (int i = 0; i < actions.length; i++) {
+                    actions[i] = new Action(1, 0, 0);
+                }
+                return actions;
+            }
+
+            public void agent_cleanup() {
+            }
+
+            public String agent_message(String message) {
+                return "batch";
+            }
+        };
+        VectorLocalGlue vectorGlue = new VectorLocalGlue(makeEnvironments(), batchAgent);
+        vectorGlue.RL_init();
+        vectorGlue.RL_start();
+        for (int step = 1; step <= 5; step++) {
+            Reward_observation_action_terminal[] results = vectorGlue.RL_step();
+            assertEquals(step > 2, results[0] == null);
+        }
+        assertEquals(5, calls[0]);
+        assertTrue(vectorGlue.isEpisodeOver(1));
+        assertNull(vectorGlue.RL_step()[1]);
+        assertEquals(5, calls[0]);
+        assertEquals("batch", vectorGlue.RL_agent_message("?"));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://bt-recordbook.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import org.junit.Test;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import static org.junit.Assert.*;
+
+/**
+ * Feeds FrameReader frames through a pipe in awkward pieces.
+ *
+ * @author btanner
+ */
+public class FrameReaderTest {
+
+    private static ByteBuffer frames(int[] codes, int[] bodySizes) {
+        int total = 0;
+        for (int i = 0; i < codes.length; i++) {
+            total += Network.kHeaderSize + bodySizes[i];
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(total);
+        for (int i = 0; i < codes.length; i++) {
+            bytes.putInt(codes[i]);
+            bytes.putInt(bodySizes[i]);
+            for (int j = 0; j < bodySizes[i]; j++) {
+                bytes.put((byte) (codes[i] + j));
+            }
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    private static void write(Pipe pipe, ByteBuffer bytes, int howMany) throws Exception {
+        ByteBuffer piece = bytes.duplicate();
+        piece.limit(bytes.position() + howMany);
+        while (piece.hasRemaining()) {
+            pipe.sink().write(piece);
+        }
+        bytes.position(piece.position());
+    }
+
+    private static void checkBody(FrameReader reader, int code, int bodySize) {
+        ByteBuffer buffer = reader.getBuffer();
+        assertEquals(bodySize, buffer.remaining());
+        for (int j = 0; j < bodySize; j++) {
+            assertEquals((byte) (code + j), buffer.get());
+        }
+    }
+
+    @Test
+    public void oneReadHandsOutEveryWholeFrame() throws Exception {
+        Pipe pipe = Pipe.open();
+        ByteBuffer bytes = frames(new int[]{4, 5, 6}, new int[]{12, 0, 20});
+        //Both of the first two frames and the header of the third
+        write(pipe, bytes, 2 * Network.kHeaderSize + 12 + Network.kHeaderSize + 3);
+
+        FrameReader reader = new FrameReader(ByteBuffer.allocateDirect(4096), new DirectBufferPool(0));
+        assertEquals(FrameReader.kNoFrame, reader.poll());
+        assertTrue(reader.fill(pipe.source()) > 0);
+        assertEquals(4, reader.poll());
+        checkBody(reader, 4, 12);
+        assertEquals(5, reader.poll());
+        checkBody(reader, 5, 0);
+        assertEquals(FrameReader.kNoFrame, reader.poll());
+        assertEquals(Network.kHeaderSize + 3, reader.getBufferedBytes());
+
+        write(pipe, bytes, bytes.remaining());
+        reader.fill(pipe.source());
+        assertEquals(6, reader.poll());
+        checkBody(reader, 6, 20);
+        assertEquals(0, reader.getBufferedBytes());
+        assertEquals(2L, reader.getReadCount());
+        assertEquals(3L, reader.getFrameCount());
+    }
+
+    @Test
+    public void headerSplitAcrossReads() throws Exception {
+        Pipe pipe = Pipe.open();
+        ByteBuffer bytes = frames(new int[]{9}, new int[]{7});
+        FrameReader reader = new FrameReader(ByteBuffer.allocateDirect(4096), new DirectBufferPool(0));
+        write(pipe, bytes, 3);
+        reader.fill(pipe.source());
+        assertEquals(FrameReader.kNoFrame, reader.poll());
+        write(pipe, bytes, bytes.remaining());
+        reader.fill(pipe.source());
+        assertEquals(9, reader.poll());
+        checkBody(reader, 9, 7);
+    }
+
+    @Test
+    public void bigFrameGrowsTheBufferOnce() throws Exception {
+        final Pipe pipe = Pipe.open();
+        final ByteBuffer bytes = frames(new int[]{3, 8}, new int[]{100000, 5});
+        Thread writer = new Thread() {
+
+            public void run() {
+                try {
+                    write(pipe, bytes, bytes.remaining());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        writer.start();
+
+        DirectBufferPool pool = new DirectBufferPool(0);
+        FrameReader reader = new FrameReader(pool.acquire(4096), pool);
+        int code = reader.poll();
+        while (code == FrameReader.kNoFrame) {
+            assertTrue(reader.fill(pipe.source()) > 0);
+            code = reader.poll();
+        }
+        assertEquals(3, code);
+        checkBody(reader, 3, 100000);
+        assertEquals(1L, reader.getResizeCount());
+        while ((code = reader.poll()) == FrameReader.kNoFrame) {
+            reader.fill(pipe.source());
+        }
+        assertEquals(8, code);
+        checkBody(reader, 8, 5);
+        writer.join();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://bt-recordbook.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import org.junit.After;
+import org.junit.Test;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import static org.junit.Assert.*;
+
+/**
+ * Reading the options from system properties, and what they do to sockets
+ * and buffers.
+ *
+ * @author btanner
+ */
+public class NetworkOptionsTest {
+
+    @After
+    public void clearProperties() {
+        System.clearProperty(NetworkOptions.kTcpNoDelayProperty);
+        System.clearProperty(NetworkOptions.kSendBufferSizeProperty);
+        System.clearProperty(NetworkOptions.kReceiveBufferSizeProperty);
+        System.clearProperty(NetworkOptions.kInitialBufferSizeProperty);
+    }
+
+    @Test
+    public void systemPropertiesOverrideTheDefaults() {
+        System.setProperty(NetworkOptions.kTcpNoDelayProperty, "false");
+        System.setProperty(NetworkOptions.kSendBufferSizeProperty, "16384");
+        System.setProperty(NetworkOptions.kInitialBufferSizeProperty, "lots");
+        NetworkOptions options = NetworkOptions.fromEnvironment();
+        assertFalse(options.getTcpNoDelay());
+        assertEquals(16384, options.getSendBufferSize());
+        assertEquals(new NetworkOptions().getInitialBufferSize(), options.getInitialBufferSize());
+    }
+
+    @Test
+    public void aBadSendBufferSizeDoesNotLoseTheReceiveBufferSize() {
+        System.setProperty(NetworkOptions.kSendBufferSizeProperty, "-1");
+        System.setProperty(NetworkOptions.kReceiveBufferSizeProperty, "32768");
+        NetworkOptions options = NetworkOptions.fromEnvironment();
+        assertEquals(NetworkOptions.kSystemDefault, options.getSendBufferSize());
+        assertEquals(32768, options.getReceiveBufferSize());
+    }
+
+    @Test
+    public void tcpSocketsAreSetUpWithTheOptions() throws Exception {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        NetworkOptions options = new NetworkOptions();
+        options.setTcpNoDelay(false);
+        options.setKeepAlive(true);
+        options.setSendBufferSize(64 * 1024);
+        TcpTransport transport = new TcpTransport("127.0.0.1", serverChannel.socket().getLocalPort(), options);
+        SocketChannel channel = transport.open();
+        try {
+            channel.connect(transport.getAddress());
+            Socket socket = channel.socket();
+            assertFalse(socket.getTcpNoDelay());
+            assertTrue(socket.getKeepAlive());
+            //The OS can round it up (Linux doubles it), but not down
+            assertTrue(socket.getSendBufferSize() >= 64 * 1024);
+        } finally {
+            channel.close();
+            serverChannel.close();
+        }
+    }
+
+    @Test
+    public void buffersStartAtTheInitialSize() {
+        NetworkOptions options = new NetworkOptions();
+        options.setInitialBufferSize(64 * 1024);
+        Network network = new Network(options);
+        assertEquals(64 * 1024, network.recvBuffer.capacity());
+        assertEquals(64 * 1024, network.sendBuffer.capacity());
+
+        options.setInitialBufferSize(8 * 1024);
+        network.setOptions(options);
+        assertEquals(8 * 1024, network.recvBuffer.capacity());
+        assertEquals(8 * 1024, network.sendBuffer.capacity());
+        assertEquals(8 * 1024, network.getOptions().getInitialBufferSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooSmallAnInitialBufferIsRejected() {
+        new NetworkOptions().setInitialBufferSize(Network.kHeaderSize - 1);
+    }
+
+    @Test
+    public void capabilitiesAreAskedForPerConnectionType() {
+        NetworkOptions options = new NetworkOptions();
+        assertEquals(Network.kNoCapabilities, options.requestedCapabilities(Network.kAgentConnection));
+        options.setFloatDoubles(true);
+        options.setObservationDeltas(true);
+        options.setCompressionThreshold(512);
+        int common = Network.kCapabilityFloatDoubles | Network.kCapabilityCompression;
+        assertEquals(common, options.requestedCapabilities(Network.kAgentConnection));
+        assertEquals(common | Network.kCapabilityObservationDeltas, options.requestedCapabilities(Network.kEnvironmentConnection));
+
+        options.setCompressionThreshold(-5);
+        assertEquals(NetworkOptions.kNoCompression, options.getCompressionThreshold());
+        assertEquals(Network.kCapabilityFloatDoubles, options.requestedCapabilities(Network.kExperimentConnection));
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://bt-recordbook.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import org.junit.Test;
+import org.rlcommunity.rlglue.codec.benchmarks.LoopbackNetwork;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.BufferBackedObservation;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.*;
+
+/**
+ * Encodes things with Network and decodes them again without a socket in the
+ * middle.
+ *
+ * @author btanner
+ */
+public class NetworkTest {
+
+    private static Observation makeObservation(int numInts, int numDoubles, int numChars) {
+        Observation o = new Observation(numInts, numDoubles, numChars);
+        for (int i = 0; i < numInts; i++) {
+            o.intArray[i] = i * 7 - 3;
+        }
+        for (int i = 0; i < numDoubles; i++) {
+            o.doubleArray[i] = i / 3.0d;
+        }
+        for (int i = 0; i < numChars; i++) {
+            o.charArray[i] = (char) ('a' + (i % 26));
+        }
+        return o;
+    }
+
+    @Test
+    public void observationRoundTrip() {
+        LoopbackNetwork network = new LoopbackNetwork();
+        Observation sent = makeObservation(10, 2000, 33);
+        network.putObservation(sent);
+        network.loopback();
+        assertEquals(sent, network.getObservation());
+    }
+
+    @Test
+    public void reusedObservationKeepsArraysWhenSizesMatch() {
+        LoopbackNetwork network = new LoopbackNetwork();
+        Observation reuse = new Observation();
+
+        network.putObservation(makeObservation(5, 5, 5));
+        network.loopback();
+        Observation first = network.getObservation(reuse);
+        assertSame(reuse, first);
+        int[] ints = reuse.intArray;
+        double[] doubles = reuse.doubleArray;
+        char[] chars = reuse.charArray;
+
+        Observation second = makeObservation(5, 5, 5);
+        second.intArray[3] = 99;
+        network.putObservation(second);
+        network.loopback();
+        network.getObservation(reuse);
+        assertSame(ints, reuse.intArray);
+        assertSame(doubles, reuse.doubleArray);
+        assertSame(chars, reuse.charArray);
+        assertEquals(second, reuse);
+    }
+
+    @Test
+    public void reusedActionReallocatesWhenSizesChange() {
+        LoopbackNetwork network = new LoopbackNetwork();
+        Action reuse = new Action(3, 3, 3);
+        int[] ints = reuse.intArray;
+
+        Action sent = new Action(makeObservation(4, 3, 0));
+        network.putAction(sent);
+        network.loopback();
+        network.getAction(reuse);
+        assertNotSame(ints, reuse.intArray);
+        assertEquals(sent, reuse);
+    }
+
+    @Test
+    public void observationViewReadsWithoutCopying() {
+        LoopbackNetwork network = new LoopbackNetwork();
+        Observation sent = makeObservation(10, 2000, 33);
+        network.putObservation(sent);
+        network.putInt(12345);
+        network.loopback();
+
+        BufferBackedObservation view = network.getObservationView(null);
+        assertEquals("the view skips past the observation", 12345, network.getInt());
+        assertFalse(view.isMaterialized());
+        assertNull(view.intArray);
+        assertEquals(sent.intArray.length, view.getNumIntegersLength());
+        assertEquals(sent.doubleArray.length, view.getNumDoublesLength());
+        assertEquals(sent.getInt(9), view.getInt(9));
+        assertEquals(sent.getDouble(1999), view.getDouble(1999), 0.0d);
+        assertEquals(sent.getChar(32), view.getChar(32));
+        try {
+            view.getInt(10);
+            fail("only 10 ints");
+        } catch (ArrayIndexOutOfBoundsException e) {
+        }
+
+        assertEquals(sent, view.duplicate());
+        assertTrue(view.isMaterialized());
+        assertEquals(sent.intArray.length, view.intArray.length);
+    }
+
+    @Test
+    public void observationViewReusesArraysAfterMaterialize() {
+        LoopbackNetwork network = new LoopbackNetwork();
+        BufferBackedObservation view = new BufferBackedObservation();
+
+        network.putObservation(makeObservation(5, 5, 5));
+        network.loopback();
+        network.getObservationView(view).materialize();
+        int[] ints = view.intArray;
+
+        Observation second = makeObservation(5, 5, 5);
+        second.intArray[3] = 99;
+        network.putObservation(second);
+        network.loopback();
+        assertSame(view, network.getObservationView(view));
+        assertNull(view.intArray);
+        assertEquals(99, view.getInt(3));
+        view.materialize();
+        assertSame(ints, view.intArray);
+        assertEquals(99, view.intArray[3]);
+    }
+
+    @Test
+    public void slowlyGrowingMessagesResizeGeometrically() {
+        LoopbackNetwork network = new LoopbackNetwork();
+        network.setBufferPool(new DirectBufferPool(0));
+        for (int numDoubles = 0; numDoubles < 32768; numDoubles += 16) {
+            Observation sent = makeObservation(1, numDoubles, 1);
+            network.putObservation(sent);
+            network.loopback();
+            assertEquals(sent, network.getObservation());
+        }
+        // 4 KB to 256 KB for each of the send and receive buffers
+        assertTrue("resized " + network.getResizeCount() + " times", network.getResizeCount() <= 12);
+        assertEquals(256 * 1024, network.getPeakBufferCapacity());
+        assertEquals(256 * 1024, network.getSendBufferCapacity());
+    }
+
+    @Test
+    public void closeGivesBuffersBackToThePool() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(3 * 4096);
+        LoopbackNetwork network = new LoopbackNetwork();
+        network.setBufferPool(pool);
+        network.close();
+        assertEquals(2L * 4096, pool.getPooledBytes());
+
+        assertEquals(4096, pool.acquire(100).capacity());
+        assertEquals(1L, pool.getReuseCount());
+        assertEquals(0L, pool.getAllocationCount());
+        assertEquals(8192, pool.acquire(5000).capacity());
+        assertEquals(1L, pool.getAllocationCount());
+        assertEquals(8192L, pool.getPeakOutstandingBytes());
+
+        // Closed networks just acquire new buffers if they are used again.
+        network.putInt(7);
+        network.loopback();
+        assertEquals(7, network.getInt());
+    }
+
+    @Test
+    public void poolDropsBuffersPastItsCap() {
+        DirectBufferPool pool = new DirectBufferPool(4096);
+        pool.release(pool.acquire(4096));
+        pool.release(pool.acquire(4096));
+        pool.release(pool.acquire(8192));
+        assertEquals(4096L, pool.getPooledBytes());
+        assertEquals(1L, pool.getDroppedCount());
+        assertEquals(4096L, pool.getOutstandingBytes());
+        pool.trim();
+        assertEquals(0L, pool.getPooledBytes());
+        assertEquals(0L, pool.getOutstandingBytes());
+    }
+
+    @Test
+    public void idleBufferShrinksBack() {
+        LoopbackNetwork network = new LoopbackNetwork();
+        network.setShrinkAfterMessages(4);
+        network.putObservation(makeObservation(0, 20000, 0));
+        network.loopback();
+        network.getObservation();
+        assertEquals(256 * 1024, network.getRecvBufferCapacity());
+
+        for (int i = 0; i < 8; i++) {
+            network.putInt(i);
+            network.loopback();
+            assertEquals(i, network.getInt());
+        }
+        assertEquals(4096, network.getRecvBufferCapacity());
+        assertEquals(256 * 1024, network.getPeakBufferCapacity());
+    }
+
+    @Test
+    public void messagesMatchTheHeaderThenBodyEncoding() throws Exception {
+        LoopbackNetwork network = new LoopbackNetwork();
+        Action action = new Action(makeObservation(3, 700, 9));
+
+        network.putInt(Network.kAgentStep);
+        network.putInt(Network.sizeOf(action));
+        network.putAction(action);
+        byte[] expected = network.takeSentBytes();
+        network.putAbstractTypeMessage(Network.kAgentStep, action);
+        assertTrue(Arrays.equals(expected, network.takeSentBytes()));
+
+        Reward_observation_terminal rewardObservation = new Reward_observation_terminal(-2.5d, makeObservation(600, 1, 0), true);
+        network.putInt(Network.kEnvStep);
+        network.putInt(Network.sizeOf(rewardObservation));
+        network.putRewardObservation(rewardObservation);
+        expected = network.takeSentBytes();
+        network.putRewardObservationMessage(Network.kEnvStep, rewardObservation);
+        assertTrue(Arrays.equals(expected, network.takeSentBytes()));
+
+        network.putInt(Network.kEnvMessage);
+        network.putInt(Network.sizeOf("hello"));
+        network.putString("hello");
+        expected = network.takeSentBytes();
+        network.putStringMessage(Network.kEnvMessage, "hello");
+        assertTrue(Arrays.equals(expected, network.takeSentBytes()));
+
+        network.putEmptyMessage(Network.kAgentEnd);
+        network.loopback();
+        assertEquals(Network.kAgentEnd, network.getInt());
+        assertEquals(0, network.getInt());
+    }
+
+    @Test
+    public void floatDoublesHalveTheDoublesAndRoundToFloat() {
+        LoopbackNetwork network = new LoopbackNetwork();
+        Observation sent = makeObservation(10, 2000, 33);
+        sent.doubleArray[7] = 0.1d;
+        int doubleSize = network.encodedSizeOf(sent);
+        network.setFloatDoubles(true);
+        assertEquals(doubleSize - 4 * 2000, network.encodedSizeOf(sent));
+
+        network.putObservation(sent);
+        network.loopback();
+        Observation received = network.getObservation();
+        assertTrue(Arrays.equals(sent.intArray, received.intArray));
+        assertTrue(Arrays.equals(sent.charArray, received.charArray));
+        for (int i = 0; i < 2000; i++) {
+            assertEquals((double) (float) sent.doubleArray[i], received.doubleArray[i], 0.0d);
+        }
+
+        network.putObservation(sent);
+        network.loopback();
+        BufferBackedObservation view = network.getObservationView(null);
+        assertTrue(view.isFloatEncoded());
+        assertEquals((double) (float) 0.1d, view.getDouble(7), 0.0d);
+        float[] floats = view.getFloats(null);
+        assertEquals((float) 0.1d, floats[7], 0.0f);
+        assertEquals(sent.charArray[32], view.getChar(32));
+        assertEquals(received, view.duplicate());
+    }
+
+    @Test
+    public void backoffParksDoubleUpToTheMaximum() {
+        BackoffWaitStrategy backoff = new BackoffWaitStrategy(0, 0, 3, Long.MAX_VALUE / 2);
+        assertEquals(3L, backoff.parkNanos(0));
+        assertEquals(6L, backoff.parkNanos(1));
+        //3 << 61 and 3 << 62 overflow, so they have to stop at the maximum
+        assertEquals(Long.MAX_VALUE / 2, backoff.parkNanos(61));
+        assertEquals(Long.MAX_VALUE / 2, backoff.parkNanos(62));
+        assertEquals(Long.MAX_VALUE / 2, backoff.parkNanos(1000));
+        assertEquals(1000000L, new BackoffWaitStrategy(0, 0, 1000, 1000000).parkNanos(20));
+    }
+
+    @Test
+    public void floatDoublesSendValuesOutOfFloatRangeAsDoubles() {
+        LoopbackNetwork network = new LoopbackNetwork();
+        network.setFloatDoubles(true);
+        Observation sent = makeObservation(2, 5, 3);
+        sent.doubleArray[0] = Double.POSITIVE_INFINITY;
+        sent.doubleArray[1] = Double.NaN;
+        sent.doubleArray[2] = -0.0d;
+        int floatSize = network.encodedSizeOf(sent);
+        network.putObservation(sent);
+        network.loopback();
+        Observation received = network.getObservation();
+        assertTrue(Double.isInfinite(received.doubleArray[0]));
+        assertTrue(Double.isNaN(received.doubleArray[1]));
+
+        double[] outOfRange = {1.0e300, -1.0e300, 1.0e-300};
+        for (int i = 0; i < outOfRange.length; i++) {
+            sent.doubleArray[3] = outOfRange[i];
+            assertEquals(floatSize + 4 * 5, network.encodedSizeOf(sent));
+            network.putObservation(sent);
+            network.loopback();
+            assertEquals(sent, network.getObservation());
+
+            network.putObservation(sent);
+            network.loopback();
+            BufferBackedObservation view = network.getObservationView(null);
+            assertFalse(view.isFloatEncoded());
+            assertEquals(outOfRange[i], view.getDouble(3), 0.0d);
+            assertEquals(sent.charArray[2], view.getChar(2));
+        }
+    }
+
+    @Test
+    public void observationDeltasOnlySendWhatChanged() {
+        LoopbackNetwork network = new LoopbackNetwork();
+        network.setObservationDeltas(true);
+        Observation sent = makeObservation(100, 1000, 10);
+        int wholeSize = network.encodedSizeOf(sent);
+
+        network.putObservation(sent);
+        network.loopback();
+        assertEquals(sent, network.getObservation());
+
+        sent.intArray[5] = 1234;
+        sent.doubleArray[999] = -0.5d;
+        sent.charArray[0] = 'Q';
+        //marker and three counts, then an (index, value) pair for each change
+        assertEquals(4 * 4 + 8 + 12 + 5, network.encodedSizeOf(sent));
+        network.putObservation(sent);
+        network.loopback();
+        Observation received = network.getObservation(new Observation());
+        assertEquals(sent, received);
+
+        //Actions are always sent whole
+        Action theAction = new Action(3, 3, 3);
+        network.putAction(theAction);
+        network.loopback();
+        assertEquals(theAction, network.getAction());
+
+        //A different size can't be a delta
+        Observation bigger = makeObservation(101, 1000, 10);
+        assertEquals(wholeSize + 4, network.encodedSizeOf(bigger));
+        network.putObservation(bigger);
+        network.loopback();
+        assertEquals(bigger, network.getObservation());
+    }
+
+    @Test
+    public void bigCompressibleFramesAreDeflatedInPlace() throws Exception {
+        LoopbackNetwork network = new LoopbackNetwork();
+        Observation sent = makeObservation(5000, 10, 2000);
+        network.putAbstractTypeMessage(Network.kEnvStep, sent);
+        int frameSize = network.sendBuffer.position();
+        int compressedEnd = network.compressFrame(network.sendBuffer, 0, frameSize);
+        assertTrue(compressedEnd < frameSize / 2);
+        assertEquals(1L, network.getCompressedFrameCount());
+        assertEquals((long) (frameSize - 8), network.getCompressionInputBytes());
+        assertEquals((long) (compressedEnd - 8), network.getCompressionOutputBytes());
+
+        network.sendBuffer.position(compressedEnd);
+        network.loopback();
+        int code = network.getInt();
+        assertEquals(Network.kEnvStep | Network.kCompressedFrame, code);
+        assertEquals(compressedEnd - 8, network.getInt());
+        ByteBuffer inflated = network.inflateFrame(network.recvBuffer, Network.kEnvStep);
+        assertEquals(8, inflated.position());
+        assertEquals(frameSize, inflated.limit());
+        assertEquals(Network.kEnvStep, inflated.getInt(0));
+        network.recvBuffer = inflated;
+        assertEquals(sent, network.getObservation());
+
+        //Noise doesn't deflate, so it is left as it was
+        Observation noise = makeObservation(6000, 0, 0);
+        Random random = new Random(7);
+        for (int i = 0; i < noise.intArray.length; i++) {
+            noise.intArray[i] = random.nextInt();
+        }
+        network.putAbstractTypeMessage(Network.kEnvStep, noise);
+        frameSize = network.sendBuffer.position();
+        assertEquals(frameSize, network.compressFrame(network.sendBuffer, 0, frameSize));
+        assertEquals(Network.kEnvStep, network.sendBuffer.getInt(0));
+        assertEquals(1L, network.getCompressedFrameCount());
+        network.sendBuffer.clear();
+    }
+
+    @Test
+    public void nonBlockingSendWritesTheWholeMessage() throws Exception {
+        final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        Network network = new Network();
+        network.setWaitStrategy(new SelectorWaitStrategy());
+        network.connect("127.0.0.1", serverChannel.socket().getLocalPort(), Network.kRetryTimeout);
+        final SocketChannel peer = serverChannel.accept();
+        final long[] received = new long[1];
+        final int messageSize = 12 * 1000 * 1000;
+        //Don't start reading until the socket buffers are full
+        Thread reader = new Thread() {
+
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                    ByteBuffer sink = ByteBuffer.allocate(64 * 1024);
+                    while (received[0] < messageSize) {
+                        sink.clear();
+                        int amount = peer.read(sink);
+                        if (amount < 0) {
+                            return;
+                        }
+                        received[0] += amount;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        reader.start();
+        try {
+            network.clearSendBuffer();
+            network.putDoubles(new double[messageSize / Network.kDoubleSize]);
+            network.flipSendBuffer();
+            assertEquals(messageSize, network.send());
+            assertTrue("the socket should have filled up at least once", network.getWriteCount() > 1);
+            reader.join(30000);
+            assertEquals((long) messageSize, received[0]);
+        } finally {
+            network.close();
+            peer.close();
+            serverChannel.close();
+        }
+    }
+
+    @Test
+    public void capabilitiesGiveUpOnASilentGlue() throws Exception {
+        //Like the C rl_glue: takes the connection and never answers
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        Network network = new Network();
+        network.capabilitiesTimeout = 200;
+        network.connect("127.0.0.1", serverChannel.socket().getLocalPort(), Network.kRetryTimeout);
+        SocketChannel peer = serverChannel.accept();
+        long start = System.currentTimeMillis();
+        try {
+            network.sendConnectionType(Network.kAgentConnection, Network.kNoSession, Network.kCapabilityFloatDoubles);
+            fail("should have given up waiting for kCapabilities");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().indexOf("didn't answer") >= 0);
+        } finally {
+            network.close();
+            peer.close();
+            serverChannel.close();
+        }
+        assertTrue("gave up after the timeout, not forever", System.currentTimeMillis() - start < 10000);
+    }
+}
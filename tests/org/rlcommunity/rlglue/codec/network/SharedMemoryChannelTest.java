@@ -0,0 +1,150 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://bt-recordbook.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import static org.junit.Assert.*;
+
+/**
+ * A client and a server end of one small ring file, with a loopback socket
+ * pair as the doorbell: the client blocking, the server non-blocking like a
+ * GlueServer event loop.
+ *
+ * @author btanner
+ */
+public class SharedMemoryChannelTest {
+
+    private SocketChannel clientSocket;
+    private SocketChannel serverSocket;
+    private SharedMemoryChannel client;
+    private SharedMemoryChannel server;
+
+    @Before
+    public void connect() throws Exception {
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        listener.socket().bind(new InetSocketAddress(Network.kDefaultHost, 0));
+        clientSocket = SocketChannel.open(new InetSocketAddress(Network.kDefaultHost, listener.socket().getLocalPort()));
+        serverSocket = listener.accept();
+        serverSocket.configureBlocking(false);
+        listener.close();
+
+        client = SharedMemoryChannel.create(new File(System.getProperty("java.io.tmpdir")), 64);
+        server = SharedMemoryChannel.open(client.getPath());
+        client.unlink();
+        assertFalse(new File(client.getPath()).exists());
+        client.attach(clientSocket);
+        server.attach(serverSocket);
+    }
+
+    @After
+    public void close() throws Exception {
+        clientSocket.close();
+        serverSocket.close();
+    }
+
+    private static ByteBuffer bytes(int size, int seed) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) (seed + i));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void messagesWrapAroundTheRingsBothWays() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            //40 bytes at a time never lines up with the 64 byte rings
+            assertEquals(40, client.write(bytes(40, round)));
+            ByteBuffer received = ByteBuffer.allocate(100);
+            assertEquals(40, server.read(received));
+            received.flip();
+            assertEquals(bytes(40, round), received);
+
+            assertEquals(40, server.write(bytes(40, -round)));
+            received.clear();
+            assertEquals(40, client.read(received));
+            received.flip();
+            assertEquals(bytes(40, -round), received);
+        }
+    }
+
+    @Test
+    public void nonBlockingWriterTakesWhatFits() throws Exception {
+        ByteBuffer big = bytes(100, 3);
+        assertEquals(64, server.write(big));
+        assertEquals(36, big.remaining());
+        assertEquals(0, server.write(big));
+        ByteBuffer received = ByteBuffer.allocate(100);
+        assertEquals(64, client.read(received));
+        assertEquals(36, server.write(big));
+        assertEquals(36, client.read(received));
+        received.flip();
+        assertEquals(bytes(100, 3), received);
+    }
+
+    @Test
+    public void parkedServerGetsADoorbellAndSeesTheClientGo() throws Exception {
+        ByteBuffer doorbell = ByteBuffer.allocate(16);
+        client.write(bytes(8, 1));
+        Thread.sleep(100);
+        assertEquals(1, serverSocket.read(doorbell));
+
+        //A spinning reader doesn't need one
+        server.setReaderParked(false);
+        client.write(bytes(8, 2));
+        Thread.sleep(100);
+        doorbell.clear();
+        assertEquals(0, serverSocket.read(doorbell));
+        assertTrue(server.hasInput());
+        assertEquals(16, server.read(ByteBuffer.allocate(100)));
+
+        clientSocket.close();
+        Thread.sleep(100);
+        assertFalse(server.hasInput());
+        assertEquals(-1, server.read(ByteBuffer.allocate(100)));
+    }
+
+    @Test
+    public void closeDeletesTheFile() throws Exception {
+        SharedMemoryChannel unlinked = SharedMemoryChannel.create(new File(System.getProperty("java.io.tmpdir")), 64);
+        File file = new File(unlinked.getPath());
+        assertTrue(file.exists());
+        unlinked.close();
+        assertFalse(unlinked.isOpen());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void onlyHotSpotOnX86IsSupported() {
+        assertTrue(SharedMemoryChannel.isSupported("Java HotSpot(TM) 64-Bit Server VM", "amd64"));
+        assertTrue(SharedMemoryChannel.isSupported("OpenJDK Server VM", "i386"));
+        assertTrue(SharedMemoryChannel.isSupported("OpenJDK 64-Bit Server VM", "x86_64"));
+        assertFalse(SharedMemoryChannel.isSupported("OpenJDK 64-Bit Server VM", "aarch64"));
+        assertFalse(SharedMemoryChannel.isSupported("Eclipse OpenJ9 VM", "amd64"));
+        assertFalse(SharedMemoryChannel.isSupported(null, "amd64"));
+    }
+}
@@ -0,0 +1,570 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://bt-recordbook.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.server;
+
+import org.junit.Test;
+import java.io.File;
+import java.util.ArrayList;
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.EpisodeStreamConsumer;
+import org.rlcommunity.rlglue.codec.NetGlue;
+import org.rlcommunity.rlglue.codec.RLGlue;
+import org.rlcommunity.rlglue.codec.network.ClientAgent;
+import org.rlcommunity.rlglue.codec.network.ClientEnvironment;
+import org.rlcommunity.rlglue.codec.network.Network;
+import org.rlcommunity.rlglue.codec.network.NetworkOptions;
+import org.rlcommunity.rlglue.codec.network.Transports;
+import org.rlcommunity.rlglue.codec.network.UnixTransport;
+import org.rlcommunity.rlglue.codec.tests.Test_1_Agent;
+import org.rlcommunity.rlglue.codec.tests.Test_1_Environment;
+import org.rlcommunity.rlglue.codec.tests.Test_1_Experiment;
+import org.rlcommunity.rlglue.codec.tests.Test_Message_Agent;
+import org.rlcommunity.rlglue.codec.tests.Test_Message_Environment;
+import org.rlcommunity.rlglue.codec.tests.Test_Message_Experiment;
+import org.rlcommunity.rlglue.codec.tests.Test_RL_Episode_Experiment;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Observation_action;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_action_terminal;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+import org.rlcommunity.rlglue.codec.util.AgentLoader;
+import org.rlcommunity.rlglue.codec.util.EnvironmentLoader;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the experiment test programs through a GlueServer, with the agent and
+ * environment connected from threads in this JVM.
+ *
+ * @author btanner
+ */
+public class GlueServerTest {
+
+    private GlueServer server;
+    private Thread serverThread;
+    private NetGlue glue;
+
+    private void startServer(AgentInterface agent, EnvironmentInterface env) throws Exception {
+        server = new GlueServer(0);
+        String port = "" + server.bind();
+        serverThread = new Thread(server);
+        serverThread.start();
+        new Thread(new AgentLoader(Network.kDefaultHost, port, agent)).start();
+        new Thread(new EnvironmentLoader(Network.kDefaultHost, port, env)).start();
+        glue = new NetGlue(Network.kDefaultHost, server.getLocalPort());
+        RLGlue.setGlue(glue);
+    }
+
+    private void stopServer() throws Exception {
+        glue.close();
+        RLGlue.resetGlueProxy();
+        serverThread.join(10000);
+        assertFalse("server should stop when the experiment disconnects", serverThread.isAlive());
+    }
+
+    @Test
+    public void testExperiment1() throws Exception {
+        startServer(new Test_1_Agent(), new Test_1_Environment());
+        assertEquals(0, Test_1_Experiment.runTest());
+        stopServer();
+    }
+
+    @Test
+    public void testEpisode() throws Exception {
+        startServer(new Test_1_Agent(), new Test_1_Environment());
+        assertEquals(0, Test_RL_Episode_Experiment.runTest());
+        stopServer();
+    }
+
+    @Test
+    public void testMessages() throws Exception {
+        startServer(new Test_Message_Agent(), new Test_Message_Environment());
+        assertEquals(0, Test_Message_Experiment.runTest());
+        stopServer();
+    }
+
+    /**
+     * Test_1 with everyone connected over a Unix domain socket, picked by a
+     * unix: host the way RLGLUE_HOST would.  Only runs on Java 16 or newer.
+     */
+    @Test
+    public void testUnixDomainSocket() throws Exception {
+        if (!UnixTransport.isSupported()) {
+            return;
+        }
+        File socketFile = new File(System.getProperty("java.io.tmpdir"), "rlglue-test-" + System.nanoTime() + ".sock");
+        String host = Transports.kUnixPrefix + socketFile.getPath();
+        server = new GlueServer(Transports.forHost(host, 0));
+        server.bind();
+        assertTrue(socketFile.exists());
+        serverThread = new Thread(server);
+        serverThread.start();
+        new Thread(new AgentLoader(host, null, new Test_1_Agent())).start();
+        new Thread(new EnvironmentLoader(host, null, new Test_1_Environment())).start();
+        glue = new NetGlue(host);
+        RLGlue.setGlue(glue);
+        assertEquals(0, Test_1_Experiment.runTest());
+        stopServer();
+        assertFalse("the server should delete its socket file", socketFile.exists());
+    }
+
+    private static void startAgent(final AgentInterface agent, final int port, final int sessionId, final boolean floatDoubles) {
+        new Thread(new Runnable() {
+
+            public void run() {
+                ClientAgent theClient = new ClientAgent(agent);
+                theClient.setSessionId(sessionId);
+                NetworkOptions options = theClient.getOptions();
+                options.setFloatDoubles(floatDoubles);
+                theClient.setOptions(options);
+                try {
+                    theClient.connect(Network.kDefaultHost, port, Network.kRetryTimeout);
+                    theClient.runAgentEventLoop();
+                    theClient.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }).start();
+    }
+
+    private static void startEnvironment(final EnvironmentInterface env, final int port, final int sessionId, final boolean floatDoubles) {
+        new Thread(new Runnable() {
+
+            public void run() {
+                ClientEnvironment theClient = new ClientEnvironment(env);
+                theClient.setSessionId(sessionId);
+                NetworkOptions options = theClient.getOptions();
+                options.setFloatDoubles(floatDoubles);
+                theClient.setOptions(options);
+                try {
+                    theClient.connect(Network.kDefaultHost, port, Network.kRetryTimeout);
+                    theClient.runEnvironmentEventLoop();
+                    theClient.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }).start();
+    }
+
+    private static NetGlue connectExperiment(int port, int sessionId) {
+        NetGlue theGlue = new NetGlue(Network.kDefaultHost, port);
+        theGlue.setSessionId(sessionId);
+        return theGlue;
+    }
+
+    /**
+     * Two experiments at once, each with a different agent and environment.
+     * If anything got routed to the wrong session the checks would fail.
+     */
+    @Test
+    public void testMultiSession() throws Exception {
+        server = new GlueServer(0);
+        server.setMultiSession(true);
+        server.setNumEventLoops(2);
+        int port = server.bind();
+        serverThread = new Thread(server);
+        serverThread.start();
+
+        startAgent(new Test_Message_Agent(), port, 2, false);
+        startEnvironment(new Test_1_Environment(), port, 1, false);
+        startEnvironment(new Test_Message_Environment(), port, 2, false);
+        startAgent(new Test_1_Agent(), port, 1, false);
+        NetGlue messageGlue = connectExperiment(port, 2);
+        NetGlue glue1 = connectExperiment(port, 1);
+
+        RLGlue.setGlue(glue1);
+        assertEquals(0, Test_1_Experiment.runTest());
+        RLGlue.setGlue(messageGlue);
+        assertEquals(0, Test_Message_Experiment.runTest());
+        RLGlue.resetGlueProxy();
+        assertEquals(2L, server.getTotalSessions());
+
+        glue1.close();
+        messageGlue.close();
+        long giveUp = System.currentTimeMillis() + 10000;
+        while (server.getActiveSessions() > 0 && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, server.getActiveSessions());
+        assertTrue("multi-session server keeps running", serverThread.isAlive());
+        server.stop();
+        serverThread.join(10000);
+        assertFalse(serverThread.isAlive());
+    }
+
+    private static Observation bigObservation(int step) {
+        Observation o = new Observation(3, 300000, 2);
+        o.intArray[0] = step;
+        for (int i = 0; i < o.doubleArray.length; i++) {
+            o.doubleArray[i] = step + i;
+        }
+        if (step == 1) {
+            //Too big for a float, so with float doubles on this one goes as doubles
+            o.doubleArray[7] = 1.0e300;
+        }
+        o.charArray[1] = 'z';
+        return o;
+    }
+
+    /**
+     * A big observation where only a few entries change from one step to the
+     * next.
+     */
+    private static Observation sparseObservation(int step) {
+        Observation o = new Observation(3, 50000, 2);
+        o.intArray[0] = step;
+        for (int i = 0; i < o.doubleArray.length; i++) {
+            o.doubleArray[i] = i / 2.0d;
+        }
+        o.doubleArray[step * 7] = -step;
+        o.charArray[1] = (char) ('a' + step);
+        return o;
+    }
+
+    private static Observation observation(boolean sparse, int step) {
+        return sparse ? sparseObservation(step) : bigObservation(step);
+    }
+
+    /**
+     * Observations far bigger than a socket buffer, so forwarding them from
+     * the environment to the agent needs more than one write.
+     */
+    static class BigEnvironment implements EnvironmentInterface {
+
+        private final boolean sparse;
+        private int step = 0;
+
+        BigEnvironment() {
+            this(false);
+        }
+
+        /**
+         * @param sparse Use sparseObservation instead of bigObservation.
+         */
+        BigEnvironment(boolean sparse) {
+            this.sparse = sparse;
+        }
+
+        public String env_init() {
+            return "";
+        }
+
+        public Observation env_start() {
+            step = 0;
+            return observation(sparse, step);
+        }
+
+        public Reward_observation_terminal env_step(Action action) {
+            step++;
+            return new Reward_observation_terminal(step, observation(sparse, step), step == 3);
+        }
+
+        public void env_cleanup() {
+        }
+
+        public String env_message(String message) {
+            return "";
+        }
+    }
+
+    static class CheckingAgent implements AgentInterface {
+
+        private final boolean sparse;
+        private int step = 0;
+        private int mismatches = 0;
+
+        CheckingAgent() {
+            this(false);
+        }
+
+        CheckingAgent(boolean sparse) {
+            this.sparse = sparse;
+        }
+
+        public void agent_init(String taskSpecification) {
+        }
+
+        public Action agent_start(Observation observation) {
+            step = 0;
+            return check(observation);
+        }
+
+        public Action agent_step(double reward, Observation observation) {
+            step++;
+            return check(observation);
+        }
+
+        private Action check(Observation observation) {
+            if (!observation(sparse, step).equals(observation)) {
+                mismatches++;
+            }
+            return new Action(1, 0, 0);
+        }
+
+        public void agent_end(double reward) {
+        }
+
+        public void agent_cleanup() {
+        }
+
+        public String agent_message(String message) {
+            return "" + mismatches;
+        }
+    }
+
+    @Test
+    public void testLargeObservationsAreForwarded() throws Exception {
+        startServer(new CheckingAgent(), new BigEnvironment());
+        glue.RL_init();
+        assertEquals(bigObservation(0), glue.RL_start().getObservation());
+        Reward_observation_action_terminal step = glue.RL_step();
+        assertEquals(bigObservation(1), step.getObservation());
+        assertEquals(1.0d, step.getReward(), 0.0d);
+        assertEquals(bigObservation(2), glue.RL_env_step(new Action(1, 0, 0)).getObservation());
+        glue.RL_agent_step(2.0d, bigObservation(2));
+        assertEquals(1, glue.RL_episode(0));
+        assertEquals(3, glue.RL_num_steps());
+        assertEquals("0", glue.RL_agent_message(""));
+        glue.RL_cleanup();
+        stopServer();
+    }
+
+    /**
+     * The environment and experiment send doubles as floats and the agent
+     * doesn't, so the server has to forward some observations as they are
+     * and re-encode others.  bigObservation only has values a float can hold
+     * exactly, except for the 1e300 in step 1, which has to arrive anyway.
+     */
+    @Test
+    public void testFloatDoublesAreNegotiatedPerConnection() throws Exception {
+        server = new GlueServer(0);
+        int port = server.bind();
+        serverThread = new Thread(server);
+        serverThread.start();
+        startAgent(new CheckingAgent(), port, Network.kNoSession, false);
+        startEnvironment(new BigEnvironment(), port, Network.kNoSession, true);
+        glue = connectExperiment(port, Network.kNoSession);
+        NetworkOptions options = glue.getOptions();
+        options.setFloatDoubles(true);
+        glue.setOptions(options);
+
+        glue.RL_init();
+        assertEquals(bigObservation(0), glue.RL_start().getObservation());
+        assertEquals(bigObservation(1), glue.RL_step().getObservation());
+        assertEquals(bigObservation(2), glue.RL_env_step(new Action(1, 0, 0)).getObservation());
+        glue.RL_agent_step(2.0d, bigObservation(2));
+        assertEquals(1, glue.RL_episode(0));
+        assertEquals("0", glue.RL_agent_message(""));
+        glue.RL_cleanup();
+        stopServer();
+    }
+
+    /**
+     * The environment sends deltas, which the server patches into whole
+     * observations for the agent and experiment.  The episode runs twice so
+     * the first observation of the second one is a delta from the end of the
+     * first.
+     */
+    @Test
+    public void testObservationDeltas() throws Exception {
+        server = new GlueServer(0);
+        int port = server.bind();
+        serverThread = new Thread(server);
+        serverThread.start();
+        startAgent(new CheckingAgent(true), port, Network.kNoSession, false);
+        final BigEnvironment env = new BigEnvironment(true);
+        new Thread(new Runnable() {
+
+            public void run() {
+                ClientEnvironment theClient = new ClientEnvironment(env);
+                NetworkOptions options = theClient.getOptions();
+                options.setObservationDeltas(true);
+                theClient.setOptions(options);
+                try {
+                    theClient.connect(Network.kDefaultHost, server.getLocalPort(), Network.kRetryTimeout);
+                    theClient.runEnvironmentEventLoop();
+                    theClient.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }).start();
+        glue = connectExperiment(port, Network.kNoSession);
+
+        glue.RL_init();
+        for (int episode = 0; episode < 2; episode++) {
+            assertEquals(sparseObservation(0), glue.RL_start().getObservation());
+            assertEquals(sparseObservation(1), glue.RL_step().getObservation());
+            assertEquals(sparseObservation(2), glue.RL_env_step(new Action(1, 0, 0)).getObservation());
+            glue.RL_agent_step(2.0d, sparseObservation(2));
+            assertTrue(glue.RL_step().isTerminal());
+        }
+        assertEquals(1, glue.RL_episode(0));
+        assertEquals("0", glue.RL_agent_message(""));
+        glue.RL_cleanup();
+        stopServer();
+    }
+
+    /**
+     * The environment and experiment deflate their big messages and the agent
+     * doesn't, so the server has to inflate what the environment sends before
+     * forwarding it to the agent, and deflate it again for the experiment.
+     */
+    @Test
+    public void testCompressionIsNegotiatedPerConnection() throws Exception {
+        server = new GlueServer(0);
+        server.setCompressionThreshold(1024);
+        int port = server.bind();
+        serverThread = new Thread(server);
+        serverThread.start();
+        startAgent(new CheckingAgent(true), port, Network.kNoSession, false);
+        final BigEnvironment env = new BigEnvironment(true);
+        new Thread(new Runnable() {
+
+            public void run() {
+                ClientEnvironment theClient = new ClientEnvironment(env);
+                NetworkOptions options = theClient.getOptions();
+                options.setCompressionThreshold(1024);
+                theClient.setOptions(options);
+                try {
+                    theClient.connect(Network.kDefaultHost, server.getLocalPort(), Network.kRetryTimeout);
+                    theClient.runEnvironmentEventLoop();
+                    theClient.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }).start();
+        glue = connectExperiment(port, Network.kNoSession);
+        NetworkOptions options = glue.getOptions();
+        options.setCompressionThreshold(1024);
+        glue.setOptions(options);
+
+        glue.RL_init();
+        assertEquals(sparseObservation(0), glue.RL_start().getObservation());
+        assertEquals(sparseObservation(1), glue.RL_step().getObservation());
+        assertEquals(sparseObservation(2), glue.RL_env_step(new Action(1, 0, 0)).getObservation());
+        glue.RL_agent_step(2.0d, sparseObservation(2));
+        assertTrue(glue.RL_step().isTerminal());
+        assertEquals(1, glue.RL_episode(0));
+        assertEquals("0", glue.RL_agent_message(""));
+        glue.RL_cleanup();
+        stopServer();
+    }
+
+    /**
+     * Everyone asks for shared memory, and the observations are bigger than
+     * the rings, so they have to stream through them while the other end
+     * reads.
+     */
+    @Test
+    public void testSharedMemory() throws Exception {
+        server = new GlueServer(0);
+        final int port = server.bind();
+        serverThread = new Thread(server);
+        serverThread.start();
+        new Thread(new Runnable() {
+
+            public void run() {
+                ClientAgent theClient = new ClientAgent(new CheckingAgent());
+                NetworkOptions options = theClient.getOptions();
+                options.setSharedMemory(true);
+                theClient.setOptions(options);
+                try {
+                    theClient.connect(Network.kDefaultHost, port, Network.kRetryTimeout);
+                    theClient.runAgentEventLoop();
+                    theClient.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }).start();
+        new Thread(new Runnable() {
+
+            public void run() {
+                ClientEnvironment theClient = new ClientEnvironment(new BigEnvironment());
+                NetworkOptions options = theClient.getOptions();
+                options.setSharedMemory(true);
+                theClient.setOptions(options);
+                try {
+                    theClient.connect(Network.kDefaultHost, port, Network.kRetryTimeout);
+                    theClient.runEnvironmentEventLoop();
+                    theClient.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }).start();
+        glue = connectExperiment(port, Network.kNoSession);
+        NetworkOptions options = glue.getOptions();
+        options.setSharedMemory(true);
+        glue.setOptions(options);
+
+        glue.RL_init();
+        assertEquals(bigObservation(0), glue.RL_start().getObservation());
+        assertEquals(bigObservation(1), glue.RL_step().getObservation());
+        assertEquals(bigObservation(2), glue.RL_env_step(new Action(1, 0, 0)).getObservation());
+        glue.RL_agent_step(2.0d, bigObservation(2));
+        assertEquals(1, glue.RL_episode(0));
+        assertEquals(3, glue.RL_num_steps());
+        assertEquals("0", glue.RL_agent_message(""));
+        glue.RL_cleanup();
+        stopServer();
+    }
+
+    @Test
+    public void testEpisodeStream() throws Exception {
+        startServer(new CheckingAgent(), new BigEnvironment());
+        glue.RL_init();
+        final ArrayList<Observation> observations = new ArrayList<Observation>();
+        final ArrayList<Boolean> terminals = new ArrayList<Boolean>();
+        EpisodeStreamConsumer consumer = new EpisodeStreamConsumer() {
+
+            public void onStart(Observation_action start) {
+                observations.add(start.getObservation());
+                assertEquals(1, start.getAction().getNumIntegersLength());
+            }
+
+            public void onStep(Reward_observation_action_terminal step) {
+                observations.add(step.getObservation());
+                terminals.add(step.isTerminal());
+                assertEquals(observations.size() - 1, step.getReward(), 0.0d);
+            }
+        };
+        assertEquals(1, glue.RL_episode_stream(0, consumer));
+        assertEquals(4, observations.size());
+        for (int i = 0; i < observations.size(); i++) {
+            assertEquals(bigObservation(i), observations.get(i));
+        }
+        assertEquals(Boolean.FALSE, terminals.get(1));
+        assertEquals(Boolean.TRUE, terminals.get(2));
+        assertEquals(3, glue.RL_num_steps());
+
+        // Cut short, and the glue is still in step afterwards
+        observations.clear();
+        assertEquals(0, glue.RL_episode_stream(2, consumer));
+        assertEquals(2, observations.size());
+        assertEquals(bigObservation(2), glue.RL_env_step(new Action(1, 0, 0)).getObservation());
+        assertEquals("0", glue.RL_agent_message(""));
+        glue.RL_cleanup();
+        stopServer();
+    }
+}
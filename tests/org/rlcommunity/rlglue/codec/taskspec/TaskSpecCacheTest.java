@@ -0,0 +1,155 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://bt-recordbook.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.taskspec;
+
+import org.junit.Test;
+import org.rlcommunity.rlglue.codec.taskspec.ranges.DoubleRange;
+import org.rlcommunity.rlglue.codec.taskspec.ranges.IntRange;
+import static org.junit.Assert.*;
+
+/**
+ * Hits, misses and evictions, and that the shared TaskSpecs can't be
+ * changed by whoever they are handed to.
+ *
+ * @author btanner
+ */
+public class TaskSpecCacheTest {
+
+    private static String spec(int maxAction) {
+        return "VERSION RL-Glue-3.0 PROBLEMTYPE episodic DISCOUNTFACTOR 1 "
+                + "OBSERVATIONS INTS (3 0 1) DOUBLES (-1.2 0.5) ACTIONS INTS (0 " + maxAction + ") REWARDS (-1 0) EXTRA cached";
+    }
+
+    @Test
+    public void countsHitsMissesAndEvictions() {
+        TaskSpecCache cache = new TaskSpecCache(2);
+        TaskSpec first = cache.get(spec(1));
+        assertSame(first, cache.get(spec(1)));
+        cache.get(spec(2));
+        //spec(1) was used more recently than spec(2), so spec(2) makes room for spec(3)
+        cache.get(spec(1));
+        cache.get(spec(3));
+        assertSame(first, cache.get(spec(1)));
+        assertEquals(2, cache.size());
+        assertEquals(3L, cache.getHitCount());
+        assertEquals(3L, cache.getMissCount());
+        assertEquals(1L, cache.getEvictionCount());
+
+        cache.get(spec(2));
+        assertEquals(4L, cache.getMissCount());
+        assertEquals(2L, cache.getEvictionCount());
+
+        cache.setCapacity(1);
+        assertEquals(1, cache.size());
+        assertEquals(3L, cache.getEvictionCount());
+    }
+
+    @Test
+    public void readsTheSameAsAFreshParse() {
+        TaskSpec fresh = new TaskSpec(spec(4));
+        TaskSpec cached = new TaskSpecCache().get(spec(4));
+        assertEquals(fresh.getStringRepresentation(), cached.getStringRepresentation());
+        assertEquals(fresh.getVersionString(), cached.getVersionString());
+        assertEquals(fresh.getNumDiscreteObsDims(), cached.getNumDiscreteObsDims());
+        assertEquals(fresh.getDiscreteActionRange(0).getMax(), cached.getDiscreteActionRange(0).getMax());
+        assertEquals(fresh.getExtraString(), cached.getExtraString());
+    }
+
+    /**
+     * getVersion is deprecated, but it reads the version TaskSpec keeps for
+     * itself rather than the delegate's, so the shared copies have to carry
+     * that over too.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void keepsTheVersionTheDeprecatedAccessorReads() {
+        String v2 = "2:e:1_[i]_[0,4]:1_[i]_[0,1]:[-1,0]";
+        assertEquals(new TaskSpec(v2).getVersion(), new TaskSpecCache().get(v2).getVersion());
+    }
+
+    @Test
+    public void sharedRangesCanNotBeChanged() {
+        TaskSpecCache cache = new TaskSpecCache();
+        TaskSpec shared = cache.get(spec(4));
+        IntRange action = shared.getDiscreteActionRange(0);
+        action.setMax(100);
+        action.setMinUnspecified();
+        DoubleRange reward = shared.getRewardRange();
+        reward.setMaxInf();
+
+        TaskSpec again = cache.get(spec(4));
+        assertSame(shared, again);
+        assertEquals(4, again.getDiscreteActionRange(0).getMax());
+        assertFalse(again.getDiscreteActionRange(0).getMinUnspecified());
+        assertFalse(again.getRewardRange().getMaxInf());
+        assertEquals(new TaskSpec(spec(4)).getStringRepresentation(), again.getStringRepresentation());
+    }
+
+    @Test
+    public void badTaskSpecsAreNotKept() {
+        TaskSpecCache cache = new TaskSpecCache();
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.get("not a task spec");
+                fail("Parsed garbage");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        assertEquals(0, cache.size());
+        assertEquals(2L, cache.getMissCount());
+    }
+
+    @Test
+    public void manyThreadsGetOneTaskSpec() throws Exception {
+        final TaskSpecCache cache = new TaskSpecCache(4);
+        final TaskSpec[] seen = new TaskSpec[8];
+        Thread[] threads = new Thread[seen.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int which = t;
+            threads[t] = new Thread() {
+
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        seen[which] = cache.get(spec(1 + i % 3));
+                    }
+                    seen[which] = cache.get(spec(1));
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (TaskSpec taskSpec : seen) {
+            assertSame(seen[0], taskSpec);
+        }
+        assertEquals(threads.length * 1001L, cache.getHitCount() + cache.getMissCount());
+        assertEquals(3, cache.size());
+        assertEquals(0L, cache.getEvictionCount());
+    }
+
+    @Test
+    public void parseCachedUsesTheSharedCache() {
+        long hits = TaskSpec.getSharedCache().getHitCount();
+        TaskSpec first = TaskSpec.parseCached(spec(7));
+        assertSame(first, TaskSpec.parseCached(spec(7)));
+        assertTrue(TaskSpec.getSharedCache().getHitCount() > hits);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://bt-recordbook.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.taskspec;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Picking the right parser for each version of the task spec.
+ *
+ * @author btanner
+ */
+public class TaskSpecTest {
+
+    private static final String kRLGlue3 = "VERSION RL-Glue-3.0 PROBLEMTYPE episodic DISCOUNTFACTOR 1 "
+            + "OBSERVATIONS INTS (3 0 1) DOUBLES (-1.2 0.5) (-.07 .07) ACTIONS INTS (0 2) REWARDS (-1 0) EXTRA Name=Mountain-Car";
+    private static final String kV3 = "3:e:5_[i,i,i,f,f]_[0,1]_[0,1]_[0,1]_[-1.2,0.5]_[-.07,.07]:1_[i]_[0,2]:[-1,0]:Name=Mountain-Car";
+    private static final String kV2 = "2:e:5_[i,i,i,f,f]_[0,1]_[0,1]_[0,1]_[-1.2,0.5]_[-.07,.07]:1_[i]_[0,2]:[-1,0]";
+    private static final String kV2NoRewards = "2 : e : 1_[i]_[0,4] : 1_[i]_[0,1]";
+    private static final String kVersionOnly = "VERSION RL-Glue-4.2 something we can't read";
+    private static final String kBrokenRLGlue3 = "VERSION RL-Glue-3.0 PROBLEMTYPE episodic";
+
+    @Test
+    public void sniffsEachFormat() {
+        assertEquals(TaskSpec.kRLGlue3Format | TaskSpec.kVersionOnlyFormat, TaskSpec.sniffFormats(kRLGlue3));
+        assertEquals(TaskSpec.kV3Format, TaskSpec.sniffFormats(kV3));
+        assertEquals(TaskSpec.kV2Format, TaskSpec.sniffFormats(kV2));
+        assertEquals(TaskSpec.kV2Format, TaskSpec.sniffFormats(kV2NoRewards));
+        assertEquals(TaskSpec.kVersionOnlyFormat, TaskSpec.sniffFormats(kVersionOnly));
+        assertEquals(0, TaskSpec.sniffFormats(""));
+        assertEquals(0, TaskSpec.sniffFormats("VERSION"));
+        assertEquals(0, TaskSpec.sniffFormats("VERSIONRL-Glue-3.0 PROBLEMTYPE"));
+        //Sections that are only spaces don't count for V2
+        assertEquals(0, TaskSpec.sniffFormats("2:e: :1_[i]_[0,1]"));
+    }
+
+    @Test
+    public void parsesTheSameAsTryingEveryParser() {
+        String[] specs = {kRLGlue3, kV3, kV2, kV2NoRewards, kVersionOnly, kBrokenRLGlue3};
+        for (String spec : specs) {
+            TaskSpec expected = new TaskSpec(tryEveryParser(spec));
+            TaskSpec actual = new TaskSpec(spec);
+            assertEquals(spec, expected.getVersionString(), actual.getVersionString());
+            assertEquals(spec, expected.getStringRepresentation(), actual.getStringRepresentation());
+        }
+    }
+
+    /**
+     * getVersion is deprecated, but it reads the version TaskSpec worked out
+     * while picking a parser, which getVersionString (from the parser) doesn't.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void remembersWhichParserWorked() {
+        assertEquals(3, new TaskSpec(kV3).getVersion());
+        assertEquals(2, new TaskSpec(kV2).getVersion());
+    }
+
+    @Test
+    public void saysWhatWentWrongWhenNothingParses() {
+        try {
+            new TaskSpec("not a task spec");
+            fail("Parsed garbage");
+        } catch (IllegalArgumentException e) {
+            String message = e.getMessage();
+            assertTrue(message, message.contains("Parsing as TaskSpecVRLGLUE3: not tried"));
+            assertTrue(message, message.contains("Parsing as V3: not tried"));
+            assertTrue(message, message.contains("Parsing as V2: not tried"));
+            assertTrue(message, message.contains("Parsing as TaskSpecVersionOnly: not tried"));
+        }
+        try {
+            new TaskSpec("1:e:1_[i]_[0,4]:1_[x]_[0,1]:[-1,0]");
+            fail("Parsed a broken V2 task spec");
+        } catch (IllegalArgumentException e) {
+            assertFalse(e.getMessage(), e.getMessage().contains("Parsing as V2: not tried"));
+        }
+    }
+
+    /**
+     * What TaskSpec(String) used to do: every parser in turn until one works.
+     */
+    private static TaskSpecDelegate tryEveryParser(String taskSpec) {
+        try {
+            return new TaskSpecVRLGLUE3(taskSpec);
+        } catch (Exception e) {
+        }
+        try {
+            return new TaskSpecVRLGLUE3(new TaskSpecV3(taskSpec));
+        } catch (Exception e) {
+        }
+        try {
+            return new TaskSpecVRLGLUE3(new TaskSpecV3(new TaskSpecV2(taskSpec)));
+        } catch (Exception e) {
+        }
+        return new TaskSpecVRLGLUE3(new TaskSpecVersionOnly(taskSpec));
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://bt-recordbook.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.rlcommunity.rlglue.codec.taskspec;
+
+import java.util.StringTokenizer;
+import org.junit.Test;
+import org.rlcommunity.rlglue.codec.taskspec.ranges.DoubleRange;
+import org.rlcommunity.rlglue.codec.taskspec.ranges.IntRange;
+import static org.junit.Assert.*;
+
+/**
+ * Checks new TaskSpecVRLGLUE3(String) against the StringTokenizer parser it
+ * replaced, which is kept here (building the same object through the public
+ * setters) as the reference.
+ *
+ * @author btanner
+ */
+public class TaskSpecVRLGLUE3ParserTest {
+
+    private static final String[] kGoodSpecs = {
+        "VERSION RL-Glue-3.0 PROBLEMTYPE episodic DISCOUNTFACTOR 1 "
+        + "OBSERVATIONS DOUBLES (-1.2 0.5) (-.07 .07) ACTIONS INTS (0 2)  REWARDS (-1 0) "
+        + "EXTRA Name=Traditional-Mountain-Car Cutoff=None Random-Starts=True",
+        "VERSION RL-Glue-3.0 PROBLEMTYPE episodic DISCOUNTFACTOR 0 OBSERVATIONS INTS (3 0 1) DOUBLES (2 -1.2 0.5) (-.07 .07) "
+        + "CHARCOUNT 1024 ACTIONS INTS (0 4) REWARDS (-5.0 5.0) EXTRA some other stuff goes here",
+        "VERSION RL-Glue-3.0 PROBLEMTYPE continuing DISCOUNTFACTOR .9 OBSERVATIONS INTS (NEGINF POSINF) (2 UNSPEC 5) "
+        + "ACTIONS DOUBLES (0 1) (3 NEGINF UNSPEC) CHARCOUNT 7 REWARDS (UNSPEC POSINF) EXTRA",
+        "VERSION RL-Glue-3.0 PROBLEMTYPE custom-thing DISCOUNTFACTOR 1.0 OBSERVATIONS ACTIONS INTS (0 1) REWARDS EXTRA   spaced    out  ",
+        "VERSION RL-Glue-3.0 PROBLEMTYPE episodic DISCOUNTFACTOR 1 OBSERVATIONS CHARCOUNT 5 ACTIONS CHARCOUNT 3 REWARDS (0 1) EXTRA x",
+        "VERSION RL-Glue-3.0 PROBLEMTYPE episodic DISCOUNTFACTOR 1 OBSERVATIONS INTS ( 0 1 ) (1 2 3 4) ACTIONS INTS (0 1) REWARDS (0 1) EXTRA",
+        "  VERSION  RL-Glue-3.0 PROBLEMTYPE episodic DISCOUNTFACTOR 1e-3 OBSERVATIONS DOUBLES (4 -1e10 1e10) ACTIONS INTS (-3 -1) REWARDS (-1.5e2 0) EXTRA a b c"
+    };
+    private static final String[] kBadSpecs = {
+        "",
+        "VERSION",
+        "VERSION RL-Glue-2.0 PROBLEMTYPE episodic",
+        "2:e:1_[i]_[0,1]:1_[i]_[0,2]:[-1,0]",
+        "VERSION RL-Glue-3.0 PROBLEMTYPE episodic DISCOUNTFACTOR one OBSERVATIONS ACTIONS REWARDS EXTRA",
+        "VERSION RL-Glue-3.0 PROBLEMTYPE episodic DISCOUNTFACTOR 1 OBSERVATIONS INTS (0 x) ACTIONS REWARDS EXTRA",
+        "VERSION RL-Glue-3.0 PROBLEMTYPE episodic DISCOUNTFACTOR 1 OBSERVATIONS INTS (0 1 ACTIONS REWARDS EXTRA",
+        "VERSION RL-Glue-3.0 PROBLEMTYPE episodic DISCOUNTFACTOR 1 OBSERVATIONS INTS (0 1) ACTIONS INTS (0 1) REWARDS (0 1)"
+    };
+
+    @Test
+    public void sameObjectAsTheOldParser() {
+        for (String spec : kGoodSpecs) {
+            TaskSpecVRLGLUE3 expected = legacyParse(spec);
+            TaskSpecVRLGLUE3 actual = new TaskSpecVRLGLUE3(spec);
+            assertEquals(spec, describe(expected), describe(actual));
+        }
+    }
+
+    @Test
+    public void roundTripsItsOwnOutput() {
+        for (String spec : kGoodSpecs) {
+            String once = new TaskSpecVRLGLUE3(spec).toTaskSpec();
+            assertEquals(describe(legacyParse(once)), describe(new TaskSpecVRLGLUE3(once)));
+            assertEquals(once, new TaskSpecVRLGLUE3(once).toTaskSpec());
+        }
+    }
+
+    @Test
+    public void rejectsWhatTheOldParserRejected() {
+        for (String spec : kBadSpecs) {
+            assertTrue("Old parser took: " + spec, fails(spec, true));
+            assertTrue("New parser took: " + spec, fails(spec, false));
+        }
+    }
+
+    private static boolean fails(String spec, boolean legacy) {
+        try {
+            if (legacy) {
+                legacyParse(spec);
+            } else {
+                new TaskSpecVRLGLUE3(spec);
+            }
+            return false;
+        } catch (Exception e) {
+            return true;
+        } catch (AssertionError e) {
+            //Missing labels are asserted, like they always were
+            return true;
+        }
+    }
+
+    private static String describe(TaskSpecVRLGLUE3 spec) {
+        return spec.getVersionString() + "|" + spec.getProblemType() + "|" + spec.getDiscountFactor()
+                + "|" + spec.getNumDiscreteObsDims() + "|" + spec.getNumContinuousObsDims()
+                + "|" + spec.getNumDiscreteActionDims() + "|" + spec.getNumContinuousActionDims()
+                + "|" + spec.getExtraString() + "|" + spec.toTaskSpec();
+    }
+
+    /**
+     * What TaskSpecVRLGLUE3(String) used to do.
+     */
+    private static TaskSpecVRLGLUE3 legacyParse(String taskSpecString) {
+        TaskSpecVRLGLUE3 spec = new TaskSpecVRLGLUE3();
+        StringTokenizer T = new StringTokenizer(taskSpecString);
+
+        if (!T.nextToken().equals("VERSION")) {
+            throw new IllegalArgumentException("Expected VERSION token.");
+        }
+        if (!T.nextToken().equals("RL-Glue-3.0")) {
+            throw new IllegalArgumentException("Not RL-Glue-3.0");
+        }
+        checkLabel("PROBLEMTYPE", T.nextToken());
+        spec.setProblemTypeCustom(T.nextToken());
+        checkLabel("DISCOUNTFACTOR", T.nextToken());
+        spec.setDiscountFactor(Double.parseDouble(T.nextToken()));
+
+        checkLabel("OBSERVATIONS", T.nextToken());
+        String nextToken = T.nextToken();
+        if (nextToken.equals("INTS")) {
+            nextToken = T.nextToken();
+            while (nextToken.startsWith("(")) {
+                spec.addDiscreteObservation(new IntRange(nextToken.substring(1) + " " + T.nextToken(")")));
+                T.nextToken(" ");
+                nextToken = T.nextToken();
+            }
+        }
+        if (nextToken.equals("DOUBLES")) {
+            nextToken = T.nextToken();
+            while (nextToken.startsWith("(")) {
+                spec.addContinuousObservation(new DoubleRange(nextToken.substring(1) + " " + T.nextToken(")")));
+                T.nextToken(" ");
+                nextToken = T.nextToken();
+            }
+        }
+        if (nextToken.equals("CHARCOUNT")) {
+            spec.setObservationCharLimit(Integer.parseInt(T.nextToken()));
+            nextToken = T.nextToken();
+        }
+
+        checkLabel("ACTIONS", nextToken);
+        nextToken = T.nextToken();
+        if (nextToken.equals("INTS")) {
+            nextToken = T.nextToken();
+            while (nextToken.startsWith("(")) {
+                spec.addDiscreteAction(new IntRange(nextToken.substring(1) + " " + T.nextToken(")")));
+                T.nextToken(" ");
+                nextToken = T.nextToken();
+            }
+        }
+        if (nextToken.equals("DOUBLES")) {
+            nextToken = T.nextToken();
+            while (nextToken.startsWith("(")) {
+                spec.addContinuousAction(new DoubleRange(nextToken.substring(1) + " " + T.nextToken(")")));
+                T.nextToken(" ");
+                nextToken = T.nextToken();
+            }
+        }
+        if (nextToken.equals("CHARCOUNT")) {
+            spec.setActionCharLimit(Integer.parseInt(T.nextToken()));
+            nextToken = T.nextToken();
+        }
+
+        checkLabel("REWARDS", nextToken);
+        nextToken = T.nextToken();
+        if (nextToken.startsWith("(")) {
+            spec.setRewardRange(new DoubleRange(nextToken.substring(1) + " " + T.nextToken(")")));
+            T.nextToken(" ");
+            nextToken = T.nextToken();
+        }
+
+        checkLabel("EXTRA", nextToken);
+        StringBuilder theRest = new StringBuilder();
+        while (T.hasMoreTokens()) {
+            theRest.append(T.nextToken());
+            if (T.hasMoreTokens()) {
+                theRest.append(" ");
+            }
+        }
+        spec.setExtra(theRest.toString());
+        return spec;
+    }
+
+    private static void checkLabel(String expectedLabel, String actualLabel) {
+        assert actualLabel.equals(expectedLabel) : "Expected " + expectedLabel + " token instead got: " + actualLabel;
+    }
+}
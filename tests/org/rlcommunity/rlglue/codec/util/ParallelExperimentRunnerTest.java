@@ -0,0 +1,108 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://bt-recordbook.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.rlcommunity.rlglue.codec.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import org.junit.Test;
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.LocalGlue;
+import org.rlcommunity.rlglue.codec.tests.Test_1_Agent;
+import org.rlcommunity.rlglue.codec.tests.Test_1_Environment;
+import static org.junit.Assert.*;
+
+/**
+ * Every episode run by ParallelExperimentRunner should look like the same
+ * episode run on its own in a LocalGlue.
+ *
+ * @author btanner
+ */
+public class ParallelExperimentRunnerTest {
+
+    private static final Callable<EnvironmentInterface> kEnvironmentFactory = new Callable<EnvironmentInterface>() {
+
+        public EnvironmentInterface call() {
+            return new Test_1_Environment();
+        }
+    };
+    private static final Callable<AgentInterface> kAgentFactory = new Callable<AgentInterface>() {
+
+        public AgentInterface call() {
+            return new Test_1_Agent();
+        }
+    };
+
+    private void checkExecutor(String executorName) throws Exception {
+        LocalGlue glue = new LocalGlue(new Test_1_Environment(), new Test_1_Agent());
+        glue.RL_init();
+        int expectedTerminal = glue.RL_episode(0);
+
+        ParallelExperimentRunner runner = new ParallelExperimentRunner(kEnvironmentFactory, kAgentFactory, executorName, 4);
+        ParallelExperimentRunner.Results results = runner.run(50, 0);
+        runner.shutdown();
+
+        assertEquals(50, results.getNumEpisodes());
+        for (int i = 0; i < results.getNumEpisodes(); i++) {
+            assertEquals(glue.RL_return(), results.getReturn(i), 0.0d);
+            assertEquals(glue.RL_num_steps(), results.getNumSteps(i));
+            assertEquals(expectedTerminal, results.getTerminal(i));
+        }
+        assertEquals(50L * glue.RL_num_steps(), results.getTotalSteps());
+    }
+
+    @Test
+    public void testFixed() throws Exception {
+        checkExecutor(ParallelExperimentRunner.kFixed);
+    }
+
+    @Test
+    public void testForkJoin() throws Exception {
+        checkExecutor(ParallelExperimentRunner.kForkJoin);
+    }
+
+    @Test
+    public void testCutOff() throws Exception {
+        ParallelExperimentRunner runner = new ParallelExperimentRunner(kEnvironmentFactory, kAgentFactory, ParallelExperimentRunner.kFixed, 2);
+        ParallelExperimentRunner.Results results = runner.run(3, 2);
+        runner.shutdown();
+        assertEquals(0, results.getTerminal(2));
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testFactoryThrows() throws Exception {
+        Callable<EnvironmentInterface> brokenFactory = new Callable<EnvironmentInterface>() {
+
+            public EnvironmentInterface call() throws Exception {
+                throw new Exception("no environment for you");
+            }
+        };
+        ParallelExperimentRunner runner = new ParallelExperimentRunner(brokenFactory, kAgentFactory, ParallelExperimentRunner.kFixed, 2);
+        try {
+            runner.run(3, 0);
+        } finally {
+            runner.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownExecutor() {
+        ParallelExperimentRunner.newExecutor("threadsplease", 2);
+    }
+}